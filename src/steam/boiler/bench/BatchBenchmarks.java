@@ -0,0 +1,162 @@
+package steam.boiler.bench;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import steam.boiler.bench.ControllerBenchmarks.Scenario;
+import steam.boiler.core.BatchController;
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.core.RingMailbox;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * Benchmarks the control decisions for many boilers at once. This compares one
+ * <code>MySteamBoilerController</code> per boiler (i.e. N scalar instances, each clocked with its
+ * own mailbox of readings) against a single <code>BatchController</code> holding every boiler's
+ * state in columns, computed one boiler at a time and, if the <code>jdk.incubator.vector</code>
+ * module is present, with SIMD lanes. Every boiler is held in <code>NORMAL</code> mode with the
+ * same readings as the <code>NORMAL</code> scenario of <code>ControllerBenchmarks</code>, which is
+ * checked before measuring. Scores are given in boilers per second, so they can be compared
+ * directly.
+ */
+public final class BatchBenchmarks {
+  /**
+   * The batch sizes for which decisions are benchmarked.
+   */
+  public static final int[] BOILER_COUNTS = { 16, 1024, 16384 };
+
+  /**
+   * Accumulates every decision made, so that the work done cannot be eliminated as dead code.
+   */
+  static long sink;
+
+  /**
+   * Private constructor as this class provides only static methods.
+   */
+  private BatchBenchmarks() {
+  }
+
+  /**
+   * Run the batch benchmarks for every batch size.
+   *
+   * @param runner The runner to use.
+   * @return The results, two or three per batch size.
+   */
+  public static List<BenchmarkResult> runAll(BenchmarkRunner runner) {
+    List<BenchmarkResult> results = new ArrayList<>();
+    for (int boilers : BOILER_COUNTS) {
+      results.add(runScalar(runner, boilers));
+      results.add(runBatch(runner, boilers, false));
+      if (BatchController.supportsVectors()) {
+        results.add(runBatch(runner, boilers, true));
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Benchmark one <code>MySteamBoilerController</code> per boiler.
+   *
+   * @param runner  The runner to use.
+   * @param boilers The number of boilers.
+   * @return The result.
+   */
+  public static BenchmarkResult runScalar(BenchmarkRunner runner, final int boilers) {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    final MySteamBoilerController[] controllers = new MySteamBoilerController[boilers];
+    final RingMailbox output = new RingMailbox(16 + (8 * config.getNumberOfPumps()));
+    final Mailbox input = ControllerBenchmarks.readings(config, Scenario.NORMAL, null);
+    for (int b = 0; b != boilers; ++b) {
+      MySteamBoilerController c = new MySteamBoilerController(config);
+      output.clear();
+      c.clock(ControllerBenchmarks.readings(config, Scenario.NORMAL,
+          MessageKind.STEAM_BOILER_WAITING), output);
+      output.clear();
+      c.clock(ControllerBenchmarks.readings(config, Scenario.NORMAL,
+          MessageKind.PHYSICAL_UNITS_READY), output);
+      output.clear();
+      c.clock(input, output);
+      ControllerBenchmarks.check(c, config.getNumberOfPumps(), Scenario.NORMAL);
+      controllers[b] = c;
+    }
+    return runner.run("batch.scalar", params(boilers), boilers, //$NON-NLS-1$
+        "boilers/s", () -> { //$NON-NLS-1$
+          long total = 0;
+          for (int b = 0; b != boilers; ++b) {
+            output.clear();
+            controllers[b].clock(input, output);
+            total += output.size();
+          }
+          sink += total;
+        });
+  }
+
+  /**
+   * Benchmark a single <code>BatchController</code> for every boiler.
+   *
+   * @param runner     The runner to use.
+   * @param boilers    The number of boilers.
+   * @param vectorised True if the batch should use SIMD lanes.
+   * @return The result.
+   */
+  public static BenchmarkResult runBatch(BenchmarkRunner runner, final int boilers,
+      boolean vectorised) {
+    List<SteamBoilerCharacteristics> configs = configurations(boilers);
+    final BatchController batch = new BatchController(configs, vectorised);
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    final double level = (config.getMinimalNormalLevel() + config.getMaximalNormalLevel()) / 2;
+    for (int b = 0; b != boilers; ++b) {
+      batch.setReadings(b, level, 0.0);
+    }
+    batch.clock();
+    for (int b = 0; b != boilers; ++b) {
+      if (batch.isStopped(b)) {
+        throw new IllegalStateException("boiler " + b + " stopped"); //$NON-NLS-1$ //$NON-NLS-2$
+      }
+    }
+    String name = vectorised ? "batch.vector" : "batch.columns"; //$NON-NLS-1$ //$NON-NLS-2$
+    return runner.run(name, params(boilers), boilers, "boilers/s", () -> { //$NON-NLS-1$
+          for (int b = 0; b != boilers; ++b) {
+            batch.setReadings(b, level, 0.0);
+          }
+          batch.clock();
+          long total = 0;
+          for (int b = 0; b != boilers; ++b) {
+            total += (long) batch.getInflow(b) + (long) batch.getMinimum(b)
+                + (long) batch.getMaximum(b);
+          }
+          sink += total;
+        });
+  }
+
+  /**
+   * Construct the configurations for a batch of boilers. These are the default characteristics
+   * with the standard four pumps.
+   *
+   * @param boilers The number of boilers.
+   * @return The configuration of each boiler.
+   */
+  private static List<SteamBoilerCharacteristics> configurations(int boilers) {
+    List<SteamBoilerCharacteristics> configs = new ArrayList<>();
+    for (int b = 0; b != boilers; ++b) {
+      configs.add(SteamBoilerCharacteristics.DEFAULT);
+    }
+    return configs;
+  }
+
+  /**
+   * Construct the parameters for reporting a given batch size.
+   *
+   * @param boilers The number of boilers.
+   * @return The parameters.
+   */
+  private static Map<String, String> params(int boilers) {
+    Map<String, String> params = new LinkedHashMap<>();
+    params.put("boilers", Integer.toString(boilers)); //$NON-NLS-1$
+    return params;
+  }
+}
@@ -0,0 +1,228 @@
+package steam.boiler.bench;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Records the outcome of running a single benchmark with a given set of parameters. The layout
+ * mirrors that used by JMH for its JSON output (i.e. a primary metric plus a set of secondary
+ * metrics) so that results can be tracked by the same tooling.
+ */
+public final class BenchmarkResult {
+  /**
+   * Name of the benchmark (e.g. <code>controller.clock</code>).
+   */
+  private final String benchmark;
+
+  /**
+   * Parameters with which the benchmark was run, in insertion order.
+   */
+  private final Map<String, String> params;
+
+  /**
+   * Score of each measurement iteration, in the primary unit.
+   */
+  private final double[] rawData;
+
+  /**
+   * Unit of the primary score (e.g. <code>ops/s</code>).
+   */
+  private final String scoreUnit;
+
+  /**
+   * Secondary metrics (e.g. allocation rate), each with their unit.
+   */
+  private final Map<String, Metric> secondary = new LinkedHashMap<>();
+
+  /**
+   * Construct a result.
+   *
+   * @param benchmark Name of the benchmark.
+   * @param params    Parameters of the benchmark.
+   * @param rawData   Score of each measurement iteration.
+   * @param scoreUnit Unit of the scores.
+   */
+  public BenchmarkResult(String benchmark, Map<String, String> params, double[] rawData,
+      String scoreUnit) {
+    this.benchmark = benchmark;
+    this.params = new LinkedHashMap<>(params);
+    this.rawData = rawData.clone();
+    this.scoreUnit = scoreUnit;
+  }
+
+  /**
+   * Add a secondary metric to this result.
+   *
+   * @param name  Name of the metric.
+   * @param score Value of the metric.
+   * @param unit  Unit of the metric.
+   * @return This result, to allow chaining.
+   */
+  public BenchmarkResult addSecondary(String name, double score, String unit) {
+    this.secondary.put(name, new Metric(score, unit));
+    return this;
+  }
+
+  /**
+   * Get the name of the benchmark.
+   *
+   * @return The benchmark name.
+   */
+  public String getBenchmark() {
+    return this.benchmark;
+  }
+
+  /**
+   * Get the primary score, which is the mean over all measurement iterations.
+   *
+   * @return The mean score.
+   */
+  public double getScore() {
+    double total = 0;
+    for (int i = 0; i != this.rawData.length; ++i) {
+      total += this.rawData[i];
+    }
+    return this.rawData.length == 0 ? 0 : total / this.rawData.length;
+  }
+
+  /**
+   * Get the error of the primary score, which is the sample standard deviation over all
+   * measurement iterations.
+   *
+   * @return The score error.
+   */
+  public double getScoreError() {
+    if (this.rawData.length < 2) {
+      return 0;
+    }
+    double mean = getScore();
+    double sum = 0;
+    for (int i = 0; i != this.rawData.length; ++i) {
+      double d = this.rawData[i] - mean;
+      sum += d * d;
+    }
+    return Math.sqrt(sum / (this.rawData.length - 1));
+  }
+
+  /**
+   * Get the unit of the primary score.
+   *
+   * @return The score unit.
+   */
+  public String getScoreUnit() {
+    return this.scoreUnit;
+  }
+
+  /**
+   * Write this result as a JSON object.
+   *
+   * @param out The buffer to write into.
+   */
+  public void toJson(StringBuilder out) {
+    out.append("{\"benchmark\":").append(quote(this.benchmark)); //$NON-NLS-1$
+    out.append(",\"mode\":\"thrpt\",\"params\":{"); //$NON-NLS-1$
+    boolean first = true;
+    for (Map.Entry<String, String> e : this.params.entrySet()) {
+      if (!first) {
+        out.append(',');
+      }
+      first = false;
+      out.append(quote(e.getKey())).append(':').append(quote(e.getValue()));
+    }
+    out.append("},\"primaryMetric\":{\"score\":").append(number(getScore())); //$NON-NLS-1$
+    out.append(",\"scoreError\":").append(number(getScoreError())); //$NON-NLS-1$
+    out.append(",\"scoreUnit\":").append(quote(this.scoreUnit)); //$NON-NLS-1$
+    out.append(",\"rawData\":["); //$NON-NLS-1$
+    for (int i = 0; i != this.rawData.length; ++i) {
+      if (i != 0) {
+        out.append(',');
+      }
+      out.append(number(this.rawData[i]));
+    }
+    out.append("]},\"secondaryMetrics\":{"); //$NON-NLS-1$
+    first = true;
+    for (Map.Entry<String, Metric> e : this.secondary.entrySet()) {
+      if (!first) {
+        out.append(',');
+      }
+      first = false;
+      Metric m = e.getValue();
+      out.append(quote(e.getKey())).append(":{\"score\":").append(number(m.score)); //$NON-NLS-1$
+      out.append(",\"scoreUnit\":").append(quote(m.unit)).append('}'); //$NON-NLS-1$
+    }
+    out.append("}}"); //$NON-NLS-1$
+  }
+
+  @Override
+  public String toString() {
+    String r = String.format("%-28s %-36s %14.3f +- %-10.3f %s", //$NON-NLS-1$
+        this.benchmark, this.params, Double.valueOf(getScore()), Double.valueOf(getScoreError()),
+        this.scoreUnit);
+    assert r != null;
+    return r;
+  }
+
+  /**
+   * Quote a string for inclusion in JSON.
+   *
+   * @param s The string to quote.
+   * @return The quoted string.
+   */
+  static String quote(String s) {
+    StringBuilder r = new StringBuilder(s.length() + 2);
+    r.append('"');
+    for (int i = 0; i != s.length(); ++i) {
+      char c = s.charAt(i);
+      if (c == '"' || c == '\\') {
+        r.append('\\').append(c);
+      } else if (c < 0x20) {
+        r.append(String.format("\\u%04x", Integer.valueOf(c))); //$NON-NLS-1$
+      } else {
+        r.append(c);
+      }
+    }
+    r.append('"');
+    String q = r.toString();
+    assert q != null;
+    return q;
+  }
+
+  /**
+   * Format a number for inclusion in JSON. Since JSON has no representation for them, non-finite
+   * values are written as <code>null</code>.
+   *
+   * @param v The number to format.
+   * @return The formatted number.
+   */
+  static String number(double v) {
+    String r = Double.isFinite(v) ? Double.toString(v) : "null"; //$NON-NLS-1$
+    assert r != null;
+    return r;
+  }
+
+  /**
+   * A secondary metric, such as the normalised allocation rate.
+   */
+  private static final class Metric {
+    /**
+     * Value of the metric.
+     */
+    final double score;
+
+    /**
+     * Unit of the metric.
+     */
+    final String unit;
+
+    /**
+     * Construct a metric.
+     *
+     * @param score Value of the metric.
+     * @param unit  Unit of the metric.
+     */
+    Metric(double score, String unit) {
+      this.score = score;
+      this.unit = unit;
+    }
+  }
+}
@@ -0,0 +1,169 @@
+package steam.boiler.bench;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs a benchmark operation for a number of timed warmup and measurement iterations, in the same
+ * fashion as JMH's throughput mode. Alongside the throughput, this records the same figures as
+ * JMH's GC profiler: the number of bytes allocated per operation (measured using the per-thread
+ * allocation counter) and the number and duration of garbage collections during measurement.
+ */
+public final class BenchmarkRunner {
+  /**
+   * A single benchmark operation. This will be invoked many times in succession on the same
+   * thread.
+   */
+  public interface Operation {
+    /**
+     * Perform the operation once.
+     */
+    public void run();
+  }
+
+  /**
+   * Target duration of a batch of operations between two reads of the clock, in nanoseconds. This
+   * keeps the overhead of reading the clock negligible for very short operations.
+   */
+  private static final long BATCH_NANOS = 1000000;
+
+  /**
+   * Number of warmup iterations, whose results are discarded.
+   */
+  private final int warmupIterations;
+
+  /**
+   * Number of measurement iterations.
+   */
+  private final int measurementIterations;
+
+  /**
+   * Duration of each iteration, in nanoseconds.
+   */
+  private final long iterationNanos;
+
+  /**
+   * Construct a runner.
+   *
+   * @param warmupIterations      Number of warmup iterations.
+   * @param measurementIterations Number of measurement iterations.
+   * @param iterationMillis       Duration of each iteration, in milliseconds.
+   */
+  public BenchmarkRunner(int warmupIterations, int measurementIterations, long iterationMillis) {
+    this.warmupIterations = warmupIterations;
+    this.measurementIterations = measurementIterations;
+    this.iterationNanos = iterationMillis * 1000000;
+  }
+
+  /**
+   * Run a benchmark operation and record the result.
+   *
+   * @param name       Name of the benchmark.
+   * @param params     Parameters of the benchmark, used only for reporting.
+   * @param unitsPerOp Amount of work done by each operation, in the score unit (e.g. 1 for
+   *                   operations per second).
+   * @param scoreUnit  Unit of the score (e.g. <code>ops/s</code>).
+   * @param op         The operation to benchmark.
+   * @return The recorded result.
+   */
+  public BenchmarkResult run(String name, Map<String, String> params, double unitsPerOp,
+      String scoreUnit, Operation op) {
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+        .getThreadMXBean();
+    long thread = Thread.currentThread().getId();
+    // Calibrate batch size so that reading the clock does not dominate
+    int batch = 1;
+    while (batch < (1 << 24)) {
+      long start = System.nanoTime();
+      for (int i = 0; i != batch; ++i) {
+        op.run();
+      }
+      if ((System.nanoTime() - start) >= BATCH_NANOS) {
+        break;
+      }
+      batch <<= 1;
+    }
+    // Warmup
+    for (int i = 0; i != this.warmupIterations; ++i) {
+      iteration(op, batch);
+    }
+    // Measure
+    double[] scores = new double[this.measurementIterations];
+    long totalOps = 0;
+    long totalNanos = 0;
+    long gcCount = -gcCount();
+    long gcTime = -gcTime();
+    long allocated = -threads.getThreadAllocatedBytes(thread);
+    for (int i = 0; i != this.measurementIterations; ++i) {
+      long start = System.nanoTime();
+      long ops = iteration(op, batch);
+      long elapsed = System.nanoTime() - start;
+      totalOps += ops;
+      totalNanos += elapsed;
+      scores[i] = (ops * unitsPerOp * 1e9) / elapsed;
+    }
+    allocated += threads.getThreadAllocatedBytes(thread);
+    gcCount += gcCount();
+    gcTime += gcTime();
+    //
+    BenchmarkResult result = new BenchmarkResult(name, params, scores, scoreUnit);
+    result.addSecondary("gc.alloc.rate", (allocated * 1e3) / Math.max(1, totalNanos), //$NON-NLS-1$
+        "MB/sec"); //$NON-NLS-1$
+    result.addSecondary("gc.alloc.rate.norm", //$NON-NLS-1$
+        (double) allocated / Math.max(1, totalOps), "B/op"); //$NON-NLS-1$
+    result.addSecondary("gc.count", gcCount, "counts"); //$NON-NLS-1$ //$NON-NLS-2$
+    result.addSecondary("gc.time", gcTime, "ms"); //$NON-NLS-1$ //$NON-NLS-2$
+    result.addSecondary("time.per.op", (double) totalNanos / Math.max(1, totalOps), //$NON-NLS-1$
+        "ns/op"); //$NON-NLS-1$
+    return result;
+  }
+
+  /**
+   * Run a single timed iteration, consisting of as many batches as fit in the iteration time.
+   *
+   * @param op    The operation to run.
+   * @param batch The number of operations to run between reads of the clock.
+   * @return The number of operations performed.
+   */
+  private long iteration(Operation op, int batch) {
+    long ops = 0;
+    long start = System.nanoTime();
+    do {
+      for (int i = 0; i != batch; ++i) {
+        op.run();
+      }
+      ops += batch;
+    } while ((System.nanoTime() - start) < this.iterationNanos);
+    return ops;
+  }
+
+  /**
+   * Determine the total number of collections performed by all garbage collectors.
+   *
+   * @return The total collection count.
+   */
+  private static long gcCount() {
+    long total = 0;
+    List<GarbageCollectorMXBean> beans = ManagementFactory.getGarbageCollectorMXBeans();
+    for (GarbageCollectorMXBean bean : beans) {
+      total += Math.max(0, bean.getCollectionCount());
+    }
+    return total;
+  }
+
+  /**
+   * Determine the total time spent in all garbage collectors.
+   *
+   * @return The total collection time, in milliseconds.
+   */
+  private static long gcTime() {
+    long total = 0;
+    List<GarbageCollectorMXBean> beans = ManagementFactory.getGarbageCollectorMXBeans();
+    for (GarbageCollectorMXBean bean : beans) {
+      total += Math.max(0, bean.getCollectionTime());
+    }
+    return total;
+  }
+}
@@ -0,0 +1,147 @@
+package steam.boiler.bench;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Provides a simple way to run the full benchmark suite from the command line. Results are
+ * printed as they are produced, and written as a JSON array (in the same layout as JMH's
+ * <code>-rf json</code> output) so they can be compared release over release. The results of a
+ * full run with the default options are kept under version control in
+ * <code>benchmark-results.json</code>, as the baseline for the next change to compare against, and
+ * should be regenerated (on the same machine) whenever a change is meant to move them.
+ *
+ * <p>
+ * The following options are recognised:
+ * </p>
+ * <ul>
+ * <li><code>-wi N</code> number of warmup iterations (default 3).</li>
+ * <li><code>-i N</code> number of measurement iterations (default 5).</li>
+ * <li><code>-r N</code> duration of each iteration in milliseconds (default 1000).</li>
+ * <li><code>-o FILE</code> file to write the JSON results into (default
+ * <code>benchmark-results.json</code>).</li>
+ * <li><code>-f NAME</code> run only those benchmarks whose name starts with <code>NAME</code>
+ * (e.g. <code>controller</code>).</li>
+ * </ul>
+ */
+public class Benchmarks {
+  /**
+   * Run the benchmark suite.
+   *
+   * @param args Command-line options, as described above.
+   * @throws IOException If the results file could not be written.
+   */
+  public static void main(String[] args) throws IOException {
+    int warmup = 3;
+    int iterations = 5;
+    long millis = 1000;
+    String output = "benchmark-results.json"; //$NON-NLS-1$
+    String filter = ""; //$NON-NLS-1$
+    for (int i = 0; i < args.length; i += 2) {
+      if (i + 1 == args.length) {
+        throw new IllegalArgumentException("missing value for " + args[i]); //$NON-NLS-1$
+      }
+      String value = args[i + 1];
+      assert value != null;
+      switch (args[i]) {
+        case "-wi": //$NON-NLS-1$
+          warmup = Integer.parseInt(value);
+          break;
+        case "-i": //$NON-NLS-1$
+          iterations = Integer.parseInt(value);
+          break;
+        case "-r": //$NON-NLS-1$
+          millis = Long.parseLong(value);
+          break;
+        case "-o": //$NON-NLS-1$
+          output = value;
+          break;
+        case "-f": //$NON-NLS-1$
+          filter = value;
+          break;
+        default:
+          throw new IllegalArgumentException("unknown option " + args[i]); //$NON-NLS-1$
+      }
+    }
+    BenchmarkRunner runner = new BenchmarkRunner(warmup, iterations, millis);
+    List<BenchmarkResult> results = new ArrayList<>();
+    if (selected("controller", filter)) { //$NON-NLS-1$
+      report(ControllerBenchmarks.runAll(runner), results);
+    }
+    if (selected("harness", filter)) { //$NON-NLS-1$
+      report(HarnessBenchmarks.runAll(runner), results);
+    }
+    if (selected("mailbox", filter)) { //$NON-NLS-1$
+      report(MailboxBenchmarks.runAll(runner), results);
+    }
+    if (selected("batch", filter)) { //$NON-NLS-1$
+      report(BatchBenchmarks.runAll(runner), results);
+    }
+    if (selected("predictive", filter)) { //$NON-NLS-1$
+      report(PredictiveBenchmarks.runAll(runner), results);
+    }
+    if (selected("recorder", filter)) { //$NON-NLS-1$
+      report(RecorderBenchmarks.runAll(runner), results);
+    }
+    if (selected("trace", filter)) { //$NON-NLS-1$
+      report(TraceBenchmarks.runAll(runner), results);
+    }
+    if (selected("campaign", filter)) { //$NON-NLS-1$
+      report(CampaignBenchmarks.runAll(runner), results);
+    }
+    write(results, output);
+  }
+
+  /**
+   * Determine whether a group of benchmarks is selected by the given filter. A filter selects a
+   * group if either is a prefix of the other, so <code>controller</code> and
+   * <code>controller.clock</code> both select the controller benchmarks.
+   *
+   * @param group  Name of the group (e.g. <code>controller</code>).
+   * @param filter The filter given on the command line.
+   * @return True if the group should be run.
+   */
+  private static boolean selected(String group, String filter) {
+    return group.startsWith(filter) || filter.startsWith(group);
+  }
+
+  /**
+   * Print a batch of results and add them to the overall list.
+   *
+   * @param batch   The results just produced.
+   * @param results The overall list of results.
+   */
+  private static void report(List<BenchmarkResult> batch, List<BenchmarkResult> results) {
+    for (BenchmarkResult r : batch) {
+      System.out.println(r);
+    }
+    results.addAll(batch);
+  }
+
+  /**
+   * Write a list of results as a JSON array.
+   *
+   * @param results The results to write.
+   * @param file    The file to write them into.
+   * @throws IOException If the file could not be written.
+   */
+  private static void write(List<BenchmarkResult> results, String file) throws IOException {
+    StringBuilder json = new StringBuilder();
+    json.append("[\n"); //$NON-NLS-1$
+    for (int i = 0; i != results.size(); ++i) {
+      if (i != 0) {
+        json.append(",\n"); //$NON-NLS-1$
+      }
+      results.get(i).toJson(json);
+    }
+    json.append("\n]\n"); //$NON-NLS-1$
+    try (Writer w = Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8)) {
+      w.write(json.toString());
+    }
+  }
+}
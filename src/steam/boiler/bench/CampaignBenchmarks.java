@@ -0,0 +1,75 @@
+package steam.boiler.bench;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import steam.boiler.core.BatchSimulation;
+import steam.boiler.core.FaultCampaign;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * Benchmarks the throughput of a <code>FaultCampaign</code>, measured in fault schedules run per
+ * second, both on a single thread and across every available core. Each operation runs a batch of
+ * schedules drawn from the same seed, so every operation does the same work.
+ */
+public final class CampaignBenchmarks {
+  /**
+   * The number of schedules run by each operation.
+   */
+  public static final int SCHEDULES = 256;
+
+  /**
+   * The amount of time (in simulated ms) covered by each schedule.
+   */
+  public static final long DURATION = 600000;
+
+  /**
+   * The largest number of faults in each schedule.
+   */
+  public static final int EVENTS = 4;
+
+  /**
+   * Private constructor as this class provides only static methods.
+   */
+  private CampaignBenchmarks() {
+  }
+
+  /**
+   * Run the campaign benchmark on one thread, and on one thread per available core.
+   *
+   * @param runner The runner to use.
+   * @return The results, one per thread count.
+   */
+  public static List<BenchmarkResult> runAll(BenchmarkRunner runner) {
+    List<BenchmarkResult> results = new ArrayList<>();
+    int cores = Runtime.getRuntime().availableProcessors();
+    results.add(run(runner, 1));
+    if (cores > 1) {
+      results.add(run(runner, cores));
+    }
+    return results;
+  }
+
+  /**
+   * Run the campaign benchmark for a given number of threads.
+   *
+   * @param runner  The runner to use.
+   * @param threads The number of threads.
+   * @return The result.
+   */
+  public static BenchmarkResult run(BenchmarkRunner runner, final int threads) {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    final FaultCampaign campaign = new FaultCampaign(config, DURATION, EVENTS,
+        BatchSimulation.GRANULARITY);
+    Map<String, String> params = new LinkedHashMap<>();
+    params.put("threads", Integer.toString(threads)); //$NON-NLS-1$
+    params.put("seconds", Long.toString(DURATION / 1000)); //$NON-NLS-1$
+    params.put("events", Integer.toString(EVENTS)); //$NON-NLS-1$
+    return runner.run("campaign.run", params, SCHEDULES, "schedules/s", //$NON-NLS-1$ //$NON-NLS-2$
+        () -> {
+          ControllerBenchmarks.sink += campaign.run(0, SCHEDULES, threads, 0).getViolations();
+        });
+  }
+}
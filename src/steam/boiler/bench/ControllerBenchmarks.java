@@ -0,0 +1,202 @@
+package steam.boiler.bench;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.core.MySteamBoilerController.State;
+import steam.boiler.core.RingMailbox;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * Benchmarks a single clock cycle of the controller, using synthetic mailboxes. Each benchmark
+ * first completes the initialisation handshake with the controller and then repeatedly clocks it
+ * with the same set of readings. The readings are chosen to put the controller in a particular
+ * operating mode and hold it there, which is checked both before and after measuring (so a
+ * scenario cannot silently measure some other mode).
+ */
+public final class ControllerBenchmarks {
+  /**
+   * The pump counts for which the clock cycle is benchmarked.
+   */
+  public static final int[] PUMP_COUNTS = { 1, 4, 16, 64, 1024 };
+
+  /**
+   * The number of cycles for which a scenario's readings are sent before measuring, all of which
+   * must leave the controller in the scenario's mode.
+   */
+  static final int SETTLE = 10;
+
+  /**
+   * The operating conditions under which the clock cycle is benchmarked.
+   */
+  public enum Scenario {
+    /**
+     * All readings are present and sensible.
+     */
+    NORMAL(State.NORMAL),
+    /**
+     * The steam sensor reports a nonsensical value.
+     */
+    DEGRADED(State.DEGRADED),
+    /**
+     * The level sensor reports a nonsensical value.
+     */
+    RESCUE(State.RESCUE),
+    /**
+     * Both the level and steam sensors report nonsensical values.
+     */
+    EMERGENCY_STOP(State.EMERGENCY_STOP);
+
+    /**
+     * The state the controller must be in whilst this scenario is measured.
+     */
+    final State state;
+
+    /**
+     * Construct a scenario which holds the controller in a given state.
+     *
+     * @param state The state.
+     */
+    private Scenario(State state) {
+      this.state = state;
+    }
+
+    @Override
+    public String toString() {
+      String s = super.toString();
+      assert s != null;
+      return s;
+    }
+  }
+
+  /**
+   * Accumulates the size of every output mailbox, so that the work done by the controller cannot
+   * be eliminated as dead code.
+   */
+  static long sink;
+
+  /**
+   * Private constructor as this class provides only static methods.
+   */
+  private ControllerBenchmarks() {
+  }
+
+  /**
+   * Run the clock cycle benchmark for every pump count and scenario.
+   *
+   * @param runner The runner to use.
+   * @return The results, one per pump count and scenario.
+   */
+  public static List<BenchmarkResult> runAll(BenchmarkRunner runner) {
+    List<BenchmarkResult> results = new ArrayList<>();
+    for (int pumps : PUMP_COUNTS) {
+      for (Scenario scenario : Scenario.values()) {
+        assert scenario != null;
+        results.add(run(runner, pumps, scenario));
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Run the clock cycle benchmark for a given pump count and scenario.
+   *
+   * @param runner   The runner to use.
+   * @param pumps    The number of pumps in the configuration.
+   * @param scenario The operating conditions to simulate.
+   * @return The result.
+   */
+  public static BenchmarkResult run(BenchmarkRunner runner, int pumps, Scenario scenario) {
+    SteamBoilerCharacteristics config = configuration(pumps);
+    final MySteamBoilerController controller = new MySteamBoilerController(config);
+    final RingMailbox output = new RingMailbox(16 + (8 * pumps));
+    // Complete the initialisation handshake
+    output.clear();
+    controller.clock(readings(config, Scenario.NORMAL, MessageKind.STEAM_BOILER_WAITING), output);
+    output.clear();
+    controller.clock(readings(config, Scenario.NORMAL, MessageKind.PHYSICAL_UNITS_READY), output);
+    //
+    final Mailbox input = readings(config, scenario, null);
+    for (int i = 0; i != SETTLE; ++i) {
+      output.clear();
+      controller.clock(input, output);
+      check(controller, pumps, scenario);
+    }
+    Map<String, String> params = new LinkedHashMap<>();
+    params.put("pumps", Integer.toString(pumps)); //$NON-NLS-1$
+    params.put("scenario", scenario.toString()); //$NON-NLS-1$
+    String name = "controller.clock"; //$NON-NLS-1$
+    BenchmarkResult result = runner.run(name, params, 1, "ops/s", () -> { //$NON-NLS-1$
+      output.clear();
+      controller.clock(input, output);
+      sink += output.size();
+    });
+    check(controller, pumps, scenario);
+    return result;
+  }
+
+  /**
+   * Check the controller is in the state a scenario is meant to hold it in.
+   *
+   * @param controller The controller being benchmarked.
+   * @param pumps      The number of pumps in the configuration.
+   * @param scenario   The scenario being benchmarked.
+   * @throws IllegalStateException If the controller is in some other state.
+   */
+  static void check(MySteamBoilerController controller, int pumps, Scenario scenario) {
+    if (controller.getState() != scenario.state) {
+      throw new IllegalStateException(scenario + " scenario with " + pumps //$NON-NLS-1$
+          + " pumps left controller in " + controller.getState()); //$NON-NLS-1$
+    }
+  }
+
+  /**
+   * Construct a configuration with a given number of identical pumps, which are otherwise the
+   * same as the default characteristics.
+   *
+   * @param pumps The number of pumps.
+   * @return The configuration.
+   */
+  static SteamBoilerCharacteristics configuration(int pumps) {
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    return config.setNumberOfPumps(pumps, config.getPumpCapacity(0));
+  }
+
+  /**
+   * Construct a mailbox of readings, as transmitted by the physical units each cycle.
+   *
+   * @param config   The configuration of the boiler.
+   * @param scenario The operating conditions to simulate.
+   * @param extra    An additional message kind to send (e.g. during initialisation), or
+   *                 <code>null</code>.
+   * @return The mailbox of readings.
+   */
+  static Mailbox readings(SteamBoilerCharacteristics config, Scenario scenario,
+      @Nullable MessageKind extra) {
+    int pumps = config.getNumberOfPumps();
+    RingMailbox input = new RingMailbox(3 + (2 * pumps));
+    if (extra != null) {
+      input.send(new Message(extra));
+    }
+    double midpoint = (config.getMinimalNormalLevel() + config.getMaximalNormalLevel()) / 2;
+    boolean levelFailed = scenario == Scenario.RESCUE || scenario == Scenario.EMERGENCY_STOP;
+    boolean steamFailed = scenario == Scenario.DEGRADED || scenario == Scenario.EMERGENCY_STOP;
+    input.send(new Message(MessageKind.LEVEL_v, levelFailed ? -1.0 : midpoint));
+    input.send(new Message(MessageKind.STEAM_v, steamFailed ? -1.0 : 0.0));
+    for (int i = 0; i != pumps; ++i) {
+      input.send(new Message(MessageKind.PUMP_STATE_n_b, i, false));
+    }
+    for (int i = 0; i != pumps; ++i) {
+      input.send(new Message(MessageKind.PUMP_CONTROL_STATE_n_b, i, false));
+    }
+    return input;
+  }
+}
@@ -0,0 +1,163 @@
+package steam.boiler.bench;
+
+import static steam.boiler.tests.TestUtils.MODE_degraded;
+import static steam.boiler.tests.TestUtils.MODE_emergencystop;
+import static steam.boiler.tests.TestUtils.PUMP_FAILURE_DETECTION;
+import static steam.boiler.tests.TestUtils.atleast;
+import static steam.boiler.tests.TestUtils.clockBetweenWithout;
+import static steam.boiler.tests.TestUtils.exactly;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.core.RingMailbox;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.tests.TestUtils;
+import steam.boiler.tests.TestUtils.MailboxMatcher;
+import steam.boiler.tests.TestUtils.MessageMatcher;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.Mailbox.Mode;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * Benchmarks the end-to-end throughput of the test harness, measured in simulated seconds per wall
+ * clock second. Each operation constructs a fresh controller and set of physical units, and runs
+ * them together through <code>TestUtils.clockBetweenWithout</code> exactly as the functional and
+ * safety tests do. This is measured both for the reference simulation, which clocks the physical
+ * units in the smallest steps, and for the event-driven simulation used by default. The cost of
+ * matching the messages received on each synchronisation is also measured on its own, both for the
+ * compiled mailbox matchers and for the same message matchers applied one at a time.
+ */
+public final class HarnessBenchmarks {
+  /**
+   * The pump counts for which the harness is benchmarked.
+   */
+  public static final int[] PUMP_COUNTS = { 3, 6 };
+
+  /**
+   * The step sizes (in ms) for which the harness is benchmarked.
+   */
+  public static final int[] STEPS = { TestUtils.GRANULARITY, TestUtils.SYNCHRONISATION_PERIOD };
+
+  /**
+   * The amount of time (in s) simulated by each operation.
+   */
+  public static final int SIMULATED_SECONDS = 600;
+
+  /**
+   * The pump counts for which matching is benchmarked.
+   */
+  public static final int[] MATCH_PUMP_COUNTS = { 4, 16, 48 };
+
+  /**
+   * Private constructor as this class provides only static methods.
+   */
+  private HarnessBenchmarks() {
+  }
+
+  /**
+   * Run the harness benchmark for every pump count and step size.
+   *
+   * @param runner The runner to use.
+   * @return The results, one per pump count and step size.
+   */
+  public static List<BenchmarkResult> runAll(BenchmarkRunner runner) {
+    List<BenchmarkResult> results = new ArrayList<>();
+    for (int pumps : PUMP_COUNTS) {
+      for (int step : STEPS) {
+        results.add(run(runner, pumps, step));
+      }
+    }
+    for (int pumps : MATCH_PUMP_COUNTS) {
+      results.add(runMatch(runner, pumps, true));
+      results.add(runMatch(runner, pumps, false));
+    }
+    return results;
+  }
+
+  /**
+   * Run the harness benchmark for a given pump count and step size.
+   *
+   * @param runner The runner to use.
+   * @param pumps  The number of pumps in the configuration.
+   * @param step   The largest step (in ms) by which the physical units are clocked.
+   * @return The result.
+   */
+  public static BenchmarkResult run(BenchmarkRunner runner, int pumps, int step) {
+    final SteamBoilerCharacteristics config = ControllerBenchmarks.configuration(pumps);
+    final MailboxMatcher emergencyStop = atleast(MODE_emergencystop);
+    Map<String, String> params = new LinkedHashMap<>();
+    params.put("pumps", Integer.toString(pumps)); //$NON-NLS-1$
+    params.put("seconds", Integer.toString(SIMULATED_SECONDS)); //$NON-NLS-1$
+    params.put("step", Integer.toString(step)); //$NON-NLS-1$
+    return runner.run("harness.clockBetweenWithout", params, SIMULATED_SECONDS, //$NON-NLS-1$
+        "simulated-s/s", () -> { //$NON-NLS-1$
+          MySteamBoilerController controller = new MySteamBoilerController(config);
+          PhysicalUnits model = new PhysicalUnits.Template(config).construct();
+          model.setMode(PhysicalUnits.Mode.WAITING);
+          clockBetweenWithout(0, SIMULATED_SECONDS * 1000, step, controller, model,
+              emergencyStop);
+        });
+  }
+
+  /**
+   * Run the matching benchmark for a given pump count. Each operation refills two mailboxes, as a
+   * synchronisation does, then checks that one reporting every pump as failed is matched exactly
+   * (with the messages in the reverse order to the matchers), and that one of a normal cycle holds
+   * no emergency stop.
+   *
+   * @param runner   The runner to use.
+   * @param pumps    The number of pumps reported on.
+   * @param compiled Whether to use the compiled mailbox matchers, or to apply the message matchers
+   *                 one at a time.
+   * @return The result.
+   */
+  public static BenchmarkResult runMatch(BenchmarkRunner runner, int pumps, boolean compiled) {
+    MessageMatcher[] failures = new MessageMatcher[pumps + 1];
+    for (int i = 0; i != pumps; ++i) {
+      failures[i] = PUMP_FAILURE_DETECTION(i);
+    }
+    failures[pumps] = MODE_degraded;
+    MessageMatcher[] stop = { MODE_emergencystop };
+    final MailboxMatcher exact = exactly(compiled ? failures : sequential(failures));
+    final MailboxMatcher emergencyStop = atleast(compiled ? stop : sequential(stop));
+    final RingMailbox failed = new RingMailbox(pumps + 1);
+    final RingMailbox normal = new RingMailbox(pumps + 1);
+    Map<String, String> params = new LinkedHashMap<>();
+    params.put("pumps", Integer.toString(pumps)); //$NON-NLS-1$
+    String matcher = compiled ? "compiled" : "sequential"; //$NON-NLS-1$ //$NON-NLS-2$
+    params.put("matcher", matcher); //$NON-NLS-1$
+    return runner.run("harness.match", params, 2, "matches/s", () -> { //$NON-NLS-1$ //$NON-NLS-2$
+      failed.clear();
+      normal.clear();
+      failed.send(MessageKind.MODE_m, Mode.DEGRADED);
+      normal.send(MessageKind.MODE_m, Mode.NORMAL);
+      for (int i = 0; i != pumps; ++i) {
+        failed.send(MessageKind.PUMP_FAILURE_DETECTION_n, pumps - i - 1);
+        normal.send(MessageKind.PUMP_STATE_n_b, i, true);
+      }
+      if (exact.matches(failed) && !emergencyStop.matches(normal)) {
+        ControllerBenchmarks.sink++;
+      }
+    });
+  }
+
+  /**
+   * Hide a set of message matchers behind ones which cannot be compiled, so that they are applied
+   * to a mailbox one at a time.
+   *
+   * @param matchers The matchers to hide.
+   * @return The hidden matchers.
+   */
+  private static MessageMatcher[] sequential(MessageMatcher[] matchers) {
+    MessageMatcher[] r = new MessageMatcher[matchers.length];
+    for (int j = 0; j != matchers.length; ++j) {
+      MessageMatcher m = matchers[j];
+      r[j] = mailbox -> m.match(mailbox);
+    }
+    return r;
+  }
+}
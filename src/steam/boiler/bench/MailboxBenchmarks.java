@@ -0,0 +1,159 @@
+package steam.boiler.bench;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import steam.boiler.core.RingMailbox;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.UnboundedMailbox;
+
+/**
+ * Benchmarks the cost of passing one cycle's worth of readings through a mailbox: sending every
+ * message and then reading every message back. This compares a fresh
+ * <code>UnboundedMailbox</code> per cycle (as the test harness originally used) against a reused
+ * <code>RingMailbox</code>, both with message objects and with its primitive records.
+ */
+public final class MailboxBenchmarks {
+  /**
+   * The pump counts for which mailboxes are benchmarked.
+   */
+  public static final int[] PUMP_COUNTS = { 4, 64 };
+
+  /**
+   * Accumulates a value from every message read, so that reading cannot be eliminated as dead
+   * code.
+   */
+  static long sink;
+
+  /**
+   * Private constructor as this class provides only static methods.
+   */
+  private MailboxBenchmarks() {
+  }
+
+  /**
+   * Run the mailbox benchmarks for every pump count.
+   *
+   * @param runner The runner to use.
+   * @return The results, three per pump count.
+   */
+  public static List<BenchmarkResult> runAll(BenchmarkRunner runner) {
+    List<BenchmarkResult> results = new ArrayList<>();
+    for (int pumps : PUMP_COUNTS) {
+      results.add(runUnbounded(runner, pumps));
+      results.add(runRing(runner, pumps));
+      results.add(runRingPrimitive(runner, pumps));
+    }
+    return results;
+  }
+
+  /**
+   * Benchmark a fresh <code>UnboundedMailbox</code> for every cycle.
+   *
+   * @param runner The runner to use.
+   * @param pumps  The number of pumps reported on.
+   * @return The result.
+   */
+  public static BenchmarkResult runUnbounded(BenchmarkRunner runner, int pumps) {
+    final Message[] readings = readings(pumps);
+    return runner.run("mailbox.unbounded", params(pumps), 1, "ops/s", //$NON-NLS-1$ //$NON-NLS-2$
+        () -> {
+          Mailbox mailbox = new UnboundedMailbox(100);
+          for (int i = 0; i != readings.length; ++i) {
+            mailbox.send(readings[i]);
+          }
+          consume(mailbox);
+        });
+  }
+
+  /**
+   * Benchmark a reused <code>RingMailbox</code>, sending and reading message objects.
+   *
+   * @param runner The runner to use.
+   * @param pumps  The number of pumps reported on.
+   * @return The result.
+   */
+  public static BenchmarkResult runRing(BenchmarkRunner runner, int pumps) {
+    final Message[] readings = readings(pumps);
+    final RingMailbox mailbox = new RingMailbox(100);
+    return runner.run("mailbox.ring", params(pumps), 1, "ops/s", () -> { //$NON-NLS-1$ //$NON-NLS-2$
+      mailbox.clear();
+      for (int i = 0; i != readings.length; ++i) {
+        mailbox.send(readings[i]);
+      }
+      consume(mailbox);
+    });
+  }
+
+  /**
+   * Benchmark a reused <code>RingMailbox</code>, sending and reading primitive records only.
+   *
+   * @param runner The runner to use.
+   * @param pumps  The number of pumps reported on.
+   * @return The result.
+   */
+  public static BenchmarkResult runRingPrimitive(BenchmarkRunner runner, final int pumps) {
+    final RingMailbox mailbox = new RingMailbox(100);
+    String name = "mailbox.ring.primitive"; //$NON-NLS-1$
+    return runner.run(name, params(pumps), 1, "ops/s", () -> { //$NON-NLS-1$
+      mailbox.clear();
+      mailbox.send(MessageKind.LEVEL_v, 250.0);
+      mailbox.send(MessageKind.STEAM_v, 0.0);
+      for (int i = 0; i != pumps; ++i) {
+        mailbox.send(MessageKind.PUMP_STATE_n_b, i, false);
+        mailbox.send(MessageKind.PUMP_CONTROL_STATE_n_b, i, false);
+      }
+      long total = 0;
+      for (int i = 0; i != mailbox.size(); ++i) {
+        total += mailbox.kind(i).ordinal() + mailbox.integerParameter(i);
+      }
+      sink += total;
+    });
+  }
+
+  /**
+   * Read every message in a mailbox.
+   *
+   * @param mailbox The mailbox to read.
+   */
+  private static void consume(Mailbox mailbox) {
+    long total = 0;
+    for (int i = 0; i != mailbox.size(); ++i) {
+      total += mailbox.read(i).getKind().ordinal();
+    }
+    sink += total;
+  }
+
+  /**
+   * Construct the parameters for reporting a given pump count.
+   *
+   * @param pumps The number of pumps reported on.
+   * @return The parameters.
+   */
+  private static Map<String, String> params(int pumps) {
+    Map<String, String> params = new LinkedHashMap<>();
+    params.put("pumps", Integer.toString(pumps)); //$NON-NLS-1$
+    return params;
+  }
+
+  /**
+   * Construct the readings transmitted by the physical units in a single cycle.
+   *
+   * @param pumps The number of pumps reported on.
+   * @return The readings.
+   */
+  private static Message[] readings(int pumps) {
+    Message[] readings = new Message[2 + (2 * pumps)];
+    readings[0] = new Message(MessageKind.LEVEL_v, 250.0);
+    readings[1] = new Message(MessageKind.STEAM_v, 0.0);
+    for (int i = 0; i != pumps; ++i) {
+      readings[2 + (2 * i)] = new Message(MessageKind.PUMP_STATE_n_b, i, false);
+      readings[3 + (2 * i)] = new Message(MessageKind.PUMP_CONTROL_STATE_n_b, i, false);
+    }
+    return readings;
+  }
+}
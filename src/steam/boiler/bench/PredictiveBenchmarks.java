@@ -0,0 +1,239 @@
+package steam.boiler.bench;
+
+import static steam.boiler.tests.TestUtils.clockBetweenWithout;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.core.PredictiveScheduler;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.tests.TestUtils;
+import steam.boiler.tests.TestUtils.MailboxMatcher;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * Benchmarks predictive control against the physical units, for a range of horizons and budgets,
+ * so that the horizon can be tuned against latency. Each operation runs the normal operation
+ * scenario from an empty boiler with a fresh controller. Besides the usual timings, each result
+ * records the mean time spent planning per cycle, how often the budget was hit, how often the
+ * controller fell back to its one-step rule, and the quality of control achieved: the root mean
+ * square distance of the level from the middle of the normal band, and the number of pump
+ * switches per minute. A horizon of zero gives the controller without predictive control.
+ */
+public final class PredictiveBenchmarks {
+  /**
+   * The horizons (in cycles) for which control is benchmarked.
+   */
+  public static final int[] HORIZONS = { 0, 2, 4, 8, 12 };
+
+  /**
+   * The budgets (in nanoseconds) for which control is benchmarked.
+   */
+  public static final long[] BUDGETS = { 20_000, 200_000 };
+
+  /**
+   * The number of pumps in the configuration.
+   */
+  public static final int PUMPS = 4;
+
+  /**
+   * The length (in seconds) of each simulated run.
+   */
+  public static final int SIMULATED_SECONDS = 600;
+
+  /**
+   * Private constructor as this class provides only static methods.
+   */
+  private PredictiveBenchmarks() {
+  }
+
+  /**
+   * Run the benchmark for every horizon and budget.
+   *
+   * @param runner The runner to use.
+   * @return The results, one per horizon and budget (and one without predictive control).
+   */
+  public static List<BenchmarkResult> runAll(BenchmarkRunner runner) {
+    List<BenchmarkResult> results = new ArrayList<>();
+    for (int horizon : HORIZONS) {
+      for (long budget : BUDGETS) {
+        results.add(run(runner, horizon, budget));
+        if (horizon == 0) {
+          // The budget makes no difference
+          break;
+        }
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Run the benchmark for a given horizon and budget.
+   *
+   * @param runner  The runner to use.
+   * @param horizon The number of cycles to plan, or zero for no predictive control.
+   * @param budget  The time (in nanoseconds) allowed for planning each cycle.
+   * @return The result.
+   */
+  public static BenchmarkResult run(BenchmarkRunner runner, int horizon, long budget) {
+    final SteamBoilerCharacteristics config = ControllerBenchmarks.configuration(PUMPS);
+    final Quality quality = new Quality(config);
+    Map<String, String> params = new LinkedHashMap<>();
+    params.put("horizon", Integer.toString(horizon)); //$NON-NLS-1$
+    params.put("budget", Long.toString(budget)); //$NON-NLS-1$
+    BenchmarkResult result = runner.run("predictive.control", params, //$NON-NLS-1$
+        SIMULATED_SECONDS, "simulated-s/s", () -> { //$NON-NLS-1$
+          MySteamBoilerController controller = new MySteamBoilerController(config, horizon,
+              budget);
+          PhysicalUnits model = new PhysicalUnits.Template(config).construct();
+          model.setMode(PhysicalUnits.Mode.WAITING);
+          quality.start(model);
+          clockBetweenWithout(0, SIMULATED_SECONDS * 1000, TestUtils.SYNCHRONISATION_PERIOD,
+              controller, model, quality);
+          quality.finish(controller.getScheduler());
+        });
+    double minutes = quality.cycles * (TestUtils.SYNCHRONISATION_PERIOD / 60000.0);
+    result.addSecondary("plan.time", quality.planNanos / Math.max(1, quality.plans), //$NON-NLS-1$
+        "ns/cycle"); //$NON-NLS-1$
+    result.addSecondary("budget.hit.rate", //$NON-NLS-1$
+        (100.0 * quality.budgetHits) / Math.max(1, quality.plans), "%"); //$NON-NLS-1$
+    result.addSecondary("fallback.rate", //$NON-NLS-1$
+        (100.0 * quality.fallbacks) / Math.max(1, quality.plans), "%"); //$NON-NLS-1$
+    result.addSecondary("rms.error", //$NON-NLS-1$
+        Math.sqrt(quality.squaredError / Math.max(1, quality.cycles)), "litres"); //$NON-NLS-1$
+    result.addSecondary("switch.rate", quality.switches / Math.max(1e-9, minutes), //$NON-NLS-1$
+        "switches/min"); //$NON-NLS-1$
+    return result;
+  }
+
+  /**
+   * Accumulates the quality of control over every run of a benchmark, by observing the level and
+   * the pump commands once the controller is operating normally. This never matches, and so can be
+   * used with <code>clockBetweenWithout()</code> to observe a whole run.
+   */
+  private static final class Quality implements MailboxMatcher {
+    /**
+     * The middle of the normal band.
+     */
+    private final double target;
+
+    /**
+     * The state each pump was last commanded to in the current run.
+     */
+    private final boolean[] open;
+
+    /**
+     * The physical units of the current run.
+     */
+    private @Nullable PhysicalUnits model;
+
+    /**
+     * Set once the controller of the current run has entered normal mode.
+     */
+    private boolean operating;
+
+    /**
+     * The number of cycles observed whilst operating.
+     */
+    long cycles;
+
+    /**
+     * The sum of the squared distance of the level from the target whilst operating.
+     */
+    double squaredError;
+
+    /**
+     * The number of pump switches whilst operating.
+     */
+    long switches;
+
+    /**
+     * The number of searches by the scheduler.
+     */
+    long plans;
+
+    /**
+     * The number of searches which hit the budget.
+     */
+    long budgetHits;
+
+    /**
+     * The number of searches which found no schedule.
+     */
+    long fallbacks;
+
+    /**
+     * The total time (in nanoseconds) spent searching.
+     */
+    double planNanos;
+
+    /**
+     * Construct an empty record for a given configuration.
+     *
+     * @param config The configuration being run.
+     */
+    Quality(SteamBoilerCharacteristics config) {
+      this.target = (config.getMinimalNormalLevel() + config.getMaximalNormalLevel()) / 2;
+      this.open = new boolean[config.getNumberOfPumps()];
+    }
+
+    /**
+     * Begin observing a new run.
+     *
+     * @param units The physical units of the run.
+     */
+    void start(PhysicalUnits units) {
+      this.model = units;
+      this.operating = false;
+      Arrays.fill(this.open, false);
+    }
+
+    /**
+     * Finish observing a run, adding the statistics of its scheduler (if any).
+     *
+     * @param scheduler The scheduler of the controller, or <code>null</code>.
+     */
+    void finish(@Nullable PredictiveScheduler scheduler) {
+      if (scheduler != null) {
+        this.plans += scheduler.getPlans();
+        this.budgetHits += scheduler.getBudgetHits();
+        this.fallbacks += scheduler.getFallbacks();
+        this.planNanos += scheduler.getMeanNanos() * scheduler.getPlans();
+      }
+    }
+
+    @Override
+    public boolean matches(Mailbox m) {
+      for (int i = 0; i != m.size(); ++i) {
+        Message msg = m.read(i);
+        MessageKind kind = msg.getKind();
+        if (kind == MessageKind.MODE_m && msg.getModeParameter() == Mailbox.Mode.NORMAL) {
+          this.operating = true;
+        } else if (kind == MessageKind.OPEN_PUMP_n || kind == MessageKind.CLOSE_PUMP_n) {
+          int pump = msg.getIntegerParameter();
+          boolean opened = kind == MessageKind.OPEN_PUMP_n;
+          if (this.operating && this.open[pump] != opened) {
+            this.switches++;
+          }
+          this.open[pump] = opened;
+        }
+      }
+      PhysicalUnits units = this.model;
+      if (this.operating && units != null) {
+        double e = units.getBoiler().getWaterLevel() - this.target;
+        this.cycles++;
+        this.squaredError += e * e;
+      }
+      return false;
+    }
+  }
+}
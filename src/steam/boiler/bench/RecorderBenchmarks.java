@@ -0,0 +1,91 @@
+package steam.boiler.bench;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.core.RingMailbox;
+import steam.boiler.model.SteamBoilerController;
+import steam.boiler.runtime.FlightRecorder;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * Benchmarks the overhead of recording every cycle with a <code>FlightRecorder</code>, by clocking
+ * the controller in normal operation with and without a recorder around it. The difference in
+ * time per operation between the two is the cost of recording a cycle.
+ */
+public final class RecorderBenchmarks {
+  /**
+   * The pump counts for which recording is benchmarked.
+   */
+  public static final int[] PUMP_COUNTS = { 4, 64 };
+
+  /**
+   * The size (in bytes) of the recorder's ring buffer, which holds several thousand cycles with
+   * the default characteristics.
+   */
+  public static final int CAPACITY = 1 << 20;
+
+  /**
+   * Private constructor as this class provides only static methods.
+   */
+  private RecorderBenchmarks() {
+  }
+
+  /**
+   * Run the recorder benchmark for every pump count, with and without recording.
+   *
+   * @param runner The runner to use.
+   * @return The results, two per pump count.
+   */
+  public static List<BenchmarkResult> runAll(BenchmarkRunner runner) {
+    List<BenchmarkResult> results = new ArrayList<>();
+    for (int pumps : PUMP_COUNTS) {
+      results.add(run(runner, pumps, false));
+      results.add(run(runner, pumps, true));
+    }
+    return results;
+  }
+
+  /**
+   * Run the recorder benchmark for a given pump count.
+   *
+   * @param runner   The runner to use.
+   * @param pumps    The number of pumps in the configuration.
+   * @param recorded Whether to record every cycle.
+   * @return The result.
+   */
+  public static BenchmarkResult run(BenchmarkRunner runner, int pumps, boolean recorded) {
+    SteamBoilerCharacteristics config = ControllerBenchmarks.configuration(pumps);
+    MySteamBoilerController c = new MySteamBoilerController(config);
+    // Normal operation never dumps, so the directory is never written
+    Path directory = Paths.get(System.getProperty("java.io.tmpdir")); //$NON-NLS-1$
+    final SteamBoilerController controller = recorded
+        ? new FlightRecorder(c, CAPACITY, directory)
+        : c;
+    final RingMailbox output = new RingMailbox(16 + (8 * pumps));
+    // Complete the initialisation handshake
+    controller.clock(ControllerBenchmarks.readings(config, ControllerBenchmarks.Scenario.NORMAL,
+        MessageKind.STEAM_BOILER_WAITING), output);
+    output.clear();
+    controller.clock(ControllerBenchmarks.readings(config, ControllerBenchmarks.Scenario.NORMAL,
+        MessageKind.PHYSICAL_UNITS_READY), output);
+    //
+    final Mailbox input = ControllerBenchmarks.readings(config,
+        ControllerBenchmarks.Scenario.NORMAL, null);
+    Map<String, String> params = new LinkedHashMap<>();
+    params.put("pumps", Integer.toString(pumps)); //$NON-NLS-1$
+    params.put("recorded", Boolean.toString(recorded)); //$NON-NLS-1$
+    return runner.run("recorder.clock", params, 1, "ops/s", () -> { //$NON-NLS-1$ //$NON-NLS-2$
+      output.clear();
+      controller.clock(input, output);
+      ControllerBenchmarks.sink += output.size();
+    });
+  }
+}
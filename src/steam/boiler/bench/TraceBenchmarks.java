@@ -0,0 +1,467 @@
+package steam.boiler.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import steam.boiler.core.MessageCodec;
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.core.RingMailbox;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.runtime.CompressedTraceReader;
+import steam.boiler.runtime.CompressedTraceWriter;
+import steam.boiler.runtime.TraceReader;
+import steam.boiler.runtime.TraceRecorder;
+import steam.boiler.runtime.TraceReplay;
+import steam.boiler.tests.TestUtils;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.Mailbox.Mode;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * Benchmarks replaying a recorded trace through a fresh controller, and encoding and decoding
+ * traces in each format. Each trace is recorded once, by running the controller against the
+ * physical units from an empty boiler. For replay, each operation then replays the whole trace
+ * from disk. For encoding and decoding, the cycles are held in memory, and each operation encodes
+ * (or decodes) all of them in one of three formats: <code>naive</code> writes every message as
+ * the name of its kind followed by its parameters at full width, <code>binary</code> is the
+ * uncompressed trace format (i.e. <code>MessageCodec</code>), and <code>compressed</code> is the
+ * columnar format of <code>CompressedTraceWriter</code>. Besides the rate, each result records the
+ * size of the trace per cycle.
+ */
+public final class TraceBenchmarks {
+  /**
+   * The pump counts for which replay is benchmarked.
+   */
+  public static final int[] PUMP_COUNTS = { 4, 64 };
+
+  /**
+   * The number of cycles in each trace.
+   */
+  public static final int CYCLES = 20_000;
+
+  /**
+   * The number of cycles held in memory for encoding and decoding.
+   */
+  public static final int CODEC_CYCLES = 5_000;
+
+  /**
+   * The formats compared for encoding and decoding.
+   */
+  public static final String[] FORMATS = { "naive", //$NON-NLS-1$
+      "binary", //$NON-NLS-1$
+      "compressed" }; //$NON-NLS-1$
+
+  /**
+   * Private constructor as this class provides only static methods.
+   */
+  private TraceBenchmarks() {
+  }
+
+  /**
+   * Run the replay, encoding and decoding benchmarks for every pump count (and format).
+   *
+   * @param runner The runner to use.
+   * @return The results, one for replay and two per format, for each pump count.
+   * @throws IOException If a trace could not be recorded.
+   */
+  public static List<BenchmarkResult> runAll(BenchmarkRunner runner) throws IOException {
+    List<BenchmarkResult> results = new ArrayList<>();
+    for (int pumps : PUMP_COUNTS) {
+      results.add(run(runner, pumps));
+      Cycles cycles = Cycles.record(ControllerBenchmarks.configuration(pumps));
+      for (String format : FORMATS) {
+        results.add(encode(runner, pumps, format, cycles));
+        results.add(decode(runner, pumps, format, cycles));
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Run the replay benchmark for a given pump count.
+   *
+   * @param runner The runner to use.
+   * @param pumps  The number of pumps in the configuration.
+   * @return The result.
+   * @throws IOException If the trace could not be recorded.
+   */
+  public static BenchmarkResult run(BenchmarkRunner runner, int pumps) throws IOException {
+    SteamBoilerCharacteristics config = ControllerBenchmarks.configuration(pumps);
+    Path file = Files.createTempFile("trace", ".bin"); //$NON-NLS-1$ //$NON-NLS-2$
+    try {
+      record(config, file);
+      final TraceReplay replay = new TraceReplay(config);
+      Map<String, String> params = new LinkedHashMap<>();
+      params.put("pumps", Integer.toString(pumps)); //$NON-NLS-1$
+      BenchmarkResult result = runner.run("trace.replay", params, CYCLES, //$NON-NLS-1$
+          "cycles/s", () -> { //$NON-NLS-1$
+            try {
+              TraceReplay.Result r = replay.replay(file);
+              if (!r.isIdentical()) {
+                throw new IllegalStateException("replay diverged at cycle " //$NON-NLS-1$
+                    + r.getFirstDivergence());
+              }
+              ControllerBenchmarks.sink += r.getCycles();
+            } catch (IOException e) {
+              throw new UncheckedIOException(e);
+            }
+          });
+      result.addSecondary("trace.size", (double) Files.size(file) / CYCLES, //$NON-NLS-1$
+          "bytes/cycle"); //$NON-NLS-1$
+      return result;
+    } finally {
+      Files.delete(file);
+    }
+  }
+
+  /**
+   * Run the encoding benchmark for a given pump count and format.
+   *
+   * @param runner The runner to use.
+   * @param pumps  The number of pumps in the configuration.
+   * @param format The format to encode.
+   * @param cycles The cycles to encode.
+   * @return The result.
+   */
+  public static BenchmarkResult encode(BenchmarkRunner runner, int pumps, String format,
+      Cycles cycles) {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    Map<String, String> params = new LinkedHashMap<>();
+    params.put("pumps", Integer.toString(pumps)); //$NON-NLS-1$
+    params.put("format", format); //$NON-NLS-1$
+    BenchmarkResult result = runner.run("trace.encode", params, cycles.size(), //$NON-NLS-1$
+        "cycles/s", () -> { //$NON-NLS-1$
+          bytes.reset();
+          encode(format, cycles, bytes);
+          ControllerBenchmarks.sink += bytes.size();
+        });
+    result.addSecondary("trace.size", (double) bytes.size() / cycles.size(), //$NON-NLS-1$
+        "bytes/cycle"); //$NON-NLS-1$
+    return result;
+  }
+
+  /**
+   * Run the decoding benchmark for a given pump count and format.
+   *
+   * @param runner The runner to use.
+   * @param pumps  The number of pumps in the configuration.
+   * @param format The format to decode.
+   * @param cycles The cycles, which are encoded once before decoding.
+   * @return The result.
+   */
+  public static BenchmarkResult decode(BenchmarkRunner runner, int pumps, String format,
+      Cycles cycles) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    encode(format, cycles, bytes);
+    final byte[] encoded = bytes.toByteArray();
+    Map<String, String> params = new LinkedHashMap<>();
+    params.put("pumps", Integer.toString(pumps)); //$NON-NLS-1$
+    params.put("format", format); //$NON-NLS-1$
+    BenchmarkResult result = runner.run("trace.decode", params, cycles.size(), //$NON-NLS-1$
+        "cycles/s", () -> { //$NON-NLS-1$
+          ControllerBenchmarks.sink += decode(format, encoded);
+        });
+    result.addSecondary("trace.size", (double) encoded.length / cycles.size(), //$NON-NLS-1$
+        "bytes/cycle"); //$NON-NLS-1$
+    return result;
+  }
+
+  /**
+   * Encode some cycles in a given format.
+   *
+   * @param format The format.
+   * @param cycles The cycles.
+   * @param bytes  The stream to write to.
+   */
+  private static void encode(String format, Cycles cycles, ByteArrayOutputStream bytes) {
+    try {
+      switch (format) {
+        case "naive": //$NON-NLS-1$
+          try (DataOutputStream out = new DataOutputStream(bytes)) {
+            for (int c = 0; c != cycles.size(); ++c) {
+              out.writeLong(c);
+              out.writeLong(cycles.times[c]);
+              writeNaive(cycles.incoming[c], out);
+              writeNaive(cycles.outgoing[c], out);
+            }
+          }
+          break;
+        case "binary": { //$NON-NLS-1$
+          ByteBuffer buffer = ByteBuffer.allocate(cycles.binarySize);
+          for (int c = 0; c != cycles.size(); ++c) {
+            buffer.putLong(c).putLong(cycles.times[c]);
+            MessageCodec.encode(cycles.incoming[c], buffer);
+            MessageCodec.encode(cycles.outgoing[c], buffer);
+          }
+          bytes.write(buffer.array(), 0, buffer.position());
+          break;
+        }
+        default:
+          try (CompressedTraceWriter writer = new CompressedTraceWriter(bytes)) {
+            for (int c = 0; c != cycles.size(); ++c) {
+              writer.write(c, cycles.times[c], cycles.incoming[c], cycles.outgoing[c]);
+            }
+          }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Decode every cycle encoded in a given format.
+   *
+   * @param format  The format.
+   * @param encoded The encoded cycles.
+   * @return The number of messages decoded.
+   */
+  private static long decode(String format, byte[] encoded) {
+    long messages = 0;
+    try {
+      switch (format) {
+        case "naive": { //$NON-NLS-1$
+          RingMailbox incoming = new RingMailbox(64);
+          RingMailbox outgoing = new RingMailbox(64);
+          try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded))) {
+            while (in.available() != 0) {
+              in.readLong();
+              in.readLong();
+              incoming.clear();
+              outgoing.clear();
+              readNaive(in, incoming);
+              readNaive(in, outgoing);
+              messages += incoming.size() + outgoing.size();
+            }
+          }
+          break;
+        }
+        case "binary": { //$NON-NLS-1$
+          RingMailbox incoming = new RingMailbox(64);
+          RingMailbox outgoing = new RingMailbox(64);
+          ByteBuffer buffer = ByteBuffer.wrap(encoded);
+          while (buffer.hasRemaining()) {
+            buffer.getLong();
+            buffer.getLong();
+            incoming.clear();
+            outgoing.clear();
+            MessageCodec.decode(buffer, incoming);
+            MessageCodec.decode(buffer, outgoing);
+            messages += incoming.size() + outgoing.size();
+          }
+          break;
+        }
+        default:
+          try (CompressedTraceReader reader = new CompressedTraceReader(
+              new ByteArrayInputStream(encoded))) {
+            while (reader.next()) {
+              messages += reader.getIncoming().size() + reader.getOutgoing().size();
+            }
+          }
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return messages;
+  }
+
+  /**
+   * Write a mailbox naively, as the number of messages and then each message as the name of its
+   * kind followed by its parameters at full width.
+   *
+   * @param mailbox The mailbox.
+   * @param out     The stream to write to.
+   * @throws IOException If the stream could not be written.
+   */
+  private static void writeNaive(Mailbox mailbox, DataOutputStream out) throws IOException {
+    out.writeInt(mailbox.size());
+    for (int i = 0; i != mailbox.size(); ++i) {
+      Message m = mailbox.read(i);
+      out.writeUTF(m.getKind().name());
+      switch (MessageCodec.parameters(m.getKind())) {
+        case MessageCodec.MODE_PARAMETER:
+          out.writeUTF(m.getModeParameter().name());
+          break;
+        case MessageCodec.INTEGER_PARAMETER:
+          out.writeInt(m.getIntegerParameter());
+          break;
+        case MessageCodec.DOUBLE_PARAMETER:
+          out.writeDouble(m.getDoubleParameter());
+          break;
+        case MessageCodec.INTEGER_BOOLEAN_PARAMETERS:
+          out.writeInt(m.getIntegerParameter());
+          out.writeBoolean(m.getBooleanParameter());
+          break;
+        default:
+          break;
+      }
+    }
+  }
+
+  /**
+   * Read a mailbox written naively, creating an object for each message.
+   *
+   * @param in      The stream to read from.
+   * @param mailbox The mailbox to send the messages to.
+   * @throws IOException If the stream could not be read.
+   */
+  private static void readNaive(DataInputStream in, Mailbox mailbox) throws IOException {
+    int n = in.readInt();
+    for (int i = 0; i != n; ++i) {
+      MessageKind kind = MessageKind.valueOf(in.readUTF());
+      assert kind != null;
+      switch (MessageCodec.parameters(kind)) {
+        case MessageCodec.MODE_PARAMETER: {
+          Mode mode = Mode.valueOf(in.readUTF());
+          assert mode != null;
+          mailbox.send(new Message(kind, mode));
+          break;
+        }
+        case MessageCodec.INTEGER_PARAMETER:
+          mailbox.send(new Message(kind, in.readInt()));
+          break;
+        case MessageCodec.DOUBLE_PARAMETER:
+          mailbox.send(new Message(kind, in.readDouble()));
+          break;
+        case MessageCodec.INTEGER_BOOLEAN_PARAMETERS:
+          mailbox.send(new Message(kind, in.readInt(), in.readBoolean()));
+          break;
+        default:
+          mailbox.send(new Message(kind));
+      }
+    }
+  }
+
+  /**
+   * Record a trace of a fresh controller run against the physical units from an empty boiler.
+   *
+   * @param config The configuration of the boiler.
+   * @param file   The trace file to write.
+   * @throws IOException If the trace could not be written.
+   */
+  static void record(SteamBoilerCharacteristics config, Path file) throws IOException {
+    PhysicalUnits model = new PhysicalUnits.Template(config).construct();
+    model.setMode(PhysicalUnits.Mode.WAITING);
+    RingMailbox input = new RingMailbox(16 + (2 * config.getNumberOfPumps()));
+    RingMailbox output = new RingMailbox(16 + config.getNumberOfPumps());
+    try (TraceRecorder recorder = new TraceRecorder(new MySteamBoilerController(config), file)) {
+      for (int i = 0; i != CYCLES; ++i) {
+        input.clear();
+        output.clear();
+        model.transmit(input);
+        recorder.clock(input, output);
+        model.receive(output);
+        for (int t = 0; t < TestUtils.SYNCHRONISATION_PERIOD; t += TestUtils.GRANULARITY) {
+          model.clock(TestUtils.GRANULARITY);
+        }
+      }
+    }
+  }
+
+  /**
+   * The cycles of a recorded run, held in memory.
+   */
+  public static final class Cycles {
+    /**
+     * The time at which each cycle was clocked.
+     */
+    final long[] times;
+
+    /**
+     * The messages received in each cycle.
+     */
+    final RingMailbox[] incoming;
+
+    /**
+     * The messages sent in each cycle.
+     */
+    final RingMailbox[] outgoing;
+
+    /**
+     * The size (in bytes) of every cycle in the binary format.
+     */
+    final int binarySize;
+
+    /**
+     * Construct a set of cycles.
+     *
+     * @param times    The time at which each cycle was clocked.
+     * @param incoming The messages received in each cycle.
+     * @param outgoing The messages sent in each cycle.
+     */
+    private Cycles(long[] times, RingMailbox[] incoming, RingMailbox[] outgoing) {
+      this.times = times;
+      this.incoming = incoming;
+      this.outgoing = outgoing;
+      int size = 0;
+      for (int c = 0; c != times.length; ++c) {
+        size += (2 * Long.BYTES) + MessageCodec.size(incoming[c])
+            + MessageCodec.size(outgoing[c]);
+      }
+      this.binarySize = size;
+    }
+
+    /**
+     * Get the number of cycles.
+     *
+     * @return The count.
+     */
+    public int size() {
+      return this.times.length;
+    }
+
+    /**
+     * Record the cycles of a fresh controller run against the physical units from an empty
+     * boiler.
+     *
+     * @param config The configuration of the boiler.
+     * @return The cycles.
+     * @throws IOException If the run could not be recorded.
+     */
+    static Cycles record(SteamBoilerCharacteristics config) throws IOException {
+      Path file = Files.createTempFile("trace", ".bin"); //$NON-NLS-1$ //$NON-NLS-2$
+      try {
+        TraceBenchmarks.record(config, file);
+        long[] times = new long[CODEC_CYCLES];
+        RingMailbox[] incoming = new RingMailbox[CODEC_CYCLES];
+        RingMailbox[] outgoing = new RingMailbox[CODEC_CYCLES];
+        try (TraceReader reader = new TraceReader(file)) {
+          for (int c = 0; c != CODEC_CYCLES && reader.next(); ++c) {
+            times[c] = reader.getTime();
+            incoming[c] = copy(reader.getIncoming());
+            outgoing[c] = copy(reader.getOutgoing());
+          }
+        }
+        return new Cycles(times, incoming, outgoing);
+      } finally {
+        Files.delete(file);
+      }
+    }
+
+    /**
+     * Copy a mailbox.
+     *
+     * @param mailbox The mailbox.
+     * @return A new mailbox holding the same messages.
+     */
+    private static RingMailbox copy(RingMailbox mailbox) {
+      RingMailbox r = new RingMailbox(mailbox.size());
+      for (int i = 0; i != mailbox.size(); ++i) {
+        r.send(mailbox.read(i));
+      }
+      return r;
+    }
+  }
+}
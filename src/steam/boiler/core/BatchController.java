@@ -0,0 +1,501 @@
+package steam.boiler.core;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * Controls the level of a whole batch of boilers at once. Rather than one
+ * <code>MySteamBoilerController</code> object per boiler, the state of every boiler is held in
+ * primitive columns (one array per quantity, indexed by boiler). A cycle for the whole batch is
+ * then a few sequential passes over those arrays, with no object headers or pointers to chase,
+ * and a batch of any size needs only a fixed number of allocations (plus one
+ * <code>PumpSelector</code> per distinct configuration object).
+ *
+ * <p>
+ * Each cycle follows exactly the decision path of a <code>MySteamBoilerController</code> in
+ * <code>NORMAL</code> mode without predictive control: the level controller's PID update, the
+ * hysteresis check on whether to keep the pumps already open, the selection of a subset of pumps
+ * when they are not kept, and the check of the predicted envelope for an emergency stop. A batch
+ * starts where such a controller starts operating, i.e. with the level controller reset and every
+ * pump closed, and once a boiler is stopped its readings are ignored and its pumps left as they
+ * were. Failure diagnosis (and so the degraded modes) is left to
+ * <code>MySteamBoilerController</code>, so the decisions are only identical for boilers whose
+ * sensors and pumps are working.
+ * </p>
+ *
+ * <p>
+ * When the incubating <code>jdk.incubator.vector</code> module is present (i.e. the JVM was started
+ * with <code>--add-modules jdk.incubator.vector</code>), the arithmetic passes are computed with
+ * SIMD lanes by <code>VectorKernel</code>, with any boilers left over done one at a time. Subset
+ * selection walks a bitset per boiler, so is always done one boiler at a time, but only for those
+ * boilers whose pumps are being switched. The results are identical whether or not SIMD lanes are
+ * used, since exactly the same arithmetic is performed in the same order.
+ * </p>
+ */
+public final class BatchController {
+  /**
+   * True if the <code>jdk.incubator.vector</code> module is present.
+   */
+  private static final boolean VECTORS = ModuleLayer.boot()
+      .findModule("jdk.incubator.vector").isPresent(); //$NON-NLS-1$
+
+  /**
+   * The number of boilers in the batch.
+   */
+  final int size;
+
+  /**
+   * The largest number of pumps of any boiler in the batch.
+   */
+  private final int maxPumps;
+
+  /**
+   * The number of words in each boiler's bitset of pumps.
+   */
+  private final int words;
+
+  /**
+   * The number of pumps of each boiler.
+   */
+  private final int[] pumps;
+
+  /**
+   * The capacity of each pump of each boiler, stored at <code>(boiler * maxPumps) + pump</code>.
+   */
+  private final double[] capacities;
+
+  /**
+   * The selector for each boiler, which is shared by boilers with the same configuration object.
+   */
+  private final PumpSelector[] selectors;
+
+  /**
+   * The middle of the normal band of each boiler, which is the level controller's target.
+   */
+  final double[] target;
+
+  /**
+   * The total capacity of each boiler's pumps, which is the largest inflow it can achieve.
+   */
+  final double[] capacity;
+
+  /**
+   * The largest difference (in litres/sec) between the desired inflow and that of the pumps open
+   * for which each boiler keeps its pumps as they are.
+   */
+  final double[] hysteresis;
+
+  /**
+   * The change in level of each boiler over one cycle with no pumps open and steam output at its
+   * maximum.
+   */
+  final double[] low;
+
+  /**
+   * The bottom of the normal band of each boiler.
+   */
+  final double[] minNormal;
+
+  /**
+   * The top of the normal band of each boiler.
+   */
+  final double[] maxNormal;
+
+  /**
+   * The lowest level each boiler may safely reach.
+   */
+  final double[] minLimit;
+
+  /**
+   * The highest level each boiler may safely reach.
+   */
+  final double[] maxLimit;
+
+  /**
+   * The current level of each boiler.
+   */
+  final double[] level;
+
+  /**
+   * The current steam output of each boiler.
+   */
+  final double[] steam;
+
+  /**
+   * The integral term (in litres/sec) of each boiler's level controller.
+   */
+  final double[] integral;
+
+  /**
+   * The filtered rate of change of each boiler's level (in litres/sec).
+   */
+  final double[] derivative;
+
+  /**
+   * The level of each boiler at its last cycle.
+   */
+  final double[] lastLevel;
+
+  /**
+   * Set for each boiler which has had a cycle, such that the rate of change of its level can be
+   * determined.
+   */
+  final boolean[] primed;
+
+  /**
+   * The pumps commanded open for each boiler, stored at <code>(boiler * words) + word</code>.
+   */
+  private final long[] open;
+
+  /**
+   * The total capacity of the pumps commanded open for each boiler.
+   */
+  final double[] commanded;
+
+  /**
+   * The inflow desired by each boiler's level controller in the last cycle.
+   */
+  final double[] desired;
+
+  /**
+   * Set for each boiler which kept its pumps as they were in the last cycle.
+   */
+  final boolean[] keep;
+
+  /**
+   * The inflow planned for each boiler in the last cycle, from either the pumps kept or those
+   * selected.
+   */
+  final double[] planned;
+
+  /**
+   * The pumps selected for each boiler in the last cycle, stored as for <code>open</code>, which
+   * are only commanded if the boiler is not stopped.
+   */
+  private final long[] selected;
+
+  /**
+   * The total capacity of the pumps selected for each boiler in the last cycle.
+   */
+  private final double[] selectedInflow;
+
+  /**
+   * The lowest predicted level for each boiler, given the inflow planned.
+   */
+  final double[] minimum;
+
+  /**
+   * The highest predicted level for each boiler, given the inflow planned.
+   */
+  final double[] maximum;
+
+  /**
+   * Set for each boiler which has been stopped, because its level was at (or about to reach) a
+   * limit.
+   */
+  final boolean[] stopped;
+
+  /**
+   * True if the arithmetic passes are computed with SIMD lanes.
+   */
+  private final boolean vectorised;
+
+  /**
+   * Construct a batch for a given set of boilers, which uses SIMD lanes if the
+   * <code>jdk.incubator.vector</code> module is present.
+   *
+   * @param configs The characteristics of each boiler, in order.
+   */
+  public BatchController(List<SteamBoilerCharacteristics> configs) {
+    this(configs, supportsVectors());
+  }
+
+  /**
+   * Construct a batch for a given set of boilers.
+   *
+   * @param configs    The characteristics of each boiler, in order.
+   * @param vectorised True if the arithmetic passes should be computed with SIMD lanes, false if
+   *                   one boiler at a time.
+   * @throws UnsupportedOperationException If SIMD lanes are requested, but the
+   *                                       <code>jdk.incubator.vector</code> module is not
+   *                                       present.
+   */
+  public BatchController(List<SteamBoilerCharacteristics> configs, boolean vectorised) {
+    if (vectorised && !supportsVectors()) {
+      throw new UnsupportedOperationException("jdk.incubator.vector not present"); //$NON-NLS-1$
+    }
+    this.vectorised = vectorised;
+    int n = configs.size();
+    int most = 0;
+    for (SteamBoilerCharacteristics c : configs) {
+      most = Math.max(most, c.getNumberOfPumps());
+    }
+    this.size = n;
+    this.maxPumps = most;
+    this.words = (most + 63) >>> 6;
+    this.pumps = new int[n];
+    this.capacities = new double[n * most];
+    this.selectors = new PumpSelector[n];
+    this.target = new double[n];
+    this.capacity = new double[n];
+    this.hysteresis = new double[n];
+    this.low = new double[n];
+    this.minNormal = new double[n];
+    this.maxNormal = new double[n];
+    this.minLimit = new double[n];
+    this.maxLimit = new double[n];
+    this.level = new double[n];
+    this.steam = new double[n];
+    this.integral = new double[n];
+    this.derivative = new double[n];
+    this.lastLevel = new double[n];
+    this.primed = new boolean[n];
+    this.open = new long[n * this.words];
+    this.commanded = new double[n];
+    this.desired = new double[n];
+    this.keep = new boolean[n];
+    this.planned = new double[n];
+    this.selected = new long[n * this.words];
+    this.selectedInflow = new double[n];
+    this.minimum = new double[n];
+    this.maximum = new double[n];
+    this.stopped = new boolean[n];
+    Map<SteamBoilerCharacteristics, PumpSelector> shared = new IdentityHashMap<>();
+    for (int b = 0; b != n; ++b) {
+      SteamBoilerCharacteristics c = configs.get(b);
+      PumpSelector selector = shared.get(c);
+      if (selector == null) {
+        selector = new PumpSelector(c);
+        shared.put(c, selector);
+      }
+      this.selectors[b] = selector;
+      this.pumps[b] = c.getNumberOfPumps();
+      double largest = 0;
+      for (int i = 0; i != this.pumps[b]; ++i) {
+        this.capacities[(b * most) + i] = c.getPumpCapacity(i);
+        largest = Math.max(largest, c.getPumpCapacity(i));
+      }
+      this.target[b] = (c.getMinimalNormalLevel() + c.getMaximalNormalLevel()) / 2;
+      this.capacity[b] = selector.getCapacity();
+      this.hysteresis[b] = MySteamBoilerController.HYSTERESIS * largest;
+      this.low[b] = LevelPredictor.of(c).low;
+      this.minNormal[b] = c.getMinimalNormalLevel();
+      this.maxNormal[b] = c.getMaximalNormalLevel();
+      this.minLimit[b] = c.getMinimalLimitLevel();
+      this.maxLimit[b] = c.getMaximalLimitLevel();
+    }
+  }
+
+  /**
+   * Check whether the <code>jdk.incubator.vector</code> module is present, so that the arithmetic
+   * passes can be computed with SIMD lanes.
+   *
+   * @return True if it is.
+   */
+  public static boolean supportsVectors() {
+    return VECTORS;
+  }
+
+  /**
+   * Check whether the arithmetic passes are computed with SIMD lanes.
+   *
+   * @return True if they are, false if they are computed one boiler at a time.
+   */
+  public boolean isVectorised() {
+    return this.vectorised;
+  }
+
+  /**
+   * Get the number of boilers in the batch.
+   *
+   * @return The batch size.
+   */
+  public int size() {
+    return this.size;
+  }
+
+  /**
+   * Set the readings for a given boiler in this cycle.
+   *
+   * @param boiler The boiler.
+   * @param l      The water level reading.
+   * @param s      The steam output reading.
+   */
+  public void setReadings(int boiler, double l, double s) {
+    this.level[boiler] = l;
+    this.steam[boiler] = s;
+  }
+
+  /**
+   * Decide which pumps to open for every boiler in the batch which has not been stopped, using the
+   * current readings, or stop it if its level is at (or about to reach) a limit.
+   */
+  public void clock() {
+    int from = 0;
+    if (this.vectorised) {
+      from = VectorKernel.control(this);
+    }
+    control(from);
+    select();
+    from = 0;
+    if (this.vectorised) {
+      from = VectorKernel.envelope(this);
+    }
+    envelope(from);
+    commit();
+  }
+
+  /**
+   * Check whether a given pump of a given boiler is commanded open.
+   *
+   * @param boiler The boiler.
+   * @param pump   The pump.
+   * @return True if it is.
+   */
+  public boolean isOpen(int boiler, int pump) {
+    return (this.open[(boiler * this.words) + (pump >>> 6)] & (1L << pump)) != 0;
+  }
+
+  /**
+   * Get the total capacity of the pumps commanded open for a given boiler.
+   *
+   * @param boiler The boiler.
+   * @return The inflow (in litres/sec).
+   */
+  public double getInflow(int boiler) {
+    return this.commanded[boiler];
+  }
+
+  /**
+   * Get the lowest level predicted for a given boiler by its last cycle.
+   *
+   * @param boiler The boiler.
+   * @return The lowest level.
+   */
+  public double getMinimum(int boiler) {
+    return this.minimum[boiler];
+  }
+
+  /**
+   * Get the highest level predicted for a given boiler by its last cycle.
+   *
+   * @param boiler The boiler.
+   * @return The highest level.
+   */
+  public double getMaximum(int boiler) {
+    return this.maximum[boiler];
+  }
+
+  /**
+   * Check whether a given boiler has been stopped.
+   *
+   * @param boiler The boiler.
+   * @return True if its level was at (or about to reach) a limit.
+   */
+  public boolean isStopped(int boiler) {
+    return this.stopped[boiler];
+  }
+
+  /**
+   * Update the level controller of every boiler from a given one onwards, exactly as
+   * <code>LevelController.update()</code> does, and decide whether to keep its pumps as they are,
+   * exactly as <code>MySteamBoilerController</code> does.
+   *
+   * @param from The first boiler to update.
+   */
+  private void control(int from) {
+    for (int b = from; b < this.size; ++b) {
+      if (!this.stopped[b]) {
+        double l = this.level[b];
+        double s = this.steam[b];
+        double max = this.capacity[b];
+        double error = this.target[b] - l;
+        if (this.primed[b]) {
+          double rate = (l - this.lastLevel[b]) / LevelPredictor.PERIOD;
+          this.derivative[b] = (LevelController.FILTER * this.derivative[b])
+              + ((1 - LevelController.FILTER) * rate);
+        }
+        this.lastLevel[b] = l;
+        this.primed[b] = true;
+        double base = s + (LevelController.PROPORTIONAL * error);
+        double damping = LevelController.DERIVATIVE * this.derivative[b];
+        double output = (base + this.integral[b]) - damping;
+        if ((output < max || error < 0) && (output > 0 || error > 0)) {
+          double i = this.integral[b] + (LevelController.INTEGRAL * error * LevelPredictor.PERIOD);
+          this.integral[b] = Math.max(-max, Math.min(max, i));
+          output = (base + this.integral[b]) - damping;
+        }
+        double d = Math.max(0, Math.min(max, output));
+        double current = this.commanded[b];
+        double swing = LevelPredictor.PERIOD * current;
+        this.desired[b] = d;
+        this.planned[b] = current;
+        this.keep[b] = Math.abs(d - current) <= this.hysteresis[b]
+            && (l + this.low[b]) + swing >= this.minNormal[b]
+            && (l - (LevelPredictor.PERIOD * s)) + swing <= this.maxNormal[b];
+      }
+    }
+  }
+
+  /**
+   * Select the pumps closest to the desired inflow for every boiler which is not keeping its pumps
+   * as they are, planning for their inflow instead.
+   */
+  private void select() {
+    for (int b = 0; b != this.size; ++b) {
+      if (!this.keep[b] && !this.stopped[b]) {
+        PumpSelector selector = this.selectors[b];
+        this.planned[b] = selector.select(this.desired[b]);
+        int base = b * this.words;
+        for (int w = 0; w != this.words; ++w) {
+          this.selected[base + w] = 0;
+        }
+        double r = 0;
+        for (int i = 0; i != this.pumps[b]; ++i) {
+          if (selector.isSelected(i)) {
+            this.selected[base + (i >>> 6)] |= 1L << i;
+            r += this.capacities[(b * this.maxPumps) + i];
+          }
+        }
+        this.selectedInflow[b] = r;
+      }
+    }
+  }
+
+  /**
+   * Predict the range of levels for every boiler from a given one onwards, given the inflow
+   * planned, and stop those whose level is at (or about to reach) a limit.
+   *
+   * @param from The first boiler to predict.
+   */
+  private void envelope(int from) {
+    for (int b = from; b < this.size; ++b) {
+      if (!this.stopped[b]) {
+        double l = this.level[b];
+        double swing = LevelPredictor.PERIOD * this.planned[b];
+        double min = (l + this.low[b]) + swing;
+        double max = (l - (LevelPredictor.PERIOD * this.steam[b])) + swing;
+        this.minimum[b] = min;
+        this.maximum[b] = max;
+        this.stopped[b] = l <= this.minLimit[b] || l >= this.maxLimit[b] || min < this.minLimit[b]
+            || max > this.maxLimit[b];
+      }
+    }
+  }
+
+  /**
+   * Command the pumps selected for every boiler which is not keeping its pumps as they are, and has
+   * not been stopped.
+   */
+  private void commit() {
+    for (int b = 0; b != this.size; ++b) {
+      if (!this.keep[b] && !this.stopped[b]) {
+        System.arraycopy(this.selected, b * this.words, this.open, b * this.words, this.words);
+        this.commanded[b] = this.selectedInflow[b];
+      }
+    }
+  }
+}
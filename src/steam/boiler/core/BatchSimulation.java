@@ -0,0 +1,546 @@
+package steam.boiler.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import steam.boiler.model.LevelSensorModels;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.model.PumpControllerModels;
+import steam.boiler.model.PumpModels;
+import steam.boiler.model.SteamSensorModels;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * Provides a way to run the simulation without a display, as fast as the processor allows. This
+ * is intended for long soak runs (e.g. several days of simulated time), where the Swing interface
+ * started by <code>Simulation</code> is unsuitable. The controller and physical units are
+ * synchronised every five (simulated) seconds, as they would be in real time, and faults can be
+ * injected at given times. A fault is injected at exactly its given time, even between
+ * synchronisation points, so the time taken to detect it is measured from when it actually
+ * happened. At the end, a summary is printed giving the final water level, the
+ * number of each kind of mode transition, how long the controller took to detect each fault, and
+ * how many simulated seconds were run per second of real time.
+ *
+ * <p>
+ * The following options are recognised:
+ * </p>
+ * <ul>
+ * <li><code>-hours H</code> amount of simulated time to run for (default 24).</li>
+ * <li><code>-pumps N</code> number of pumps (default as per the standard configuration).</li>
+ * <li><code>-capacity C</code> capacity of each pump (default as per the standard
+ * configuration).</li>
+ * <li><code>-step MS</code> largest step (in ms) by which the physical units are clocked in one go
+ * (default 100). Coarser steps run faster, but are less accurate: the physical units then see a
+ * pump switch or fault only at the start of a step.</li>
+ * <li><code>-fault T:KIND[:N]</code> inject a fault after <code>T</code> simulated seconds, where
+ * <code>KIND</code> is one of <code>level</code>, <code>steam</code>, <code>pump</code> or
+ * <code>controller</code>, and <code>N</code> identifies the pump for the latter two (default 0).
+ * This can be given more than once.</li>
+ * </ul>
+ * <p>
+ * The simulation finishes early if the controller enters emergency stop.
+ * </p>
+ */
+public final class BatchSimulation {
+  /**
+   * The time (in ms) between successive synchronisations of the controller and physical units.
+   */
+  public static final int SYNCHRONISATION_PERIOD = 5000;
+
+  /**
+   * The step (in ms) by which the physical units are clocked by default. This is the granularity
+   * at which the reference tests clock them, and at which the simulation is known to be accurate.
+   */
+  public static final int GRANULARITY = 100;
+
+  /**
+   * Identifies the kinds of fault which can be injected.
+   */
+  public enum FaultKind {
+    /**
+     * The water level sensor gets stuck reading -1.
+     */
+    LEVEL,
+    /**
+     * The steam sensor gets stuck reading -1.
+     */
+    STEAM,
+    /**
+     * A pump gets stuck closed.
+     */
+    PUMP,
+    /**
+     * A pump controller stops transmitting.
+     */
+    CONTROLLER
+  }
+
+  /**
+   * A fault to be injected at a given point in time.
+   */
+  public static final class Fault {
+    /**
+     * The time (in simulated ms) at which this fault is injected.
+     */
+    private final long time;
+
+    /**
+     * The kind of fault.
+     */
+    private final FaultKind kind;
+
+    /**
+     * The pump affected, for pump and pump controller faults.
+     */
+    private final int pump;
+
+    /**
+     * Construct a fault.
+     *
+     * @param time The time (in simulated ms) at which to inject the fault.
+     * @param kind The kind of fault.
+     * @param pump The pump affected, for pump and pump controller faults.
+     */
+    public Fault(long time, FaultKind kind, int pump) {
+      this.time = time;
+      this.kind = kind;
+      this.pump = pump;
+    }
+
+    /**
+     * Parse a fault given on the command line, in the form <code>T:KIND[:N]</code> where
+     * <code>T</code> is in simulated seconds.
+     *
+     * @param text The text to parse.
+     * @return The fault.
+     */
+    public static Fault parse(String text) {
+      String[] parts = text.split(":"); //$NON-NLS-1$
+      if (parts.length < 2 || parts.length > 3) {
+        throw new IllegalArgumentException("invalid fault " + text); //$NON-NLS-1$
+      }
+      long time = (long) (Double.parseDouble(parts[0]) * 1000);
+      FaultKind kind = FaultKind.valueOf(parts[1].toUpperCase(Locale.ROOT));
+      assert kind != null;
+      int pump = parts.length == 3 ? Integer.parseInt(parts[2]) : 0;
+      return new Fault(time, kind, pump);
+    }
+
+    /**
+     * Get the time at which this fault is injected.
+     *
+     * @return The time (in simulated ms).
+     */
+    public long getTime() {
+      return this.time;
+    }
+
+    /**
+     * Get the kind of this fault.
+     *
+     * @return The fault kind.
+     */
+    public FaultKind getKind() {
+      return this.kind;
+    }
+
+    /**
+     * Get the pump affected by this fault.
+     *
+     * @return The pump number.
+     */
+    public int getPump() {
+      return this.pump;
+    }
+
+    /**
+     * Break the physical units in the way described by this fault.
+     *
+     * @param model The physical units.
+     */
+    void inject(PhysicalUnits model) {
+      SteamBoilerCharacteristics config = model.getConfiguration();
+      switch (this.kind) {
+        case LEVEL:
+          model.setLevelSensor(new LevelSensorModels.StuckNegativeOne(model));
+          break;
+        case STEAM:
+          model.setSteamSensor(new SteamSensorModels.StuckNegativeOne(model));
+          break;
+        case PUMP:
+          model.setPump(this.pump,
+              new PumpModels.StuckClosed(this.pump, config.getPumpCapacity(this.pump), model));
+          break;
+        default:
+          model.setPumpController(this.pump, new PumpControllerModels.TxFailure(this.pump, model));
+          break;
+      }
+    }
+
+    /**
+     * Check whether the messages sent by the controller report this fault. A pump fault may be
+     * reported as a failure of either the pump or its controller, and vice versa, since the
+     * controller cannot always tell them apart.
+     *
+     * @param outgoing The messages sent by the controller.
+     * @return True if this fault is reported.
+     */
+    boolean isDetectedBy(Mailbox outgoing) {
+      for (int i = 0; i != outgoing.size(); ++i) {
+        Mailbox.Message m = outgoing.read(i);
+        MessageKind k = m.getKind();
+        switch (this.kind) {
+          case LEVEL:
+            if (k == MessageKind.LEVEL_FAILURE_DETECTION) {
+              return true;
+            }
+            break;
+          case STEAM:
+            if (k == MessageKind.STEAM_FAILURE_DETECTION) {
+              return true;
+            }
+            break;
+          default:
+            if ((k == MessageKind.PUMP_FAILURE_DETECTION_n
+                || k == MessageKind.PUMP_CONTROL_FAILURE_DETECTION_n)
+                && m.getIntegerParameter() == this.pump) {
+              return true;
+            }
+            break;
+        }
+      }
+      return false;
+    }
+
+    @Override
+    public String toString() {
+      String s = this.time / 1000.0 + "s:" + this.kind; //$NON-NLS-1$
+      if (this.kind == FaultKind.PUMP || this.kind == FaultKind.CONTROLLER) {
+        s += ":" + this.pump; //$NON-NLS-1$
+      }
+      return s;
+    }
+  }
+
+  /**
+   * The outcome of a batch simulation.
+   */
+  public static final class Report {
+    /**
+     * The amount of time (in simulated ms) actually run.
+     */
+    final long simulated;
+
+    /**
+     * The amount of real time (in ns) taken.
+     */
+    final long elapsed;
+
+    /**
+     * The water level at the end of the simulation.
+     */
+    final double finalLevel;
+
+    /**
+     * The mode the controller was last reported in.
+     */
+    final Mailbox.Mode finalMode;
+
+    /**
+     * Number of transitions between each pair of modes, indexed by ordinal.
+     */
+    final int[][] transitions;
+
+    /**
+     * The faults injected, in order of injection.
+     */
+    final List<Fault> faults;
+
+    /**
+     * Time (in simulated ms) taken to detect each fault, or -1 if it was not detected (or not
+     * injected).
+     */
+    final long[] latencies;
+
+    /**
+     * Construct a report.
+     *
+     * @param simulated   The amount of time (in simulated ms) run.
+     * @param elapsed     The amount of real time (in ns) taken.
+     * @param finalLevel  The water level at the end.
+     * @param finalMode   The mode the controller was last reported in.
+     * @param transitions Number of transitions between each pair of modes.
+     * @param faults      The faults injected.
+     * @param latencies   Time taken to detect each fault.
+     */
+    Report(long simulated, long elapsed, double finalLevel, Mailbox.Mode finalMode,
+        int[][] transitions, List<Fault> faults, long[] latencies) {
+      this.simulated = simulated;
+      this.elapsed = elapsed;
+      this.finalLevel = finalLevel;
+      this.finalMode = finalMode;
+      this.transitions = transitions;
+      this.faults = faults;
+      this.latencies = latencies;
+    }
+
+    /**
+     * Get the amount of time run, which is less than requested if the controller entered
+     * emergency stop.
+     *
+     * @return The time (in simulated ms).
+     */
+    public long getSimulatedTime() {
+      return this.simulated;
+    }
+
+    /**
+     * Get the water level at the end of the simulation.
+     *
+     * @return The water level.
+     */
+    public double getFinalLevel() {
+      return this.finalLevel;
+    }
+
+    /**
+     * Get the mode the controller was last reported in.
+     *
+     * @return The final mode.
+     */
+    public Mailbox.Mode getFinalMode() {
+      return this.finalMode;
+    }
+
+    /**
+     * Get the number of times the controller went from one mode to another.
+     *
+     * @param from The mode before.
+     * @param to   The mode after.
+     * @return The number of transitions.
+     */
+    public int getTransitions(Mailbox.Mode from, Mailbox.Mode to) {
+      return this.transitions[from.ordinal()][to.ordinal()];
+    }
+
+    /**
+     * Get the time taken to detect the <code>i</code>th fault (in order of injection).
+     *
+     * @param i The fault index.
+     * @return The time (in simulated ms) from injection to detection, or -1 if not detected.
+     */
+    public long getDetectionLatency(int i) {
+      return this.latencies[i];
+    }
+
+    /**
+     * Get the throughput of the simulation.
+     *
+     * @return The number of simulated seconds run per second of real time.
+     */
+    public double getThroughput() {
+      return this.elapsed == 0 ? 0 : (this.simulated * 1e6) / this.elapsed;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder();
+      sb.append(String.format("simulated: %.1fh in %.3fs (%.0f simulated s/s)%n", //$NON-NLS-1$
+          Double.valueOf(this.simulated / 3600000.0), Double.valueOf(this.elapsed / 1e9),
+          Double.valueOf(getThroughput())));
+      sb.append(String.format("final level: %.2f%n", //$NON-NLS-1$
+          Double.valueOf(this.finalLevel)));
+      sb.append("final mode: ").append(this.finalMode).append('\n'); //$NON-NLS-1$
+      sb.append("transitions:"); //$NON-NLS-1$
+      Mailbox.Mode[] modes = Mailbox.Mode.values();
+      for (Mailbox.Mode from : modes) {
+        for (Mailbox.Mode to : modes) {
+          int n = this.transitions[from.ordinal()][to.ordinal()];
+          if (n != 0) {
+            sb.append(' ').append(from).append("->").append(to).append('=').append(n); //$NON-NLS-1$
+          }
+        }
+      }
+      sb.append('\n');
+      for (int i = 0; i != this.faults.size(); ++i) {
+        sb.append("fault ").append(this.faults.get(i)).append(": "); //$NON-NLS-1$ //$NON-NLS-2$
+        long latency = this.latencies[i];
+        if (latency < 0) {
+          sb.append("not detected"); //$NON-NLS-1$
+        } else {
+          sb.append("detected after ").append(latency / 1000.0).append('s'); //$NON-NLS-1$
+        }
+        sb.append('\n');
+      }
+      return sb.toString();
+    }
+  }
+
+  /**
+   * The configuration being simulated.
+   */
+  private final SteamBoilerCharacteristics config;
+
+  /**
+   * The faults to inject, sorted by time.
+   */
+  private final List<Fault> faults;
+
+  /**
+   * The largest step (in ms) by which to clock the physical units in one go.
+   */
+  private final int step;
+
+  /**
+   * Construct a batch simulation.
+   *
+   * @param config The configuration to simulate.
+   * @param faults The faults to inject (in any order).
+   * @param step   The largest step (in ms) by which to clock the physical units in one go.
+   */
+  public BatchSimulation(SteamBoilerCharacteristics config, List<Fault> faults, int step) {
+    if (step <= 0) {
+      throw new IllegalArgumentException("step must be positive"); //$NON-NLS-1$
+    }
+    this.config = config;
+    this.faults = new ArrayList<>(faults);
+    this.step = step;
+    Collections.sort(this.faults, (Fault a, Fault b) -> Long.compare(a.time, b.time));
+  }
+
+  /**
+   * Run the simulation for a given amount of simulated time, or until the controller enters
+   * emergency stop.
+   *
+   * @param duration The amount of time (in simulated ms) to run for.
+   * @return The outcome.
+   */
+  public Report run(long duration) {
+    MySteamBoilerController controller = new MySteamBoilerController(this.config);
+    PhysicalUnits model = new PhysicalUnits.Template(this.config).construct();
+    model.setMode(PhysicalUnits.Mode.WAITING);
+    RingMailbox input = new RingMailbox(64);
+    RingMailbox output = new RingMailbox(64);
+    int numberOfModes = Mailbox.Mode.values().length;
+    int[][] transitions = new int[numberOfModes][numberOfModes];
+    long[] latencies = new long[this.faults.size()];
+    Arrays.fill(latencies, -1);
+    Mailbox.Mode mode = Mailbox.Mode.INITIALISATION;
+    int injected = 0;
+    long now = 0;
+    long start = System.nanoTime();
+    while (now < duration) {
+      injected = inject(model, injected, now);
+      input.clear();
+      output.clear();
+      model.transmit(input);
+      controller.clock(input, output);
+      model.receive(output);
+      // Record any change of mode, and any faults now detected
+      for (int i = 0; i != output.size(); ++i) {
+        if (output.kind(i) == MessageKind.MODE_m) {
+          Mailbox.Mode next = output.modeParameter(i);
+          if (next != mode) {
+            transitions[mode.ordinal()][next.ordinal()]++;
+            mode = next;
+          }
+        }
+      }
+      for (int i = 0; i != injected; ++i) {
+        if (latencies[i] < 0 && this.faults.get(i).isDetectedBy(output)) {
+          latencies[i] = now - this.faults.get(i).time;
+        }
+      }
+      if (mode == Mailbox.Mode.EMERGENCY_STOP) {
+        break;
+      }
+      // Advance to the next synchronisation point, stopping to inject any fault at its exact time
+      long target = Math.min(now + SYNCHRONISATION_PERIOD, duration);
+      while (now < target) {
+        long until = target;
+        if (injected < this.faults.size()) {
+          until = Math.min(until, this.faults.get(injected).time);
+        }
+        int elapsed = (int) Math.min(this.step, until - now);
+        model.clock(elapsed);
+        now += elapsed;
+        injected = inject(model, injected, now);
+      }
+    }
+    long elapsed = System.nanoTime() - start;
+    return new Report(now, elapsed, model.getBoiler().getWaterLevel(), mode, transitions,
+        this.faults, latencies);
+  }
+
+  /**
+   * Inject every fault which is now due, and has not already been injected.
+   *
+   * @param model    The physical units.
+   * @param injected The number of faults injected so far.
+   * @param now      The current time (in simulated ms).
+   * @return The number of faults injected now.
+   */
+  private int inject(PhysicalUnits model, int injected, long now) {
+    int n = injected;
+    while (n < this.faults.size() && this.faults.get(n).time <= now) {
+      this.faults.get(n++).inject(model);
+    }
+    return n;
+  }
+
+  /**
+   * Run a batch simulation and print a summary of the outcome.
+   *
+   * @param args Command-line options, as described above.
+   */
+  public static void main(String[] args) {
+    double hours = 24;
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    int pumps = config.getNumberOfPumps();
+    double capacity = config.getPumpCapacity(0);
+    int step = GRANULARITY;
+    List<Fault> faults = new ArrayList<>();
+    for (int i = 0; i < args.length; i += 2) {
+      if (i + 1 == args.length) {
+        throw new IllegalArgumentException("missing value for " + args[i]); //$NON-NLS-1$
+      }
+      String value = args[i + 1];
+      assert value != null;
+      switch (args[i]) {
+        case "-hours": //$NON-NLS-1$
+          hours = Double.parseDouble(value);
+          break;
+        case "-pumps": //$NON-NLS-1$
+          pumps = Integer.parseInt(value);
+          break;
+        case "-capacity": //$NON-NLS-1$
+          capacity = Double.parseDouble(value);
+          break;
+        case "-step": //$NON-NLS-1$
+          step = Integer.parseInt(value);
+          break;
+        case "-fault": //$NON-NLS-1$
+          faults.add(Fault.parse(value));
+          break;
+        default:
+          throw new IllegalArgumentException("unknown option " + args[i]); //$NON-NLS-1$
+      }
+    }
+    config = config.setNumberOfPumps(pumps, capacity);
+    assert config != null;
+    for (Fault f : faults) {
+      if (f.kind == FaultKind.PUMP || f.kind == FaultKind.CONTROLLER) {
+        if (f.pump < 0 || f.pump >= pumps) {
+          throw new IllegalArgumentException("invalid pump in fault " + f); //$NON-NLS-1$
+        }
+      }
+    }
+    BatchSimulation simulation = new BatchSimulation(config, faults, step);
+    System.out.print(simulation.run((long) (hours * 3600000)));
+  }
+}
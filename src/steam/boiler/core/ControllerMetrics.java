@@ -0,0 +1,276 @@
+package steam.boiler.core;
+
+import java.util.Arrays;
+
+import steam.boiler.core.MySteamBoilerController.State;
+import steam.boiler.runtime.LatencyHistogram;
+
+/**
+ * Records where the time goes in each clock cycle of a controller, together with how often it
+ * changes mode and which failures it detects. All storage is preallocated, so recording never
+ * allocates, and everything recorded can be read at once through <code>snapshot()</code>.
+ *
+ * <p>
+ * Each cycle is split into phases: extracting the incoming messages, validating them, diagnosing
+ * the sensors, computing the control action, and emitting the outgoing messages. The time spent
+ * in each phase is only measured when <code>TIMING</code> is set, by starting the JVM with
+ * <code>-Dsteam.boiler.timing=true</code>. Since the flag is a static final field, every timing
+ * point in the controller is compiled away when it is not set. Mode transitions and failure
+ * detections are always counted, as each costs no more than an increment.
+ * </p>
+ *
+ * <p>
+ * Metrics should only be recorded into by the thread clocking the controller. A snapshot can be
+ * taken from another thread, but is then only approximate unless that thread has synchronised
+ * with the clocking thread.
+ * </p>
+ */
+public final class ControllerMetrics {
+  /**
+   * Set when the time spent in each phase of a cycle is measured.
+   */
+  public static final boolean TIMING = Boolean.getBoolean("steam.boiler.timing"); //$NON-NLS-1$
+
+  /**
+   * The phases of a clock cycle, in the order in which they occur. A phase which is not reached in
+   * some cycle (e.g. because the controller has stopped) records nothing in that cycle, and the
+   * time it would have taken is included in the next phase reached.
+   */
+  public enum Phase {
+    /**
+     * Demultiplexing the incoming messages and updating the health of the pumps.
+     */
+    EXTRACTION,
+    /**
+     * Checking for transmission failures and stop requests.
+     */
+    VALIDATION,
+    /**
+     * Checking the level and steam readings for failures, and handling sensor repairs.
+     */
+    DIAGNOSIS,
+    /**
+     * Determining the mode and the pumps to open.
+     */
+    CONTROL,
+    /**
+     * Sending the pump commands, mode and failure reports.
+     */
+    EMISSION
+  }
+
+  /**
+   * The kinds of failure which a controller detects.
+   */
+  public enum Failure {
+    /**
+     * A missing, duplicated or nonsensical message from the physical units.
+     */
+    TRANSMISSION,
+    /**
+     * A level reading outside the boiler, or outside the range predicted.
+     */
+    LEVEL,
+    /**
+     * A steam reading outside the range the boiler can produce.
+     */
+    STEAM,
+    /**
+     * A pump whose reported state differs from that commanded.
+     */
+    PUMP,
+    /**
+     * A pump controller whose reported state differs from that of its pump.
+     */
+    PUMP_CONTROLLER
+  }
+
+  /**
+   * Number of controller states.
+   */
+  private static final int STATES = State.values().length;
+
+  /**
+   * Histogram of the time (in nanoseconds) spent in each phase, indexed by phase ordinal.
+   */
+  private final LatencyHistogram[] phases;
+
+  /**
+   * Number of transitions between each pair of states, indexed by the ordinal of the state
+   * before, times the number of states, plus the ordinal of the state after.
+   */
+  private final long[] transitions = new long[STATES * STATES];
+
+  /**
+   * Number of failures detected of each kind, indexed by failure ordinal.
+   */
+  private final long[] failures = new long[Failure.values().length];
+
+  /**
+   * Number of clock cycles recorded.
+   */
+  private long cycles;
+
+  /**
+   * The time at which the last phase ended, or the cycle began.
+   */
+  private long last;
+
+  /**
+   * Construct metrics with nothing yet recorded.
+   */
+  public ControllerMetrics() {
+    Phase[] ps = Phase.values();
+    this.phases = new LatencyHistogram[ps.length];
+    for (int i = 0; i != ps.length; ++i) {
+      this.phases[i] = new LatencyHistogram();
+    }
+  }
+
+  /**
+   * Begin timing a cycle. This should only be called when <code>TIMING</code> is set.
+   */
+  void start() {
+    this.last = System.nanoTime();
+  }
+
+  /**
+   * Record the end of a phase, which began when the previous phase ended. This should only be
+   * called when <code>TIMING</code> is set.
+   *
+   * @param phase The phase which has just ended.
+   */
+  void lap(Phase phase) {
+    long now = System.nanoTime();
+    this.phases[phase.ordinal()].record(now - this.last);
+    this.last = now;
+  }
+
+  /**
+   * Record the end of a cycle, and the states before and after it.
+   *
+   * @param from The state at the start of the cycle.
+   * @param to   The state at the end of the cycle.
+   */
+  void cycle(State from, State to) {
+    this.cycles++;
+    if (from != to) {
+      this.transitions[(from.ordinal() * STATES) + to.ordinal()]++;
+    }
+  }
+
+  /**
+   * Record a number of failures of a given kind.
+   *
+   * @param failure The kind of failure detected.
+   * @param count   The number detected.
+   */
+  void detected(Failure failure, int count) {
+    this.failures[failure.ordinal()] += count;
+  }
+
+  /**
+   * Discard everything recorded.
+   */
+  public void reset() {
+    for (LatencyHistogram h : this.phases) {
+      h.reset();
+    }
+    Arrays.fill(this.transitions, 0);
+    Arrays.fill(this.failures, 0);
+    this.cycles = 0;
+  }
+
+  /**
+   * Take a copy of everything recorded so far.
+   *
+   * @return The copy, which is unaffected by anything recorded later.
+   */
+  public Snapshot snapshot() {
+    return new Snapshot(this);
+  }
+
+  /**
+   * An immutable copy of the metrics recorded by a controller up to some point.
+   */
+  public static final class Snapshot {
+    /**
+     * Histogram of the time spent in each phase, indexed by phase ordinal.
+     */
+    private final LatencyHistogram[] phases;
+
+    /**
+     * Number of transitions between each pair of states.
+     */
+    private final long[] transitions;
+
+    /**
+     * Number of failures detected of each kind.
+     */
+    private final long[] failures;
+
+    /**
+     * Number of clock cycles recorded.
+     */
+    private final long cycles;
+
+    /**
+     * Copy the metrics recorded so far.
+     *
+     * @param metrics The metrics to copy.
+     */
+    Snapshot(ControllerMetrics metrics) {
+      this.phases = new LatencyHistogram[metrics.phases.length];
+      for (int i = 0; i != this.phases.length; ++i) {
+        this.phases[i] = new LatencyHistogram();
+        this.phases[i].merge(metrics.phases[i]);
+      }
+      this.transitions = metrics.transitions.clone();
+      this.failures = metrics.failures.clone();
+      this.cycles = metrics.cycles;
+    }
+
+    /**
+     * Get the number of clock cycles recorded.
+     *
+     * @return The count.
+     */
+    public long getCycles() {
+      return this.cycles;
+    }
+
+    /**
+     * Get the times spent in a given phase. Nothing is recorded unless <code>TIMING</code> is
+     * set.
+     *
+     * @param phase The phase.
+     * @return A copy of the histogram of its durations (in nanoseconds).
+     */
+    public LatencyHistogram getPhase(Phase phase) {
+      LatencyHistogram h = new LatencyHistogram();
+      h.merge(this.phases[phase.ordinal()]);
+      return h;
+    }
+
+    /**
+     * Get the number of cycles in which the controller changed from one state to another.
+     *
+     * @param from The state at the start of the cycle.
+     * @param to   The state at the end of the cycle.
+     * @return The count, which is always zero when both states are the same.
+     */
+    public long getTransitions(State from, State to) {
+      return this.transitions[(from.ordinal() * STATES) + to.ordinal()];
+    }
+
+    /**
+     * Get the number of failures of a given kind detected.
+     *
+     * @param failure The kind of failure.
+     * @return The count.
+     */
+    public long getFailures(Failure failure) {
+      return this.failures[failure.ordinal()];
+    }
+  }
+}
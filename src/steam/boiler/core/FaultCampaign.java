@@ -0,0 +1,826 @@
+package steam.boiler.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Predicate;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * Runs a large number of randomly drawn fault schedules against the controller, and checks that
+ * the safety invariants hold throughout each of them. Each schedule is drawn from its own index
+ * (and the seed of the campaign), and is run from scratch against a fresh controller and set of
+ * physical units. Thus, schedules share nothing and are fanned out across a fork-join pool. Every
+ * schedule is always run, and the failures reported are those with the lowest indices, so the
+ * outcome of a campaign does not depend on scheduling or on the number of threads. Each failure
+ * reported is then shrunk to a minimal schedule which still breaks the same invariant.
+ *
+ * <p>
+ * The invariants checked on every synchronisation are that the controller does not throw an
+ * exception, and that it reports exactly one mode. Once the controller has left initialisation,
+ * the water level must also be within the limits, which is checked after every step of the
+ * physical units. A schedule finishes early, and successfully, once the controller enters
+ * emergency stop, provided the level has not already passed a limit. Faults are injected, and
+ * components repaired, at exactly their scheduled times, even between synchronisation points.
+ * </p>
+ *
+ * <p>
+ * The following options are recognised:
+ * </p>
+ * <ul>
+ * <li><code>-schedules N</code> number of schedules to run (default 100000).</li>
+ * <li><code>-seed S</code> seed from which the schedules are drawn (default 0).</li>
+ * <li><code>-threads T</code> number of threads (default one per available core).</li>
+ * <li><code>-seconds D</code> amount of simulated time covered by each schedule (default
+ * 600).</li>
+ * <li><code>-events E</code> largest number of faults in a schedule (default 4).</li>
+ * <li><code>-pumps N</code> number of pumps (default as per the standard configuration).</li>
+ * <li><code>-capacity C</code> capacity of each pump (default as per the standard
+ * configuration).</li>
+ * <li><code>-step MS</code> largest step (in ms) by which the physical units are clocked in one go
+ * (default 100). Coarser steps run faster, but are less accurate, since the level is then only
+ * checked, and pump switches only seen, at the end of each step.</li>
+ * <li><code>-shrink K</code> number of failures to report and shrink (default 3).</li>
+ * <li><code>-replay SCHEDULE</code> run a single schedule (as printed for a failure) instead.</li>
+ * </ul>
+ */
+public final class FaultCampaign {
+  /**
+   * The largest number of schedules run when shrinking a single failure.
+   */
+  public static final int SHRINK_BUDGET = 2000;
+
+  /**
+   * A breach of one of the safety invariants.
+   */
+  public static final class Violation {
+    /**
+     * Identifies the invariants which can be broken.
+     */
+    public enum Kind {
+      /**
+       * The controller threw an exception (or failed an assertion).
+       */
+      EXCEPTION,
+      /**
+       * The controller did not report exactly one mode.
+       */
+      MODE,
+      /**
+       * The water level was beyond the limits after the controller left initialisation.
+       */
+      LEVEL
+    }
+
+    /**
+     * The invariant broken.
+     */
+    final Kind kind;
+
+    /**
+     * The time (in simulated ms) at which it was broken.
+     */
+    final long time;
+
+    /**
+     * Describes how it was broken.
+     */
+    final String detail;
+
+    /**
+     * Construct a violation.
+     *
+     * @param kind   The invariant broken.
+     * @param time   The time (in simulated ms) at which it was broken.
+     * @param detail Describes how it was broken.
+     */
+    Violation(Kind kind, long time, String detail) {
+      this.kind = kind;
+      this.time = time;
+      this.detail = detail;
+    }
+
+    /**
+     * Get the invariant broken.
+     *
+     * @return The kind of violation.
+     */
+    public Kind getKind() {
+      return this.kind;
+    }
+
+    /**
+     * Get the time at which the invariant was broken.
+     *
+     * @return The time (in simulated ms).
+     */
+    public long getTime() {
+      return this.time;
+    }
+
+    @Override
+    public String toString() {
+      return this.kind + " after " + this.time / 1000.0 //$NON-NLS-1$
+          + "s: " + this.detail; //$NON-NLS-1$
+    }
+  }
+
+  /**
+   * A schedule which broke an invariant, together with the minimal schedule it was shrunk to.
+   */
+  public static final class Failure {
+    /**
+     * The index from which the schedule was drawn.
+     */
+    final long index;
+
+    /**
+     * The schedule as drawn.
+     */
+    final FaultSchedule schedule;
+
+    /**
+     * The invariant it broke.
+     */
+    final Violation violation;
+
+    /**
+     * The minimal schedule which breaks the same invariant.
+     */
+    final FaultSchedule shrunk;
+
+    /**
+     * How the minimal schedule breaks it.
+     */
+    final Violation shrunkViolation;
+
+    /**
+     * Construct a failure.
+     *
+     * @param index           The index from which the schedule was drawn.
+     * @param schedule        The schedule as drawn.
+     * @param violation       The invariant it broke.
+     * @param shrunk          The minimal schedule which breaks the same invariant.
+     * @param shrunkViolation How the minimal schedule breaks it.
+     */
+    Failure(long index, FaultSchedule schedule, Violation violation, FaultSchedule shrunk,
+        Violation shrunkViolation) {
+      this.index = index;
+      this.schedule = schedule;
+      this.violation = violation;
+      this.shrunk = shrunk;
+      this.shrunkViolation = shrunkViolation;
+    }
+
+    /**
+     * Get the index from which the schedule was drawn.
+     *
+     * @return The index.
+     */
+    public long getIndex() {
+      return this.index;
+    }
+
+    /**
+     * Get the schedule as drawn.
+     *
+     * @return The schedule.
+     */
+    public FaultSchedule getSchedule() {
+      return this.schedule;
+    }
+
+    /**
+     * Get the invariant broken by the schedule as drawn.
+     *
+     * @return The violation.
+     */
+    public Violation getViolation() {
+      return this.violation;
+    }
+
+    /**
+     * Get the minimal schedule which breaks the same invariant.
+     *
+     * @return The shrunk schedule.
+     */
+    public FaultSchedule getShrunk() {
+      return this.shrunk;
+    }
+
+    /**
+     * Get how the minimal schedule breaks the invariant.
+     *
+     * @return The violation.
+     */
+    public Violation getShrunkViolation() {
+      return this.shrunkViolation;
+    }
+
+    @Override
+    public String toString() {
+      return "schedule " + this.index + ": " + this.violation //$NON-NLS-1$ //$NON-NLS-2$
+          + "\n  drawn:  " + this.schedule //$NON-NLS-1$
+          + "\n  shrunk: " + this.shrunk //$NON-NLS-1$
+          + " (" + this.shrunkViolation + ")"; //$NON-NLS-1$ //$NON-NLS-2$
+    }
+  }
+
+  /**
+   * The outcome of a campaign.
+   */
+  public static final class Report {
+    /**
+     * The number of schedules run.
+     */
+    final long schedules;
+
+    /**
+     * The number of schedules which broke each invariant, indexed by ordinal.
+     */
+    final long[] violations;
+
+    /**
+     * The failures with the lowest indices, in order of index.
+     */
+    final List<Failure> failures;
+
+    /**
+     * The number of threads used.
+     */
+    final int threads;
+
+    /**
+     * The amount of real time (in ns) taken to run the schedules, excluding shrinking.
+     */
+    final long elapsed;
+
+    /**
+     * Construct a report.
+     *
+     * @param schedules  The number of schedules run.
+     * @param violations The number of schedules which broke each invariant.
+     * @param failures   The failures with the lowest indices.
+     * @param threads    The number of threads used.
+     * @param elapsed    The amount of real time (in ns) taken.
+     */
+    Report(long schedules, long[] violations, List<Failure> failures, int threads,
+        long elapsed) {
+      this.schedules = schedules;
+      this.violations = violations;
+      this.failures = failures;
+      this.threads = threads;
+      this.elapsed = elapsed;
+    }
+
+    /**
+     * Get the number of schedules run.
+     *
+     * @return The number of schedules.
+     */
+    public long getSchedules() {
+      return this.schedules;
+    }
+
+    /**
+     * Get the number of schedules which broke any invariant.
+     *
+     * @return The number of failing schedules.
+     */
+    public long getViolations() {
+      long total = 0;
+      for (long n : this.violations) {
+        total += n;
+      }
+      return total;
+    }
+
+    /**
+     * Get the number of schedules which broke a given invariant.
+     *
+     * @param kind The invariant.
+     * @return The number of failing schedules.
+     */
+    public long getViolations(Violation.Kind kind) {
+      return this.violations[kind.ordinal()];
+    }
+
+    /**
+     * Get the failures with the lowest indices, each shrunk to a minimal schedule.
+     *
+     * @return The failures, in order of index.
+     */
+    public List<Failure> getFailures() {
+      return this.failures;
+    }
+
+    /**
+     * Get the throughput of the campaign.
+     *
+     * @return The number of schedules run per second of real time.
+     */
+    public double getThroughput() {
+      return this.elapsed == 0 ? 0 : (this.schedules * 1e9) / this.elapsed;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder();
+      String format = "schedules: %d in %.3fs (%.0f schedules/s, %d threads)%n"; //$NON-NLS-1$
+      sb.append(String.format(format, Long.valueOf(this.schedules),
+          Double.valueOf(this.elapsed / 1e9), Double.valueOf(getThroughput()),
+          Integer.valueOf(this.threads)));
+      sb.append("violations: ").append(getViolations()); //$NON-NLS-1$
+      for (Violation.Kind kind : Violation.Kind.values()) {
+        sb.append(' ').append(kind).append('=').append(getViolations(kind));
+      }
+      sb.append('\n');
+      for (Failure f : this.failures) {
+        sb.append(f).append('\n');
+      }
+      return sb.toString();
+    }
+  }
+
+  /**
+   * The configuration being simulated.
+   */
+  private final SteamBoilerCharacteristics config;
+
+  /**
+   * The amount of time (in simulated ms) covered by each schedule.
+   */
+  private final long duration;
+
+  /**
+   * The largest number of events in a schedule.
+   */
+  private final int maxEvents;
+
+  /**
+   * The largest step (in ms) by which to clock the physical units in one go.
+   */
+  private final int step;
+
+  /**
+   * Construct a campaign.
+   *
+   * @param config    The configuration to simulate.
+   * @param duration  The amount of time (in simulated ms) covered by each schedule.
+   * @param maxEvents The largest number of events in a schedule.
+   * @param step      The largest step (in ms) by which to clock the physical units in one go.
+   */
+  public FaultCampaign(SteamBoilerCharacteristics config, long duration, int maxEvents,
+      int step) {
+    if (step <= 0 || duration < BatchSimulation.SYNCHRONISATION_PERIOD || maxEvents < 0) {
+      throw new IllegalArgumentException("invalid campaign"); //$NON-NLS-1$
+    }
+    this.config = config;
+    this.duration = duration;
+    this.maxEvents = maxEvents;
+    this.step = step;
+  }
+
+  /**
+   * Draw the schedule with a given index. The same seed and index always give the same schedule.
+   *
+   * @param seed  The seed of the campaign.
+   * @param index The index of the schedule.
+   * @return The schedule.
+   */
+  public FaultSchedule schedule(long seed, long index) {
+    SplittableRandom random = new SplittableRandom(seed ^ (index * 0x9E3779B97F4A7C15L));
+    return FaultSchedule.random(random, this.config, this.duration, this.maxEvents);
+  }
+
+  /**
+   * Run a single schedule and check the invariants throughout.
+   *
+   * @param schedule The schedule to run.
+   * @return The first invariant broken, or <code>null</code> if none was.
+   */
+  public @Nullable Violation check(FaultSchedule schedule) {
+    return check(schedule, new RingMailbox(64), new RingMailbox(64));
+  }
+
+  /**
+   * Run a single schedule using given mailboxes, and check the invariants throughout.
+   *
+   * @param schedule The schedule to run.
+   * @param input    The mailbox through which the physical units transmit to the controller.
+   * @param output   The mailbox through which the controller transmits to the physical units.
+   * @return The first invariant broken, or <code>null</code> if none was.
+   */
+  @Nullable
+  Violation check(FaultSchedule schedule, RingMailbox input, RingMailbox output) {
+    MySteamBoilerController controller = new MySteamBoilerController(this.config);
+    PhysicalUnits units = new PhysicalUnits.Template(this.config).construct();
+    units.setMode(PhysicalUnits.Mode.WAITING);
+    double minimum = this.config.getMinimalLimitLevel();
+    double maximum = this.config.getMaximalLimitLevel();
+    // Whether each fault has been injected, and whether it has since been repaired or replaced
+    boolean[] injected = new boolean[schedule.size()];
+    boolean[] finished = new boolean[schedule.size()];
+    // Whether the controller has left initialisation, and so is responsible for the level
+    boolean operating = false;
+    long now = 0;
+    while (now < this.duration) {
+      update(schedule, units, now, injected, finished);
+      input.clear();
+      output.clear();
+      units.transmit(input);
+      try {
+        controller.clock(input, output);
+      } catch (AssertionError | RuntimeException e) {
+        return new Violation(Violation.Kind.EXCEPTION, now, e.toString());
+      }
+      units.receive(output);
+      Mailbox.Mode mode = null;
+      int modes = 0;
+      for (int i = 0; i != output.size(); ++i) {
+        if (output.kind(i) == MessageKind.MODE_m) {
+          mode = output.modeParameter(i);
+          modes++;
+        }
+      }
+      if (mode == null || modes != 1) {
+        return new Violation(Violation.Kind.MODE, now, modes + " modes reported"); //$NON-NLS-1$
+      }
+      // A stop is only safe if the level has not already passed a limit. Stopping straight from
+      // initialisation is always safe, since the boiler may still be below the limits then.
+      operating |= mode != Mailbox.Mode.INITIALISATION && mode != Mailbox.Mode.EMERGENCY_STOP;
+      Violation v = checkLevel(units, operating, mode, now, minimum, maximum);
+      if (v != null || mode == Mailbox.Mode.EMERGENCY_STOP) {
+        return v;
+      }
+      // Advance to the next synchronisation point, checking the level after every step and
+      // stopping to inject or repair at the exact time of each event
+      long target = Math.min(now + BatchSimulation.SYNCHRONISATION_PERIOD, this.duration);
+      while (now < target) {
+        long until = Math.min(target, due(schedule, injected, finished));
+        int elapsed = (int) Math.min(this.step, until - now);
+        units.clock(elapsed);
+        now += elapsed;
+        v = checkLevel(units, operating, mode, now, minimum, maximum);
+        if (v != null) {
+          return v;
+        }
+        update(schedule, units, now, injected, finished);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Check the water level is within the limits, once the controller has left initialisation.
+   *
+   * @param units     The physical units.
+   * @param operating Whether the controller has left initialisation.
+   * @param mode      The mode last reported by the controller.
+   * @param now       The current time (in simulated ms).
+   * @param minimum   The minimal limit level.
+   * @param maximum   The maximal limit level.
+   * @return The violation, or <code>null</code> if the level is within the limits.
+   */
+  private static @Nullable Violation checkLevel(PhysicalUnits units, boolean operating,
+      Mailbox.Mode mode, long now, double minimum, double maximum) {
+    double level = units.getBoiler().getWaterLevel();
+    if (operating && (level < minimum || level > maximum)) {
+      return new Violation(Violation.Kind.LEVEL, now,
+          "water level " + level + " in " + mode //$NON-NLS-1$ //$NON-NLS-2$
+              + " mode"); //$NON-NLS-1$
+    }
+    return null;
+  }
+
+  /**
+   * Repair any components now due to be repaired, and then inject any faults now due. A repair
+   * only restores a component if its fault has not since been replaced by another.
+   *
+   * @param schedule The schedule being run.
+   * @param units    The physical units.
+   * @param now      The current time (in simulated ms).
+   * @param injected Whether each fault has been injected.
+   * @param finished Whether each fault has been repaired or replaced.
+   */
+  private static void update(FaultSchedule schedule, PhysicalUnits units, long now,
+      boolean[] injected, boolean[] finished) {
+    int n = schedule.size();
+    for (int i = 0; i != n; ++i) {
+      FaultSchedule.Event e = schedule.get(i);
+      if (injected[i] && !finished[i] && e.repair >= 0 && e.repair <= now) {
+        e.repair(units);
+        finished[i] = true;
+      }
+    }
+    for (int i = 0; i != n; ++i) {
+      FaultSchedule.Event e = schedule.get(i);
+      if (!injected[i] && e.time <= now) {
+        for (int j = 0; j != n; ++j) {
+          if (injected[j] && schedule.get(j).isSameComponent(e)) {
+            finished[j] = true;
+          }
+        }
+        e.inject(units);
+        injected[i] = true;
+      }
+    }
+  }
+
+  /**
+   * Determine when the next fault is due to be injected, or component due to be repaired. Every
+   * event due up to the current time must already have been applied.
+   *
+   * @param schedule The schedule being run.
+   * @param injected Whether each fault has been injected.
+   * @param finished Whether each fault has been repaired or replaced.
+   * @return The time (in simulated ms) of the next event, or <code>Long.MAX_VALUE</code> if there
+   *         are none.
+   */
+  private static long due(FaultSchedule schedule, boolean[] injected, boolean[] finished) {
+    long due = Long.MAX_VALUE;
+    for (int i = 0; i != schedule.size(); ++i) {
+      FaultSchedule.Event e = schedule.get(i);
+      if (!injected[i]) {
+        due = Math.min(due, e.time);
+      } else if (!finished[i] && e.repair >= 0) {
+        due = Math.min(due, e.repair);
+      }
+    }
+    return due;
+  }
+
+  /**
+   * Shrink a failing schedule to a minimal one which still breaks the same invariant.
+   *
+   * @param index     The index from which the schedule was drawn.
+   * @param schedule  The schedule.
+   * @param violation The invariant it broke.
+   * @return The failure, including the minimal schedule.
+   */
+  public Failure shrink(long index, FaultSchedule schedule, Violation violation) {
+    RingMailbox input = new RingMailbox(64);
+    RingMailbox output = new RingMailbox(64);
+    FaultSchedule shrunk = shrink(schedule, (FaultSchedule s) -> {
+      Violation v = check(s, input, output);
+      return v != null && v.kind == violation.kind;
+    }, SHRINK_BUDGET);
+    Violation v = check(shrunk, input, output);
+    assert v != null;
+    return new Failure(index, schedule, violation, shrunk, v);
+  }
+
+  /**
+   * Shrink a schedule to a minimal one which still fails a given check. The first simplification
+   * of the current schedule which still fails is taken, until none do or the budget runs out.
+   * Thus, the result is minimal in that none of its simplifications fail (budget permitting).
+   *
+   * @param schedule The schedule, which fails the check.
+   * @param fails    Determines whether a schedule fails.
+   * @param budget   The largest number of schedules to check.
+   * @return The minimal schedule.
+   */
+  public static FaultSchedule shrink(FaultSchedule schedule, Predicate<FaultSchedule> fails,
+      int budget) {
+    FaultSchedule current = schedule;
+    int remaining = budget;
+    boolean progress = true;
+    while (progress && remaining > 0) {
+      progress = false;
+      for (FaultSchedule candidate : current.simplifications()) {
+        if (remaining-- == 0) {
+          break;
+        }
+        if (fails.test(candidate)) {
+          current = candidate;
+          progress = true;
+          break;
+        }
+      }
+    }
+    return current;
+  }
+
+  /**
+   * Run a campaign, and shrink the failures with the lowest indices.
+   *
+   * @param seed      The seed from which the schedules are drawn.
+   * @param schedules The number of schedules.
+   * @param threads   The number of threads to use.
+   * @param keep      The number of failures to report and shrink.
+   * @return The outcome.
+   */
+  public Report run(long seed, long schedules, int threads, int keep) {
+    AtomicLongArray violations = new AtomicLongArray(Violation.Kind.values().length);
+    TreeSet<Long> lowest = new TreeSet<>();
+    ForkJoinPool pool = new ForkJoinPool(threads);
+    long start = System.nanoTime();
+    try {
+      pool.invoke(new Batch(seed, 0, schedules, keep, violations, lowest));
+    } finally {
+      pool.shutdown();
+    }
+    long elapsed = System.nanoTime() - start;
+    List<Failure> failures = new ArrayList<>();
+    RingMailbox input = new RingMailbox(64);
+    RingMailbox output = new RingMailbox(64);
+    for (Long boxed : lowest) {
+      long index = boxed.longValue();
+      FaultSchedule schedule = schedule(seed, index);
+      Violation v = check(schedule, input, output);
+      assert v != null;
+      failures.add(shrink(index, schedule, v));
+    }
+    long[] counts = new long[violations.length()];
+    for (int k = 0; k != counts.length; ++k) {
+      counts[k] = violations.get(k);
+    }
+    return new Report(schedules, counts, Collections.unmodifiableList(failures), threads,
+        elapsed);
+  }
+
+  /**
+   * Runs a contiguous range of schedules, splitting it in half until it is small enough to run
+   * directly.
+   */
+  private final class Batch extends RecursiveAction {
+    /**
+     * Required since actions are serializable.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Ranges with at most this many schedules are run directly.
+     */
+    private static final int THRESHOLD = 64;
+
+    /**
+     * The seed from which the schedules are drawn.
+     */
+    private final long seed;
+
+    /**
+     * First index of the range (inclusive).
+     */
+    private final long from;
+
+    /**
+     * Last index of the range (exclusive).
+     */
+    private final long to;
+
+    /**
+     * The number of failures to keep.
+     */
+    private final int keep;
+
+    /**
+     * Counts the schedules which broke each invariant.
+     */
+    private final AtomicLongArray violations;
+
+    /**
+     * The indices of the failing schedules with the lowest indices, guarded by itself.
+     */
+    private final TreeSet<Long> lowest;
+
+    /**
+     * Construct an action for a given range of schedules.
+     *
+     * @param seed       The seed from which the schedules are drawn.
+     * @param from       First index of the range (inclusive).
+     * @param to         Last index of the range (exclusive).
+     * @param keep       The number of failures to keep.
+     * @param violations Counts the schedules which broke each invariant.
+     * @param lowest     The indices of the failing schedules with the lowest indices.
+     */
+    Batch(long seed, long from, long to, int keep, AtomicLongArray violations,
+        TreeSet<Long> lowest) {
+      this.seed = seed;
+      this.from = from;
+      this.to = to;
+      this.keep = keep;
+      this.violations = violations;
+      this.lowest = lowest;
+    }
+
+    @Override
+    protected void compute() {
+      if (this.to - this.from <= THRESHOLD) {
+        RingMailbox input = new RingMailbox(64);
+        RingMailbox output = new RingMailbox(64);
+        for (long i = this.from; i < this.to; ++i) {
+          Violation v = check(schedule(this.seed, i), input, output);
+          if (v != null) {
+            this.violations.incrementAndGet(v.kind.ordinal());
+            record(i);
+          }
+        }
+      } else {
+        long middle = (this.from + this.to) >>> 1;
+        invokeAll(new Batch(this.seed, this.from, middle, this.keep, this.violations, this.lowest),
+            new Batch(this.seed, middle, this.to, this.keep, this.violations, this.lowest));
+      }
+    }
+
+    /**
+     * Record the index of a failing schedule, if it is amongst the lowest.
+     *
+     * @param index The index.
+     */
+    private void record(long index) {
+      synchronized (this.lowest) {
+        this.lowest.add(Long.valueOf(index));
+        if (this.lowest.size() > this.keep) {
+          this.lowest.pollLast();
+        }
+      }
+    }
+  }
+
+  /**
+   * Run a fault campaign and print a summary of the outcome.
+   *
+   * @param args Command-line options, as described above.
+   */
+  public static void main(String[] args) {
+    long schedules = 100000;
+    long seed = 0;
+    int threads = Runtime.getRuntime().availableProcessors();
+    double seconds = 600;
+    int events = 4;
+    SteamBoilerCharacteristics config = SteamBoilerCharacteristics.DEFAULT;
+    int pumps = config.getNumberOfPumps();
+    double capacity = config.getPumpCapacity(0);
+    int step = BatchSimulation.GRANULARITY;
+    int keep = 3;
+    String replay = null;
+    for (int i = 0; i < args.length; i += 2) {
+      if (i + 1 == args.length) {
+        throw new IllegalArgumentException("missing value for " + args[i]); //$NON-NLS-1$
+      }
+      String value = args[i + 1];
+      assert value != null;
+      switch (args[i]) {
+        case "-schedules": //$NON-NLS-1$
+          schedules = Long.parseLong(value);
+          break;
+        case "-seed": //$NON-NLS-1$
+          seed = Long.parseLong(value);
+          break;
+        case "-threads": //$NON-NLS-1$
+          threads = Integer.parseInt(value);
+          break;
+        case "-seconds": //$NON-NLS-1$
+          seconds = Double.parseDouble(value);
+          break;
+        case "-events": //$NON-NLS-1$
+          events = Integer.parseInt(value);
+          break;
+        case "-pumps": //$NON-NLS-1$
+          pumps = Integer.parseInt(value);
+          break;
+        case "-capacity": //$NON-NLS-1$
+          capacity = Double.parseDouble(value);
+          break;
+        case "-step": //$NON-NLS-1$
+          step = Integer.parseInt(value);
+          break;
+        case "-shrink": //$NON-NLS-1$
+          keep = Integer.parseInt(value);
+          break;
+        case "-replay": //$NON-NLS-1$
+          replay = value;
+          break;
+        default:
+          throw new IllegalArgumentException("unknown option " + args[i]); //$NON-NLS-1$
+      }
+    }
+    config = config.setNumberOfPumps(pumps, capacity);
+    assert config != null;
+    FaultCampaign campaign = new FaultCampaign(config, (long) (seconds * 1000), events, step);
+    if (replay != null) {
+      FaultSchedule schedule = FaultSchedule.parse(replay);
+      for (FaultSchedule.Event e : schedule.getEvents()) {
+        if (e.getPump() >= pumps) {
+          throw new IllegalArgumentException("invalid pump in fault " + e); //$NON-NLS-1$
+        }
+      }
+      Violation v = campaign.check(schedule);
+      System.out.println(v == null ? "no violation" : v.toString()); //$NON-NLS-1$
+    } else {
+      System.out.print(campaign.run(seed, schedules, threads, keep));
+    }
+  }
+}
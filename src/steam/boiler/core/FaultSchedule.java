@@ -0,0 +1,519 @@
+package steam.boiler.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import steam.boiler.model.LevelSensorModels;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.model.PumpControllerModels;
+import steam.boiler.model.PumpModels;
+import steam.boiler.model.SteamSensorModels;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * A sequence of faults to inject into the physical units, each at a given time and on a given
+ * component, and each optionally repaired at some later time. Schedules are drawn at random for a
+ * <code>FaultCampaign</code>, and a schedule which breaks the controller is shrunk by repeatedly
+ * trying its <code>simplifications()</code>. Schedules are immutable, and are printed in the same
+ * form as they are parsed, so a shrunk schedule can be replayed from the command line.
+ *
+ * <p>
+ * An event is written <code>T:MODEL[:N][/R]</code>, where <code>T</code> is the time (in simulated
+ * seconds) at which the fault is injected, <code>MODEL</code> is the fault model,
+ * <code>N</code> identifies the pump for pump and pump controller faults, and <code>R</code> is
+ * the time (in simulated seconds) at which the component is repaired. A schedule is written as its
+ * events separated by commas.
+ * </p>
+ */
+public final class FaultSchedule {
+  /**
+   * Identifies the components of the physical units which can fail.
+   */
+  public enum Component {
+    /**
+     * A pump.
+     */
+    PUMP,
+    /**
+     * The controller of a pump.
+     */
+    PUMP_CONTROLLER,
+    /**
+     * The water level sensor.
+     */
+    LEVEL_SENSOR,
+    /**
+     * The steam sensor.
+     */
+    STEAM_SENSOR
+  }
+
+  /**
+   * Identifies the ways in which a component can fail, drawn from the families of models for each
+   * component.
+   */
+  public enum FaultModel {
+    /**
+     * A pump gets stuck closed (<code>PumpModels.StuckClosed</code>).
+     */
+    PUMP_STUCK_CLOSED(Component.PUMP),
+    /**
+     * A pump sticks open once opened (<code>PumpModels.SticksOpen</code>).
+     */
+    PUMP_STICKS_OPEN(Component.PUMP),
+    /**
+     * A pump stops transmitting (<code>PumpModels.TxFailureAll</code>).
+     */
+    PUMP_TX_FAILURE(Component.PUMP),
+    /**
+     * A pump controller always reports no flow (<code>PumpControllerModels.StuckOff</code>).
+     */
+    CONTROLLER_STUCK_OFF(Component.PUMP_CONTROLLER),
+    /**
+     * A pump controller stops transmitting (<code>PumpControllerModels.TxFailure</code>).
+     */
+    CONTROLLER_TX_FAILURE(Component.PUMP_CONTROLLER),
+    /**
+     * The level sensor gets stuck reading -1 (<code>LevelSensorModels.StuckNegativeOne</code>).
+     */
+    LEVEL_STUCK_NEGATIVE_ONE(Component.LEVEL_SENSOR),
+    /**
+     * The level sensor gets stuck reading above the capacity of the boiler
+     * (<code>LevelSensorModels.Stuck</code>).
+     */
+    LEVEL_STUCK_HIGH(Component.LEVEL_SENSOR),
+    /**
+     * The level sensor stops transmitting (<code>LevelSensorModels.TxFailure</code>).
+     */
+    LEVEL_TX_FAILURE(Component.LEVEL_SENSOR),
+    /**
+     * The steam sensor gets stuck reading -1 (<code>SteamSensorModels.StuckNegativeOne</code>).
+     */
+    STEAM_STUCK_NEGATIVE_ONE(Component.STEAM_SENSOR),
+    /**
+     * The steam sensor gets stuck reading the capacity of the boiler
+     * (<code>SteamSensorModels.Stuck</code>).
+     */
+    STEAM_STUCK_HIGH(Component.STEAM_SENSOR),
+    /**
+     * The steam sensor stops transmitting (<code>SteamSensorModels.TxFailure</code>).
+     */
+    STEAM_TX_FAILURE(Component.STEAM_SENSOR);
+
+    /**
+     * The kind of component which fails.
+     */
+    private final Component component;
+
+    /**
+     * Construct a fault model.
+     *
+     * @param component The kind of component which fails.
+     */
+    private FaultModel(Component component) {
+      this.component = component;
+    }
+
+    /**
+     * Get the kind of component which fails.
+     *
+     * @return The component.
+     */
+    public Component getComponent() {
+      return this.component;
+    }
+
+    /**
+     * Determine whether this fault affects a particular pump, or its controller.
+     *
+     * @return True if a pump must be identified.
+     */
+    public boolean isPerPump() {
+      return this.component == Component.PUMP || this.component == Component.PUMP_CONTROLLER;
+    }
+  }
+
+  /**
+   * A fault injected at a given time, and optionally repaired at a later time.
+   */
+  public static final class Event {
+    /**
+     * The time (in simulated ms) at which the fault is injected.
+     */
+    final long time;
+
+    /**
+     * The way in which the component fails.
+     */
+    final FaultModel model;
+
+    /**
+     * The pump affected, for pump and pump controller faults, and otherwise 0.
+     */
+    final int pump;
+
+    /**
+     * The time (in simulated ms) at which the component is repaired, or -1 if it never is.
+     */
+    final long repair;
+
+    /**
+     * Construct an event.
+     *
+     * @param time   The time (in simulated ms) at which to inject the fault.
+     * @param model  The way in which the component fails.
+     * @param pump   The pump affected, for pump and pump controller faults.
+     * @param repair The time (in simulated ms) at which to repair the component, which must be
+     *               after the fault is injected, or -1 if it is never repaired.
+     */
+    public Event(long time, FaultModel model, int pump, long repair) {
+      if (time < 0 || (repair >= 0 && repair <= time) || pump < 0) {
+        throw new IllegalArgumentException("invalid fault event"); //$NON-NLS-1$
+      }
+      this.time = time;
+      this.model = model;
+      this.pump = model.isPerPump() ? pump : 0;
+      this.repair = repair;
+    }
+
+    /**
+     * Parse an event, in the form <code>T:MODEL[:N][/R]</code> where times are in simulated
+     * seconds.
+     *
+     * @param text The text to parse.
+     * @return The event.
+     */
+    public static Event parse(String text) {
+      String[] halves = text.split("/"); //$NON-NLS-1$
+      String[] parts = halves[0].split(":"); //$NON-NLS-1$
+      if (halves.length > 2 || parts.length < 2 || parts.length > 3) {
+        throw new IllegalArgumentException("invalid fault event " + text); //$NON-NLS-1$
+      }
+      long time = (long) (Double.parseDouble(parts[0]) * 1000);
+      FaultModel model = FaultModel.valueOf(parts[1].toUpperCase());
+      assert model != null;
+      int pump = parts.length == 3 ? Integer.parseInt(parts[2]) : 0;
+      long repair = halves.length == 2 ? (long) (Double.parseDouble(halves[1]) * 1000) : -1;
+      return new Event(time, model, pump, repair);
+    }
+
+    /**
+     * Get the time at which the fault is injected.
+     *
+     * @return The time (in simulated ms).
+     */
+    public long getTime() {
+      return this.time;
+    }
+
+    /**
+     * Get the way in which the component fails.
+     *
+     * @return The fault model.
+     */
+    public FaultModel getModel() {
+      return this.model;
+    }
+
+    /**
+     * Get the pump affected by this fault.
+     *
+     * @return The pump number, which is 0 unless the fault affects a pump or pump controller.
+     */
+    public int getPump() {
+      return this.pump;
+    }
+
+    /**
+     * Get the time at which the component is repaired.
+     *
+     * @return The time (in simulated ms), or -1 if it is never repaired.
+     */
+    public long getRepair() {
+      return this.repair;
+    }
+
+    /**
+     * Determine whether this event affects the same component as another.
+     *
+     * @param other The other event.
+     * @return True if both affect the same component.
+     */
+    boolean isSameComponent(Event other) {
+      return this.model.component == other.model.component && this.pump == other.pump;
+    }
+
+    /**
+     * Break the physical units in the way described by this event.
+     *
+     * @param units The physical units.
+     */
+    void inject(PhysicalUnits units) {
+      SteamBoilerCharacteristics config = units.getConfiguration();
+      int n = this.pump;
+      switch (this.model) {
+        case PUMP_STUCK_CLOSED:
+          units.setPump(n, new PumpModels.StuckClosed(n, config.getPumpCapacity(n), units));
+          break;
+        case PUMP_STICKS_OPEN:
+          units.setPump(n, new PumpModels.SticksOpen(n, config.getPumpCapacity(n), units));
+          break;
+        case PUMP_TX_FAILURE:
+          units.setPump(n, new PumpModels.TxFailureAll(n, config.getPumpCapacity(n), units));
+          break;
+        case CONTROLLER_STUCK_OFF:
+          units.setPumpController(n, new PumpControllerModels.StuckOff(n, units));
+          break;
+        case CONTROLLER_TX_FAILURE:
+          units.setPumpController(n, new PumpControllerModels.TxFailure(n, units));
+          break;
+        case LEVEL_STUCK_NEGATIVE_ONE:
+          units.setLevelSensor(new LevelSensorModels.StuckNegativeOne(units));
+          break;
+        case LEVEL_STUCK_HIGH:
+          units.setLevelSensor(new LevelSensorModels.Stuck(units, config.getCapacity() + 10));
+          break;
+        case LEVEL_TX_FAILURE:
+          units.setLevelSensor(new LevelSensorModels.TxFailure(units));
+          break;
+        case STEAM_STUCK_NEGATIVE_ONE:
+          units.setSteamSensor(new SteamSensorModels.StuckNegativeOne(units));
+          break;
+        case STEAM_STUCK_HIGH:
+          units.setSteamSensor(new SteamSensorModels.Stuck(units, config.getCapacity()));
+          break;
+        default:
+          units.setSteamSensor(new SteamSensorModels.TxFailure(units));
+          break;
+      }
+    }
+
+    /**
+     * Repair the component broken by this event, by restoring its ideal model. A repaired pump is
+     * also reported as such to the controller.
+     *
+     * @param units The physical units.
+     */
+    void repair(PhysicalUnits units) {
+      SteamBoilerCharacteristics config = units.getConfiguration();
+      int n = this.pump;
+      switch (this.model.component) {
+        case PUMP:
+          units.setPump(n, new PumpModels.Ideal(n, config.getPumpCapacity(n), units));
+          units.setPumpStatus(n, PhysicalUnits.ComponentStatus.REPAIRED);
+          break;
+        case PUMP_CONTROLLER:
+          units.setPumpController(n, new PumpControllerModels.Ideal(n, units));
+          break;
+        case LEVEL_SENSOR:
+          units.setLevelSensor(new LevelSensorModels.Ideal(units));
+          break;
+        default:
+          units.setSteamSensor(new SteamSensorModels.Ideal(units));
+          break;
+      }
+    }
+
+    @Override
+    public boolean equals(@Nullable Object o) {
+      if (!(o instanceof Event)) {
+        return false;
+      }
+      Event e = (Event) o;
+      return this.time == e.time && this.model == e.model && this.pump == e.pump
+          && this.repair == e.repair;
+    }
+
+    @Override
+    public int hashCode() {
+      int h = (31 * Long.hashCode(this.time)) + this.model.ordinal();
+      return (31 * ((31 * h) + this.pump)) + Long.hashCode(this.repair);
+    }
+
+    @Override
+    public String toString() {
+      String s = this.time / 1000.0 + ":" + this.model; //$NON-NLS-1$
+      if (this.model.isPerPump()) {
+        s += ":" + this.pump; //$NON-NLS-1$
+      }
+      if (this.repair >= 0) {
+        s += "/" + this.repair / 1000.0; //$NON-NLS-1$
+      }
+      return s;
+    }
+  }
+
+  /**
+   * The events of this schedule, sorted by time.
+   */
+  private final Event[] events;
+
+  /**
+   * Construct a schedule.
+   *
+   * @param events The events (in any order).
+   */
+  public FaultSchedule(List<Event> events) {
+    this.events = events.toArray(new Event[events.size()]);
+    Arrays.sort(this.events, (Event a, Event b) -> Long.compare(a.time, b.time));
+  }
+
+  /**
+   * Parse a schedule, written as its events separated by commas.
+   *
+   * @param text The text to parse, which is empty for a schedule without faults.
+   * @return The schedule.
+   */
+  public static FaultSchedule parse(String text) {
+    List<Event> events = new ArrayList<>();
+    for (String event : text.split(",")) { //$NON-NLS-1$
+      if (!event.trim().isEmpty()) {
+        events.add(Event.parse(event.trim()));
+      }
+    }
+    return new FaultSchedule(events);
+  }
+
+  /**
+   * Draw a schedule at random. Faults are injected, and components repaired, at synchronisation
+   * points strictly within a given duration.
+   *
+   * @param random    The source of randomness.
+   * @param config    The configuration of the boiler, which determines the number of pumps.
+   * @param duration  The amount of time (in simulated ms) covered by the schedule.
+   * @param maxEvents The largest number of events in the schedule.
+   * @return The schedule.
+   */
+  public static FaultSchedule random(SplittableRandom random, SteamBoilerCharacteristics config,
+      long duration, int maxEvents) {
+    FaultModel[] models = FaultModel.values();
+    int periods = (int) (duration / BatchSimulation.SYNCHRONISATION_PERIOD);
+    int count = random.nextInt(maxEvents + 1);
+    List<Event> events = new ArrayList<>(count);
+    for (int i = 0; i != count; ++i) {
+      int start = random.nextInt(periods);
+      FaultModel model = models[random.nextInt(models.length)];
+      int pump = random.nextInt(config.getNumberOfPumps());
+      long repair = -1;
+      // Repair half of the faults which leave room for it
+      if (start + 1 < periods && random.nextBoolean()) {
+        repair = (long) random.nextInt(start + 1, periods) * BatchSimulation.SYNCHRONISATION_PERIOD;
+      }
+      events.add(new Event((long) start * BatchSimulation.SYNCHRONISATION_PERIOD, model, pump,
+          repair));
+    }
+    return new FaultSchedule(events);
+  }
+
+  /**
+   * Get the events of this schedule.
+   *
+   * @return The events, sorted by time.
+   */
+  public List<Event> getEvents() {
+    List<Event> r = Collections.unmodifiableList(Arrays.asList(this.events));
+    assert r != null;
+    return r;
+  }
+
+  /**
+   * Get the number of events in this schedule.
+   *
+   * @return The number of events.
+   */
+  public int size() {
+    return this.events.length;
+  }
+
+  /**
+   * Get the <code>i</code>th event of this schedule.
+   *
+   * @param i Index of the event, in order of time.
+   * @return The event.
+   */
+  public Event get(int i) {
+    Event e = this.events[i];
+    assert e != null;
+    return e;
+  }
+
+  /**
+   * Get the schedules which are one step simpler than this one, simplest first. Each is smaller
+   * in at least one respect, and larger in none: it has fewer events, fewer repairs, earlier
+   * faults or lower numbered pumps. Thus, repeatedly replacing a schedule by any of its
+   * simplifications always terminates.
+   *
+   * @return The simplifications.
+   */
+  public List<FaultSchedule> simplifications() {
+    List<FaultSchedule> r = new ArrayList<>();
+    // Drop an event
+    for (int i = 0; i != this.events.length; ++i) {
+      List<Event> rest = new ArrayList<>(Arrays.asList(this.events));
+      rest.remove(i);
+      r.add(new FaultSchedule(rest));
+    }
+    for (int i = 0; i != this.events.length; ++i) {
+      Event e = get(i);
+      // Never repair the component
+      if (e.repair >= 0) {
+        r.add(replace(i, new Event(e.time, e.model, e.pump, -1)));
+      }
+      // Inject the fault at the start, or earlier
+      if (e.time > 0) {
+        r.add(replace(i, new Event(0, e.model, e.pump, e.repair)));
+        long half = (e.time / 2) - ((e.time / 2) % BatchSimulation.SYNCHRONISATION_PERIOD);
+        if (half > 0) {
+          r.add(replace(i, new Event(half, e.model, e.pump, e.repair)));
+        }
+      }
+      // Break the first pump instead
+      if (e.pump > 0) {
+        r.add(replace(i, new Event(e.time, e.model, 0, e.repair)));
+      }
+    }
+    return r;
+  }
+
+  /**
+   * Construct a copy of this schedule with one event replaced.
+   *
+   * @param i     Index of the event to replace.
+   * @param event The replacement event.
+   * @return The new schedule.
+   */
+  private FaultSchedule replace(int i, Event event) {
+    List<Event> r = new ArrayList<>(Arrays.asList(this.events));
+    r.set(i, event);
+    return new FaultSchedule(r);
+  }
+
+  @Override
+  public boolean equals(@Nullable Object o) {
+    return o instanceof FaultSchedule && Arrays.equals(this.events, ((FaultSchedule) o).events);
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(this.events);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    for (Event e : this.events) {
+      if (sb.length() != 0) {
+        sb.append(',');
+      }
+      sb.append(e);
+    }
+    String s = sb.toString();
+    assert s != null;
+    return s;
+  }
+}
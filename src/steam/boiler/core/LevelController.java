@@ -0,0 +1,164 @@
+package steam.boiler.core;
+
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * A PID controller for the water level, with feed-forward from the steam output. Its output is a
+ * continuous inflow (in litres/sec), which must then be approximated by opening some set of pumps.
+ * The feed-forward term is the steam output itself, since that is the inflow needed to hold the
+ * level steady. The feedback terms then only have to correct for the difference between the level
+ * and the middle of the normal band, and for any persistent bias (e.g. from the steam output
+ * rising during a cycle).
+ *
+ * <p>
+ * The derivative is taken of the level rather than of the error (so that it does not kick when the
+ * target changes), and is low-pass filtered. To prevent windup, the integral is not accumulated
+ * whilst the output is saturated in the direction of the error, and is anyway limited to the total
+ * pump capacity. All state is held in primitive fields, so an update takes constant time and
+ * never allocates.
+ * </p>
+ */
+public final class LevelController {
+  /**
+   * Proportional gain (in litres/sec per litre of error). At this gain, half of any error is
+   * corrected in one cycle.
+   */
+  static final double PROPORTIONAL = 0.1;
+
+  /**
+   * Integral gain (in litres/sec per litre-second of error).
+   */
+  static final double INTEGRAL = 0.002;
+
+  /**
+   * Derivative gain (in litres/sec per litre/sec of level change).
+   */
+  static final double DERIVATIVE = 0.1;
+
+  /**
+   * Weight given to the previous derivative estimate by the low-pass filter.
+   */
+  static final double FILTER = 0.5;
+
+  /**
+   * The level at the middle of the normal band.
+   */
+  private final double target;
+
+  /**
+   * The integral term (in litres/sec).
+   */
+  private double integral;
+
+  /**
+   * The filtered rate of change of the level (in litres/sec).
+   */
+  private double derivative;
+
+  /**
+   * The level at the last update.
+   */
+  private double lastLevel;
+
+  /**
+   * Set when there has been an update since the last reset, such that the rate of change of the
+   * level can be determined.
+   */
+  private boolean primed;
+
+  /**
+   * Construct a controller for a given configuration.
+   *
+   * @param config The boiler characteristics.
+   */
+  public LevelController(SteamBoilerCharacteristics config) {
+    this.target = (config.getMinimalNormalLevel() + config.getMaximalNormalLevel()) / 2;
+  }
+
+  /**
+   * Construct a copy of another controller.
+   *
+   * @param other The controller to copy.
+   */
+  public LevelController(LevelController other) {
+    this.target = other.target;
+    restore(other);
+  }
+
+  /**
+   * Overwrite the state of this controller with that of another.
+   *
+   * @param other The controller to copy from.
+   */
+  public void restore(LevelController other) {
+    this.integral = other.integral;
+    this.derivative = other.derivative;
+    this.lastLevel = other.lastLevel;
+    this.primed = other.primed;
+  }
+
+  /**
+   * Discard all accumulated state, such that the next update behaves as the first.
+   */
+  public void reset() {
+    this.integral = 0;
+    this.derivative = 0;
+    this.lastLevel = 0;
+    this.primed = false;
+  }
+
+  /**
+   * Determine the inflow needed for this cycle, given the current level and steam output.
+   *
+   * @param level     The current level.
+   * @param steam     The current steam output.
+   * @param maxInflow The largest inflow which can currently be achieved.
+   * @return The desired inflow, between zero and the largest achievable.
+   */
+  public double update(double level, double steam, double maxInflow) {
+    double error = this.target - level;
+    if (this.primed) {
+      double rate = (level - this.lastLevel) / LevelPredictor.PERIOD;
+      this.derivative = (FILTER * this.derivative) + ((1 - FILTER) * rate);
+    }
+    this.lastLevel = level;
+    this.primed = true;
+    double output = output(steam, error);
+    // Only integrate when doing so would not drive a saturated output further into saturation
+    if ((output < maxInflow || error < 0) && (output > 0 || error > 0)) {
+      double i = this.integral + (INTEGRAL * error * LevelPredictor.PERIOD);
+      this.integral = Math.max(-maxInflow, Math.min(maxInflow, i));
+      output = output(steam, error);
+    }
+    return Math.max(0, Math.min(maxInflow, output));
+  }
+
+  /**
+   * Get the integral term.
+   *
+   * @return The integral (in litres/sec).
+   */
+  public double getIntegral() {
+    return this.integral;
+  }
+
+  /**
+   * Get the filtered rate of change of the level.
+   *
+   * @return The rate (in litres/sec).
+   */
+  public double getDerivative() {
+    return this.derivative;
+  }
+
+  /**
+   * Compute the unsaturated output for the current state.
+   *
+   * @param steam The current steam output.
+   * @param error The difference between the target and the current level.
+   * @return The output (in litres/sec).
+   */
+  private double output(double steam, double error) {
+    return steam + (PROPORTIONAL * error) + this.integral - (DERIVATIVE * this.derivative);
+  }
+}
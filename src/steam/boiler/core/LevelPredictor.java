@@ -0,0 +1,157 @@
+package steam.boiler.core;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * Predicts the range of water levels which could be reached by the end of the next cycle. The
+ * lowest level is reached if steam output rises to its maximum immediately, whilst the highest is
+ * reached if it stays at the current reading. The range is given for no pumps open, and the caller
+ * adds the rise from whatever inflow it plans (i.e. <code>PERIOD</code> times that inflow), since
+ * pumps are chosen as any subset (by <code>PumpSelector</code>) rather than in order.
+ *
+ * <p>
+ * Everything which depends only on the configuration is computed once, on construction, so a
+ * prediction needs just an addition (or two). Since a predictor is immutable, boilers with the
+ * same configuration can share one, which is what <code>of()</code> does.
+ * </p>
+ */
+public final class LevelPredictor {
+  /**
+   * The length (in seconds) of one cycle.
+   */
+  public static final double PERIOD = 5.0;
+
+  /**
+   * Half the length (in seconds) of one cycle.
+   */
+  private static final double HALF_PERIOD = PERIOD / 2;
+
+  /**
+   * The largest number of distinct configurations for which predictors are cached. Beyond this,
+   * <code>of()</code> simply constructs a fresh predictor each time.
+   */
+  private static final int MAX_CACHED = 1024;
+
+  /**
+   * Predictors shared between boilers, keyed on the parts of the configuration they depend on.
+   */
+  private static final ConcurrentHashMap<Key, LevelPredictor> CACHE = new ConcurrentHashMap<>();
+
+  /**
+   * The change in level over one cycle with no pumps open and steam output at its maximum.
+   */
+  final double low;
+
+  /**
+   * The middle of the normal band, plus the fall in level over half a cycle at maximum steam
+   * output.
+   */
+  private final double offset;
+
+  /**
+   * Construct a predictor for a given configuration.
+   *
+   * @param config The boiler characteristics.
+   */
+  public LevelPredictor(SteamBoilerCharacteristics config) {
+    double maxSteam = config.getMaximualSteamRate();
+    double target = (config.getMinimalNormalLevel() + config.getMaximalNormalLevel()) / 2;
+    this.offset = target + (HALF_PERIOD * maxSteam);
+    this.low = -(PERIOD * maxSteam);
+  }
+
+  /**
+   * Get the predictor for a given configuration, sharing one with any other boiler whose
+   * configuration is the same in every respect the prediction depends on.
+   *
+   * @param config The boiler characteristics.
+   * @return The predictor.
+   */
+  public static LevelPredictor of(SteamBoilerCharacteristics config) {
+    Key key = new Key(config);
+    LevelPredictor p = CACHE.get(key);
+    if (p == null) {
+      p = new LevelPredictor(config);
+      if (CACHE.size() < MAX_CACHED) {
+        LevelPredictor q = CACHE.putIfAbsent(key, p);
+        p = q == null ? p : q;
+      }
+    }
+    return p;
+  }
+
+  /**
+   * Get the lowest level which could be reached by the end of the next cycle with no pumps open.
+   *
+   * @param level The current level.
+   * @return The lowest level.
+   */
+  public double minimum(double level) {
+    return level + this.low;
+  }
+
+  /**
+   * Get the highest level which could be reached by the end of the next cycle with no pumps open.
+   *
+   * @param level The current level.
+   * @param steam The current steam output.
+   * @return The highest level.
+   */
+  public double maximum(double level, double steam) {
+    return level - (PERIOD * steam);
+  }
+
+  /**
+   * Determine the total inflow for which the predicted range would be centred exactly on the
+   * middle of the normal band. This need not be achievable by any combination of pumps.
+   *
+   * @param level The current level.
+   * @param steam The current steam output.
+   * @return The ideal inflow (in litres/sec), which may be negative.
+   */
+  public double idealInflow(double level, double steam) {
+    return ((this.offset + (HALF_PERIOD * steam)) - level) / PERIOD;
+  }
+
+  /**
+   * Identifies a configuration by the values a predictor depends on: the maximum steam output and
+   * the normal band.
+   */
+  private static final class Key {
+    /**
+     * The values identifying the configuration.
+     */
+    private final double[] values;
+
+    /**
+     * Cached hash of the values.
+     */
+    private final int hash;
+
+    /**
+     * Construct the key for a given configuration.
+     *
+     * @param config The boiler characteristics.
+     */
+    Key(SteamBoilerCharacteristics config) {
+      this.values = new double[] { config.getMaximualSteamRate(), config.getMinimalNormalLevel(),
+          config.getMaximalNormalLevel() };
+      this.hash = Arrays.hashCode(this.values);
+    }
+
+    @Override
+    public int hashCode() {
+      return this.hash;
+    }
+
+    @Override
+    public boolean equals(@Nullable Object o) {
+      return o instanceof Key && Arrays.equals(this.values, ((Key) o).values);
+    }
+  }
+}
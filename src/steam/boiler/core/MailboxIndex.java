@@ -0,0 +1,391 @@
+package steam.boiler.core;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+
+/**
+ * Demultiplexes an incoming mailbox in a single pass. Every message is bucketed by the ordinal of
+ * its kind and, for those kinds which carry a pump number (e.g. <code>PUMP_STATE_n_b</code>), by
+ * pump number as well. Whilst doing this, duplicate and out-of-range messages are recorded so that
+ * validation can be performed without scanning the mailbox again.
+ *
+ * <p>
+ * Slots are invalidated using a generation counter rather than being cleared, so the cost of
+ * indexing a mailbox is proportional to the number of messages it contains, rather than the number
+ * of message kinds. For pump-indexed kinds, which pumps were reported (and which were reported more
+ * than once, and with what boolean parameter) is recorded in bitsets of one bit per pump. These
+ * are cleared the first time each kind is seen in a mailbox, which costs one word per 64 pumps,
+ * and allow a whole set of pumps to be checked with a few bitwise operations.
+ * </p>
+ */
+public final class MailboxIndex {
+  /**
+   * Cached copy of all message kinds, to avoid cloning the array on every access.
+   */
+  private static final MessageKind[] KINDS = MessageKind.values();
+
+  /**
+   * Identifies which message kinds carry a pump number as their integer parameter. These are
+   * exactly those whose name ends with <code>_n</code> or <code>_n_b</code>.
+   */
+  private static final boolean[] PUMP_INDEXED = new boolean[KINDS.length];
+
+  /**
+   * Identifies which message kinds carry a boolean parameter as well as a pump number. These are
+   * exactly those whose name ends with <code>_n_b</code>.
+   */
+  private static final boolean[] BOOLEAN_PARAMETER = new boolean[KINDS.length];
+
+  static {
+    for (int i = 0; i != KINDS.length; ++i) {
+      String name = KINDS[i].name();
+      PUMP_INDEXED[i] = name.endsWith("_n") || name.endsWith("_n_b"); //$NON-NLS-1$ //$NON-NLS-2$
+      BOOLEAN_PARAMETER[i] = name.endsWith("_n_b"); //$NON-NLS-1$
+    }
+  }
+
+  /**
+   * The number of pumps in the boiler configuration being indexed.
+   */
+  private final int numberOfPumps;
+
+  /**
+   * The current generation. Any slot whose stamp differs from this is considered empty.
+   */
+  private int generation;
+
+  /**
+   * Generation in which each kind was last seen.
+   */
+  private final int[] kindStamps = new int[KINDS.length];
+
+  /**
+   * Number of messages of each kind seen in the current generation.
+   */
+  private final int[] kindCounts = new int[KINDS.length];
+
+  /**
+   * First message of each kind seen in the current generation.
+   */
+  private final @Nullable Message[] kindFirsts = new Message[KINDS.length];
+
+  /**
+   * Number of distinct (in-range) pumps for which a message of each kind was seen.
+   */
+  private final int[] distinctPumps = new int[KINDS.length];
+
+  /**
+   * Number of messages of each kind which repeated a pump already seen in this generation.
+   */
+  private final int[] duplicatePumps = new int[KINDS.length];
+
+  /**
+   * Number of messages of each kind whose pump number was out of range.
+   */
+  private final int[] invalidPumps = new int[KINDS.length];
+
+  /**
+   * Number of words in each pump bitset.
+   */
+  private final int words;
+
+  /**
+   * Bitset of the pumps for which a message of each kind was seen. Rows are only allocated for
+   * pump-indexed kinds, and are only valid if the kind was seen in the current generation.
+   */
+  private final long[][] pumpsSeen = new long[KINDS.length][];
+
+  /**
+   * Bitset of the pumps for which a message of each kind was seen more than once.
+   */
+  private final long[][] pumpsDuplicated = new long[KINDS.length][];
+
+  /**
+   * Bitset of the pumps for which the (first) message of each kind had a true boolean parameter.
+   */
+  private final long[][] pumpsTrue = new long[KINDS.length][];
+
+  /**
+   * A bitset with no pumps set, returned for kinds which were not seen.
+   */
+  private final long[] none;
+
+  /**
+   * Message of each kind received for each pump. Rows are only allocated for pump-indexed kinds.
+   */
+  private final @Nullable Message[][] pumpMessages = new Message[KINDS.length][];
+
+  /**
+   * Construct an index for a boiler with a given number of pumps.
+   *
+   * @param numberOfPumps The number of pumps in the configuration.
+   */
+  public MailboxIndex(int numberOfPumps) {
+    this.numberOfPumps = numberOfPumps;
+    this.words = (numberOfPumps + 63) >>> 6;
+    this.none = new long[this.words];
+    for (int i = 0; i != KINDS.length; ++i) {
+      if (PUMP_INDEXED[i]) {
+        this.pumpsSeen[i] = new long[this.words];
+        this.pumpsDuplicated[i] = new long[this.words];
+        this.pumpsTrue[i] = new long[this.words];
+        this.pumpMessages[i] = new Message[numberOfPumps];
+      }
+    }
+  }
+
+  /**
+   * Index the contents of a mailbox, discarding whatever was previously indexed. The mailbox is
+   * read exactly once.
+   *
+   * @param incoming The mailbox to index.
+   */
+  public void index(Mailbox incoming) {
+    int gen = ++this.generation;
+    for (int i = 0; i != incoming.size(); ++i) {
+      Message ith = incoming.read(i);
+      int k = ith.getKind().ordinal();
+      if (this.kindStamps[k] != gen) {
+        this.kindStamps[k] = gen;
+        this.kindCounts[k] = 1;
+        this.kindFirsts[k] = ith;
+        this.distinctPumps[k] = 0;
+        this.duplicatePumps[k] = 0;
+        this.invalidPumps[k] = 0;
+        if (PUMP_INDEXED[k]) {
+          clearPumps(k);
+        }
+      } else {
+        this.kindCounts[k]++;
+      }
+      if (PUMP_INDEXED[k]) {
+        indexPump(k, ith);
+      }
+    }
+  }
+
+  /**
+   * Record a message which carries a pump number against that pump.
+   *
+   * @param k   Ordinal of the message kind.
+   * @param ith The message being indexed.
+   */
+  private void indexPump(int k, Message ith) {
+    int pump = ith.getIntegerParameter();
+    if (pump < 0 || pump >= this.numberOfPumps) {
+      this.invalidPumps[k]++;
+      return;
+    }
+    long[] seen = this.pumpsSeen[k];
+    @Nullable Message[] messages = this.pumpMessages[k];
+    assert seen != null && messages != null;
+    int w = pump >>> 6;
+    long bit = 1L << pump;
+    if ((seen[w] & bit) == 0) {
+      seen[w] |= bit;
+      messages[pump] = ith;
+      this.distinctPumps[k]++;
+      if (BOOLEAN_PARAMETER[k] && ith.getBooleanParameter()) {
+        long[] values = this.pumpsTrue[k];
+        assert values != null;
+        values[w] |= bit;
+      }
+    } else {
+      long[] duplicated = this.pumpsDuplicated[k];
+      assert duplicated != null;
+      duplicated[w] |= bit;
+      this.duplicatePumps[k]++;
+    }
+  }
+
+  /**
+   * Clear the pump bitsets of a given kind, when it is first seen in a generation.
+   *
+   * @param k Ordinal of the message kind.
+   */
+  private void clearPumps(int k) {
+    long[] seen = this.pumpsSeen[k];
+    long[] duplicated = this.pumpsDuplicated[k];
+    long[] values = this.pumpsTrue[k];
+    assert seen != null && duplicated != null && values != null;
+    for (int w = 0; w != this.words; ++w) {
+      seen[w] = 0;
+      duplicated[w] = 0;
+      values[w] = 0;
+    }
+  }
+
+  /**
+   * Get the number of messages of a given kind.
+   *
+   * @param kind The kind of message to count.
+   * @return The number of matching messages.
+   */
+  public int count(MessageKind kind) {
+    int k = kind.ordinal();
+    return this.kindStamps[k] == this.generation ? this.kindCounts[k] : 0;
+  }
+
+  /**
+   * Check whether a given kind of message was received at all.
+   *
+   * @param kind The kind of message to look for.
+   * @return True if at least one message of this kind was received.
+   */
+  public boolean contains(MessageKind kind) {
+    return this.kindStamps[kind.ordinal()] == this.generation;
+  }
+
+  /**
+   * Check whether a given kind of message was received more than once.
+   *
+   * @param kind The kind of message to look for.
+   * @return True if two or more messages of this kind were received.
+   */
+  public boolean isDuplicated(MessageKind kind) {
+    return count(kind) > 1;
+  }
+
+  /**
+   * Get the only message of a given kind. This must the only match in the mailbox, else
+   * <code>null</code> is returned.
+   *
+   * @param kind The kind of message to look for.
+   * @return The matching message, or <code>null</code> if there was not exactly one match.
+   */
+  public @Nullable Message only(MessageKind kind) {
+    int k = kind.ordinal();
+    if (this.kindStamps[k] == this.generation && this.kindCounts[k] == 1) {
+      return this.kindFirsts[k];
+    }
+    return null;
+  }
+
+  /**
+   * Get the message of a given pump-indexed kind received for a given pump. Where duplicates were
+   * received, this is the first of them.
+   *
+   * @param kind The kind of message to look for, which must carry a pump number.
+   * @param pump The pump number to look for.
+   * @return The matching message, or <code>null</code> if none was received.
+   */
+  public @Nullable Message pump(MessageKind kind, int pump) {
+    int k = kind.ordinal();
+    @Nullable Message[] messages = this.pumpMessages[k];
+    if (messages == null || (pumpsSeen(kind)[pump >>> 6] & (1L << pump)) == 0) {
+      return null;
+    }
+    return messages[pump];
+  }
+
+  /**
+   * Get the pumps for which a message of a given pump-indexed kind was received, as a bitset
+   * where bit <code>i % 64</code> of word <code>i / 64</code> corresponds to pump <code>i</code>.
+   * The returned array must not be modified, and is only valid until the next mailbox is indexed.
+   *
+   * @param kind The kind of message to look for, which must carry a pump number.
+   * @return The bitset of pumps reported.
+   */
+  public long[] pumpsSeen(MessageKind kind) {
+    return bits(this.pumpsSeen, kind);
+  }
+
+  /**
+   * Get the pumps for which more than one message of a given pump-indexed kind was received, as a
+   * bitset. The returned array must not be modified, and is only valid until the next mailbox is
+   * indexed.
+   *
+   * @param kind The kind of message to look for, which must carry a pump number.
+   * @return The bitset of pumps reported more than once.
+   */
+  public long[] pumpsDuplicated(MessageKind kind) {
+    return bits(this.pumpsDuplicated, kind);
+  }
+
+  /**
+   * Get the pumps for which the (first) message of a given kind carried a true boolean parameter
+   * (e.g. <code>PUMP_STATE_n_b</code> for an open pump), as a bitset. The returned array must not
+   * be modified, and is only valid until the next mailbox is indexed.
+   *
+   * @param kind The kind of message to look for, which must carry a pump number and a boolean.
+   * @return The bitset of pumps reported as true.
+   */
+  public long[] pumpsTrue(MessageKind kind) {
+    return bits(this.pumpsTrue, kind);
+  }
+
+  /**
+   * Get the number of words in each pump bitset.
+   *
+   * @return The number of words.
+   */
+  public int words() {
+    return this.words;
+  }
+
+  /**
+   * Get one of the pump bitsets for a given kind, or an empty bitset if the kind was not seen.
+   *
+   * @param table The table of bitsets.
+   * @param kind  The kind of message.
+   * @return The bitset.
+   */
+  private long[] bits(long[][] table, MessageKind kind) {
+    int k = kind.ordinal();
+    long[] row = table[k];
+    if (row == null || this.kindStamps[k] != this.generation) {
+      return this.none;
+    }
+    return row;
+  }
+
+  /**
+   * Get the number of pumps for which no message of a given pump-indexed kind was received.
+   *
+   * @param kind The kind of message to look for, which must carry a pump number.
+   * @return The number of pumps with a missing message.
+   */
+  public int missingPumps(MessageKind kind) {
+    int k = kind.ordinal();
+    int seen = this.kindStamps[k] == this.generation ? this.distinctPumps[k] : 0;
+    return this.numberOfPumps - seen;
+  }
+
+  /**
+   * Get the number of messages of a given pump-indexed kind which repeated a pump for which a
+   * message had already been received.
+   *
+   * @param kind The kind of message to look for, which must carry a pump number.
+   * @return The number of duplicate messages.
+   */
+  public int duplicatePumps(MessageKind kind) {
+    int k = kind.ordinal();
+    return this.kindStamps[k] == this.generation ? this.duplicatePumps[k] : 0;
+  }
+
+  /**
+   * Get the number of messages of a given pump-indexed kind whose pump number was out of range.
+   *
+   * @param kind The kind of message to look for, which must carry a pump number.
+   * @return The number of invalid messages.
+   */
+  public int invalidPumps(MessageKind kind) {
+    int k = kind.ordinal();
+    return this.kindStamps[k] == this.generation ? this.invalidPumps[k] : 0;
+  }
+
+  /**
+   * Check whether exactly one message of a given pump-indexed kind was received for every pump,
+   * and nothing else.
+   *
+   * @param kind The kind of message to look for, which must carry a pump number.
+   * @return True if every pump was reported exactly once.
+   */
+  public boolean isCompleteForPumps(MessageKind kind) {
+    return count(kind) == this.numberOfPumps && missingPumps(kind) == 0
+        && duplicatePumps(kind) == 0 && invalidPumps(kind) == 0;
+  }
+}
@@ -0,0 +1,263 @@
+package steam.boiler.core;
+
+import java.nio.ByteBuffer;
+
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.Mailbox.Mode;
+
+/**
+ * Encodes the contents of a mailbox in a compact binary form, and decodes them again. A mailbox is
+ * encoded as the number of messages it holds (an <code>int</code>), followed by each message in
+ * turn: the ordinal of its kind (a <code>byte</code>), then its parameters, if any. A mode is
+ * encoded as its ordinal (a <code>byte</code>), an integer as an <code>int</code>, a double as a
+ * <code>double</code>, and an integer with a boolean as a single <code>int</code> holding the
+ * integer shifted left by one, with the boolean in the lowest bit.
+ *
+ * <p>
+ * Messages in a <code>RingMailbox</code> are encoded (and decoded) through its packed records, so
+ * no message objects are created. Other mailboxes are read and written through message objects.
+ * </p>
+ */
+public final class MessageCodec {
+  /**
+   * Cached copy of all message kinds, to avoid cloning the array on every access.
+   */
+  private static final MessageKind[] KINDS = MessageKind.values();
+
+  /**
+   * Cached copy of all modes, to avoid cloning the array on every access.
+   */
+  private static final Mode[] MODES = Mode.values();
+
+  /**
+   * Indicates a message kind which has no parameter.
+   */
+  public static final int NO_PARAMETER = 0;
+
+  /**
+   * Indicates a message kind whose parameter is a mode (i.e. ends with <code>_m</code>).
+   */
+  public static final int MODE_PARAMETER = 1;
+
+  /**
+   * Indicates a message kind whose parameter is an integer (i.e. ends with <code>_n</code>).
+   */
+  public static final int INTEGER_PARAMETER = 2;
+
+  /**
+   * Indicates a message kind whose parameter is a double (i.e. ends with <code>_v</code>).
+   */
+  public static final int DOUBLE_PARAMETER = 3;
+
+  /**
+   * Indicates a message kind whose parameters are an integer and a boolean (i.e. ends with
+   * <code>_n_b</code>).
+   */
+  public static final int INTEGER_BOOLEAN_PARAMETERS = 4;
+
+  /**
+   * The parameters carried by each kind of message, as determined from its name.
+   */
+  static final int[] PARAMETERS = new int[KINDS.length];
+
+  /**
+   * The number of bytes taken to encode the parameters of each kind of message.
+   */
+  private static final int[] PARAMETER_SIZES = { 0, Byte.BYTES, Integer.BYTES, Double.BYTES,
+      Integer.BYTES };
+
+  static {
+    for (int i = 0; i != KINDS.length; ++i) {
+      String name = KINDS[i].name();
+      if (name.endsWith("_n_b")) { //$NON-NLS-1$
+        PARAMETERS[i] = INTEGER_BOOLEAN_PARAMETERS;
+      } else if (name.endsWith("_n")) { //$NON-NLS-1$
+        PARAMETERS[i] = INTEGER_PARAMETER;
+      } else if (name.endsWith("_v")) { //$NON-NLS-1$
+        PARAMETERS[i] = DOUBLE_PARAMETER;
+      } else if (name.endsWith("_m")) { //$NON-NLS-1$
+        PARAMETERS[i] = MODE_PARAMETER;
+      } else {
+        PARAMETERS[i] = NO_PARAMETER;
+      }
+    }
+  }
+
+  /**
+   * Private constructor as this class provides only static methods.
+   */
+  private MessageCodec() {
+  }
+
+  /**
+   * Determine the parameters carried by a given kind of message.
+   *
+   * @param kind The kind of message.
+   * @return One of <code>NO_PARAMETER</code>, <code>MODE_PARAMETER</code>,
+   *         <code>INTEGER_PARAMETER</code>, <code>DOUBLE_PARAMETER</code> or
+   *         <code>INTEGER_BOOLEAN_PARAMETERS</code>.
+   */
+  public static int parameters(MessageKind kind) {
+    return PARAMETERS[kind.ordinal()];
+  }
+
+  /**
+   * Determine the number of bytes needed to encode a mailbox.
+   *
+   * @param mailbox The mailbox.
+   * @return The size of its encoding.
+   */
+  public static int size(Mailbox mailbox) {
+    int r = Integer.BYTES;
+    int n = mailbox.size();
+    if (mailbox instanceof RingMailbox) {
+      RingMailbox ring = (RingMailbox) mailbox;
+      for (int i = 0; i != n; ++i) {
+        r += 1 + PARAMETER_SIZES[PARAMETERS[ring.kind(i).ordinal()]];
+      }
+    } else {
+      for (int i = 0; i != n; ++i) {
+        r += 1 + PARAMETER_SIZES[PARAMETERS[mailbox.read(i).getKind().ordinal()]];
+      }
+    }
+    return r;
+  }
+
+  /**
+   * Encode a mailbox at the current position of a buffer, advancing the position past it.
+   *
+   * @param mailbox The mailbox to encode.
+   * @param buffer  The buffer to write to, which must have room for the encoding.
+   */
+  public static void encode(Mailbox mailbox, ByteBuffer buffer) {
+    int n = mailbox.size();
+    buffer.putInt(n);
+    if (mailbox instanceof RingMailbox) {
+      RingMailbox ring = (RingMailbox) mailbox;
+      for (int i = 0; i != n; ++i) {
+        int k = ring.kind(i).ordinal();
+        buffer.put((byte) k);
+        put(buffer, PARAMETERS[k], ring.integerParameter(i), ring.booleanParameter(i),
+            ring.doubleParameter(i));
+      }
+    } else {
+      for (int i = 0; i != n; ++i) {
+        Message m = mailbox.read(i);
+        int k = m.getKind().ordinal();
+        buffer.put((byte) k);
+        switch (PARAMETERS[k]) {
+          case MODE_PARAMETER:
+            put(buffer, MODE_PARAMETER, m.getModeParameter().ordinal(), false, 0);
+            break;
+          case INTEGER_PARAMETER:
+            put(buffer, INTEGER_PARAMETER, m.getIntegerParameter(), false, 0);
+            break;
+          case DOUBLE_PARAMETER:
+            put(buffer, DOUBLE_PARAMETER, 0, false, m.getDoubleParameter());
+            break;
+          case INTEGER_BOOLEAN_PARAMETERS:
+            put(buffer, INTEGER_BOOLEAN_PARAMETERS, m.getIntegerParameter(),
+                m.getBooleanParameter(), 0);
+            break;
+          default:
+            break;
+        }
+      }
+    }
+  }
+
+  /**
+   * Decode a mailbox from the current position of a buffer, advancing the position past it, and
+   * send each message decoded to a given mailbox.
+   *
+   * @param buffer  The buffer to read from.
+   * @param mailbox The mailbox to send the messages to.
+   */
+  public static void decode(ByteBuffer buffer, Mailbox mailbox) {
+    int n = buffer.getInt();
+    RingMailbox ring = mailbox instanceof RingMailbox ? (RingMailbox) mailbox : null;
+    for (int i = 0; i != n; ++i) {
+      int k = buffer.get();
+      if (k < 0 || k >= KINDS.length) {
+        throw new IllegalArgumentException("invalid message kind " + k); //$NON-NLS-1$
+      }
+      MessageKind kind = KINDS[k];
+      assert kind != null;
+      switch (PARAMETERS[k]) {
+        case MODE_PARAMETER: {
+          Mode mode = MODES[buffer.get()];
+          assert mode != null;
+          if (ring != null) {
+            ring.send(kind, mode);
+          } else {
+            mailbox.send(new Message(kind, mode));
+          }
+          break;
+        }
+        case INTEGER_PARAMETER: {
+          int v = buffer.getInt();
+          if (ring != null) {
+            ring.send(kind, v);
+          } else {
+            mailbox.send(new Message(kind, v));
+          }
+          break;
+        }
+        case DOUBLE_PARAMETER: {
+          double v = buffer.getDouble();
+          if (ring != null) {
+            ring.send(kind, v);
+          } else {
+            mailbox.send(new Message(kind, v));
+          }
+          break;
+        }
+        case INTEGER_BOOLEAN_PARAMETERS: {
+          int v = buffer.getInt();
+          if (ring != null) {
+            ring.send(kind, v >> 1, (v & 1) != 0);
+          } else {
+            mailbox.send(new Message(kind, v >> 1, (v & 1) != 0));
+          }
+          break;
+        }
+        default:
+          if (ring != null) {
+            ring.send(kind);
+          } else {
+            mailbox.send(new Message(kind));
+          }
+      }
+    }
+  }
+
+  /**
+   * Write the parameters of a message.
+   *
+   * @param buffer     The buffer to write to.
+   * @param parameters The parameters carried by the kind of message.
+   * @param n          The integer (or mode ordinal) parameter.
+   * @param b          The boolean parameter.
+   * @param v          The double parameter.
+   */
+  private static void put(ByteBuffer buffer, int parameters, int n, boolean b, double v) {
+    switch (parameters) {
+      case MODE_PARAMETER:
+        buffer.put((byte) n);
+        break;
+      case INTEGER_PARAMETER:
+        buffer.putInt(n);
+        break;
+      case DOUBLE_PARAMETER:
+        buffer.putDouble(v);
+        break;
+      case INTEGER_BOOLEAN_PARAMETERS:
+        buffer.putInt((n << 1) | (b ? 1 : 0));
+        break;
+      default:
+        break;
+    }
+  }
+}
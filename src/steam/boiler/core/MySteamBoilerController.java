@@ -3,6 +3,8 @@ package steam.boiler.core;
 import org.eclipse.jdt.annotation.NonNull;
 import org.eclipse.jdt.annotation.Nullable;
 
+import steam.boiler.core.ControllerMetrics.Failure;
+import steam.boiler.core.ControllerMetrics.Phase;
 import steam.boiler.model.SteamBoilerController;
 import steam.boiler.util.Mailbox;
 import steam.boiler.util.SteamBoilerCharacteristics;
@@ -10,14 +12,48 @@ import steam.boiler.util.Mailbox.Message;
 import steam.boiler.util.Mailbox.MessageKind;
 
 public class MySteamBoilerController implements SteamBoilerController {
+  /**
+   * Fraction of the boiler's capacity by which a level reading may differ from that predicted in
+   * the previous cycle before the level sensor is considered to have failed.
+   */
+  private static final double LEVEL_TOLERANCE = 0.02;
+
+  /**
+   * Fraction of the largest pump capacity by which the desired inflow may differ from that of the
+   * pumps currently open before any pump is switched. This stops pumps from chattering on and off
+   * when the desired inflow lies between two achievable inflows.
+   */
+  static final double HYSTERESIS = 0.9;
+
+  /**
+   * Number of consecutive <code>STOP</code> messages after which the controller stops.
+   */
+  private static final int STOP_LIMIT = 3;
+
   /**
    * Captures the various modes in which the controller can operate.
    *
    * @author David J. Pearce
    *
    */
-  private enum State {
-    WAITING, READY, NORMAL, DEGRADED, RESCUE, EMERGENCY_STOP;
+  public enum State {
+    WAITING(Mailbox.Mode.INITIALISATION), READY(Mailbox.Mode.INITIALISATION),
+    NORMAL(Mailbox.Mode.NORMAL), DEGRADED(Mailbox.Mode.DEGRADED), RESCUE(Mailbox.Mode.RESCUE),
+    EMERGENCY_STOP(Mailbox.Mode.EMERGENCY_STOP);
+
+    /**
+     * The mode reported to the physical units in this state.
+     */
+    final Mailbox.Mode mode;
+
+    /**
+     * Construct a state reported with a given mode.
+     *
+     * @param mode The mode reported.
+     */
+    private State(Mailbox.Mode mode) {
+      this.mode = mode;
+    }
 
     @Override
     public @NonNull String toString() {
@@ -39,13 +75,175 @@ public class MySteamBoilerController implements SteamBoilerController {
    */
   private State mode = State.WAITING;
 
+  /**
+   * Index of the messages received in the current cycle. This is reused across cycles so that the
+   * incoming mailbox is only read once per clock.
+   */
+  private final MailboxIndex index;
+
+  /**
+   * Preallocated messages for sending to the physical units. Together with the index above, this
+   * means a steady-state clock cycle allocates nothing.
+   */
+  private final OutgoingMessages messages;
+
+  /**
+   * Health of every pump and pump controller, carried from one cycle to the next.
+   */
+  private final PumpHealth pumps;
+
+  /**
+   * The command last sent to each pump, such that only changes (and retransmissions required for
+   * safety) are sent.
+   */
+  private final PumpOutput output;
+
+  /**
+   * Predicts the range of levels for this configuration, from terms computed once and shared with
+   * any other controller whose configuration is the same.
+   */
+  private final LevelPredictor predictor;
+
+  /**
+   * Chooses which healthy pumps to open for a desired inflow, kept in step with the pump health.
+   */
+  private final PumpSelector selector;
+
+  /**
+   * Determines the desired inflow in each cycle.
+   */
+  private final LevelController control;
+
+  /**
+   * Plans the inflow over several cycles, when predictive control is enabled.
+   */
+  private final @Nullable PredictiveScheduler scheduler;
+
+  /**
+   * The capacity of each pump.
+   */
+  private final double[] capacities;
+
+  /**
+   * The largest difference (in litres/sec) between the desired inflow and that of the pumps
+   * currently open for which no pump is switched.
+   */
+  private final double hysteresis;
+
+  /**
+   * Set once the physical units have reported that they are waiting for the controller.
+   */
+  private boolean boilerWaiting;
+
+  /**
+   * Set when the valve has been opened (to drain the boiler during initialisation).
+   */
+  private boolean valveOpen;
+
+  /**
+   * Set when the level sensor has failed and not since been repaired.
+   */
+  private boolean levelFailed;
+
+  /**
+   * Set when the failure of the level sensor has been acknowledged.
+   */
+  private boolean levelAcknowledged;
+
+  /**
+   * Set when the steam sensor has failed and not since been repaired.
+   */
+  private boolean steamFailed;
+
+  /**
+   * Set when the failure of the steam sensor has been acknowledged.
+   */
+  private boolean steamAcknowledged;
+
+  /**
+   * The level at the last cycle, either as measured or (if the level sensor has failed) as
+   * estimated.
+   */
+  private double level;
+
+  /**
+   * The steam output at the last cycle, either as measured or (if the steam sensor has failed)
+   * as last measured.
+   */
+  private double steam;
+
+  /**
+   * Set when the level and steam output of the last cycle are known, such that the level in this
+   * cycle can be predicted from them.
+   */
+  private boolean tracking;
+
+  /**
+   * The pumps reported open in the last cycle.
+   */
+  private final long[] wasOpen;
+
+  /**
+   * Number of consecutive cycles in which a <code>STOP</code> message was received.
+   */
+  private int stops;
+
+  /**
+   * Where the time goes in each cycle, how often the mode changes and which failures are
+   * detected. These are observations of the controller rather than part of its state, so are not
+   * included in a snapshot.
+   */
+  private final ControllerMetrics metrics = new ControllerMetrics();
+
+  /**
+   * The last level reading received, or NaN if none has been. Like the metrics, this is an
+   * observation rather than part of the state, so is not included in a snapshot.
+   */
+  private double levelReading = Double.NaN;
+
+  /**
+   * The last steam reading received, or NaN if none has been.
+   */
+  private double steamReading = Double.NaN;
+
   /**
    * Construct a steam boiler controller for a given set of characteristics.
    *
    * @param configuration The boiler characteristics to be used.
    */
   public MySteamBoilerController(SteamBoilerCharacteristics configuration) {
+    this(configuration, 0, 0);
+  }
+
+  /**
+   * Construct a steam boiler controller which plans the inflow over several cycles. In each
+   * cycle, the search for a plan stops once its budget is spent, and if no plan was found by then
+   * the inflow is chosen as for a controller without predictive control.
+   *
+   * @param configuration The boiler characteristics to be used.
+   * @param horizon       The number of cycles to plan, or zero to disable predictive control.
+   * @param budget        The time (in nanoseconds) allowed for planning each cycle.
+   */
+  public MySteamBoilerController(SteamBoilerCharacteristics configuration, int horizon,
+      long budget) {
+    int n = configuration.getNumberOfPumps();
     this.configuration = configuration;
+    this.index = new MailboxIndex(n);
+    this.messages = new OutgoingMessages(n);
+    this.pumps = new PumpHealth(n);
+    this.output = new PumpOutput(n);
+    this.predictor = LevelPredictor.of(configuration);
+    this.selector = new PumpSelector(configuration);
+    this.control = new LevelController(configuration);
+    this.scheduler = horizon == 0 ? null : new PredictiveScheduler(configuration, horizon, budget);
+    this.capacities = new double[n];
+    double largest = 0;
+    for (int i = 0; i != n; ++i) {
+      this.capacities[i] = configuration.getPumpCapacity(i);
+      largest = Math.max(largest, this.capacities[i]);
+    }
+    this.hysteresis = HYSTERESIS * largest;
+    this.wasOpen = new long[this.index.words()];
   }
 
   /**
@@ -61,6 +259,108 @@ public class MySteamBoilerController implements SteamBoilerController {
     return this.mode.toString();
   }
 
+  /**
+   * Get the scheduler used for predictive control, which records how often its budget was hit
+   * and the quality of control achieved.
+   *
+   * @return The scheduler, or <code>null</code> if predictive control is disabled.
+   */
+  public @Nullable PredictiveScheduler getScheduler() {
+    return this.scheduler;
+  }
+
+  /**
+   * Get the state the controller is currently in.
+   *
+   * @return The state.
+   */
+  public State getState() {
+    return this.mode;
+  }
+
+  /**
+   * Get the last level reading received from the physical units, whether or not the level sensor
+   * is believed.
+   *
+   * @return The reading (in litres), or NaN if none has been received.
+   */
+  public double getLevelReading() {
+    return this.levelReading;
+  }
+
+  /**
+   * Get the last steam reading received from the physical units, whether or not the steam sensor
+   * is believed.
+   *
+   * @return The reading (in litres/sec), or NaN if none has been received.
+   */
+  public double getSteamReading() {
+    return this.steamReading;
+  }
+
+  /**
+   * Get the health of every pump and pump controller. This is the controller's own tracker, so
+   * must not be modified, and should only be read by the thread clocking the controller.
+   *
+   * @return The pump health.
+   */
+  public PumpHealth getPumpHealth() {
+    return this.pumps;
+  }
+
+  /**
+   * Get the metrics recorded by this controller.
+   *
+   * @return The metrics, which are updated by every clock cycle.
+   */
+  public ControllerMetrics getMetrics() {
+    return this.metrics;
+  }
+
+  /**
+   * Capture the state of this controller, such that it can later be restored into this or another
+   * controller with the same configuration. This is intended to be called between clock cycles,
+   * and allows a simulation to be forked without replaying it from the beginning.
+   *
+   * @return An immutable snapshot of the controller state.
+   */
+  public Snapshot snapshot() {
+    return new Snapshot(this);
+  }
+
+  /**
+   * Restore the state of this controller from a snapshot. The snapshot must have been taken from
+   * a controller with the same number of pumps.
+   *
+   * @param snapshot The snapshot to restore.
+   */
+  public void restore(Snapshot snapshot) {
+    if (snapshot.numberOfPumps != this.configuration.getNumberOfPumps()) {
+      throw new IllegalArgumentException(
+          "snapshot taken with different number of pumps"); //$NON-NLS-1$
+    }
+    this.mode = snapshot.mode;
+    this.pumps.restore(snapshot.pumps);
+    this.output.restore(snapshot.output);
+    this.selector.update(this.pumps);
+    PredictiveScheduler p = this.scheduler;
+    if (p != null) {
+      p.update(this.selector);
+    }
+    this.control.restore(snapshot.control);
+    this.boilerWaiting = snapshot.boilerWaiting;
+    this.valveOpen = snapshot.valveOpen;
+    this.levelFailed = snapshot.levelFailed;
+    this.levelAcknowledged = snapshot.levelAcknowledged;
+    this.steamFailed = snapshot.steamFailed;
+    this.steamAcknowledged = snapshot.steamAcknowledged;
+    this.level = snapshot.level;
+    this.steam = snapshot.steam;
+    this.tracking = snapshot.tracking;
+    System.arraycopy(snapshot.wasOpen, 0, this.wasOpen, 0, this.wasOpen.length);
+    this.stops = snapshot.stops;
+  }
+
   /**
    * Process a clock signal which occurs every 5 seconds. This requires reading
    * the set of incoming messages from the physical units and producing a set of
@@ -72,24 +372,397 @@ public class MySteamBoilerController implements SteamBoilerController {
    */
   @Override
   public void clock(@NonNull Mailbox incoming, @NonNull Mailbox outgoing) {
-    // Extract expected messages
-    Message levelMessage = extractOnlyMatch(MessageKind.LEVEL_v, incoming);
-    Message steamMessage = extractOnlyMatch(MessageKind.STEAM_v, incoming);
-    Message[] pumpStateMessages = extractAllMatches(MessageKind.PUMP_STATE_n_b, incoming);
-    Message[] pumpControlStateMessages = extractAllMatches(MessageKind.PUMP_CONTROL_STATE_n_b,
-        incoming);
+    if (ControllerMetrics.TIMING) {
+      this.metrics.start();
+    }
+    State before = this.mode;
+    // Demultiplex incoming messages in a single pass
+    this.index.index(incoming);
+    this.pumps.update(this.index);
+    this.metrics.detected(Failure.PUMP, this.pumps.countPumpDetections());
+    this.metrics.detected(Failure.PUMP_CONTROLLER, this.pumps.countControllerDetections());
+    PredictiveScheduler p = this.scheduler;
+    if (this.selector.update(this.pumps) && p != null) {
+      p.update(this.selector);
+    }
+    if (ControllerMetrics.TIMING) {
+      this.metrics.lap(Phase.EXTRACTION);
+    }
     //
-    if (transmissionFailure(levelMessage, steamMessage, pumpStateMessages,
-        pumpControlStateMessages)) {
-      // Level and steam messages required, so emergency stop.
+    if (this.mode != State.EMERGENCY_STOP) {
+      boolean failed = transmissionFailure(this.index, this.pumps);
+      if (failed) {
+        this.metrics.detected(Failure.TRANSMISSION, 1);
+      }
+      boolean stop = failed || stopRequested();
+      if (ControllerMetrics.TIMING) {
+        this.metrics.lap(Phase.VALIDATION);
+      }
+      if (stop) {
+        // Level and steam messages required, so emergency stop.
+        this.mode = State.EMERGENCY_STOP;
+      } else {
+        Message l = this.index.only(MessageKind.LEVEL_v);
+        Message s = this.index.only(MessageKind.STEAM_v);
+        assert l != null && s != null;
+        this.levelReading = l.getDoubleParameter();
+        this.steamReading = s.getDoubleParameter();
+        if (this.mode == State.WAITING) {
+          initialise(l.getDoubleParameter(), s.getDoubleParameter(), outgoing);
+          if (ControllerMetrics.TIMING) {
+            this.metrics.lap(Phase.CONTROL);
+          }
+        } else if (this.mode == State.READY
+            && !this.index.contains(MessageKind.PHYSICAL_UNITS_READY)) {
+          // Keep everything as it is until the physical units are ready
+          outgoing.send(OutgoingMessages.PROGRAM_READY);
+          command(false, outgoing);
+        } else {
+          operate(l.getDoubleParameter(), s.getDoubleParameter(), outgoing);
+        }
+      }
+    }
+    outgoing.send(OutgoingMessages.mode(this.mode.mode));
+    if (this.mode != State.EMERGENCY_STOP && (this.mode != State.WAITING || this.boilerWaiting)) {
+      this.pumps.report(outgoing, this.messages);
+      if (this.levelFailed && !this.levelAcknowledged) {
+        outgoing.send(OutgoingMessages.LEVEL_FAILURE_DETECTION);
+      }
+      if (this.steamFailed && !this.steamAcknowledged) {
+        outgoing.send(OutgoingMessages.STEAM_FAILURE_DETECTION);
+      }
+    }
+    if (ControllerMetrics.TIMING) {
+      this.metrics.lap(Phase.EMISSION);
+    }
+    this.metrics.cycle(before, this.mode);
+  }
+
+  /**
+   * Bring the level into the normal band before telling the physical units that the controller
+   * is ready. Nothing is done until the physical units report that they are waiting, at which
+   * point the steam output must be zero, and the level sensor must give a sensible reading.
+   *
+   * @param l        The level reading.
+   * @param s        The steam output reading.
+   * @param outgoing The mailbox to send on.
+   */
+  private void initialise(double l, double s, Mailbox outgoing) {
+    this.boilerWaiting |= this.index.contains(MessageKind.STEAM_BOILER_WAITING);
+    if (!this.boilerWaiting) {
+      return;
+    } else if (s != 0 || l < 0 || l > this.configuration.getCapacity()) {
+      // Steam escaping, or level sensor obviously broken
       this.mode = State.EMERGENCY_STOP;
+    } else if (l > this.configuration.getMaximalNormalLevel()) {
+      // Too full, so drain
+      valve(true, outgoing);
+      command(false, outgoing);
+    } else if (l < this.configuration.getMinimalNormalLevel()) {
+      // Too empty, so fill
+      valve(false, outgoing);
+      this.selector.select(this.predictor.idealInflow(l, 0));
+      command(true, outgoing);
+    } else {
+      valve(false, outgoing);
+      command(false, outgoing);
+      outgoing.send(OutgoingMessages.PROGRAM_READY);
+      this.mode = State.READY;
     }
-    //
+  }
 
-    // FIXME: this is where the main implementation stems from
+  /**
+   * Control the level once the physical units are ready. Both sensors are first checked, and any
+   * failures (or repairs) used to determine the mode. The desired inflow is then determined from
+   * the level (as measured, or as estimated if the level sensor has failed) and mapped onto the
+   * healthy pumps.
+   *
+   * @param l        The level reading.
+   * @param s        The steam output reading.
+   * @param outgoing The mailbox to send on.
+   */
+  private void operate(double l, double s, Mailbox outgoing) {
+    if (this.mode == State.READY) {
+      // Physical units have just become ready
+      this.control.reset();
+      this.tracking = false;
+    }
+    double previous = this.steam;
+    diagnoseSensors(l, s, outgoing);
+    if (ControllerMetrics.TIMING) {
+      this.metrics.lap(Phase.DIAGNOSIS);
+    }
+    double est = l;
+    if (this.levelFailed) {
+      // Estimate the level from the last, given the pumps open and the steam output
+      est = this.level + (LevelPredictor.PERIOD * (reportedInflow(false) - this.steam));
+    }
+    if (this.levelFailed && this.steamFailed) {
+      this.mode = State.EMERGENCY_STOP;
+      return;
+    } else if (this.levelFailed) {
+      this.mode = State.RESCUE;
+    } else if (this.steamFailed || this.pumps.countPumpFailures() != 0
+        || this.pumps.countControllerFailures() != 0) {
+      this.mode = State.DEGRADED;
+    } else {
+      this.mode = State.NORMAL;
+    }
+    // Pumps which cannot be controlled, but are open, give a fixed inflow
+    double fixed = reportedInflow(true);
+    double desired = this.control.update(est, this.steam, fixed + this.selector.getCapacity());
+    PredictiveScheduler p = this.scheduler;
+    double trend = this.tracking && !this.steamFailed ? this.steam - previous : 0;
+    boolean keep;
+    if (p != null && p.plan(est, this.steam, trend, fixed, controllableInflow())) {
+      // Follow the plan, unless it keeps the same inflow from healthy pumps
+      keep = Math.abs(p.getInflow() - controllableInflow()) < this.selector.getQuantum() / 2
+          && !commandedFailed();
+      if (!keep) {
+        this.selector.select(p.getInflow());
+      }
+    } else {
+      keep = hold(desired - fixed, est, fixed);
+      if (!keep) {
+        this.selector.select(desired - fixed);
+      }
+    }
+    double planned = fixed + (keep ? commandedInflow() : this.selector.getInflow());
+    double min = this.predictor.minimum(est) + (LevelPredictor.PERIOD * planned);
+    double max = this.predictor.maximum(est, this.steam) + (LevelPredictor.PERIOD * planned);
+    if (est <= this.configuration.getMinimalLimitLevel()
+        || est >= this.configuration.getMaximalLimitLevel()
+        || min < this.configuration.getMinimalLimitLevel()
+        || max > this.configuration.getMaximalLimitLevel()) {
+      // Level at, or about to reach, a limit whatever is done
+      this.mode = State.EMERGENCY_STOP;
+      return;
+    }
+    if (ControllerMetrics.TIMING) {
+      this.metrics.lap(Phase.CONTROL);
+    }
+    if (!keep) {
+      command(true, outgoing);
+    } else {
+      recommand(outgoing);
+    }
+    if (p != null) {
+      p.observe(est, !keep);
+    }
+    // Remember what is needed to check the level in the next cycle
+    this.level = est;
+    this.tracking = true;
+    long[] open = this.index.pumpsTrue(MessageKind.PUMP_STATE_n_b);
+    System.arraycopy(open, 0, this.wasOpen, 0, this.wasOpen.length);
+  }
 
-    // NOTE: this is an example message send to illustrate the syntax
-    outgoing.send(new Message(MessageKind.MODE_m, Mailbox.Mode.INITIALISATION));
+  /**
+   * Check the level and steam readings for failures, and handle any failure acknowledgements and
+   * repairs reported. The level reading has failed if it is outside the boiler, or outside the
+   * range predicted from the last cycle given which pumps were reported open before and after. The
+   * steam reading has failed if it is outside the range the boiler can produce.
+   *
+   * @param l        The level reading.
+   * @param s        The steam output reading.
+   * @param outgoing The mailbox to send on.
+   */
+  private void diagnoseSensors(double l, double s, Mailbox outgoing) {
+    if (this.index.contains(MessageKind.LEVEL_REPAIRED)) {
+      outgoing.send(OutgoingMessages.LEVEL_REPAIRED_ACKNOWLEDGEMENT);
+      this.levelFailed = false;
+      this.tracking = false;
+    }
+    if (this.index.contains(MessageKind.STEAM_REPAIRED)) {
+      outgoing.send(OutgoingMessages.STEAM_REPAIRED_ACKNOWLEDGEMENT);
+      this.steamFailed = false;
+    }
+    this.levelAcknowledged |= this.index.contains(MessageKind.LEVEL_FAILURE_ACKNOWLEDGEMENT);
+    this.steamAcknowledged |= this.index.contains(
+        MessageKind.STEAM_OUTCOME_FAILURE_ACKNOWLEDGEMENT);
+    if (!this.steamFailed) {
+      if (s < 0 || s > this.configuration.getMaximualSteamRate()) {
+        this.steamFailed = true;
+        this.steamAcknowledged = false;
+        this.metrics.detected(Failure.STEAM, 1);
+      } else {
+        this.steam = s;
+      }
+    }
+    if (!this.levelFailed) {
+      double tolerance = LEVEL_TOLERANCE * this.configuration.getCapacity();
+      boolean failed = l < 0 || l > this.configuration.getCapacity();
+      if (this.tracking) {
+        // Steam output can rise to its maximum, or fall to zero, within a cycle
+        double lo = this.predictor.minimum(this.level) + (LevelPredictor.PERIOD * bothOpen());
+        double hi = this.level + (LevelPredictor.PERIOD * eitherOpen());
+        failed |= l < lo - tolerance || l > hi + tolerance;
+      }
+      if (failed) {
+        this.levelFailed = true;
+        this.levelAcknowledged = false;
+        this.metrics.detected(Failure.LEVEL, 1);
+      }
+    }
+  }
+
+  /**
+   * Determine whether the pumps currently open should be kept as they are. This is the case when
+   * none of them has failed, their inflow is close enough to that desired, and the level they are
+   * predicted to give stays within the normal band.
+   *
+   * @param desired The desired inflow from pumps which can be controlled.
+   * @param l       The current level.
+   * @param fixed   The inflow from pumps which cannot be controlled.
+   * @return True if no pump should be switched.
+   */
+  private boolean hold(double desired, double l, double fixed) {
+    if (this.mode == State.READY || commandedFailed()) {
+      return false;
+    }
+    double current = commandedInflow();
+    double inflow = fixed + current;
+    double min = this.predictor.minimum(l) + (LevelPredictor.PERIOD * inflow);
+    double max = this.predictor.maximum(l, this.steam) + (LevelPredictor.PERIOD * inflow);
+    return Math.abs(desired - current) <= this.hysteresis
+        && min >= this.configuration.getMinimalNormalLevel()
+        && max <= this.configuration.getMaximalNormalLevel();
+  }
+
+  /**
+   * Open or close the valve, if it is not already in that position.
+   *
+   * @param open     True to open the valve, false to close it.
+   * @param outgoing The mailbox to send on.
+   */
+  private void valve(boolean open, Mailbox outgoing) {
+    if (this.valveOpen != open) {
+      outgoing.send(OutgoingMessages.VALVE);
+      this.valveOpen = open;
+    }
+  }
+
+  /**
+   * Command every pump, opening those chosen by the last selection and closing the rest. Only the
+   * commands which differ from those last sent are actually sent.
+   *
+   * @param selected True to open the pumps chosen by the last selection, false to close every
+   *                 pump.
+   * @param outgoing The mailbox to send on.
+   */
+  private void command(boolean selected, Mailbox outgoing) {
+    for (int i = 0; i != this.capacities.length; ++i) {
+      this.pumps.command(i, selected && this.selector.isSelected(i));
+    }
+    recommand(outgoing);
+  }
+
+  /**
+   * Command every pump exactly as it was last commanded. Nothing is sent unless some pump appears
+   * not to have received its last command.
+   *
+   * @param outgoing The mailbox to send on.
+   */
+  private void recommand(Mailbox outgoing) {
+    this.output.emit(this.pumps, this.index.pumpsTrue(MessageKind.PUMP_STATE_n_b), outgoing,
+        this.messages);
+  }
+
+  /**
+   * Determine the total capacity of the pumps currently commanded open.
+   *
+   * @return The inflow (in litres/sec).
+   */
+  private double commandedInflow() {
+    double r = 0;
+    for (int i = 0; i != this.capacities.length; ++i) {
+      r += this.pumps.isCommanded(i) ? this.capacities[i] : 0;
+    }
+    return r;
+  }
+
+  /**
+   * Determine the total capacity of the healthy pumps currently commanded open.
+   *
+   * @return The inflow (in litres/sec).
+   */
+  private double controllableInflow() {
+    double r = 0;
+    for (int i = 0; i != this.capacities.length; ++i) {
+      r += this.pumps.isCommanded(i) && this.pumps.isHealthy(i) ? this.capacities[i] : 0;
+    }
+    return r;
+  }
+
+  /**
+   * Check whether any pump currently commanded open has failed, or has a failed controller.
+   *
+   * @return True if so.
+   */
+  private boolean commandedFailed() {
+    for (int i = 0; i != this.capacities.length; ++i) {
+      if (this.pumps.isCommanded(i) && !this.pumps.isHealthy(i)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Determine the total capacity of the pumps reported open in this cycle.
+   *
+   * @param failedOnly True to include only pumps which have failed (and so cannot be controlled).
+   * @return The inflow (in litres/sec).
+   */
+  private double reportedInflow(boolean failedOnly) {
+    long[] open = this.index.pumpsTrue(MessageKind.PUMP_STATE_n_b);
+    double r = 0;
+    for (int i = 0; i != this.capacities.length; ++i) {
+      if ((open[i >>> 6] & (1L << i)) != 0 && (!failedOnly || this.pumps.isPumpFailed(i))) {
+        r += this.capacities[i];
+      }
+    }
+    return r;
+  }
+
+  /**
+   * Determine the total capacity of the pumps reported open in both the last cycle and this one,
+   * which must have been open throughout the cycle in between.
+   *
+   * @return The inflow (in litres/sec).
+   */
+  private double bothOpen() {
+    long[] open = this.index.pumpsTrue(MessageKind.PUMP_STATE_n_b);
+    double r = 0;
+    for (int i = 0; i != this.capacities.length; ++i) {
+      r += (open[i >>> 6] & this.wasOpen[i >>> 6] & (1L << i)) != 0 ? this.capacities[i] : 0;
+    }
+    return r;
+  }
+
+  /**
+   * Determine the total capacity of the pumps reported open in either the last cycle or this one,
+   * which may have been open during the cycle in between.
+   *
+   * @return The inflow (in litres/sec).
+   */
+  private double eitherOpen() {
+    long[] open = this.index.pumpsTrue(MessageKind.PUMP_STATE_n_b);
+    double r = 0;
+    for (int i = 0; i != this.capacities.length; ++i) {
+      r += ((open[i >>> 6] | this.wasOpen[i >>> 6]) & (1L << i)) != 0 ? this.capacities[i] : 0;
+    }
+    return r;
+  }
+
+  /**
+   * Check whether the physical units have asked the controller to stop, which they must do in
+   * several consecutive cycles.
+   *
+   * @return True if the controller should stop.
+   */
+  private boolean stopRequested() {
+    this.stops = this.index.contains(MessageKind.STOP) ? this.stops + 1 : 0;
+    return this.stops >= STOP_LIMIT;
   }
 
   /**
@@ -97,26 +770,24 @@ public class MySteamBoilerController implements SteamBoilerController {
    * ways. Firstly, when one of the required messages is missing. Secondly, when
    * the values returned in the messages are nonsensical.
    *
-   * @param levelMessage      Extracted LEVEL_v message.
-   * @param steamMessage      Extracted STEAM_v message.
-   * @param pumpStates        Extracted PUMP_STATE_n_b messages.
-   * @param pumpControlStates Extracted PUMP_CONTROL_STATE_n_b messages.
+   * @param index The demultiplexed incoming messages for this cycle.
+   * @param pumps The health of every pump, updated for this cycle.
    * @return True if a transmission failure was detected.
    */
-  private boolean transmissionFailure(Message levelMessage, Message steamMessage,
-      Message[] pumpStates, Message[] pumpControlStates) {
+  private static boolean transmissionFailure(MailboxIndex index, PumpHealth pumps) {
     // Check level readings
-    if (levelMessage == null) {
+    if (index.only(MessageKind.LEVEL_v) == null) {
       // Nonsense or missing level reading
       return true;
-    } else if (steamMessage == null) {
+    } else if (index.only(MessageKind.STEAM_v) == null) {
       // Nonsense or missing steam reading
       return true;
-    } else if (pumpStates.length != this.configuration.getNumberOfPumps()) {
-      // Nonsense pump state readings
+    } else if (pumps.isIncomplete()) {
+      // Missing or duplicated pump (control) state readings
       return true;
-    } else if (pumpControlStates.length != this.configuration.getNumberOfPumps()) {
-      // Nonsense pump control state readings
+    } else if (index.invalidPumps(MessageKind.PUMP_STATE_n_b) != 0
+        || index.invalidPumps(MessageKind.PUMP_CONTROL_STATE_n_b) != 0) {
+      // Nonsense pump (control) state readings
       return true;
     }
     // Done
@@ -124,55 +795,112 @@ public class MySteamBoilerController implements SteamBoilerController {
   }
 
   /**
-   * Find and extract a message of a given kind in a mailbox. This must the only
-   * match in the mailbox, else <code>null</code> is returned.
-   *
-   * @param kind     The kind of message to look for.
-   * @param incoming The mailbox to search through.
-   * @return The matching message, or <code>null</code> if there was not exactly
-   *         one match.
+   * An immutable copy of the state carried by a controller from one clock cycle to the next. Data
+   * which is rebuilt every cycle (e.g. the index of incoming messages) is not included.
    */
-  private static @Nullable Message extractOnlyMatch(MessageKind kind, Mailbox incoming) {
-    Message match = null;
-    for (int i = 0; i != incoming.size(); ++i) {
-      Message ith = incoming.read(i);
-      if (ith.getKind() == kind) {
-        if (match == null) {
-          match = ith;
-        } else {
-          // This indicates that we matched more than one message of the given kind.
-          return null;
-        }
-      }
-    }
-    return match;
-  }
+  public static final class Snapshot {
+    /**
+     * Number of pumps of the controller from which this snapshot was taken.
+     */
+    final int numberOfPumps;
 
-  /**
-   * Find and extract all messages of a given kind.
-   *
-   * @param kind     The kind of message to look for.
-   * @param incoming The mailbox to search through.
-   * @return The array of matches, which can empty if there were none.
-   */
-  private static Message[] extractAllMatches(MessageKind kind, Mailbox incoming) {
-    int count = 0;
-    // Count the number of matches
-    for (int i = 0; i != incoming.size(); ++i) {
-      Message ith = incoming.read(i);
-      if (ith.getKind() == kind) {
-        count = count + 1;
-      }
-    }
-    // Now, construct resulting array
-    Message[] matches = new Message[count];
-    int index = 0;
-    for (int i = 0; i != incoming.size(); ++i) {
-      Message ith = incoming.read(i);
-      if (ith.getKind() == kind) {
-        matches[index++] = ith;
-      }
+    /**
+     * Mode in which the controller was operating.
+     */
+    final State mode;
+
+    /**
+     * Health of every pump and pump controller.
+     */
+    final PumpHealth pumps;
+
+    /**
+     * The command last sent to each pump.
+     */
+    final PumpOutput output;
+
+    /**
+     * State of the level controller.
+     */
+    final LevelController control;
+
+    /**
+     * Whether the physical units had reported that they were waiting.
+     */
+    final boolean boilerWaiting;
+
+    /**
+     * Whether the valve was open.
+     */
+    final boolean valveOpen;
+
+    /**
+     * Whether the level sensor had failed.
+     */
+    final boolean levelFailed;
+
+    /**
+     * Whether the failure of the level sensor had been acknowledged.
+     */
+    final boolean levelAcknowledged;
+
+    /**
+     * Whether the steam sensor had failed.
+     */
+    final boolean steamFailed;
+
+    /**
+     * Whether the failure of the steam sensor had been acknowledged.
+     */
+    final boolean steamAcknowledged;
+
+    /**
+     * The level at the last cycle.
+     */
+    final double level;
+
+    /**
+     * The steam output at the last cycle.
+     */
+    final double steam;
+
+    /**
+     * Whether the level and steam output of the last cycle were known.
+     */
+    final boolean tracking;
+
+    /**
+     * The pumps reported open in the last cycle.
+     */
+    final long[] wasOpen;
+
+    /**
+     * Number of consecutive cycles in which a <code>STOP</code> message was received.
+     */
+    final int stops;
+
+    /**
+     * Construct a snapshot of a given controller.
+     *
+     * @param controller The controller whose state is captured.
+     */
+    Snapshot(MySteamBoilerController controller) {
+      this.numberOfPumps = controller.configuration.getNumberOfPumps();
+      this.mode = controller.mode;
+      this.pumps = new PumpHealth(controller.pumps);
+      this.output = new PumpOutput(controller.output);
+      this.control = new LevelController(controller.control);
+      this.boilerWaiting = controller.boilerWaiting;
+      this.valveOpen = controller.valveOpen;
+      this.levelFailed = controller.levelFailed;
+      this.levelAcknowledged = controller.levelAcknowledged;
+      this.steamFailed = controller.steamFailed;
+      this.steamAcknowledged = controller.steamAcknowledged;
+      this.level = controller.level;
+      this.steam = controller.steam;
+      this.tracking = controller.tracking;
+      this.wasOpen = controller.wasOpen.clone();
+      this.stops = controller.stops;
     }
-    return matches;
   }
 }
@@ -0,0 +1,210 @@
+package steam.boiler.core;
+
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+
+/**
+ * Provides preallocated instances of every message the controller can send. Since messages are
+ * immutable, the same instance can be sent on every cycle and, hence, the controller need not
+ * allocate anything when producing its output. Messages which do not depend on the configuration
+ * are shared by all controllers, whilst those parameterised by pump number are allocated once per
+ * controller.
+ */
+public final class OutgoingMessages {
+  /**
+   * The <code>PROGRAM_READY</code> message.
+   */
+  public static final Message PROGRAM_READY = new Message(MessageKind.PROGRAM_READY);
+
+  /**
+   * The <code>VALVE</code> message.
+   */
+  public static final Message VALVE = new Message(MessageKind.VALVE);
+
+  /**
+   * The <code>LEVEL_FAILURE_DETECTION</code> message.
+   */
+  public static final Message LEVEL_FAILURE_DETECTION = new Message(
+      MessageKind.LEVEL_FAILURE_DETECTION);
+
+  /**
+   * The <code>STEAM_FAILURE_DETECTION</code> message.
+   */
+  public static final Message STEAM_FAILURE_DETECTION = new Message(
+      MessageKind.STEAM_FAILURE_DETECTION);
+
+  /**
+   * The <code>LEVEL_REPAIRED_ACKNOWLEDGEMENT</code> message.
+   */
+  public static final Message LEVEL_REPAIRED_ACKNOWLEDGEMENT = new Message(
+      MessageKind.LEVEL_REPAIRED_ACKNOWLEDGEMENT);
+
+  /**
+   * The <code>STEAM_REPAIRED_ACKNOWLEDGEMENT</code> message.
+   */
+  public static final Message STEAM_REPAIRED_ACKNOWLEDGEMENT = new Message(
+      MessageKind.STEAM_REPAIRED_ACKNOWLEDGEMENT);
+
+  /**
+   * One <code>MODE_m</code> message for each mode, indexed by ordinal.
+   */
+  private static final Message[] MODES;
+
+  static {
+    Mailbox.Mode[] modes = Mailbox.Mode.values();
+    MODES = new Message[modes.length];
+    for (int i = 0; i != modes.length; ++i) {
+      Mailbox.Mode ith = modes[i];
+      assert ith != null;
+      MODES[i] = new Message(MessageKind.MODE_m, ith);
+    }
+  }
+
+  /**
+   * One <code>OPEN_PUMP_n</code> message for each pump.
+   */
+  private final Message[] openPump;
+
+  /**
+   * One <code>CLOSE_PUMP_n</code> message for each pump.
+   */
+  private final Message[] closePump;
+
+  /**
+   * One <code>PUMP_FAILURE_DETECTION_n</code> message for each pump.
+   */
+  private final Message[] pumpFailureDetection;
+
+  /**
+   * One <code>PUMP_CONTROL_FAILURE_DETECTION_n</code> message for each pump.
+   */
+  private final Message[] pumpControlFailureDetection;
+
+  /**
+   * One <code>PUMP_REPAIRED_ACKNOWLEDGEMENT_n</code> message for each pump.
+   */
+  private final Message[] pumpRepairedAcknowledgement;
+
+  /**
+   * One <code>PUMP_CONTROL_REPAIRED_ACKNOWLEDGEMENT_n</code> message for each pump.
+   */
+  private final Message[] pumpControlRepairedAcknowledgement;
+
+  /**
+   * Preallocate the pump messages for a given number of pumps.
+   *
+   * @param numberOfPumps The number of pumps in the configuration.
+   */
+  public OutgoingMessages(int numberOfPumps) {
+    this.openPump = allocate(MessageKind.OPEN_PUMP_n, numberOfPumps);
+    this.closePump = allocate(MessageKind.CLOSE_PUMP_n, numberOfPumps);
+    this.pumpFailureDetection = allocate(MessageKind.PUMP_FAILURE_DETECTION_n, numberOfPumps);
+    this.pumpControlFailureDetection = allocate(MessageKind.PUMP_CONTROL_FAILURE_DETECTION_n,
+        numberOfPumps);
+    this.pumpRepairedAcknowledgement = allocate(MessageKind.PUMP_REPAIRED_ACKNOWLEDGEMENT_n,
+        numberOfPumps);
+    this.pumpControlRepairedAcknowledgement = allocate(
+        MessageKind.PUMP_CONTROL_REPAIRED_ACKNOWLEDGEMENT_n, numberOfPumps);
+  }
+
+  /**
+   * Get the <code>MODE_m</code> message for a given mode.
+   *
+   * @param mode The mode to be sent.
+   * @return The preallocated message.
+   */
+  public static Message mode(Mailbox.Mode mode) {
+    Message m = MODES[mode.ordinal()];
+    assert m != null;
+    return m;
+  }
+
+  /**
+   * Get the <code>OPEN_PUMP_n</code> message for a given pump.
+   *
+   * @param pump The pump number.
+   * @return The preallocated message.
+   */
+  public Message openPump(int pump) {
+    return get(this.openPump, pump);
+  }
+
+  /**
+   * Get the <code>CLOSE_PUMP_n</code> message for a given pump.
+   *
+   * @param pump The pump number.
+   * @return The preallocated message.
+   */
+  public Message closePump(int pump) {
+    return get(this.closePump, pump);
+  }
+
+  /**
+   * Get the <code>PUMP_FAILURE_DETECTION_n</code> message for a given pump.
+   *
+   * @param pump The pump number.
+   * @return The preallocated message.
+   */
+  public Message pumpFailureDetection(int pump) {
+    return get(this.pumpFailureDetection, pump);
+  }
+
+  /**
+   * Get the <code>PUMP_CONTROL_FAILURE_DETECTION_n</code> message for a given pump.
+   *
+   * @param pump The pump number.
+   * @return The preallocated message.
+   */
+  public Message pumpControlFailureDetection(int pump) {
+    return get(this.pumpControlFailureDetection, pump);
+  }
+
+  /**
+   * Get the <code>PUMP_REPAIRED_ACKNOWLEDGEMENT_n</code> message for a given pump.
+   *
+   * @param pump The pump number.
+   * @return The preallocated message.
+   */
+  public Message pumpRepairedAcknowledgement(int pump) {
+    return get(this.pumpRepairedAcknowledgement, pump);
+  }
+
+  /**
+   * Get the <code>PUMP_CONTROL_REPAIRED_ACKNOWLEDGEMENT_n</code> message for a given pump.
+   *
+   * @param pump The pump number.
+   * @return The preallocated message.
+   */
+  public Message pumpControlRepairedAcknowledgement(int pump) {
+    return get(this.pumpControlRepairedAcknowledgement, pump);
+  }
+
+  /**
+   * Allocate one message of a given kind for each pump.
+   *
+   * @param kind          The kind of message, which must carry a pump number.
+   * @param numberOfPumps The number of pumps.
+   * @return The array of messages, indexed by pump number.
+   */
+  private static Message[] allocate(MessageKind kind, int numberOfPumps) {
+    Message[] messages = new Message[numberOfPumps];
+    for (int i = 0; i != numberOfPumps; ++i) {
+      messages[i] = new Message(kind, i);
+    }
+    return messages;
+  }
+
+  /**
+   * Read a preallocated message, manually overriding the non-null checker.
+   *
+   * @param messages The array of messages.
+   * @param pump     The pump number.
+   * @return The preallocated message.
+   */
+  private static Message get(Message[] messages, int pump) {
+    Message m = messages[pump];
+    assert m != null;
+    return m;
+  }
+}
@@ -0,0 +1,556 @@
+package steam.boiler.core;
+
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * Plans the inflow for several cycles ahead, by searching over schedules of achievable inflows
+ * with branch-and-bound. Steam output is forecast by extending its trend over the last cycle, so
+ * a rising output can be met before the level has fallen, rather than afterwards. Each schedule is
+ * scored by the squared distance of the level from the middle of the normal band at the end of
+ * every cycle, with a heavier penalty outside the normal band and a fixed penalty for every
+ * change of inflow. Schedules which would take the level beyond a limit are not considered.
+ *
+ * <p>
+ * The search is depth-first, trying the inflows at each cycle in order of distance from that
+ * which would bring the level exactly to the middle of the band. The first schedule found is
+ * therefore the greedy one, and every later one is an improvement. A branch is abandoned once its
+ * cost plus a lower bound on the remaining cost (the level can change no faster than the pumps and
+ * steam output allow) reaches that of the best schedule so far. The search stops when the budget
+ * runs out, leaving the best schedule found by then, or none if the budget expired before the
+ * first was complete. In that case the controller falls back to its one-step rule.
+ * </p>
+ *
+ * <p>
+ * All working storage is allocated on construction, so planning a cycle never allocates.
+ * </p>
+ */
+public final class PredictiveScheduler {
+  /**
+   * The longest horizon (in cycles) which can be searched.
+   */
+  public static final int MAX_HORIZON = 32;
+
+  /**
+   * Number of candidate inflows evaluated between reads of the clock.
+   */
+  private static final int CHECK_INTERVAL = 64;
+
+  /**
+   * Weight of the squared distance outside the normal band, relative to that from the middle.
+   */
+  private static final double OUTSIDE_WEIGHT = 10;
+
+  /**
+   * Penalty for a change of inflow, as a fraction of the squared change in level caused by the
+   * largest pump over one cycle.
+   */
+  private static final double SWITCH_WEIGHT = 2;
+
+  /**
+   * The number of cycles planned.
+   */
+  private final int horizon;
+
+  /**
+   * The time (in nanoseconds) allowed for planning each cycle.
+   */
+  private final long budget;
+
+  /**
+   * The middle of the normal band.
+   */
+  private final double target;
+
+  /**
+   * The lowest level of the normal band.
+   */
+  private final double minNormal;
+
+  /**
+   * The highest level of the normal band.
+   */
+  private final double maxNormal;
+
+  /**
+   * The lowest level which may be planned for.
+   */
+  private final double minLimit;
+
+  /**
+   * The highest level which may be planned for.
+   */
+  private final double maxLimit;
+
+  /**
+   * The largest steam output.
+   */
+  private final double maxSteam;
+
+  /**
+   * The cost of a change of inflow.
+   */
+  private final double switchCost;
+
+  /**
+   * The inflows (in litres/sec) which can currently be selected, in increasing order.
+   */
+  private final double[] levels;
+
+  /**
+   * The number of entries of <code>levels</code> in use.
+   */
+  private int count;
+
+  /**
+   * The tolerance within which two inflows are considered the same.
+   */
+  private final double same;
+
+  /**
+   * The forecast steam output during each cycle of the horizon.
+   */
+  private final double[] forecast;
+
+  /**
+   * The largest fall in level from the start of the horizon to the start of each cycle.
+   */
+  private final double[] falls;
+
+  /**
+   * The largest rise in level from the start of the horizon to the start of each cycle.
+   */
+  private final double[] rises;
+
+  /**
+   * The schedule currently being explored.
+   */
+  private final double[] path;
+
+  /**
+   * The best schedule found.
+   */
+  private final double[] best;
+
+  /**
+   * The cost of the best schedule found.
+   */
+  private double bestCost;
+
+  /**
+   * The inflow from pumps which cannot be controlled, for the current plan.
+   */
+  private double fixed;
+
+  /**
+   * Set when the current search has found a complete schedule.
+   */
+  private boolean found;
+
+  /**
+   * Set when the current search has run out of time.
+   */
+  private boolean expired;
+
+  /**
+   * The time at which the current search must stop.
+   */
+  private long deadline;
+
+  /**
+   * The number of candidate inflows evaluated by the current search.
+   */
+  private int nodes;
+
+  /**
+   * The number of searches started.
+   */
+  private long plans;
+
+  /**
+   * The number of searches stopped by the budget.
+   */
+  private long budgetHits;
+
+  /**
+   * The number of searches which found no schedule within the budget.
+   */
+  private long fallbacks;
+
+  /**
+   * The total number of candidate inflows evaluated.
+   */
+  private long totalNodes;
+
+  /**
+   * The total time (in nanoseconds) spent searching.
+   */
+  private long totalNanos;
+
+  /**
+   * The number of cycles observed.
+   */
+  private long cycles;
+
+  /**
+   * The sum of the squared distance of the level from the middle of the normal band over every
+   * cycle observed.
+   */
+  private double squaredError;
+
+  /**
+   * The number of cycles observed in which some pump was switched.
+   */
+  private long switches;
+
+  /**
+   * Construct a scheduler for a given configuration.
+   *
+   * @param config  The boiler characteristics.
+   * @param horizon The number of cycles to plan, between one and <code>MAX_HORIZON</code>.
+   * @param budget  The time (in nanoseconds) allowed for planning each cycle.
+   */
+  public PredictiveScheduler(SteamBoilerCharacteristics config, int horizon, long budget) {
+    if (horizon < 1 || horizon > MAX_HORIZON) {
+      throw new IllegalArgumentException("invalid horizon " + horizon); //$NON-NLS-1$
+    } else if (budget < 0) {
+      throw new IllegalArgumentException("negative budget"); //$NON-NLS-1$
+    }
+    PumpSelector selector = new PumpSelector(config);
+    double largest = 0;
+    for (int i = 0; i != config.getNumberOfPumps(); ++i) {
+      largest = Math.max(largest, config.getPumpCapacity(i));
+    }
+    this.horizon = horizon;
+    this.budget = budget;
+    this.minNormal = config.getMinimalNormalLevel();
+    this.maxNormal = config.getMaximalNormalLevel();
+    this.target = (this.minNormal + this.maxNormal) / 2;
+    this.minLimit = config.getMinimalLimitLevel();
+    this.maxLimit = config.getMaximalLimitLevel();
+    this.maxSteam = config.getMaximualSteamRate();
+    double swing = LevelPredictor.PERIOD * largest;
+    this.switchCost = SWITCH_WEIGHT * swing * swing;
+    this.levels = new double[selector.getLevelCount()];
+    this.count = selector.levels(this.levels);
+    this.same = selector.getQuantum() / 2;
+    this.forecast = new double[horizon];
+    this.falls = new double[horizon + 1];
+    this.rises = new double[horizon + 1];
+    this.path = new double[horizon];
+    this.best = new double[horizon];
+  }
+
+  /**
+   * Refresh the inflows which can be selected, after the available pumps have changed.
+   *
+   * @param selector The selector for the same configuration, updated to the available pumps.
+   */
+  public void update(PumpSelector selector) {
+    this.count = selector.levels(this.levels);
+  }
+
+  /**
+   * Get the number of cycles planned.
+   *
+   * @return The horizon.
+   */
+  public int getHorizon() {
+    return this.horizon;
+  }
+
+  /**
+   * Get the time allowed for planning each cycle.
+   *
+   * @return The budget (in nanoseconds).
+   */
+  public long getBudget() {
+    return this.budget;
+  }
+
+  /**
+   * Search for the best schedule of inflows from the current state, within the budget.
+   *
+   * @param level   The current level.
+   * @param steam   The current steam output.
+   * @param trend   The change in steam output over the last cycle.
+   * @param fixed   The inflow from pumps which cannot be controlled.
+   * @param current The inflow from the pumps currently open which can be controlled.
+   * @return True if a schedule was found, in which case <code>getInflow()</code> gives the inflow
+   *         for this cycle.
+   */
+  public boolean plan(double level, double steam, double trend, double fixed, double current) {
+    long start = System.nanoTime();
+    this.deadline = start + this.budget;
+    this.fixed = fixed;
+    this.found = false;
+    this.expired = this.budget == 0;
+    this.nodes = 0;
+    this.bestCost = Double.POSITIVE_INFINITY;
+    double top = fixed + (this.count == 0 ? 0 : this.levels[this.count - 1]);
+    for (int j = 0; j != this.horizon; ++j) {
+      double s = steam + (trend * (j + 0.5));
+      this.forecast[j] = Math.max(0, Math.min(this.maxSteam, s));
+      this.falls[j + 1] = this.falls[j] + (LevelPredictor.PERIOD * this.forecast[j]);
+      this.rises[j + 1] = this.rises[j] + (LevelPredictor.PERIOD * (top - this.forecast[j]));
+    }
+    if (!this.expired && this.count != 0) {
+      search(0, level, current, 0);
+    }
+    this.plans++;
+    this.budgetHits += this.expired ? 1 : 0;
+    this.fallbacks += this.found ? 0 : 1;
+    this.totalNodes += this.nodes;
+    this.totalNanos += System.nanoTime() - start;
+    return this.found;
+  }
+
+  /**
+   * Get the inflow planned for this cycle by the last successful search.
+   *
+   * @return The inflow (in litres/sec) from pumps which can be controlled.
+   */
+  public double getInflow() {
+    return this.best[0];
+  }
+
+  /**
+   * Get the inflow planned for a given cycle by the last successful search.
+   *
+   * @param cycle The cycle, where zero is the current one.
+   * @return The inflow (in litres/sec) from pumps which can be controlled.
+   */
+  public double getInflow(int cycle) {
+    return this.best[cycle];
+  }
+
+  /**
+   * Get the cost of the schedule found by the last successful search.
+   *
+   * @return The cost (in squared litres).
+   */
+  public double getCost() {
+    return this.bestCost;
+  }
+
+  /**
+   * Determine the cost of a given schedule, from the state given to the last search.
+   *
+   * @param level    The level given to the last search.
+   * @param current  The inflow given as current to the last search.
+   * @param schedule The inflow for each cycle of the horizon.
+   * @return The cost (in squared litres), which is infinite if a limit would be reached.
+   */
+  public double evaluate(double level, double current, double[] schedule) {
+    double x = level;
+    double prev = current;
+    double cost = 0;
+    for (int j = 0; j != this.horizon; ++j) {
+      x += LevelPredictor.PERIOD * ((this.fixed + schedule[j]) - this.forecast[j]);
+      if (x < this.minLimit || x > this.maxLimit) {
+        return Double.POSITIVE_INFINITY;
+      }
+      cost += stepCost(x) + (Math.abs(schedule[j] - prev) < this.same ? 0 : this.switchCost);
+      prev = schedule[j];
+    }
+    return cost;
+  }
+
+  /**
+   * Record the level actually reached, and whether any pump was switched, in a cycle.
+   *
+   * @param level    The level.
+   * @param switched True if some pump was switched.
+   */
+  public void observe(double level, boolean switched) {
+    double e = level - this.target;
+    this.cycles++;
+    this.squaredError += e * e;
+    this.switches += switched ? 1 : 0;
+  }
+
+  /**
+   * Get the number of searches started.
+   *
+   * @return The count.
+   */
+  public long getPlans() {
+    return this.plans;
+  }
+
+  /**
+   * Get the number of searches stopped by the budget, whether or not they found a schedule.
+   *
+   * @return The count.
+   */
+  public long getBudgetHits() {
+    return this.budgetHits;
+  }
+
+  /**
+   * Get the number of searches which found no schedule within the budget, such that the
+   * controller fell back to its one-step rule.
+   *
+   * @return The count.
+   */
+  public long getFallbacks() {
+    return this.fallbacks;
+  }
+
+  /**
+   * Get the mean number of candidate inflows evaluated per search, which is a measure of how
+   * much of the search tree was explored.
+   *
+   * @return The mean, or zero if there have been no searches.
+   */
+  public double getMeanNodes() {
+    return this.plans == 0 ? 0 : (double) this.totalNodes / this.plans;
+  }
+
+  /**
+   * Get the mean time spent per search.
+   *
+   * @return The mean (in nanoseconds), or zero if there have been no searches.
+   */
+  public double getMeanNanos() {
+    return this.plans == 0 ? 0 : (double) this.totalNanos / this.plans;
+  }
+
+  /**
+   * Get the root mean square distance of the level from the middle of the normal band, over every
+   * cycle observed.
+   *
+   * @return The distance (in litres), or zero if no cycle has been observed.
+   */
+  public double getRmsError() {
+    return this.cycles == 0 ? 0 : Math.sqrt(this.squaredError / this.cycles);
+  }
+
+  /**
+   * Get the number of cycles observed in which some pump was switched.
+   *
+   * @return The count.
+   */
+  public long getSwitches() {
+    return this.switches;
+  }
+
+  /**
+   * Explore every schedule extending the current path from a given cycle, recording any which
+   * improves on the best so far.
+   *
+   * @param depth The cycle to choose the inflow for.
+   * @param x     The level at the start of the cycle.
+   * @param prev  The inflow during the previous cycle.
+   * @param cost  The cost of the path so far.
+   */
+  private void search(int depth, double x, double prev, double cost) {
+    if (depth == this.horizon) {
+      if (cost < this.bestCost) {
+        this.bestCost = cost;
+        System.arraycopy(this.path, 0, this.best, 0, this.horizon);
+        this.found = true;
+      }
+      return;
+    }
+    double s = this.forecast[depth];
+    double ideal = ((this.target - x) / LevelPredictor.PERIOD) + s - this.fixed;
+    int hi = ceiling(ideal);
+    int lo = hi - 1;
+    // Moving away from the ideal on either side only takes the level further from the target, so
+    // once one inflow on a side is too costly (or beyond a limit) so is every other on that side.
+    while ((lo >= 0 || hi < this.count) && !tick()) {
+      boolean down = hi >= this.count || (lo >= 0 && ideal - this.levels[lo] <= this.levels[hi]
+          - ideal);
+      double u = down ? this.levels[lo] : this.levels[hi];
+      double y = x + (LevelPredictor.PERIOD * ((this.fixed + u) - s));
+      double c = cost + stepCost(y);
+      if (y < this.minLimit || y > this.maxLimit || c + bound(depth + 1, y) >= this.bestCost) {
+        if (down) {
+          lo = -1;
+        } else {
+          hi = this.count;
+        }
+        continue;
+      }
+      if (down) {
+        lo--;
+      } else {
+        hi++;
+      }
+      c += Math.abs(u - prev) < this.same ? 0 : this.switchCost;
+      if (c + bound(depth + 1, y) < this.bestCost) {
+        this.path[depth] = u;
+        search(depth + 1, y, u, c);
+      }
+    }
+  }
+
+  /**
+   * Count the evaluation of one candidate inflow, reading the clock every so often to check
+   * whether the budget has run out.
+   *
+   * @return True if the search must stop.
+   */
+  private boolean tick() {
+    if ((++this.nodes % CHECK_INTERVAL) == 0 && System.nanoTime() - this.deadline >= 0) {
+      this.expired = true;
+    }
+    return this.expired;
+  }
+
+  /**
+   * Determine the cost of the level reached at the end of a cycle.
+   *
+   * @param y The level.
+   * @return The cost (in squared litres).
+   */
+  private double stepCost(double y) {
+    double e = y - this.target;
+    double outside = Math.max(0, Math.max(this.minNormal - y, y - this.maxNormal));
+    return (e * e) + (OUTSIDE_WEIGHT * outside * outside);
+  }
+
+  /**
+   * Determine a lower bound on the cost of the remaining cycles, given the level at the start of
+   * one of them. Each cycle's level can be no closer to the target than the largest possible fall
+   * (or rise) allows.
+   *
+   * @param depth The cycle.
+   * @param y     The level at its start.
+   * @return The bound (in squared litres).
+   */
+  private double bound(int depth, double y) {
+    double d = y - this.target;
+    double[] reach = d > 0 ? this.falls : this.rises;
+    double distance = Math.abs(d);
+    double r = 0;
+    for (int j = depth + 1; j <= this.horizon; ++j) {
+      double gap = distance - (reach[j] - reach[depth]);
+      if (gap <= 0) {
+        break;
+      }
+      r += gap * gap;
+    }
+    return r;
+  }
+
+  /**
+   * Find the first selectable inflow which is at least a given value.
+   *
+   * @param v The value.
+   * @return The index of the inflow, or the number of inflows if there is none.
+   */
+  private int ceiling(double v) {
+    int lo = 0;
+    int hi = this.count;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (this.levels[mid] < v) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+}
@@ -0,0 +1,352 @@
+package steam.boiler.core;
+
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.MessageKind;
+
+/**
+ * Tracks the health of every pump and pump controller, using bitsets of one bit per pump. Each
+ * cycle, the state commanded by the controller is compared against the pump states and pump
+ * controller states reported by the physical units. A pump whose reported state disagrees with
+ * its commanded state has failed, whilst a pump controller whose reported state disagrees with its
+ * pump has failed. Failures remain until the physical units report a repair.
+ *
+ * <p>
+ * Since every comparison is a bitwise operation over whole words, the cost of a cycle is
+ * proportional to the number of pumps divided by 64 (plus the number of messages actually sent),
+ * rather than the number of pumps.
+ * </p>
+ */
+public final class PumpHealth {
+  /**
+   * The number of pumps tracked.
+   */
+  private final int numberOfPumps;
+
+  /**
+   * Number of words in each bitset.
+   */
+  private final int words;
+
+  /**
+   * Mask of the valid bits in the last word.
+   */
+  private final long lastMask;
+
+  /**
+   * Pumps which the controller has commanded to be open.
+   */
+  private final long[] commanded;
+
+  /**
+   * Pumps which have failed and not since been repaired.
+   */
+  private final long[] pumpFailed;
+
+  /**
+   * Pump controllers which have failed and not since been repaired.
+   */
+  private final long[] controllerFailed;
+
+  /**
+   * Failed pumps whose failure has been acknowledged by the physical units.
+   */
+  private final long[] pumpAcknowledged;
+
+  /**
+   * Failed pump controllers whose failure has been acknowledged by the physical units.
+   */
+  private final long[] controllerAcknowledged;
+
+  /**
+   * Pumps reported as repaired in the current cycle.
+   */
+  private final long[] pumpRepaired;
+
+  /**
+   * Pump controllers reported as repaired in the current cycle.
+   */
+  private final long[] controllerRepaired;
+
+  /**
+   * Set when the last set of pump reports was missing or duplicated for some pump.
+   */
+  private boolean incomplete;
+
+  /**
+   * Number of pump failures newly detected by the last update.
+   */
+  private int pumpDetections;
+
+  /**
+   * Number of pump controller failures newly detected by the last update.
+   */
+  private int controllerDetections;
+
+  /**
+   * Construct a tracker for a given number of pumps, all of which are initially healthy and
+   * commanded closed.
+   *
+   * @param numberOfPumps The number of pumps.
+   */
+  public PumpHealth(int numberOfPumps) {
+    this.numberOfPumps = numberOfPumps;
+    this.words = (numberOfPumps + 63) >>> 6;
+    int rem = numberOfPumps & 63;
+    this.lastMask = rem == 0 ? -1L : (1L << rem) - 1;
+    this.commanded = new long[this.words];
+    this.pumpFailed = new long[this.words];
+    this.controllerFailed = new long[this.words];
+    this.pumpAcknowledged = new long[this.words];
+    this.controllerAcknowledged = new long[this.words];
+    this.pumpRepaired = new long[this.words];
+    this.controllerRepaired = new long[this.words];
+  }
+
+  /**
+   * Construct a copy of another tracker.
+   *
+   * @param other The tracker to copy.
+   */
+  public PumpHealth(PumpHealth other) {
+    this(other.numberOfPumps);
+    restore(other);
+  }
+
+  /**
+   * Overwrite the state of this tracker with that of another for the same number of pumps.
+   *
+   * @param other The tracker to copy from.
+   */
+  public void restore(PumpHealth other) {
+    if (other.numberOfPumps != this.numberOfPumps) {
+      throw new IllegalArgumentException("different number of pumps"); //$NON-NLS-1$
+    }
+    System.arraycopy(other.commanded, 0, this.commanded, 0, this.words);
+    System.arraycopy(other.pumpFailed, 0, this.pumpFailed, 0, this.words);
+    System.arraycopy(other.controllerFailed, 0, this.controllerFailed, 0, this.words);
+    System.arraycopy(other.pumpAcknowledged, 0, this.pumpAcknowledged, 0, this.words);
+    System.arraycopy(other.controllerAcknowledged, 0, this.controllerAcknowledged, 0, this.words);
+    System.arraycopy(other.pumpRepaired, 0, this.pumpRepaired, 0, this.words);
+    System.arraycopy(other.controllerRepaired, 0, this.controllerRepaired, 0, this.words);
+    this.incomplete = other.incomplete;
+    this.pumpDetections = other.pumpDetections;
+    this.controllerDetections = other.controllerDetections;
+  }
+
+  /**
+   * Record the state the controller has commanded for a given pump.
+   *
+   * @param pump The pump.
+   * @param open True if the pump was commanded open, false if closed.
+   */
+  public void command(int pump, boolean open) {
+    long bit = 1L << pump;
+    if (open) {
+      this.commanded[pump >>> 6] |= bit;
+    } else {
+      this.commanded[pump >>> 6] &= ~bit;
+    }
+  }
+
+  /**
+   * Compare the reports received in this cycle against the commanded state, recording any new
+   * failures, acknowledgements and repairs. Pumps whose reports were missing or duplicated are not
+   * checked, since nothing can be concluded about them.
+   *
+   * @param index The demultiplexed incoming messages for this cycle.
+   * @return True if every pump and pump controller reported exactly once.
+   */
+  public boolean update(MailboxIndex index) {
+    long[] pumpSeen = index.pumpsSeen(MessageKind.PUMP_STATE_n_b);
+    long[] pumpDuplicated = index.pumpsDuplicated(MessageKind.PUMP_STATE_n_b);
+    long[] pumpOpen = index.pumpsTrue(MessageKind.PUMP_STATE_n_b);
+    long[] controlSeen = index.pumpsSeen(MessageKind.PUMP_CONTROL_STATE_n_b);
+    long[] controlDuplicated = index.pumpsDuplicated(MessageKind.PUMP_CONTROL_STATE_n_b);
+    long[] controlFlowing = index.pumpsTrue(MessageKind.PUMP_CONTROL_STATE_n_b);
+    long[] pumpAcks = index.pumpsSeen(MessageKind.PUMP_FAILURE_ACKNOWLEDGEMENT_n);
+    long[] controlAcks = index.pumpsSeen(MessageKind.PUMP_CONTROL_FAILURE_ACKNOWLEDGEMENT_n);
+    long[] pumpRepairs = index.pumpsSeen(MessageKind.PUMP_REPAIRED_n);
+    long[] controlRepairs = index.pumpsSeen(MessageKind.PUMP_CONTROL_REPAIRED_n);
+    long bad = 0;
+    int pd = 0;
+    int cd = 0;
+    for (int w = 0; w != this.words; ++w) {
+      long valid = w == this.words - 1 ? this.lastMask : -1L;
+      // Pumps which reported exactly once in both kinds
+      long ok = pumpSeen[w] & ~pumpDuplicated[w] & controlSeen[w] & ~controlDuplicated[w];
+      bad |= valid & ~ok;
+      // Repairs clear failures (and their acknowledgements)
+      long pr = pumpRepairs[w] & this.pumpFailed[w];
+      long cr = controlRepairs[w] & this.controllerFailed[w];
+      this.pumpRepaired[w] = pr;
+      this.controllerRepaired[w] = cr;
+      this.pumpFailed[w] &= ~pr;
+      this.controllerFailed[w] &= ~cr;
+      this.pumpAcknowledged[w] &= ~pr;
+      this.controllerAcknowledged[w] &= ~cr;
+      // New failures
+      long pf = ok & (pumpOpen[w] ^ this.commanded[w]) & ~this.pumpFailed[w];
+      long cf = ok & (controlFlowing[w] ^ pumpOpen[w]) & ~this.controllerFailed[w];
+      this.pumpFailed[w] |= pf;
+      this.controllerFailed[w] |= cf;
+      pd += Long.bitCount(pf);
+      cd += Long.bitCount(cf);
+      // Acknowledgements
+      this.pumpAcknowledged[w] |= pumpAcks[w] & this.pumpFailed[w];
+      this.controllerAcknowledged[w] |= controlAcks[w] & this.controllerFailed[w];
+    }
+    this.incomplete = bad != 0;
+    this.pumpDetections = pd;
+    this.controllerDetections = cd;
+    return !this.incomplete;
+  }
+
+  /**
+   * Send the messages resulting from the last update: a failure detection for every failure not
+   * yet acknowledged, and a repair acknowledgement for every repair reported.
+   *
+   * @param outgoing The mailbox to send on.
+   * @param messages The preallocated messages to send.
+   */
+  public void report(Mailbox outgoing, OutgoingMessages messages) {
+    for (int w = 0; w != this.words; ++w) {
+      int base = w << 6;
+      for (long b = this.pumpFailed[w] & ~this.pumpAcknowledged[w]; b != 0; b &= b - 1) {
+        outgoing.send(messages.pumpFailureDetection(base + Long.numberOfTrailingZeros(b)));
+      }
+      for (long b = this.controllerFailed[w] & ~this.controllerAcknowledged[w]; b != 0;
+          b &= b - 1) {
+        outgoing.send(messages.pumpControlFailureDetection(base + Long.numberOfTrailingZeros(b)));
+      }
+      for (long b = this.pumpRepaired[w]; b != 0; b &= b - 1) {
+        outgoing.send(messages.pumpRepairedAcknowledgement(base + Long.numberOfTrailingZeros(b)));
+      }
+      for (long b = this.controllerRepaired[w]; b != 0; b &= b - 1) {
+        outgoing.send(
+            messages.pumpControlRepairedAcknowledgement(base + Long.numberOfTrailingZeros(b)));
+      }
+    }
+  }
+
+  /**
+   * Check whether a given pump was last commanded open.
+   *
+   * @param pump The pump.
+   * @return True if it was commanded open, false if closed.
+   */
+  public boolean isCommanded(int pump) {
+    return (this.commanded[pump >>> 6] & (1L << pump)) != 0;
+  }
+
+  /**
+   * Get the number of pumps tracked.
+   *
+   * @return The pump count.
+   */
+  public int getNumberOfPumps() {
+    return this.numberOfPumps;
+  }
+
+  /**
+   * Check whether the last set of pump reports was missing or duplicated for some pump.
+   *
+   * @return True if the reports were incomplete.
+   */
+  public boolean isIncomplete() {
+    return this.incomplete;
+  }
+
+  /**
+   * Check whether a given pump has failed.
+   *
+   * @param pump The pump.
+   * @return True if it has failed and not since been repaired.
+   */
+  public boolean isPumpFailed(int pump) {
+    return (this.pumpFailed[pump >>> 6] & (1L << pump)) != 0;
+  }
+
+  /**
+   * Check whether a given pump controller has failed.
+   *
+   * @param pump The pump whose controller is checked.
+   * @return True if it has failed and not since been repaired.
+   */
+  public boolean isControllerFailed(int pump) {
+    return (this.controllerFailed[pump >>> 6] & (1L << pump)) != 0;
+  }
+
+  /**
+   * Check whether a given pump, and its controller, are both healthy.
+   *
+   * @param pump The pump.
+   * @return True if neither has failed.
+   */
+  public boolean isHealthy(int pump) {
+    return !isPumpFailed(pump) && !isControllerFailed(pump);
+  }
+
+  /**
+   * Get one word of the bitset of pumps last commanded open.
+   *
+   * @param w The index of the word.
+   * @return The pumps <code>64*w</code> to <code>64*w+63</code> which were commanded open.
+   */
+  long commandedWord(int w) {
+    return this.commanded[w];
+  }
+
+  /**
+   * Get one word of the bitset of pumps which have failed, or whose controllers have failed.
+   *
+   * @param w The index of the word.
+   * @return The pumps <code>64*w</code> to <code>64*w+63</code> which are not healthy.
+   */
+  long failedWord(int w) {
+    return this.pumpFailed[w] | this.controllerFailed[w];
+  }
+
+  /**
+   * Count the pumps which have failed.
+   *
+   * @return The number of failed pumps.
+   */
+  public int countPumpFailures() {
+    int n = 0;
+    for (int w = 0; w != this.words; ++w) {
+      n += Long.bitCount(this.pumpFailed[w]);
+    }
+    return n;
+  }
+
+  /**
+   * Count the pump failures newly detected by the last update.
+   *
+   * @return The number of pumps which failed in the last cycle.
+   */
+  public int countPumpDetections() {
+    return this.pumpDetections;
+  }
+
+  /**
+   * Count the pump controller failures newly detected by the last update.
+   *
+   * @return The number of pump controllers which failed in the last cycle.
+   */
+  public int countControllerDetections() {
+    return this.controllerDetections;
+  }
+
+  /**
+   * Count the pump controllers which have failed.
+   *
+   * @return The number of failed pump controllers.
+   */
+  public int countControllerFailures() {
+    int n = 0;
+    for (int w = 0; w != this.words; ++w) {
+      n += Long.bitCount(this.controllerFailed[w]);
+    }
+    return n;
+  }
+}
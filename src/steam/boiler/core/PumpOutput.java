@@ -0,0 +1,166 @@
+package steam.boiler.core;
+
+import steam.boiler.util.Mailbox;
+
+/**
+ * Tracks the command last emitted to each pump, using bitsets of one bit per pump, so that a pump
+ * is only sent <code>OPEN_PUMP_n</code> or <code>CLOSE_PUMP_n</code> when its commanded state
+ * changes. Since the pumps hold their state between commands, resending an unchanged command
+ * achieves nothing, and would otherwise make up most of the traffic to the physical units.
+ *
+ * <p>
+ * A command is nevertheless retransmitted whenever it matters for safety: to any pump which has
+ * never been sent a command, and to any healthy pump whose reported state differs from the command
+ * last sent to it (i.e. which appears not to have received it). A pump which has failed is not
+ * retransmitted to until it is repaired, at which point it is retransmitted to if its state is
+ * still wrong.
+ * </p>
+ */
+public final class PumpOutput {
+  /**
+   * The number of pumps tracked.
+   */
+  private final int numberOfPumps;
+
+  /**
+   * Number of words in each bitset.
+   */
+  private final int words;
+
+  /**
+   * Mask of the valid bits in the last word.
+   */
+  private final long lastMask;
+
+  /**
+   * Pumps which have been sent at least one command.
+   */
+  private final long[] sent;
+
+  /**
+   * Pumps whose last command was to open.
+   */
+  private final long[] open;
+
+  /**
+   * Number of commands sent by the last emission.
+   */
+  private int emitted;
+
+  /**
+   * Number of those commands which were retransmissions of an unchanged command.
+   */
+  private int retransmitted;
+
+  /**
+   * Construct a tracker for a given number of pumps, none of which has yet been sent a command.
+   *
+   * @param numberOfPumps The number of pumps.
+   */
+  public PumpOutput(int numberOfPumps) {
+    this.numberOfPumps = numberOfPumps;
+    this.words = (numberOfPumps + 63) >>> 6;
+    int rem = numberOfPumps & 63;
+    this.lastMask = rem == 0 ? -1L : (1L << rem) - 1;
+    this.sent = new long[this.words];
+    this.open = new long[this.words];
+  }
+
+  /**
+   * Construct a copy of another tracker.
+   *
+   * @param other The tracker to copy.
+   */
+  public PumpOutput(PumpOutput other) {
+    this(other.numberOfPumps);
+    restore(other);
+  }
+
+  /**
+   * Overwrite the state of this tracker with that of another for the same number of pumps.
+   *
+   * @param other The tracker to copy from.
+   */
+  public void restore(PumpOutput other) {
+    if (other.numberOfPumps != this.numberOfPumps) {
+      throw new IllegalArgumentException("different number of pumps"); //$NON-NLS-1$
+    }
+    System.arraycopy(other.sent, 0, this.sent, 0, this.words);
+    System.arraycopy(other.open, 0, this.open, 0, this.words);
+    this.emitted = other.emitted;
+    this.retransmitted = other.retransmitted;
+  }
+
+  /**
+   * Send the commands needed to bring every pump to the state commanded by the controller: those
+   * which have changed, and any retransmissions required.
+   *
+   * @param health   The health of every pump, whose commanded states are to be sent.
+   * @param reported The pumps reported open in this cycle.
+   * @param outgoing The mailbox to send on.
+   * @param messages The preallocated messages to send.
+   */
+  public void emit(PumpHealth health, long[] reported, Mailbox outgoing,
+      OutgoingMessages messages) {
+    int count = 0;
+    int repeats = 0;
+    for (int w = 0; w != this.words; ++w) {
+      long valid = w == this.words - 1 ? this.lastMask : -1L;
+      long commanded = health.commandedWord(w);
+      long changed = (commanded ^ this.open[w]) | ~this.sent[w];
+      long stale = this.sent[w] & (reported[w] ^ this.open[w]) & ~health.failedWord(w);
+      long send = (changed | stale) & valid;
+      repeats += Long.bitCount(stale & ~changed & valid);
+      int base = w << 6;
+      for (long b = send; b != 0; b &= b - 1) {
+        int pump = base + Long.numberOfTrailingZeros(b);
+        boolean o = (commanded & (b & -b)) != 0;
+        outgoing.send(o ? messages.openPump(pump) : messages.closePump(pump));
+        count++;
+      }
+      this.sent[w] |= send;
+      this.open[w] = (this.open[w] & ~send) | (commanded & send);
+    }
+    this.emitted = count;
+    this.retransmitted = repeats;
+  }
+
+  /**
+   * Check whether a given pump has been sent any command.
+   *
+   * @param pump The pump.
+   * @return True if it has.
+   */
+  public boolean isSent(int pump) {
+    return (this.sent[pump >>> 6] & (1L << pump)) != 0;
+  }
+
+  /**
+   * Check whether the last command sent to a given pump was to open.
+   *
+   * @param pump The pump.
+   * @return True if it was told to open, false if it was told to close (or never told anything).
+   */
+  public boolean isOpen(int pump) {
+    return (this.open[pump >>> 6] & (1L << pump)) != 0;
+  }
+
+  /**
+   * Get the number of commands sent by the last emission.
+   *
+   * @return The count.
+   */
+  public int getEmitted() {
+    return this.emitted;
+  }
+
+  /**
+   * Get the number of commands sent by the last emission which were retransmissions of an
+   * unchanged command.
+   *
+   * @return The count.
+   */
+  public int getRetransmitted() {
+    return this.retransmitted;
+  }
+}
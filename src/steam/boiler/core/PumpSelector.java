@@ -0,0 +1,415 @@
+package steam.boiler.core;
+
+import java.util.Arrays;
+
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * Selects the subset of available pumps whose total capacity is closest to a desired inflow. Since
+ * pumps may have different capacities, this is a subset-sum problem, which is solved by dynamic
+ * programming over capacities rounded to a fixed quantum. For each prefix of the pumps, a bitset
+ * records which total capacities can be reached using only the available pumps in that prefix.
+ * A selection then finds the nearest reachable total, and walks back through the prefixes to
+ * recover which pumps make it up.
+ *
+ * <p>
+ * The quantum is the smallest power of two for which the total capacity of all pumps fits within
+ * <code>BUCKETS</code>, so capacities which are multiples of the quantum (e.g. whole numbers of
+ * litres/sec, for boilers with fewer than a few thousand litres/sec in total) are represented
+ * exactly. Otherwise, the total capacity of a selection is within half a quantum per pump of
+ * optimal. A selection costs time proportional to <code>BUCKETS / 64</code> plus the number of
+ * pumps, however many pumps there are. When a pump becomes unavailable or available again, only
+ * the bitsets of the prefixes which include it are recomputed.
+ * </p>
+ */
+public final class PumpSelector {
+  /**
+   * The number of distinct total capacities which can be distinguished.
+   */
+  public static final int BUCKETS = 4096;
+
+  /**
+   * The number of pumps.
+   */
+  private final int numberOfPumps;
+
+  /**
+   * The capacity (in litres/sec) of each pump.
+   */
+  private final double[] capacities;
+
+  /**
+   * The capacity of each pump, in quanta.
+   */
+  private final int[] weights;
+
+  /**
+   * The size (in litres/sec) of one quantum.
+   */
+  private final double quantum;
+
+  /**
+   * The largest total capacity, in quanta.
+   */
+  private final int total;
+
+  /**
+   * The pumps which can be selected.
+   */
+  private final long[] available;
+
+  /**
+   * The total capacities (in quanta) reachable using the available pumps amongst the first
+   * <code>i</code>, indexed by <code>i</code>.
+   */
+  private final long[][] reachable;
+
+  /**
+   * The total capacity (in litres/sec) of the available pumps.
+   */
+  private double capacity;
+
+  /**
+   * The pumps chosen by the last selection.
+   */
+  private final long[] selected;
+
+  /**
+   * The total capacity of the pumps chosen by the last selection.
+   */
+  private double inflow;
+
+  /**
+   * Construct a selector for a given configuration, with every pump available.
+   *
+   * @param config The boiler characteristics.
+   */
+  public PumpSelector(SteamBoilerCharacteristics config) {
+    int n = config.getNumberOfPumps();
+    this.numberOfPumps = n;
+    this.capacities = new double[n];
+    double sum = 0;
+    for (int i = 0; i != n; ++i) {
+      this.capacities[i] = config.getPumpCapacity(i);
+      sum += this.capacities[i];
+    }
+    this.quantum = quantum(sum);
+    this.weights = new int[n];
+    int t = 0;
+    for (int i = 0; i != n; ++i) {
+      this.weights[i] = (int) Math.round(this.capacities[i] / this.quantum);
+      t += this.weights[i];
+    }
+    this.total = t;
+    int words = (n + 63) >>> 6;
+    this.available = new long[words];
+    this.selected = new long[words];
+    this.reachable = new long[n + 1][(t + 64) >>> 6];
+    this.reachable[0][0] = 1;
+    for (int i = 0; i != n; ++i) {
+      this.available[i >>> 6] |= 1L << i;
+    }
+    recompute(0);
+  }
+
+  /**
+   * Get the number of pumps.
+   *
+   * @return The pump count.
+   */
+  public int getNumberOfPumps() {
+    return this.numberOfPumps;
+  }
+
+  /**
+   * Get the size of one quantum, which bounds how far (per pump) a selection can be from optimal.
+   *
+   * @return The quantum (in litres/sec).
+   */
+  public double getQuantum() {
+    return this.quantum;
+  }
+
+  /**
+   * Get the total capacity of the available pumps, which is the largest inflow a selection can
+   * give.
+   *
+   * @return The capacity (in litres/sec).
+   */
+  public double getCapacity() {
+    return this.capacity;
+  }
+
+  /**
+   * Check whether a given pump can be selected.
+   *
+   * @param pump The pump.
+   * @return True if it is available.
+   */
+  public boolean isAvailable(int pump) {
+    return (this.available[pump >>> 6] & (1L << pump)) != 0;
+  }
+
+  /**
+   * Set whether a given pump can be selected.
+   *
+   * @param pump      The pump.
+   * @param available True if it can be selected.
+   */
+  public void setAvailable(int pump, boolean available) {
+    if (isAvailable(pump) != available) {
+      this.available[pump >>> 6] ^= 1L << pump;
+      recompute(pump);
+    }
+  }
+
+  /**
+   * Make available exactly those pumps which are healthy, and whose controllers are healthy. This
+   * compares whole words, so costs little when nothing has changed.
+   *
+   * @param health The health of every pump.
+   * @return True if any pump became available or unavailable.
+   */
+  public boolean update(PumpHealth health) {
+    int first = -1;
+    for (int w = 0; w != this.available.length; ++w) {
+      long healthy = ~health.failedWord(w);
+      if (w == this.available.length - 1 && (this.numberOfPumps & 63) != 0) {
+        healthy &= (1L << (this.numberOfPumps & 63)) - 1;
+      }
+      long changed = healthy ^ this.available[w];
+      if (changed != 0 && first < 0) {
+        first = (w << 6) + Long.numberOfTrailingZeros(changed);
+      }
+      this.available[w] = healthy;
+    }
+    if (first >= 0) {
+      recompute(first);
+    }
+    return first >= 0;
+  }
+
+  /**
+   * Get the largest number of distinct total capacities which any selection could give, which is
+   * the space needed by <code>levels()</code>.
+   *
+   * @return The number of levels.
+   */
+  public int getLevelCount() {
+    return this.total + 1;
+  }
+
+  /**
+   * Determine every distinct total capacity which can currently be selected, in increasing order.
+   * Each is given as a whole number of quanta, and so selecting it gives exactly that total.
+   *
+   * @param into The array to fill, which should have room for <code>getLevelCount()</code>.
+   * @return The number of levels filled in.
+   */
+  public int levels(double[] into) {
+    long[] all = this.reachable[this.numberOfPumps];
+    int n = 0;
+    for (int w = 0; w != all.length; ++w) {
+      for (long b = all[w]; b != 0 && n != into.length; b &= b - 1) {
+        into[n++] = ((w << 6) + Long.numberOfTrailingZeros(b)) * this.quantum;
+      }
+    }
+    return n;
+  }
+
+  /**
+   * Select the available pumps whose total capacity is closest to a desired inflow, with ties
+   * going to the lower inflow.
+   *
+   * @param desired The desired inflow (in litres/sec).
+   * @return The total capacity of the pumps selected.
+   */
+  public double select(double desired) {
+    long[] all = this.reachable[this.numberOfPumps];
+    int target = (int) Math.max(0, Math.min(this.total, Math.round(desired / this.quantum)));
+    int below = previous(all, target);
+    int above = next(all, target);
+    double lo = reconstruct(below);
+    if (above >= 0 && above != below) {
+      double hi = capacityOf(above);
+      if (Math.abs(hi - desired) < Math.abs(lo - desired)) {
+        return reconstruct(above);
+      }
+    }
+    return lo;
+  }
+
+  /**
+   * Check whether a given pump was chosen by the last selection.
+   *
+   * @param pump The pump.
+   * @return True if it was selected.
+   */
+  public boolean isSelected(int pump) {
+    return (this.selected[pump >>> 6] & (1L << pump)) != 0;
+  }
+
+  /**
+   * Get the total capacity of the pumps chosen by the last selection.
+   *
+   * @return The inflow (in litres/sec).
+   */
+  public double getInflow() {
+    return this.inflow;
+  }
+
+  /**
+   * Recompute the reachable totals of every prefix which includes a given pump.
+   *
+   * @param pump The first pump whose availability may have changed.
+   */
+  private void recompute(int pump) {
+    double c = 0;
+    for (int i = 0; i != this.numberOfPumps; ++i) {
+      c += isAvailable(i) ? this.capacities[i] : 0;
+    }
+    this.capacity = c;
+    for (int i = pump; i != this.numberOfPumps; ++i) {
+      long[] src = this.reachable[i];
+      long[] dst = this.reachable[i + 1];
+      if (isAvailable(i)) {
+        shiftOr(src, this.weights[i], dst);
+      } else {
+        System.arraycopy(src, 0, dst, 0, src.length);
+      }
+    }
+  }
+
+  /**
+   * Choose the pumps making up a given reachable total, recording them as the current selection.
+   *
+   * @param sum The reachable total (in quanta).
+   * @return The total capacity (in litres/sec) of the pumps chosen.
+   */
+  private double reconstruct(int sum) {
+    Arrays.fill(this.selected, 0);
+    double r = 0;
+    int s = sum;
+    for (int i = this.numberOfPumps; i != 0 && s != 0; --i) {
+      if (!contains(this.reachable[i - 1], s)) {
+        // Total not reachable without pump i-1, so it must be used
+        this.selected[(i - 1) >>> 6] |= 1L << (i - 1);
+        r += this.capacities[i - 1];
+        s -= this.weights[i - 1];
+      }
+    }
+    this.inflow = r;
+    return r;
+  }
+
+  /**
+   * Determine the total capacity of the pumps which would be chosen for a given reachable total,
+   * without changing the current selection.
+   *
+   * @param sum The reachable total (in quanta).
+   * @return The total capacity (in litres/sec).
+   */
+  private double capacityOf(int sum) {
+    double r = 0;
+    int s = sum;
+    for (int i = this.numberOfPumps; i != 0 && s != 0; --i) {
+      if (!contains(this.reachable[i - 1], s)) {
+        r += this.capacities[i - 1];
+        s -= this.weights[i - 1];
+      }
+    }
+    return r;
+  }
+
+  /**
+   * Determine the quantum for a given total capacity.
+   *
+   * @param sum The total capacity of all pumps.
+   * @return The smallest power of two for which the total fits within the buckets.
+   */
+  private static double quantum(double sum) {
+    double ratio = sum / BUCKETS;
+    if (!(ratio > Double.MIN_NORMAL)) {
+      return 1.0;
+    }
+    int exponent = Math.getExponent(ratio);
+    if (ratio > Math.scalb(1.0, exponent)) {
+      exponent = exponent + 1;
+    }
+    return Math.scalb(1.0, exponent);
+  }
+
+  /**
+   * Compute <code>dst = src | (src &lt;&lt; shift)</code> over bitsets of the same length.
+   *
+   * @param src   The bitset to shift.
+   * @param shift The number of bits to shift by.
+   * @param dst   The bitset to write.
+   */
+  private static void shiftOr(long[] src, int shift, long[] dst) {
+    int words = shift >>> 6;
+    int bits = shift & 63;
+    for (int j = 0; j != src.length; ++j) {
+      long v = 0;
+      int k = j - words;
+      if (k >= 0) {
+        v = src[k] << bits;
+        if (bits != 0 && k > 0) {
+          v |= src[k - 1] >>> (64 - bits);
+        }
+      }
+      dst[j] = src[j] | v;
+    }
+  }
+
+  /**
+   * Check whether a bitset contains a given bit.
+   *
+   * @param bits The bitset.
+   * @param i    The bit.
+   * @return True if it is set.
+   */
+  private static boolean contains(long[] bits, int i) {
+    return (bits[i >>> 6] & (1L << i)) != 0;
+  }
+
+  /**
+   * Find the highest bit set at or below a given bit.
+   *
+   * @param bits The bitset.
+   * @param from The bit to start from.
+   * @return The bit found, or -1 if none.
+   */
+  private static int previous(long[] bits, int from) {
+    int w = from >>> 6;
+    long word = bits[w] & (-1L >>> (63 - (from & 63)));
+    while (true) {
+      if (word != 0) {
+        return (w << 6) + 63 - Long.numberOfLeadingZeros(word);
+      } else if (w == 0) {
+        return -1;
+      }
+      word = bits[--w];
+    }
+  }
+
+  /**
+   * Find the lowest bit set at or above a given bit.
+   *
+   * @param bits The bitset.
+   * @param from The bit to start from.
+   * @return The bit found, or -1 if none.
+   */
+  private static int next(long[] bits, int from) {
+    int w = from >>> 6;
+    long word = bits[w] & (-1L << (from & 63));
+    while (true) {
+      if (word != 0) {
+        return (w << 6) + Long.numberOfTrailingZeros(word);
+      } else if (w == bits.length - 1) {
+        return -1;
+      }
+      word = bits[++w];
+    }
+  }
+}
@@ -0,0 +1,355 @@
+package steam.boiler.core;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import steam.boiler.util.Mailbox;
+
+/**
+ * A mailbox backed by a reusable ring buffer of packed primitive records. Each message occupies
+ * two consecutive <code>long</code> slots: the first holds the ordinal of its kind, its boolean
+ * parameter and its integer (or mode) parameter; the second holds the bits of its double parameter.
+ * Messages can be sent and inspected through these records directly (e.g. using
+ * <code>kind()</code> and <code>integerParameter()</code>) without any objects being created.
+ *
+ * <p>
+ * Since this is a <code>Mailbox</code>, it can equally be passed wherever an
+ * <code>UnboundedMailbox</code> would be. A message sent as an object is remembered alongside its
+ * record and returned as is from <code>read()</code>, whilst a message sent as primitives is only
+ * turned into an object if it is read as one. Once consumed, messages are discarded by advancing
+ * the head of the ring (using <code>clear()</code> or <code>drop()</code>), so the same buffer is
+ * reused from one cycle to the next. The buffer grows if it ever fills up.
+ * </p>
+ */
+public final class RingMailbox implements Mailbox {
+  /**
+   * Cached copy of all message kinds, to avoid cloning the array on every access.
+   */
+  private static final MessageKind[] KINDS = MessageKind.values();
+
+  /**
+   * Cached copy of all modes, to avoid cloning the array on every access.
+   */
+  private static final Mode[] MODES = Mode.values();
+
+  /**
+   * Mask for the kind ordinal in the first slot of a record.
+   */
+  private static final long KIND_MASK = 0xFFL;
+
+  /**
+   * Bit holding the boolean parameter in the first slot of a record.
+   */
+  private static final long BOOLEAN_BIT = 0x100L;
+
+  /**
+   * Shift for the integer parameter in the first slot of a record.
+   */
+  private static final int INTEGER_SHIFT = 32;
+
+  /**
+   * The packed records, two slots per message.
+   */
+  private long[] records;
+
+  /**
+   * The object form of each message, if it was sent as one or has since been read as one. This is
+   * indexed by ring position, rather than by slot.
+   */
+  private @Nullable Message[] messages;
+
+  /**
+   * Ring position of the oldest message.
+   */
+  private int head;
+
+  /**
+   * Number of messages currently in the mailbox.
+   */
+  private int size;
+
+  /**
+   * Construct an empty mailbox with a given initial capacity.
+   *
+   * @param capacity The number of messages which can be held before the buffer must grow.
+   */
+  public RingMailbox(int capacity) {
+    int n = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+    this.records = new long[2 * n];
+    this.messages = new Message[n];
+  }
+
+  @Override
+  public void send(Message message) {
+    MessageKind kind = message.getKind();
+    int k = kind.ordinal();
+    switch (MessageCodec.PARAMETERS[k]) {
+      case MessageCodec.MODE_PARAMETER:
+        push(k, message.getModeParameter().ordinal(), false, 0, message);
+        break;
+      case MessageCodec.INTEGER_PARAMETER:
+        push(k, message.getIntegerParameter(), false, 0, message);
+        break;
+      case MessageCodec.DOUBLE_PARAMETER:
+        push(k, 0, false, message.getDoubleParameter(), message);
+        break;
+      case MessageCodec.INTEGER_BOOLEAN_PARAMETERS:
+        push(k, message.getIntegerParameter(), message.getBooleanParameter(), 0, message);
+        break;
+      default:
+        push(k, 0, false, 0, message);
+    }
+  }
+
+  /**
+   * Send a message which has no parameter, without creating a message object.
+   *
+   * @param kind The kind of message.
+   */
+  public void send(MessageKind kind) {
+    push(kind.ordinal(), 0, false, 0, null);
+  }
+
+  /**
+   * Send a message which carries a mode, without creating a message object.
+   *
+   * @param kind The kind of message.
+   * @param mode The mode parameter.
+   */
+  public void send(MessageKind kind, Mode mode) {
+    push(kind.ordinal(), mode.ordinal(), false, 0, null);
+  }
+
+  /**
+   * Send a message which carries an integer, without creating a message object.
+   *
+   * @param kind The kind of message.
+   * @param n    The integer parameter.
+   */
+  public void send(MessageKind kind, int n) {
+    push(kind.ordinal(), n, false, 0, null);
+  }
+
+  /**
+   * Send a message which carries a double, without creating a message object.
+   *
+   * @param kind The kind of message.
+   * @param v    The double parameter.
+   */
+  public void send(MessageKind kind, double v) {
+    push(kind.ordinal(), 0, false, v, null);
+  }
+
+  /**
+   * Send a message which carries an integer and a boolean, without creating a message object.
+   *
+   * @param kind The kind of message.
+   * @param n    The integer parameter.
+   * @param b    The boolean parameter.
+   */
+  public void send(MessageKind kind, int n, boolean b) {
+    push(kind.ordinal(), n, b, 0, null);
+  }
+
+  @Override
+  public int size() {
+    return this.size;
+  }
+
+  @Override
+  public Message read(int i) {
+    int p = position(i);
+    Message m = this.messages[p];
+    if (m == null) {
+      m = materialise(p);
+      this.messages[p] = m;
+    }
+    return m;
+  }
+
+  /**
+   * Get the kind of a given message, without creating a message object.
+   *
+   * @param i Index of the message, where 0 is the oldest.
+   * @return The kind of the message.
+   */
+  public MessageKind kind(int i) {
+    MessageKind k = KINDS[(int) (this.records[2 * position(i)] & KIND_MASK)];
+    assert k != null;
+    return k;
+  }
+
+  /**
+   * Get the integer parameter of a given message, without creating a message object.
+   *
+   * @param i Index of the message, where 0 is the oldest.
+   * @return The integer parameter, or 0 if the message has none.
+   */
+  public int integerParameter(int i) {
+    return (int) (this.records[2 * position(i)] >> INTEGER_SHIFT);
+  }
+
+  /**
+   * Get the boolean parameter of a given message, without creating a message object.
+   *
+   * @param i Index of the message, where 0 is the oldest.
+   * @return The boolean parameter, or <code>false</code> if the message has none.
+   */
+  public boolean booleanParameter(int i) {
+    return (this.records[2 * position(i)] & BOOLEAN_BIT) != 0;
+  }
+
+  /**
+   * Get the double parameter of a given message, without creating a message object.
+   *
+   * @param i Index of the message, where 0 is the oldest.
+   * @return The double parameter, or 0 if the message has none.
+   */
+  public double doubleParameter(int i) {
+    return Double.longBitsToDouble(this.records[(2 * position(i)) + 1]);
+  }
+
+  /**
+   * Get the mode parameter of a given message, without creating a message object.
+   *
+   * @param i Index of the message, where 0 is the oldest.
+   * @return The mode parameter, which is meaningless if the message has none.
+   */
+  public Mode modeParameter(int i) {
+    Mode m = MODES[integerParameter(i)];
+    assert m != null;
+    return m;
+  }
+
+  /**
+   * Determine whether this mailbox holds exactly the same messages as another, in the same order,
+   * without creating any message objects. Double parameters must be identical to the bit.
+   *
+   * @param other The other mailbox.
+   * @return True if both hold the same messages.
+   */
+  public boolean contentEquals(RingMailbox other) {
+    if (this.size != other.size) {
+      return false;
+    }
+    for (int i = 0; i != this.size; ++i) {
+      int p = 2 * position(i);
+      int q = 2 * other.position(i);
+      if (this.records[p] != other.records[q] || this.records[p + 1] != other.records[q + 1]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Discard a given number of the oldest messages.
+   *
+   * @param n The number of messages to discard.
+   */
+  public void drop(int n) {
+    if (n < 0 || n > this.size) {
+      throw new IllegalArgumentException("invalid number of messages to drop"); //$NON-NLS-1$
+    }
+    this.head = (this.head + n) & (this.messages.length - 1);
+    this.size -= n;
+  }
+
+  /**
+   * Discard all messages, ready for the mailbox to be reused.
+   */
+  public void clear() {
+    drop(this.size);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder r = new StringBuilder();
+    r.append('[');
+    for (int i = 0; i != this.size; ++i) {
+      if (i != 0) {
+        r.append(", "); //$NON-NLS-1$
+      }
+      r.append(read(i));
+    }
+    r.append(']');
+    String s = r.toString();
+    assert s != null;
+    return s;
+  }
+
+  /**
+   * Append a record to the tail of the ring, growing the buffer if it is full.
+   *
+   * @param k       Ordinal of the message kind.
+   * @param n       Integer (or mode) parameter.
+   * @param b       Boolean parameter.
+   * @param v       Double parameter.
+   * @param message Object form of the message, or <code>null</code> if there is none yet.
+   */
+  private void push(int k, int n, boolean b, double v, @Nullable Message message) {
+    if (this.size == this.messages.length) {
+      grow();
+    }
+    int p = (this.head + this.size) & (this.messages.length - 1);
+    this.records[2 * p] = k | (b ? BOOLEAN_BIT : 0) | ((long) n << INTEGER_SHIFT);
+    this.records[(2 * p) + 1] = Double.doubleToRawLongBits(v);
+    this.messages[p] = message;
+    this.size++;
+  }
+
+  /**
+   * Double the capacity of the buffer, moving the messages so that the oldest is at the start.
+   */
+  private void grow() {
+    int n = this.messages.length;
+    long[] grownRecords = new long[4 * n];
+    @Nullable Message[] grownMessages = new Message[2 * n];
+    for (int i = 0; i != this.size; ++i) {
+      int p = position(i);
+      grownRecords[2 * i] = this.records[2 * p];
+      grownRecords[(2 * i) + 1] = this.records[(2 * p) + 1];
+      grownMessages[i] = this.messages[p];
+    }
+    this.records = grownRecords;
+    this.messages = grownMessages;
+    this.head = 0;
+  }
+
+  /**
+   * Determine the ring position of a given message.
+   *
+   * @param i Index of the message, where 0 is the oldest.
+   * @return The ring position of the message.
+   */
+  private int position(int i) {
+    if (i < 0 || i >= this.size) {
+      throw new IndexOutOfBoundsException("invalid message index " + i); //$NON-NLS-1$
+    }
+    return (this.head + i) & (this.messages.length - 1);
+  }
+
+  /**
+   * Construct the object form of the message at a given ring position.
+   *
+   * @param p The ring position.
+   * @return The message.
+   */
+  private Message materialise(int p) {
+    long record = this.records[2 * p];
+    int k = (int) (record & KIND_MASK);
+    MessageKind kind = KINDS[k];
+    int n = (int) (record >> INTEGER_SHIFT);
+    switch (MessageCodec.PARAMETERS[k]) {
+      case MessageCodec.MODE_PARAMETER:
+        return new Message(kind, MODES[n]);
+      case MessageCodec.INTEGER_PARAMETER:
+        return new Message(kind, n);
+      case MessageCodec.DOUBLE_PARAMETER:
+        return new Message(kind, Double.longBitsToDouble(this.records[(2 * p) + 1]));
+      case MessageCodec.INTEGER_BOOLEAN_PARAMETERS:
+        return new Message(kind, n, (record & BOOLEAN_BIT) != 0);
+      default:
+        return new Message(kind);
+    }
+  }
+}
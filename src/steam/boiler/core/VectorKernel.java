@@ -0,0 +1,113 @@
+package steam.boiler.core;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The SIMD kernels of <code>BatchController</code>, which compute its arithmetic passes for one
+ * lane of boilers at a time. This is the only class using the incubating
+ * <code>jdk.incubator.vector</code> module, which must be added at both compile and run time (i.e.
+ * <code>--add-modules jdk.incubator.vector</code>). It is only loaded once
+ * <code>BatchController</code> has found that module to be present.
+ *
+ * <p>
+ * Each lane performs exactly the same arithmetic, in the same order, as the scalar passes of
+ * <code>BatchController</code>. Rather than branching, both sides of each condition are computed
+ * and the result selected with a mask, and boilers which have been stopped are masked out of every
+ * store.
+ * </p>
+ */
+final class VectorKernel {
+  /**
+   * The preferred species for double lanes on this platform.
+   */
+  private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+
+  /**
+   * Private constructor as this class provides only static methods.
+   */
+  private VectorKernel() {
+  }
+
+  /**
+   * Update the level controller of as many whole lanes of boilers as possible, and decide whether
+   * each keeps its pumps as they are.
+   *
+   * @param c The batch.
+   * @return The number of boilers done, after which the rest must be done by the caller.
+   */
+  static int control(BatchController c) {
+    final int bound = DOUBLES.loopBound(c.size);
+    for (int b = 0; b < bound; b += DOUBLES.length()) {
+      VectorMask<Double> live = VectorMask.fromArray(DOUBLES, c.stopped, b).not();
+      VectorMask<Double> primed = VectorMask.fromArray(DOUBLES, c.primed, b);
+      DoubleVector l = DoubleVector.fromArray(DOUBLES, c.level, b);
+      DoubleVector s = DoubleVector.fromArray(DOUBLES, c.steam, b);
+      DoubleVector max = DoubleVector.fromArray(DOUBLES, c.capacity, b);
+      DoubleVector error = DoubleVector.fromArray(DOUBLES, c.target, b).sub(l);
+      DoubleVector rate = l.sub(DoubleVector.fromArray(DOUBLES, c.lastLevel, b))
+          .div(LevelPredictor.PERIOD);
+      DoubleVector derivative = DoubleVector.fromArray(DOUBLES, c.derivative, b);
+      derivative = derivative.blend(derivative.mul(LevelController.FILTER)
+          .add(rate.mul(1 - LevelController.FILTER)), primed);
+      DoubleVector base = s.add(error.mul(LevelController.PROPORTIONAL));
+      DoubleVector damping = derivative.mul(LevelController.DERIVATIVE);
+      DoubleVector integral = DoubleVector.fromArray(DOUBLES, c.integral, b);
+      DoubleVector output = base.add(integral).sub(damping);
+      VectorMask<Double> integrate = output.lt(max).or(error.lt(0.0)).and(
+          output.compare(VectorOperators.GT, 0.0).or(error.compare(VectorOperators.GT, 0.0)));
+      DoubleVector i = integral.add(
+          error.mul(LevelController.INTEGRAL).mul(LevelPredictor.PERIOD));
+      integral = integral.blend(i.min(max).max(max.neg()), integrate);
+      output = output.blend(base.add(integral).sub(damping), integrate);
+      DoubleVector desired = output.min(max).max(0.0);
+      DoubleVector current = DoubleVector.fromArray(DOUBLES, c.commanded, b);
+      DoubleVector swing = current.mul(LevelPredictor.PERIOD);
+      VectorMask<Double> keep = desired.sub(current).abs()
+          .compare(VectorOperators.LE, DoubleVector.fromArray(DOUBLES, c.hysteresis, b))
+          .and(l.add(DoubleVector.fromArray(DOUBLES, c.low, b)).add(swing)
+              .compare(VectorOperators.GE, DoubleVector.fromArray(DOUBLES, c.minNormal, b)))
+          .and(l.sub(s.mul(LevelPredictor.PERIOD)).add(swing)
+              .compare(VectorOperators.LE, DoubleVector.fromArray(DOUBLES, c.maxNormal, b)));
+      derivative.intoArray(c.derivative, b, live);
+      integral.intoArray(c.integral, b, live);
+      l.intoArray(c.lastLevel, b, live);
+      primed.or(live).intoArray(c.primed, b);
+      desired.intoArray(c.desired, b, live);
+      current.intoArray(c.planned, b, live);
+      keep.intoArray(c.keep, b);
+    }
+    return bound;
+  }
+
+  /**
+   * Predict the range of levels for as many whole lanes of boilers as possible, given the inflow
+   * planned, and stop those whose level is at (or about to reach) a limit.
+   *
+   * @param c The batch.
+   * @return The number of boilers done, after which the rest must be done by the caller.
+   */
+  static int envelope(BatchController c) {
+    final int bound = DOUBLES.loopBound(c.size);
+    for (int b = 0; b < bound; b += DOUBLES.length()) {
+      VectorMask<Double> live = VectorMask.fromArray(DOUBLES, c.stopped, b).not();
+      DoubleVector l = DoubleVector.fromArray(DOUBLES, c.level, b);
+      DoubleVector s = DoubleVector.fromArray(DOUBLES, c.steam, b);
+      DoubleVector swing = DoubleVector.fromArray(DOUBLES, c.planned, b)
+          .mul(LevelPredictor.PERIOD);
+      DoubleVector min = l.add(DoubleVector.fromArray(DOUBLES, c.low, b)).add(swing);
+      DoubleVector max = l.sub(s.mul(LevelPredictor.PERIOD)).add(swing);
+      DoubleVector lo = DoubleVector.fromArray(DOUBLES, c.minLimit, b);
+      DoubleVector hi = DoubleVector.fromArray(DOUBLES, c.maxLimit, b);
+      VectorMask<Double> stop = l.compare(VectorOperators.LE, lo)
+          .or(l.compare(VectorOperators.GE, hi)).or(min.lt(lo))
+          .or(max.compare(VectorOperators.GT, hi));
+      min.intoArray(c.minimum, b, live);
+      max.intoArray(c.maximum, b, live);
+      stop.or(live.not()).intoArray(c.stopped, b);
+    }
+    return bound;
+  }
+}
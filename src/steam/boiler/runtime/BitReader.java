@@ -0,0 +1,124 @@
+package steam.boiler.runtime;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a stream of bits written by a <code>BitWriter</code>. Bytes are read from the underlying
+ * stream a buffer at a time, so reading a few bits at a time is cheap.
+ */
+final class BitReader {
+  /**
+   * The stream being read.
+   */
+  private final InputStream in;
+
+  /**
+   * Bytes read from the stream.
+   */
+  private final byte[] buffer = new byte[1 << 16];
+
+  /**
+   * The position of the next byte in the buffer.
+   */
+  private int position;
+
+  /**
+   * The number of bytes in the buffer.
+   */
+  private int limit;
+
+  /**
+   * Bits read from the buffer but not yet consumed, held in the lowest bits.
+   */
+  private long pending;
+
+  /**
+   * The number of bits pending.
+   */
+  private int count;
+
+  /**
+   * Construct a reader for a given stream.
+   *
+   * @param in The stream to read.
+   */
+  BitReader(InputStream in) {
+    this.in = in;
+  }
+
+  /**
+   * Read a value of a given number of bits.
+   *
+   * @param n The number of bits to read, from 0 to 64.
+   * @return The value, in the lowest bits.
+   * @throws IOException If the stream could not be read, or ended.
+   */
+  long read(int n) throws IOException {
+    if (n > 32) {
+      long high = read(n - 32);
+      return (high << 32) | read(32);
+    }
+    while (this.count < n) {
+      if (this.position == this.limit) {
+        fill();
+      }
+      this.pending = (this.pending << 8) | (this.buffer[this.position++] & 0xFF);
+      this.count += 8;
+    }
+    this.count -= n;
+    return (this.pending >>> this.count) & ((1L << n) - 1);
+  }
+
+  /**
+   * Read a single bit.
+   *
+   * @return The bit.
+   * @throws IOException If the stream could not be read, or ended.
+   */
+  boolean readBit() throws IOException {
+    return read(1) != 0;
+  }
+
+  /**
+   * Read a non-negative value written as an Elias gamma code.
+   *
+   * @return The value.
+   * @throws IOException If the stream could not be read, ended, or held an invalid code.
+   */
+  long readUnsigned() throws IOException {
+    int zeros = 0;
+    while (!readBit()) {
+      if (++zeros == 64) {
+        throw new IOException("invalid gamma code"); //$NON-NLS-1$
+      }
+    }
+    return ((1L << zeros) | read(zeros)) - 1;
+  }
+
+  /**
+   * Read a value written as a zig-zag encoded Elias gamma code.
+   *
+   * @return The value.
+   * @throws IOException If the stream could not be read, ended, or held an invalid code.
+   */
+  long readSigned() throws IOException {
+    long v = readUnsigned();
+    return (v >>> 1) ^ -(v & 1);
+  }
+
+  /**
+   * Refill the buffer from the stream.
+   *
+   * @throws IOException If the stream could not be read, or ended.
+   */
+  private void fill() throws IOException {
+    int n = this.in.read(this.buffer);
+    if (n <= 0) {
+      throw new EOFException("unexpected end of trace"); //$NON-NLS-1$
+    }
+    this.position = 0;
+    this.limit = n;
+  }
+}
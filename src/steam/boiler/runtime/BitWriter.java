@@ -0,0 +1,139 @@
+package steam.boiler.runtime;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes a stream of bits, most significant first, to an underlying stream. Bytes are gathered
+ * in a buffer, and only written to the stream once it fills up (or is flushed), so writing a few
+ * bits at a time is cheap. Small unsigned values are written using Elias gamma codes, whose
+ * length grows with the magnitude of the value, and signed values are zig-zag encoded first.
+ */
+final class BitWriter {
+  /**
+   * The stream being written.
+   */
+  private final OutputStream out;
+
+  /**
+   * Bytes not yet written to the stream.
+   */
+  private final byte[] buffer = new byte[1 << 16];
+
+  /**
+   * The number of bytes in the buffer.
+   */
+  private int position;
+
+  /**
+   * Bits not yet forming a whole byte, held in the lowest bits.
+   */
+  private long pending;
+
+  /**
+   * The number of bits pending, which is always less than eight between writes.
+   */
+  private int count;
+
+  /**
+   * Construct a writer for a given stream.
+   *
+   * @param out The stream to write.
+   */
+  BitWriter(OutputStream out) {
+    this.out = out;
+  }
+
+  /**
+   * Write the lowest bits of a value.
+   *
+   * @param value The value.
+   * @param n     The number of bits to write, from 0 to 64.
+   * @throws IOException If the stream could not be written.
+   */
+  void write(long value, int n) throws IOException {
+    int m = n;
+    if (m > 32) {
+      write(value >>> 32, m - 32);
+      m = 32;
+    }
+    this.pending = (this.pending << m) | (value & ((1L << m) - 1));
+    this.count += m;
+    while (this.count >= 8) {
+      this.count -= 8;
+      if (this.position == this.buffer.length) {
+        drain();
+      }
+      this.buffer[this.position++] = (byte) (this.pending >>> this.count);
+    }
+  }
+
+  /**
+   * Write a single bit.
+   *
+   * @param b The bit.
+   * @throws IOException If the stream could not be written.
+   */
+  void writeBit(boolean b) throws IOException {
+    write(b ? 1 : 0, 1);
+  }
+
+  /**
+   * Write a non-negative value as an Elias gamma code, which takes <code>2k+1</code> bits for a
+   * value below <code>2^k - 1</code>. Zero therefore takes a single bit.
+   *
+   * @param v The value, which must be less than <code>Long.MAX_VALUE</code>.
+   * @throws IOException If the stream could not be written.
+   */
+  void writeUnsigned(long v) throws IOException {
+    long x = v + 1;
+    int n = 64 - Long.numberOfLeadingZeros(x);
+    write(0, n - 1);
+    write(x, n);
+  }
+
+  /**
+   * Write a value as a zig-zag encoded Elias gamma code, so that values close to zero (whether
+   * positive or negative) are short.
+   *
+   * @param v The value, whose magnitude must be less than <code>2^62</code>.
+   * @throws IOException If the stream could not be written.
+   */
+  void writeSigned(long v) throws IOException {
+    writeUnsigned((v << 1) ^ (v >> 63));
+  }
+
+  /**
+   * Write every whole byte to the stream, and flush it. Any bits short of a whole byte remain
+   * pending.
+   *
+   * @throws IOException If the stream could not be written.
+   */
+  void flush() throws IOException {
+    drain();
+    this.out.flush();
+  }
+
+  /**
+   * Pad the bits pending with zeros to a whole byte, write everything to the stream, and flush it.
+   * This must only be done at the end of the stream.
+   *
+   * @throws IOException If the stream could not be written.
+   */
+  void finish() throws IOException {
+    if (this.count != 0) {
+      write(0, 8 - this.count);
+    }
+    flush();
+  }
+
+  /**
+   * Write the buffer to the stream, leaving it empty.
+   *
+   * @throws IOException If the stream could not be written.
+   */
+  private void drain() throws IOException {
+    this.out.write(this.buffer, 0, this.position);
+    this.position = 0;
+  }
+}
@@ -0,0 +1,141 @@
+package steam.boiler.runtime;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import steam.boiler.core.RingMailbox;
+
+/**
+ * Reads the cycles of a compressed trace (as written by a <code>CompressedTraceWriter</code>) one
+ * at a time, oldest first. The stream is read a buffer at a time, so a trace of any size can be
+ * streamed through in constant memory. The messages of each cycle are decoded into a pair of
+ * mailboxes which are reused from one cycle to the next.
+ */
+public final class CompressedTraceReader implements AutoCloseable {
+  /**
+   * The stream being read.
+   */
+  private final InputStream stream;
+
+  /**
+   * The bits being read.
+   */
+  private final BitReader in;
+
+  /**
+   * The columns of the incoming messages.
+   */
+  private final TraceColumns incomingColumns = new TraceColumns();
+
+  /**
+   * The columns of the outgoing messages.
+   */
+  private final TraceColumns outgoingColumns = new TraceColumns();
+
+  /**
+   * The number of the current cycle.
+   */
+  private long number = -1;
+
+  /**
+   * The time (in ms since the epoch) at which the current cycle was clocked.
+   */
+  private long time;
+
+  /**
+   * The difference in time between the last two cycles read.
+   */
+  private long interval;
+
+  /**
+   * Set once the end of the trace has been reached.
+   */
+  private boolean finished;
+
+  /**
+   * The messages received in the current cycle.
+   */
+  private final RingMailbox incoming = new RingMailbox(64);
+
+  /**
+   * The messages sent in the current cycle.
+   */
+  private final RingMailbox outgoing = new RingMailbox(64);
+
+  /**
+   * Open a compressed trace for reading.
+   *
+   * @param stream The stream to read, which is closed when the reader is.
+   * @throws IOException If the stream could not be read, or is not a compressed trace.
+   */
+  public CompressedTraceReader(InputStream stream) throws IOException {
+    this.stream = stream;
+    this.in = new BitReader(stream);
+    if (this.in.read(32) != CompressedTraceWriter.MAGIC
+        || this.in.read(32) != CompressedTraceWriter.VERSION) {
+      throw new IOException("not a compressed trace"); //$NON-NLS-1$
+    }
+  }
+
+  /**
+   * Advance to the next cycle, replacing the messages of the current one.
+   *
+   * @return True if there was another cycle, or false if the end of the trace has been reached.
+   * @throws IOException If the stream could not be read, or the next cycle is corrupt.
+   */
+  public boolean next() throws IOException {
+    if (this.finished || !this.in.readBit()) {
+      this.finished = true;
+      return false;
+    }
+    this.number += this.in.readSigned() + 1;
+    this.interval += this.in.readSigned();
+    this.time += this.interval;
+    this.incoming.clear();
+    this.outgoing.clear();
+    this.incomingColumns.decode(this.in, this.incoming);
+    this.outgoingColumns.decode(this.in, this.outgoing);
+    return true;
+  }
+
+  /**
+   * Get the number of the current cycle.
+   *
+   * @return The number, counting from zero, or -1 before the first cycle has been read.
+   */
+  public long getNumber() {
+    return this.number;
+  }
+
+  /**
+   * Get the time at which the current cycle was clocked.
+   *
+   * @return The time (in ms since the epoch).
+   */
+  public long getTime() {
+    return this.time;
+  }
+
+  /**
+   * Get the messages received in the current cycle. The mailbox is reused for the next cycle.
+   *
+   * @return The messages.
+   */
+  public RingMailbox getIncoming() {
+    return this.incoming;
+  }
+
+  /**
+   * Get the messages sent in the current cycle. The mailbox is reused for the next cycle.
+   *
+   * @return The messages.
+   */
+  public RingMailbox getOutgoing() {
+    return this.outgoing;
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.stream.close();
+  }
+}
@@ -0,0 +1,142 @@
+package steam.boiler.runtime;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import steam.boiler.util.Mailbox;
+
+/**
+ * Writes a trace in a compressed, columnar form, one cycle at a time. This holds the same
+ * information as a trace written by a <code>TraceRecorder</code>, but takes a fraction of the
+ * space, since each cycle is predicted from the one before: see <code>TraceColumns</code> for how
+ * the messages are compressed. The number and time of each cycle are encoded as the difference
+ * between successive differences (i.e. delta-of-delta), which is zero for a steady clock.
+ *
+ * <p>
+ * A compressed trace is a bit stream, starting with <code>MAGIC</code> and <code>VERSION</code>
+ * (32 bits each). Each cycle is preceded by a one bit, and the trace ends with a zero bit once
+ * the writer is closed. Cycles are written out incrementally as the buffer fills, or when the
+ * writer is flushed, so a long recording never needs to be held in memory. A trace is read back
+ * with a <code>CompressedTraceReader</code>.
+ * </p>
+ */
+public final class CompressedTraceWriter implements AutoCloseable {
+  /**
+   * Identifies a compressed trace.
+   */
+  public static final int MAGIC = 0x53424354;
+
+  /**
+   * The version of the compressed trace format.
+   */
+  public static final int VERSION = 1;
+
+  /**
+   * The stream being written.
+   */
+  private final OutputStream stream;
+
+  /**
+   * The bits being written.
+   */
+  private final BitWriter out;
+
+  /**
+   * The columns of the incoming messages.
+   */
+  private final TraceColumns incoming = new TraceColumns();
+
+  /**
+   * The columns of the outgoing messages.
+   */
+  private final TraceColumns outgoing = new TraceColumns();
+
+  /**
+   * The number of the last cycle written.
+   */
+  private long lastNumber = -1;
+
+  /**
+   * The time of the last cycle written.
+   */
+  private long lastTime;
+
+  /**
+   * The difference in time between the last two cycles written.
+   */
+  private long lastInterval;
+
+  /**
+   * The number of cycles written.
+   */
+  private long cycles;
+
+  /**
+   * Construct a writer for a given stream, and write the header of the trace.
+   *
+   * @param stream The stream to write, which is closed when the writer is.
+   * @throws IOException If the header could not be written.
+   */
+  public CompressedTraceWriter(OutputStream stream) throws IOException {
+    this.stream = stream;
+    this.out = new BitWriter(stream);
+    this.out.write(MAGIC, 32);
+    this.out.write(VERSION, 32);
+  }
+
+  /**
+   * Write a cycle.
+   *
+   * @param number   The number of the cycle.
+   * @param time     The time (in ms since the epoch) at which it was clocked.
+   * @param received The messages received.
+   * @param sent     The messages sent.
+   * @throws IOException If the cycle could not be written.
+   */
+  public void write(long number, long time, Mailbox received, Mailbox sent) throws IOException {
+    long interval = time - this.lastTime;
+    this.out.writeBit(true);
+    this.out.writeSigned(number - this.lastNumber - 1);
+    this.out.writeSigned(interval - this.lastInterval);
+    this.lastNumber = number;
+    this.lastTime = time;
+    this.lastInterval = interval;
+    this.incoming.encode(received, this.out);
+    this.outgoing.encode(sent, this.out);
+    this.cycles++;
+  }
+
+  /**
+   * Get the number of cycles written.
+   *
+   * @return The count.
+   */
+  public long getCycles() {
+    return this.cycles;
+  }
+
+  /**
+   * Write every cycle written so far to the stream, apart from any bits short of a whole byte, and
+   * flush it.
+   *
+   * @throws IOException If the stream could not be written.
+   */
+  public void flush() throws IOException {
+    this.out.flush();
+  }
+
+  /**
+   * Mark the end of the trace, write everything to the stream, and close it.
+   *
+   * @throws IOException If the stream could not be written.
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      this.out.writeBit(false);
+      this.out.finish();
+    } finally {
+      this.stream.close();
+    }
+  }
+}
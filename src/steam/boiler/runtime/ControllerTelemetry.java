@@ -0,0 +1,341 @@
+package steam.boiler.runtime;
+
+import org.eclipse.jdt.annotation.NonNull;
+
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.core.MySteamBoilerController.State;
+import steam.boiler.core.PumpHealth;
+import steam.boiler.model.SteamBoilerController;
+import steam.boiler.util.Mailbox;
+
+/**
+ * Publishes the state of a controller for monitoring, e.g. over JMX. This wraps the controller,
+ * and is clocked in its place (by a <code>CycleScheduler</code>, <code>FleetHost</code> or
+ * similar). Each clock is timed into a histogram owned by the clocking thread, after which a new
+ * immutable sample of the controller is published through a volatile field. Readers only ever
+ * read the last sample published, so never block the clocking thread, nor see a sample which is
+ * partly from one cycle and partly from another.
+ *
+ * <p>
+ * Publishing a sample allocates, so samples are published at most once per publication interval,
+ * except on the first cycle and whenever the controller changes state. With the usual five second
+ * cycle every cycle is published, whilst a simulation clocking as fast as it can allocates only a
+ * few samples per second. Since every change of state is published, a controller which stops
+ * (and so is no longer clocked) never goes on showing the state it was in beforehand.
+ * </p>
+ */
+public final class ControllerTelemetry implements SteamBoilerController, ControllerTelemetryMBean {
+  /**
+   * The default minimum time (in nanoseconds) between samples.
+   */
+  public static final long DEFAULT_INTERVAL = 100_000_000L;
+
+  /**
+   * The health reported for a pump, indexed by two bits: whether the pump has failed, and whether
+   * its controller has failed.
+   */
+  private static final String[] HEALTH = { "OK", "CONTROLLER_FAILED", //$NON-NLS-1$ //$NON-NLS-2$
+      "PUMP_FAILED", "FAILED" }; //$NON-NLS-1$ //$NON-NLS-2$
+
+  /**
+   * The controller being published.
+   */
+  private final MySteamBoilerController controller;
+
+  /**
+   * The minimum time (in nanoseconds) between samples.
+   */
+  private final long interval;
+
+  /**
+   * Time taken by each cycle. This is only accessed by the clocking thread.
+   */
+  private final LatencyHistogram latency = new LatencyHistogram();
+
+  /**
+   * Number of cycles clocked.
+   */
+  private long cycles;
+
+  /**
+   * The time at which the last sample was published.
+   */
+  private long published;
+
+  /**
+   * The state of the controller in the last sample published.
+   */
+  private State publishedState;
+
+  /**
+   * The last sample published.
+   */
+  private volatile Sample sample;
+
+  /**
+   * Construct telemetry for a controller, publishing samples no more often than the default
+   * interval.
+   *
+   * @param controller The controller to publish.
+   */
+  public ControllerTelemetry(MySteamBoilerController controller) {
+    this(controller, DEFAULT_INTERVAL);
+  }
+
+  /**
+   * Construct telemetry for a controller. An initial sample is published immediately, so this
+   * should be constructed before the controller is first clocked, or on the clocking thread.
+   *
+   * @param controller The controller to publish.
+   * @param interval   The minimum time (in nanoseconds) between samples, or zero to publish every
+   *                   cycle.
+   */
+  public ControllerTelemetry(MySteamBoilerController controller, long interval) {
+    if (interval < 0) {
+      throw new IllegalArgumentException("negative interval"); //$NON-NLS-1$
+    }
+    this.controller = controller;
+    this.interval = interval;
+    this.publishedState = controller.getState();
+    this.sample = new Sample(controller, this.latency, 0);
+  }
+
+  /**
+   * Get the controller being published.
+   *
+   * @return The controller.
+   */
+  public MySteamBoilerController getController() {
+    return this.controller;
+  }
+
+  @Override
+  public void clock(@NonNull Mailbox incoming, @NonNull Mailbox outgoing) {
+    long start = System.nanoTime();
+    this.controller.clock(incoming, outgoing);
+    long end = System.nanoTime();
+    this.latency.record(end - start);
+    this.cycles++;
+    State state = this.controller.getState();
+    if (this.cycles == 1 || state != this.publishedState || end - this.published >= this.interval) {
+      this.published = end;
+      this.publishedState = state;
+      this.sample = new Sample(this.controller, this.latency, this.cycles);
+    }
+  }
+
+  @Override
+  public String getStatusMessage() {
+    return this.controller.getStatusMessage();
+  }
+
+  /**
+   * Get the last sample published, whose attributes are all from the same cycle.
+   *
+   * @return The sample.
+   */
+  public Sample getSample() {
+    return this.sample;
+  }
+
+  @Override
+  public String getState() {
+    return this.sample.state;
+  }
+
+  @Override
+  public double getLevel() {
+    return this.sample.level;
+  }
+
+  @Override
+  public double getSteam() {
+    return this.sample.steam;
+  }
+
+  @Override
+  public String[] getPumpHealth() {
+    return this.sample.pumpHealth.clone();
+  }
+
+  @Override
+  public long getCycles() {
+    return this.sample.cycles;
+  }
+
+  @Override
+  public long getLatencyP50() {
+    return this.sample.p50;
+  }
+
+  @Override
+  public long getLatencyP99() {
+    return this.sample.p99;
+  }
+
+  @Override
+  public long getLatencyP999() {
+    return this.sample.p999;
+  }
+
+  @Override
+  public long getLatencyMax() {
+    return this.sample.max;
+  }
+
+  /**
+   * An immutable sample of a controller, taken at the end of a cycle.
+   */
+  public static final class Sample {
+    /**
+     * The name of the controller's state.
+     */
+    final String state;
+
+    /**
+     * The last level reading received.
+     */
+    final double level;
+
+    /**
+     * The last steam reading received.
+     */
+    final double steam;
+
+    /**
+     * The health of each pump.
+     */
+    final String[] pumpHealth;
+
+    /**
+     * The number of cycles clocked.
+     */
+    final long cycles;
+
+    /**
+     * The median cycle time.
+     */
+    final long p50;
+
+    /**
+     * The 99th percentile cycle time.
+     */
+    final long p99;
+
+    /**
+     * The 99.9th percentile cycle time.
+     */
+    final long p999;
+
+    /**
+     * The longest cycle time.
+     */
+    final long max;
+
+    /**
+     * Take a sample of a controller.
+     *
+     * @param controller The controller.
+     * @param latency    The time taken by each of its cycles.
+     * @param cycles     The number of cycles clocked.
+     */
+    Sample(MySteamBoilerController controller, LatencyHistogram latency, long cycles) {
+      this.state = controller.getState().toString();
+      this.level = controller.getLevelReading();
+      this.steam = controller.getSteamReading();
+      PumpHealth pumps = controller.getPumpHealth();
+      this.pumpHealth = new String[pumps.getNumberOfPumps()];
+      for (int i = 0; i != this.pumpHealth.length; ++i) {
+        int h = (pumps.isPumpFailed(i) ? 2 : 0) | (pumps.isControllerFailed(i) ? 1 : 0);
+        this.pumpHealth[i] = HEALTH[h];
+      }
+      this.cycles = cycles;
+      this.p50 = latency.getPercentile(50);
+      this.p99 = latency.getPercentile(99);
+      this.p999 = latency.getPercentile(99.9);
+      this.max = latency.getMax();
+    }
+
+    /**
+     * Get the name of the controller's state.
+     *
+     * @return The state.
+     */
+    public String getState() {
+      return this.state;
+    }
+
+    /**
+     * Get the last level reading received.
+     *
+     * @return The reading (in litres), or NaN if none had been received.
+     */
+    public double getLevel() {
+      return this.level;
+    }
+
+    /**
+     * Get the last steam reading received.
+     *
+     * @return The reading (in litres/sec), or NaN if none had been received.
+     */
+    public double getSteam() {
+      return this.steam;
+    }
+
+    /**
+     * Get the health of a given pump.
+     *
+     * @param pump The pump.
+     * @return Its health, as for <code>ControllerTelemetryMBean.getPumpHealth()</code>.
+     */
+    public String getPumpHealth(int pump) {
+      return this.pumpHealth[pump];
+    }
+
+    /**
+     * Get the number of cycles clocked.
+     *
+     * @return The count.
+     */
+    public long getCycles() {
+      return this.cycles;
+    }
+
+    /**
+     * Get the median time taken by a cycle.
+     *
+     * @return The duration (in nanoseconds).
+     */
+    public long getLatencyP50() {
+      return this.p50;
+    }
+
+    /**
+     * Get the 99th percentile of the time taken by a cycle.
+     *
+     * @return The duration (in nanoseconds).
+     */
+    public long getLatencyP99() {
+      return this.p99;
+    }
+
+    /**
+     * Get the 99.9th percentile of the time taken by a cycle.
+     *
+     * @return The duration (in nanoseconds).
+     */
+    public long getLatencyP999() {
+      return this.p999;
+    }
+
+    /**
+     * Get the longest time taken by a cycle.
+     *
+     * @return The duration (in nanoseconds).
+     */
+    public long getLatencyMax() {
+      return this.max;
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package steam.boiler.runtime;
+
+/**
+ * The attributes of a running controller exposed over JMX. Every attribute is read from the last
+ * sample published by the thread clocking the controller, so reading never blocks that thread.
+ * Attributes read separately may come from different samples; those of a single sample (see
+ * <code>ControllerTelemetry.getSample()</code>) are always consistent with each other.
+ */
+public interface ControllerTelemetryMBean {
+  /**
+   * Get the state the controller was in.
+   *
+   * @return The name of the state.
+   */
+  public String getState();
+
+  /**
+   * Get the last level reading received.
+   *
+   * @return The reading (in litres), or NaN if none has been received.
+   */
+  public double getLevel();
+
+  /**
+   * Get the last steam reading received.
+   *
+   * @return The reading (in litres/sec), or NaN if none has been received.
+   */
+  public double getSteam();
+
+  /**
+   * Get the health of each pump: <code>OK</code>, <code>PUMP_FAILED</code>,
+   * <code>CONTROLLER_FAILED</code> or <code>FAILED</code> (when both the pump and its controller
+   * have failed).
+   *
+   * @return The health of each pump, indexed by pump.
+   */
+  public String[] getPumpHealth();
+
+  /**
+   * Get the number of cycles the controller has been clocked.
+   *
+   * @return The count.
+   */
+  public long getCycles();
+
+  /**
+   * Get the median time taken by a cycle.
+   *
+   * @return The duration (in nanoseconds).
+   */
+  public long getLatencyP50();
+
+  /**
+   * Get the 99th percentile of the time taken by a cycle.
+   *
+   * @return The duration (in nanoseconds).
+   */
+  public long getLatencyP99();
+
+  /**
+   * Get the 99.9th percentile of the time taken by a cycle.
+   *
+   * @return The duration (in nanoseconds).
+   */
+  public long getLatencyP999();
+
+  /**
+   * Get the longest time taken by a cycle.
+   *
+   * @return The duration (in nanoseconds).
+   */
+  public long getLatencyMax();
+}
@@ -0,0 +1,276 @@
+package steam.boiler.runtime;
+
+import java.util.concurrent.locks.LockSupport;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import steam.boiler.core.RingMailbox;
+import steam.boiler.model.SteamBoilerController;
+import steam.boiler.util.Mailbox;
+
+/**
+ * Runs a controller on a dedicated thread, separate from the physical units which it controls.
+ * Incoming messages are carried from the plant thread to the controller thread, and outgoing
+ * messages back again, over a pair of single-producer/single-consumer rings. Neither side takes a
+ * lock: a waiting side spins briefly and then parks, and is unparked by the other side as soon as
+ * there is something for it. The controller itself is clocked exactly as it would be if called
+ * directly, and need not be aware that it is running on another thread.
+ *
+ * <p>
+ * The time taken for each mailbox to be handed over (i.e. from being published by one side to
+ * being picked up by the other) is recorded in two histograms: one for each direction. Since each
+ * is recorded by a single thread, they should only be read once the transport has been closed.
+ * </p>
+ */
+public final class ControllerTransport implements AutoCloseable {
+  /**
+   * Number of times a waiting side spins before it parks. On a single processor spinning only
+   * delays the other side, so a waiting side parks straight away.
+   */
+  private static final int SPIN_LIMIT = Runtime.getRuntime().availableProcessors() > 1 ? 10000
+      : 0;
+
+  /**
+   * The longest (in ns) a waiting side parks for before checking again. This bounds the hand-off
+   * latency should an unpark ever be missed.
+   */
+  private static final long PARK_NANOS = 100000;
+
+  /**
+   * Number of slots in each direction.
+   */
+  private static final int SLOTS = 4;
+
+  /**
+   * The controller being run.
+   */
+  private final SteamBoilerController controller;
+
+  /**
+   * Mailboxes travelling from the plant thread to the controller thread.
+   */
+  private final MailboxRing inbound;
+
+  /**
+   * Mailboxes travelling from the controller thread to the plant thread.
+   */
+  private final MailboxRing outbound;
+
+  /**
+   * Hand-off latency for incoming mailboxes, recorded by the controller thread.
+   */
+  private final LatencyHistogram inboundLatency = new LatencyHistogram();
+
+  /**
+   * Hand-off latency for outgoing mailboxes, recorded by the plant thread.
+   */
+  private final LatencyHistogram outboundLatency = new LatencyHistogram();
+
+  /**
+   * The dedicated thread on which the controller runs.
+   */
+  private final Thread thread;
+
+  /**
+   * The plant thread, if any, which is currently waiting for outgoing messages.
+   */
+  private volatile @Nullable Thread waiter;
+
+  /**
+   * Set when the transport has been closed.
+   */
+  private volatile boolean closed;
+
+  /**
+   * The exception, if any, thrown by the controller. Once set, the controller thread stops.
+   */
+  private volatile @Nullable Throwable failure;
+
+  /**
+   * Construct a transport for a given controller. The controller thread is not started until
+   * <code>start()</code> is called.
+   *
+   * @param controller      The controller to run.
+   * @param mailboxCapacity The initial capacity of each mailbox (e.g. enough for every message
+   *                        sent in one cycle).
+   */
+  public ControllerTransport(SteamBoilerController controller, int mailboxCapacity) {
+    this.controller = controller;
+    this.inbound = new MailboxRing(SLOTS, mailboxCapacity);
+    this.outbound = new MailboxRing(SLOTS, mailboxCapacity);
+    this.thread = new Thread(this::run, "steam-boiler-controller"); //$NON-NLS-1$
+    this.thread.setDaemon(true);
+  }
+
+  /**
+   * Start the controller thread.
+   */
+  public void start() {
+    this.thread.start();
+  }
+
+  /**
+   * Clock the controller once, on its own thread. This is a drop-in replacement for calling
+   * <code>clock()</code> on the controller directly.
+   *
+   * @param incoming     The messages from the physical units.
+   * @param outgoing     The mailbox into which messages from the controller are written.
+   * @param timeoutNanos The longest (in ns) to wait for the controller to respond.
+   * @return True if the controller responded in time, false otherwise.
+   */
+  public boolean exchange(Mailbox incoming, Mailbox outgoing, long timeoutNanos) {
+    return send(incoming) && receive(outgoing, timeoutNanos);
+  }
+
+  /**
+   * Send a set of incoming messages to the controller. This must only be called from the plant
+   * thread. The messages are copied, so the given mailbox can be reused immediately.
+   *
+   * @param incoming The messages from the physical units.
+   * @return True if the messages were sent, or false if the controller has fallen behind and there
+   *         is no room for them.
+   */
+  public boolean send(Mailbox incoming) {
+    checkFailure();
+    RingMailbox slot = this.inbound.claim();
+    if (slot == null) {
+      return false;
+    }
+    for (int i = 0; i != incoming.size(); ++i) {
+      slot.send(incoming.read(i));
+    }
+    this.inbound.publish(System.nanoTime());
+    LockSupport.unpark(this.thread);
+    return true;
+  }
+
+  /**
+   * Wait for the controller's response to the oldest set of incoming messages. This must only be
+   * called from the plant thread.
+   *
+   * @param outgoing     The mailbox into which messages from the controller are written.
+   * @param timeoutNanos The longest (in ns) to wait.
+   * @return True if a response was received, or false if the timeout expired first (in which case
+   *         the late response is returned by the next call).
+   */
+  public boolean receive(Mailbox outgoing, long timeoutNanos) {
+    long deadline = System.nanoTime() + timeoutNanos;
+    this.waiter = Thread.currentThread();
+    try {
+      RingMailbox slot;
+      for (int attempt = 0; (slot = this.outbound.peek()) == null;
+          attempt = Math.min(attempt + 1, SPIN_LIMIT)) {
+        checkFailure();
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          return false;
+        }
+        idle(attempt, remaining);
+      }
+      this.outboundLatency.record(System.nanoTime() - this.outbound.timestamp());
+      for (int i = 0; i != slot.size(); ++i) {
+        outgoing.send(slot.read(i));
+      }
+      this.outbound.release();
+      return true;
+    } finally {
+      this.waiter = null;
+    }
+  }
+
+  /**
+   * Stop the controller thread and wait for it to finish. Any incoming messages not yet processed
+   * are discarded. If interrupted whilst waiting, the calling thread's interrupt status is left set
+   * and this returns immediately.
+   */
+  @Override
+  public void close() {
+    this.closed = true;
+    LockSupport.unpark(this.thread);
+    Threads.join(this.thread, Long.MAX_VALUE);
+  }
+
+  /**
+   * Get the hand-off latency for incoming messages (i.e. from being sent by the plant thread to
+   * being picked up by the controller thread). This should only be read once closed.
+   *
+   * @return The latency histogram.
+   */
+  public LatencyHistogram getInboundLatency() {
+    return this.inboundLatency;
+  }
+
+  /**
+   * Get the hand-off latency for outgoing messages (i.e. from being sent by the controller thread
+   * to being picked up by the plant thread). This should only be read once closed.
+   *
+   * @return The latency histogram.
+   */
+  public LatencyHistogram getOutboundLatency() {
+    return this.outboundLatency;
+  }
+
+  /**
+   * The main loop of the controller thread. This repeatedly waits for incoming messages, clocks
+   * the controller with them, and sends back its response.
+   */
+  private void run() {
+    int attempt = 0;
+    while (!this.closed) {
+      RingMailbox incoming = this.inbound.peek();
+      RingMailbox outgoing = incoming == null ? null : this.outbound.claim();
+      if (incoming == null || outgoing == null) {
+        // Nothing to do, or the plant is not keeping up with responses
+        attempt = Math.min(attempt + 1, SPIN_LIMIT);
+        idle(attempt, PARK_NANOS);
+        continue;
+      }
+      attempt = 0;
+      this.inboundLatency.record(System.nanoTime() - this.inbound.timestamp());
+      try {
+        this.controller.clock(incoming, outgoing);
+      } catch (RuntimeException | Error e) {
+        this.failure = e;
+        wake();
+        return;
+      }
+      this.inbound.release();
+      this.outbound.publish(System.nanoTime());
+      wake();
+    }
+  }
+
+  /**
+   * Unpark the plant thread, if it is waiting.
+   */
+  private void wake() {
+    Thread w = this.waiter;
+    if (w != null) {
+      LockSupport.unpark(w);
+    }
+  }
+
+  /**
+   * Rethrow any failure of the controller on the calling thread.
+   */
+  private void checkFailure() {
+    Throwable f = this.failure;
+    if (f != null) {
+      throw new IllegalStateException("controller failed", f); //$NON-NLS-1$
+    }
+  }
+
+  /**
+   * Wait a little while for the other side, first by spinning and then by parking.
+   *
+   * @param attempt   The number of times this side has already waited.
+   * @param remaining The longest (in ns) to wait.
+   */
+  private static void idle(int attempt, long remaining) {
+    if (attempt < SPIN_LIMIT) {
+      Thread.onSpinWait();
+    } else {
+      LockSupport.parkNanos(Math.min(remaining, PARK_NANOS));
+    }
+  }
+}
@@ -0,0 +1,261 @@
+package steam.boiler.runtime;
+
+import java.util.concurrent.locks.LockSupport;
+
+import steam.boiler.core.OutgoingMessages;
+import steam.boiler.core.RingMailbox;
+import steam.boiler.model.SteamBoilerController;
+import steam.boiler.util.Mailbox;
+
+/**
+ * Clocks a controller at a fixed rate, against a schedule of deadlines. Each cycle is due one
+ * period after the previous one was due (rather than one period after it finished), so lateness
+ * does not accumulate. For every cycle, the start jitter (how late it started relative to its
+ * deadline) and the execution time (how long the controller took) are recorded in preallocated
+ * histograms. Together with the reused mailboxes, this means the scheduler itself allocates
+ * nothing once running.
+ *
+ * <p>
+ * A cycle overruns when it finishes after the next cycle was due. What happens then is determined
+ * by the overrun policy: the missed deadlines can be skipped, or caught up by running cycles back
+ * to back, or the boiler can be forced into emergency stop.
+ * </p>
+ */
+public final class CycleScheduler {
+  /**
+   * Determines what the scheduler does when a cycle overruns.
+   */
+  public enum OverrunPolicy {
+    /**
+     * Abandon any deadlines which have already passed, and resume at the next one still to come.
+     */
+    SKIP,
+    /**
+     * Run a cycle for every deadline which has already passed, back to back, until the schedule
+     * is caught up.
+     */
+    CATCH_UP,
+    /**
+     * Send <code>MODE_m(EMERGENCY_STOP)</code> to the physical units in place of the late cycle's
+     * output, and stop.
+     */
+    EMERGENCY_STOP
+  }
+
+  /**
+   * The physical units as seen by the scheduler: something which transmits readings to the
+   * controller at the start of each cycle, and receives its commands at the end.
+   */
+  public interface Plant {
+    /**
+     * Transmit readings to the controller.
+     *
+     * @param incoming The mailbox into which readings are written.
+     */
+    public void transmit(Mailbox incoming);
+
+    /**
+     * Receive commands from the controller.
+     *
+     * @param outgoing The mailbox containing the commands.
+     */
+    public void receive(Mailbox outgoing);
+  }
+
+  /**
+   * The controller being clocked.
+   */
+  private final SteamBoilerController controller;
+
+  /**
+   * The physical units being controlled.
+   */
+  private final Plant plant;
+
+  /**
+   * The period (in ns) between successive deadlines.
+   */
+  private final long period;
+
+  /**
+   * What to do when a cycle overruns.
+   */
+  private final OverrunPolicy policy;
+
+  /**
+   * Mailbox for readings, reused on every cycle.
+   */
+  private final RingMailbox incoming;
+
+  /**
+   * Mailbox for commands, reused on every cycle.
+   */
+  private final RingMailbox outgoing;
+
+  /**
+   * How late each cycle started, relative to its deadline.
+   */
+  private final LatencyHistogram startJitter = new LatencyHistogram();
+
+  /**
+   * How long the controller took to execute each cycle.
+   */
+  private final LatencyHistogram executionTime = new LatencyHistogram();
+
+  /**
+   * Number of cycles executed.
+   */
+  private long cycles;
+
+  /**
+   * Number of cycles which overran.
+   */
+  private long overruns;
+
+  /**
+   * Number of deadlines abandoned under the <code>SKIP</code> policy.
+   */
+  private long skipped;
+
+  /**
+   * Set when the boiler has been forced into emergency stop.
+   */
+  private boolean emergencyStopped;
+
+  /**
+   * Set to request that a running scheduler stops.
+   */
+  private volatile boolean stopRequested;
+
+  /**
+   * Construct a scheduler.
+   *
+   * @param controller      The controller to clock.
+   * @param plant           The physical units being controlled.
+   * @param periodNanos     The period (in ns) between cycles (e.g. five seconds).
+   * @param policy          What to do when a cycle overruns.
+   * @param mailboxCapacity The initial capacity of each mailbox.
+   */
+  public CycleScheduler(SteamBoilerController controller, Plant plant, long periodNanos,
+      OverrunPolicy policy, int mailboxCapacity) {
+    if (periodNanos <= 0) {
+      throw new IllegalArgumentException("period must be positive"); //$NON-NLS-1$
+    }
+    this.controller = controller;
+    this.plant = plant;
+    this.period = periodNanos;
+    this.policy = policy;
+    this.incoming = new RingMailbox(mailboxCapacity);
+    this.outgoing = new RingMailbox(mailboxCapacity);
+  }
+
+  /**
+   * Run the schedule on the calling thread, starting immediately, until a given number of
+   * deadlines have passed. This returns early if the boiler is forced into emergency stop, or if
+   * <code>stop()</code> is called from another thread.
+   *
+   * @param deadlines The number of deadlines to run for, including any which are skipped.
+   */
+  public void run(long deadlines) {
+    long next = System.nanoTime();
+    long passed = 0;
+    while (passed < deadlines && !this.stopRequested && !this.emergencyStopped) {
+      // Wait for the deadline
+      long now = System.nanoTime();
+      while (next - now > 0) {
+        LockSupport.parkNanos(next - now);
+        now = System.nanoTime();
+      }
+      this.startJitter.record(now - next);
+      // Execute the cycle
+      this.incoming.clear();
+      this.outgoing.clear();
+      this.plant.transmit(this.incoming);
+      this.controller.clock(this.incoming, this.outgoing);
+      long end = System.nanoTime();
+      this.executionTime.record(end - now);
+      this.cycles++;
+      passed++;
+      next += this.period;
+      if (end - next > 0) {
+        // Overran, so the next deadline (and possibly more) has already passed
+        this.overruns++;
+        long missed = (end - next) / this.period + 1;
+        if (this.policy == OverrunPolicy.SKIP) {
+          this.skipped += missed;
+          passed += missed;
+          next += missed * this.period;
+        } else if (this.policy == OverrunPolicy.EMERGENCY_STOP) {
+          this.outgoing.clear();
+          this.outgoing.send(OutgoingMessages.mode(Mailbox.Mode.EMERGENCY_STOP));
+          this.emergencyStopped = true;
+        }
+      }
+      this.plant.receive(this.outgoing);
+    }
+  }
+
+  /**
+   * Request that a running scheduler stops, once its current cycle is complete. This can be
+   * called from any thread.
+   */
+  public void stop() {
+    this.stopRequested = true;
+  }
+
+  /**
+   * Get how late each cycle started, relative to its deadline. This should only be read once the
+   * scheduler has finished running.
+   *
+   * @return The start jitter histogram.
+   */
+  public LatencyHistogram getStartJitter() {
+    return this.startJitter;
+  }
+
+  /**
+   * Get how long the controller took to execute each cycle. This should only be read once the
+   * scheduler has finished running.
+   *
+   * @return The execution time histogram.
+   */
+  public LatencyHistogram getExecutionTime() {
+    return this.executionTime;
+  }
+
+  /**
+   * Get the number of cycles executed.
+   *
+   * @return The cycle count.
+   */
+  public long getCycles() {
+    return this.cycles;
+  }
+
+  /**
+   * Get the number of cycles which finished after the next cycle was due.
+   *
+   * @return The overrun count.
+   */
+  public long getOverruns() {
+    return this.overruns;
+  }
+
+  /**
+   * Get the number of deadlines abandoned because of overruns.
+   *
+   * @return The number of skipped deadlines.
+   */
+  public long getSkipped() {
+    return this.skipped;
+  }
+
+  /**
+   * Check whether the boiler was forced into emergency stop because of an overrun.
+   *
+   * @return True if an emergency stop was forced.
+   */
+  public boolean isEmergencyStopped() {
+    return this.emergencyStopped;
+  }
+}
@@ -0,0 +1,592 @@
+package steam.boiler.runtime;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import steam.boiler.core.RingMailbox;
+import steam.boiler.model.SteamBoilerController;
+import steam.boiler.runtime.CycleScheduler.Plant;
+
+/**
+ * Hosts a large number of independent controllers (each with its own boiler) in a single JVM.
+ * Boilers are divided into shards, and each shard is driven by a single thread which, once every
+ * period, clocks each of its boilers in turn. Shards are staggered evenly across the period so
+ * that they do not all wake at once. The time taken by every boiler's cycle is recorded in a
+ * histogram for its shard, and the histograms can be combined to give the tail latency across the
+ * whole fleet.
+ *
+ * <p>
+ * Boilers are isolated from each other. A controller which throws an exception is quarantined and
+ * never clocked again, whilst the rest of its shard carries on. A controller which gets stuck
+ * (i.e. takes longer than the stall timeout) is detected by a watchdog, quarantined, and its shard
+ * handed over to a fresh thread which carries on from the next boiler. The stuck thread is
+ * abandoned, and exits as soon as the controller returns.
+ * </p>
+ *
+ * <p>
+ * Where the runtime supports them (Java 21 onwards), shards are driven by virtual threads by
+ * default, so a fleet can have many more shards than there are processors without an operating
+ * system thread for each. Virtual threads are not preempted, so a controller stuck in a busy loop
+ * holds on to the carrier thread underneath it. For this reason, the thread taking over a shard
+ * from a stuck controller is always a platform thread, and does not wait for a free carrier.
+ * Virtual threads are created reflectively, so this class still runs on older runtimes, where
+ * shards are always driven by platform threads.
+ * </p>
+ */
+public final class FleetHost implements AutoCloseable {
+  /**
+   * Identifies the state of an individual boiler.
+   */
+  public enum Status {
+    /**
+     * The boiler is being clocked normally.
+     */
+    RUNNING,
+    /**
+     * The controller threw an exception, and has been quarantined.
+     */
+    FAILED,
+    /**
+     * The controller got stuck, and has been quarantined.
+     */
+    STALLED
+  }
+
+  /**
+   * Value of a shard's running slot when no boiler is being clocked.
+   */
+  private static final int IDLE = -1;
+
+  /**
+   * Value of a shard's running slot once the watchdog has taken the shard away from a stuck
+   * thread.
+   */
+  private static final int SUPERSEDED = -2;
+
+  /**
+   * The <code>Thread.ofVirtual()</code> method, or <code>null</code> if virtual threads are not
+   * supported by this runtime.
+   */
+  private static final @Nullable Method OF_VIRTUAL;
+
+  /**
+   * The <code>Thread.Builder.name(String)</code> method, or <code>null</code> if virtual threads
+   * are not supported by this runtime.
+   */
+  private static final @Nullable Method NAME;
+
+  /**
+   * The <code>Thread.Builder.unstarted(Runnable)</code> method, or <code>null</code> if virtual
+   * threads are not supported by this runtime.
+   */
+  private static final @Nullable Method UNSTARTED;
+
+  static {
+    Method ofVirtual = null;
+    Method name = null;
+    Method unstarted = null;
+    for (Method m : Thread.class.getMethods()) {
+      if (m.getName().equals("ofVirtual") && m.getParameterCount() == 0) { //$NON-NLS-1$
+        ofVirtual = m;
+      }
+    }
+    if (ofVirtual != null) {
+      // Look up the builder's methods through the type returned, which is Thread.Builder.OfVirtual
+      for (Method m : ofVirtual.getReturnType().getMethods()) {
+        Class<?>[] params = m.getParameterTypes();
+        Class<?> param = params.length == 1 ? params[0] : null;
+        if (m.getName().equals("name") && param == String.class) { //$NON-NLS-1$
+          name = m;
+        } else if (m.getName().equals("unstarted") && param == Runnable.class) { //$NON-NLS-1$
+          unstarted = m;
+        }
+      }
+    }
+    OF_VIRTUAL = ofVirtual;
+    NAME = name;
+    UNSTARTED = unstarted;
+  }
+
+  /**
+   * A single boiler, together with its reusable mailboxes.
+   */
+  private static final class Boiler {
+    /**
+     * The controller for this boiler.
+     */
+    final SteamBoilerController controller;
+
+    /**
+     * The physical units of this boiler.
+     */
+    final Plant plant;
+
+    /**
+     * Mailbox for readings, reused on every cycle.
+     */
+    final RingMailbox incoming;
+
+    /**
+     * Mailbox for commands, reused on every cycle.
+     */
+    final RingMailbox outgoing;
+
+    /**
+     * The current state of this boiler.
+     */
+    volatile Status status = Status.RUNNING;
+
+    /**
+     * The exception thrown by the controller, if it failed.
+     */
+    volatile @Nullable Throwable failure;
+
+    /**
+     * Construct a boiler.
+     *
+     * @param controller      The controller.
+     * @param plant           The physical units.
+     * @param mailboxCapacity The initial capacity of each mailbox.
+     */
+    Boiler(SteamBoilerController controller, Plant plant, int mailboxCapacity) {
+      this.controller = controller;
+      this.plant = plant;
+      this.incoming = new RingMailbox(mailboxCapacity);
+      this.outgoing = new RingMailbox(mailboxCapacity);
+    }
+  }
+
+  /**
+   * A group of boilers driven by a single thread.
+   */
+  private final class Shard {
+    /**
+     * The boilers in this shard.
+     */
+    final List<Boiler> boilers = new ArrayList<>();
+
+    /**
+     * Time taken by each boiler's cycle.
+     */
+    final LatencyHistogram latency = new LatencyHistogram();
+
+    /**
+     * The boiler currently being clocked, or <code>IDLE</code>. The shard thread and watchdog both
+     * try to move this on from a boiler once it has been running; whichever succeeds owns the
+     * shard from then on.
+     */
+    final AtomicInteger running = new AtomicInteger(IDLE);
+
+    /**
+     * When the boiler currently being clocked started.
+     */
+    volatile long started;
+
+    /**
+     * The deadline of the cycle in progress. This is only written by the thread owning the shard,
+     * and handed over through <code>running</code>.
+     */
+    long deadline;
+
+    /**
+     * Number of boiler cycles completed.
+     */
+    volatile long cycles;
+
+    /**
+     * The thread currently owning this shard.
+     */
+    @Nullable Thread thread;
+
+    /**
+     * Start a thread to drive this shard, from a given boiler within a given cycle.
+     *
+     * @param id      The index of this shard, used to name the thread.
+     * @param from    The boiler to start from.
+     * @param virtual True if the thread should be a virtual thread.
+     */
+    void start(int id, int from, boolean virtual) {
+      Runnable r = () -> drive(from);
+      String name = "steam-boiler-shard-" + id; //$NON-NLS-1$
+      Thread t;
+      if (virtual) {
+        t = newVirtualThread(name, r);
+      } else {
+        t = new Thread(r, name);
+        t.setDaemon(true);
+      }
+      this.thread = t;
+      t.start();
+    }
+
+    /**
+     * The main loop of a shard thread. This clocks each boiler in turn, then waits for the next
+     * deadline.
+     *
+     * @param from The boiler to start from in the first cycle.
+     */
+    void drive(int from) {
+      int i = from;
+      while (!FleetHost.this.closed) {
+        for (; i < this.boilers.size(); ++i) {
+          Boiler b = this.boilers.get(i);
+          if (b.status != Status.RUNNING) {
+            continue;
+          }
+          long start = System.nanoTime();
+          this.started = start;
+          this.running.set(i);
+          try {
+            b.incoming.clear();
+            b.outgoing.clear();
+            b.plant.transmit(b.incoming);
+            b.controller.clock(b.incoming, b.outgoing);
+            b.plant.receive(b.outgoing);
+          } catch (RuntimeException | Error e) {
+            b.failure = e;
+            b.status = Status.FAILED;
+          }
+          if (!this.running.compareAndSet(i, IDLE)) {
+            // The watchdog has given this shard to another thread
+            return;
+          }
+          this.latency.record(System.nanoTime() - start);
+          this.cycles++;
+        }
+        i = 0;
+        this.deadline += FleetHost.this.period;
+        long now;
+        while ((now = System.nanoTime()) - this.deadline < 0 && !FleetHost.this.closed) {
+          LockSupport.parkNanos(this.deadline - now);
+        }
+      }
+    }
+  }
+
+  /**
+   * The period (in ns) between successive cycles of each boiler.
+   */
+  private final long period;
+
+  /**
+   * How long (in ns) a single cycle can take before the controller is considered stuck.
+   */
+  private final long stallTimeout;
+
+  /**
+   * The initial capacity of each boiler's mailboxes.
+   */
+  private final int mailboxCapacity;
+
+  /**
+   * The shards making up this fleet.
+   */
+  private final Shard[] shards;
+
+  /**
+   * True if shards are driven by virtual threads.
+   */
+  private final boolean virtual;
+
+  /**
+   * Every boiler in the fleet, indexed by identifier.
+   */
+  private final List<Boiler> boilers = new ArrayList<>();
+
+  /**
+   * Watches for stuck controllers.
+   */
+  private final Thread watchdog;
+
+  /**
+   * Time at which the fleet was started.
+   */
+  private long startTime;
+
+  /**
+   * Time at which the fleet was closed.
+   */
+  private long endTime;
+
+  /**
+   * Set when the fleet has been closed.
+   */
+  private volatile boolean closed;
+
+  /**
+   * Construct an empty fleet, whose shards are driven by virtual threads if the runtime supports
+   * them, and by platform threads otherwise.
+   *
+   * @param shards          The number of shards (e.g. one per processor).
+   * @param periodNanos     The period (in ns) between cycles of each boiler.
+   * @param stallNanos      How long (in ns) a single cycle can take before the controller is
+   *                        considered stuck.
+   * @param mailboxCapacity The initial capacity of each boiler's mailboxes.
+   */
+  public FleetHost(int shards, long periodNanos, long stallNanos, int mailboxCapacity) {
+    this(shards, periodNanos, stallNanos, mailboxCapacity, supportsVirtualThreads());
+  }
+
+  /**
+   * Construct an empty fleet.
+   *
+   * @param shards          The number of shards.
+   * @param periodNanos     The period (in ns) between cycles of each boiler.
+   * @param stallNanos      How long (in ns) a single cycle can take before the controller is
+   *                        considered stuck.
+   * @param mailboxCapacity The initial capacity of each boiler's mailboxes.
+   * @param virtual         True if shards should be driven by virtual threads, false for
+   *                        platform threads.
+   * @throws UnsupportedOperationException If virtual threads are requested, but not supported by
+   *                                       this runtime.
+   */
+  public FleetHost(int shards, long periodNanos, long stallNanos, int mailboxCapacity,
+      boolean virtual) {
+    if (shards <= 0 || periodNanos <= 0 || stallNanos <= 0) {
+      throw new IllegalArgumentException("invalid fleet parameters"); //$NON-NLS-1$
+    }
+    if (virtual && !supportsVirtualThreads()) {
+      throw new UnsupportedOperationException("virtual threads not supported"); //$NON-NLS-1$
+    }
+    this.virtual = virtual;
+    this.period = periodNanos;
+    this.stallTimeout = stallNanos;
+    this.mailboxCapacity = mailboxCapacity;
+    this.shards = new Shard[shards];
+    for (int i = 0; i != shards; ++i) {
+      this.shards[i] = new Shard();
+    }
+    this.watchdog = new Thread(this::watch, "steam-boiler-watchdog"); //$NON-NLS-1$
+    this.watchdog.setDaemon(true);
+  }
+
+  /**
+   * Add a boiler to the fleet. Boilers are assigned to shards in turn. This must be called before
+   * the fleet is started.
+   *
+   * @param controller The controller for the boiler.
+   * @param plant      The physical units of the boiler.
+   * @return The identifier of the boiler.
+   */
+  public int add(SteamBoilerController controller, Plant plant) {
+    if (this.watchdog.getState() != Thread.State.NEW) {
+      throw new IllegalStateException("fleet already started"); //$NON-NLS-1$
+    }
+    int id = this.boilers.size();
+    Boiler b = new Boiler(controller, plant, this.mailboxCapacity);
+    this.boilers.add(b);
+    this.shards[id % this.shards.length].boilers.add(b);
+    return id;
+  }
+
+  /**
+   * Start every shard, and the watchdog.
+   */
+  public void start() {
+    long now = System.nanoTime();
+    this.startTime = now;
+    for (int i = 0; i != this.shards.length; ++i) {
+      Shard s = this.shards[i];
+      // Stagger the shards across the period, starting with an empty cycle
+      s.deadline = now + ((this.period / this.shards.length) * i) - this.period;
+      s.start(i, s.boilers.size(), this.virtual);
+    }
+    this.watchdog.start();
+  }
+
+  /**
+   * Stop every shard, and wait for them to finish their current cycle. A shard whose thread is
+   * stuck is waited for no longer than the stall timeout. If interrupted whilst waiting, the
+   * calling thread's interrupt status is left set and this returns immediately.
+   */
+  @Override
+  public void close() {
+    this.closed = true;
+    this.watchdog.interrupt();
+    Threads.join(this.watchdog, Long.MAX_VALUE);
+    for (Shard s : this.shards) {
+      Thread t = s.thread;
+      if (t != null) {
+        LockSupport.unpark(t);
+        Threads.join(t, this.stallTimeout);
+      }
+    }
+    this.endTime = System.nanoTime();
+  }
+
+  /**
+   * Get the number of boilers in the fleet.
+   *
+   * @return The number of boilers.
+   */
+  public int size() {
+    return this.boilers.size();
+  }
+
+  /**
+   * Get the state of a given boiler.
+   *
+   * @param boiler The identifier of the boiler.
+   * @return Its status.
+   */
+  public Status getStatus(int boiler) {
+    return this.boilers.get(boiler).status;
+  }
+
+  /**
+   * Get the exception thrown by a given boiler's controller.
+   *
+   * @param boiler The identifier of the boiler.
+   * @return The exception, or <code>null</code> if it has not failed.
+   */
+  public @Nullable Throwable getFailure(int boiler) {
+    return this.boilers.get(boiler).failure;
+  }
+
+  /**
+   * Check whether shards are driven by virtual threads.
+   *
+   * @return True if they are, false if they are driven by platform threads.
+   */
+  public boolean isVirtual() {
+    return this.virtual;
+  }
+
+  /**
+   * Check whether this runtime supports virtual threads.
+   *
+   * @return True if it does.
+   */
+  public static boolean supportsVirtualThreads() {
+    return OF_VIRTUAL != null && NAME != null && UNSTARTED != null;
+  }
+
+  /**
+   * Get the number of shards.
+   *
+   * @return The shard count.
+   */
+  public int getShards() {
+    return this.shards.length;
+  }
+
+  /**
+   * Get the time taken by each boiler cycle in a given shard. This should only be read once the
+   * fleet has been closed.
+   *
+   * @param shard The index of the shard.
+   * @return The latency histogram.
+   */
+  public LatencyHistogram getLatency(int shard) {
+    return this.shards[shard].latency;
+  }
+
+  /**
+   * Get the time taken by each boiler cycle across the whole fleet. This should only be read once
+   * the fleet has been closed.
+   *
+   * @return A new histogram combining those of every shard.
+   */
+  public LatencyHistogram getLatency() {
+    LatencyHistogram h = new LatencyHistogram();
+    for (Shard s : this.shards) {
+      h.merge(s.latency);
+    }
+    return h;
+  }
+
+  /**
+   * Get the total number of boiler cycles completed across the whole fleet.
+   *
+   * @return The cycle count.
+   */
+  public long getCycles() {
+    long n = 0;
+    for (Shard s : this.shards) {
+      n += s.cycles;
+    }
+    return n;
+  }
+
+  /**
+   * Get the aggregate throughput of the fleet, between being started and closed.
+   *
+   * @return The number of boiler cycles completed per second.
+   */
+  public double getThroughput() {
+    long elapsed = this.endTime - this.startTime;
+    return elapsed <= 0 ? 0 : (getCycles() * 1e9) / elapsed;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append(String.format("boilers=%d cycles=%d throughput=%.0f/s%n", //$NON-NLS-1$
+        Integer.valueOf(size()), Long.valueOf(getCycles()), Double.valueOf(getThroughput())));
+    for (int i = 0; i != this.shards.length; ++i) {
+      sb.append("shard ").append(i).append(": ") //$NON-NLS-1$ //$NON-NLS-2$
+          .append(this.shards[i].latency).append('\n');
+    }
+    String r = sb.toString();
+    assert r != null;
+    return r;
+  }
+
+  /**
+   * The main loop of the watchdog thread. This periodically checks every shard for a boiler which
+   * has been running for too long and, if it finds one, quarantines it and hands the rest of the
+   * shard to a new thread.
+   */
+  private void watch() {
+    long interval = Math.max(1, this.stallTimeout / 4);
+    while (!this.closed) {
+      long now = System.nanoTime();
+      for (int id = 0; id != this.shards.length; ++id) {
+        Shard s = this.shards[id];
+        int i = s.running.get();
+        if (i >= 0 && now - s.started > this.stallTimeout
+            && s.running.compareAndSet(i, SUPERSEDED)) {
+          s.boilers.get(i).status = Status.STALLED;
+          s.running.set(IDLE);
+          // The stuck thread may be holding a carrier, so don't wait for one
+          s.start(id, i + 1, false);
+        }
+      }
+      LockSupport.parkNanos(interval);
+      if (Thread.interrupted()) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Create an unstarted virtual thread. This must only be called if virtual threads are
+   * supported.
+   *
+   * @param name The name of the thread.
+   * @param r    What the thread should run.
+   * @return The thread.
+   */
+  private static Thread newVirtualThread(String name, Runnable r) {
+    Method ofVirtual = OF_VIRTUAL;
+    Method setName = NAME;
+    Method unstarted = UNSTARTED;
+    if (ofVirtual == null || setName == null || unstarted == null) {
+      throw new UnsupportedOperationException("virtual threads not supported"); //$NON-NLS-1$
+    }
+    try {
+      Object builder = setName.invoke(ofVirtual.invoke(null), name);
+      Thread t = (Thread) unstarted.invoke(builder, r);
+      assert t != null;
+      return t;
+    } catch (IllegalAccessException | InvocationTargetException e) {
+      throw new IllegalStateException("unable to create virtual thread", e); //$NON-NLS-1$
+    }
+  }
+}
@@ -0,0 +1,478 @@
+package steam.boiler.runtime;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+
+import steam.boiler.core.MessageCodec;
+import steam.boiler.core.RingMailbox;
+import steam.boiler.model.SteamBoilerController;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.Mailbox.Mode;
+
+/**
+ * Records the incoming and outgoing messages of every cycle of a controller, so that the cycles
+ * leading up to an incident can be examined afterwards. This wraps the controller, and is clocked
+ * in its place. Each cycle is encoded (using <code>MessageCodec</code>) into a fixed-size ring
+ * buffer held off the heap, overwriting the oldest cycles once the buffer is full. Recording
+ * therefore never allocates, and costs little more than copying the messages.
+ *
+ * <p>
+ * Whenever the controller enters emergency stop or rescue mode (as seen from the mode it sends),
+ * the buffer is dumped to a new file in a given directory. A dump starts with <code>MAGIC</code>
+ * and <code>VERSION</code> (each an <code>int</code>), followed by the cycles recorded, oldest
+ * first. Each cycle is its length in bytes (an <code>int</code>, including itself), the number of
+ * the cycle and the time (in ms since the epoch) at which it was clocked (each a
+ * <code>long</code>), and then the encodings of its incoming and outgoing mailboxes. This is also
+ * the format of a trace, so a dump can equally be streamed with a <code>TraceReader</code>. Dumps
+ * are written by the clocking thread, since the cycle which caused one has already been decided,
+ * and a failure to write one is remembered rather than thrown.
+ * </p>
+ */
+public final class FlightRecorder implements SteamBoilerController {
+  /**
+   * Identifies a dump.
+   */
+  public static final int MAGIC = 0x53424652;
+
+  /**
+   * The version of the dump format.
+   */
+  public static final int VERSION = 1;
+
+  /**
+   * Marks the end of the records before the end of the ring, when the next record did not fit.
+   */
+  private static final int WRAP = -1;
+
+  /**
+   * The number of bytes in the header of each record: its length, cycle number and time.
+   */
+  static final int HEADER = Integer.BYTES + (2 * Long.BYTES);
+
+  /**
+   * The controller being recorded.
+   */
+  private final SteamBoilerController controller;
+
+  /**
+   * The directory into which dumps are written.
+   */
+  private final Path directory;
+
+  /**
+   * The ring of records, held off the heap.
+   */
+  private final ByteBuffer ring;
+
+  /**
+   * Offset of the oldest record in the ring, or of the next record if the ring is empty.
+   */
+  private int head;
+
+  /**
+   * Offset at which the next record is written.
+   */
+  private int tail;
+
+  /**
+   * The number of records in the ring.
+   */
+  private int count;
+
+  /**
+   * The number of cycles clocked.
+   */
+  private long cycles;
+
+  /**
+   * The number of cycles too large to record at all.
+   */
+  private long dropped;
+
+  /**
+   * The mode sent in the last cycle, or <code>null</code> if none has been sent.
+   */
+  private @Nullable Mode mode;
+
+  /**
+   * The number of dumps written.
+   */
+  private int dumps;
+
+  /**
+   * The file to which the last dump was written, or <code>null</code> if there has been none.
+   */
+  private @Nullable Path lastDump;
+
+  /**
+   * The reason the last dump could not be written, or <code>null</code> if it was.
+   */
+  private @Nullable IOException dumpFailure;
+
+  /**
+   * Construct a recorder for a controller.
+   *
+   * @param controller The controller to record.
+   * @param capacity   The size (in bytes) of the ring buffer.
+   * @param directory  The directory into which dumps are written.
+   */
+  public FlightRecorder(SteamBoilerController controller, int capacity, Path directory) {
+    if (capacity < HEADER) {
+      throw new IllegalArgumentException("capacity too small"); //$NON-NLS-1$
+    }
+    ByteBuffer r = ByteBuffer.allocateDirect(capacity);
+    assert r != null;
+    this.controller = controller;
+    this.directory = directory;
+    this.ring = r;
+  }
+
+  @Override
+  public void clock(@NonNull Mailbox incoming, @NonNull Mailbox outgoing) {
+    long time = System.currentTimeMillis();
+    this.controller.clock(incoming, outgoing);
+    record(this.cycles++, time, incoming, outgoing);
+    Mode m = sentMode(outgoing);
+    if (m != null && m != this.mode) {
+      this.mode = m;
+      if (m == Mode.EMERGENCY_STOP || m == Mode.RESCUE) {
+        dump();
+      }
+    }
+  }
+
+  @Override
+  public String getStatusMessage() {
+    return this.controller.getStatusMessage();
+  }
+
+  /**
+   * Get the number of cycles currently held in the ring.
+   *
+   * @return The count.
+   */
+  public int getRecorded() {
+    return this.count;
+  }
+
+  /**
+   * Get the number of cycles which were too large for the ring, and so were not recorded.
+   *
+   * @return The count.
+   */
+  public long getDropped() {
+    return this.dropped;
+  }
+
+  /**
+   * Get the number of dumps written so far.
+   *
+   * @return The count.
+   */
+  public int getDumps() {
+    return this.dumps;
+  }
+
+  /**
+   * Get the file to which the last dump was written.
+   *
+   * @return The file, or <code>null</code> if there has been no dump.
+   */
+  public @Nullable Path getLastDump() {
+    return this.lastDump;
+  }
+
+  /**
+   * Get the reason the last dump failed.
+   *
+   * @return The failure, or <code>null</code> if the last dump (if any) succeeded.
+   */
+  public @Nullable IOException getDumpFailure() {
+    return this.dumpFailure;
+  }
+
+  /**
+   * Dump the cycles currently held to a new file in the dump directory, named after the last
+   * cycle recorded followed by a unique suffix. The file is created afresh, so recorders sharing a
+   * dump directory never overwrite each other's dumps, even if they stop on the same cycle. Any
+   * failure is remembered, rather than thrown.
+   *
+   * @return The file written, or <code>null</code> if it could not be written.
+   */
+  public @Nullable Path dump() {
+    String prefix = "flight-" + this.cycles + "-"; //$NON-NLS-1$ //$NON-NLS-2$
+    Path file = null;
+    try {
+      file = Files.createTempFile(this.directory, prefix, ".bin"); //$NON-NLS-1$
+      dump(file);
+      this.dumps++;
+      this.lastDump = file;
+      this.dumpFailure = null;
+      return file;
+    } catch (IOException e) {
+      this.dumpFailure = e;
+      if (file != null) {
+        try {
+          Files.deleteIfExists(file);
+        } catch (IOException suppressed) {
+          e.addSuppressed(suppressed);
+        }
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Dump the cycles currently held to a given file.
+   *
+   * @param file The file to write.
+   * @throws IOException If the file could not be written.
+   */
+  public void dump(Path file) throws IOException {
+    int size = 2 * Integer.BYTES;
+    for (int i = 0, p = this.head; i != this.count; ++i) {
+      int length = this.ring.getInt(p);
+      size += length;
+      p = start(p + length);
+    }
+    ByteBuffer out = ByteBuffer.allocate(size);
+    out.putInt(MAGIC).putInt(VERSION);
+    ByteBuffer view = this.ring.duplicate();
+    for (int i = 0, p = this.head; i != this.count; ++i) {
+      int length = this.ring.getInt(p);
+      view.limit(p + length).position(p);
+      out.put(view);
+      view.clear();
+      p = start(p + length);
+    }
+    Files.write(file, out.array());
+  }
+
+  /**
+   * Read every cycle from a dump.
+   *
+   * @param file The dump.
+   * @return The cycles, oldest first.
+   * @throws IOException If the file could not be read, or is not a dump.
+   */
+  public static List<Cycle> load(Path file) throws IOException {
+    ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file));
+    if (in.remaining() < 2 * Integer.BYTES || in.getInt() != MAGIC || in.getInt() != VERSION) {
+      throw new IOException("not a flight recorder dump: " + file); //$NON-NLS-1$
+    }
+    List<Cycle> cycles = new ArrayList<>();
+    while (in.hasRemaining()) {
+      int start = in.position();
+      int length = in.getInt();
+      long cycle = in.getLong();
+      long time = in.getLong();
+      RingMailbox incoming = new RingMailbox(16);
+      RingMailbox outgoing = new RingMailbox(16);
+      MessageCodec.decode(in, incoming);
+      MessageCodec.decode(in, outgoing);
+      if (in.position() != start + length) {
+        throw new IOException("corrupt record for cycle " + cycle); //$NON-NLS-1$
+      }
+      cycles.add(new Cycle(cycle, time, incoming, outgoing));
+    }
+    return cycles;
+  }
+
+  /**
+   * Append a cycle to the ring, overwriting the oldest cycles as necessary to make room.
+   *
+   * @param cycle    The number of the cycle.
+   * @param time     The time (in ms since the epoch) at which it was clocked.
+   * @param incoming The messages received.
+   * @param outgoing The messages sent.
+   */
+  private void record(long cycle, long time, Mailbox incoming, Mailbox outgoing) {
+    int length = length(incoming, outgoing);
+    int capacity = this.ring.capacity();
+    if (length > capacity) {
+      this.dropped++;
+      return;
+    }
+    if (this.tail + length > capacity) {
+      // Records from here to the end of the ring are the oldest, so are discarded first
+      while (this.count != 0 && this.head >= this.tail) {
+        evict();
+      }
+      if (this.tail + Integer.BYTES <= capacity) {
+        this.ring.putInt(this.tail, WRAP);
+      }
+      this.tail = 0;
+    }
+    while (this.count != 0 && this.head >= this.tail && this.head < this.tail + length) {
+      evict();
+    }
+    if (this.count == 0) {
+      this.head = this.tail;
+    }
+    this.ring.position(this.tail);
+    write(this.ring, length, cycle, time, incoming, outgoing);
+    this.tail += length;
+    this.count++;
+  }
+
+  /**
+   * Determine the length of the record for a cycle.
+   *
+   * @param incoming The messages received.
+   * @param outgoing The messages sent.
+   * @return The length (in bytes) of the record, including its header.
+   */
+  static int length(Mailbox incoming, Mailbox outgoing) {
+    return HEADER + MessageCodec.size(incoming) + MessageCodec.size(outgoing);
+  }
+
+  /**
+   * Write the record for a cycle at the current position of a buffer, advancing the position past
+   * it.
+   *
+   * @param buffer   The buffer to write to, which must have room for the record.
+   * @param length   The length of the record, as determined by <code>length()</code>.
+   * @param cycle    The number of the cycle.
+   * @param time     The time (in ms since the epoch) at which it was clocked.
+   * @param incoming The messages received.
+   * @param outgoing The messages sent.
+   */
+  static void write(ByteBuffer buffer, int length, long cycle, long time, Mailbox incoming,
+      Mailbox outgoing) {
+    buffer.putInt(length).putLong(cycle).putLong(time);
+    MessageCodec.encode(incoming, buffer);
+    MessageCodec.encode(outgoing, buffer);
+  }
+
+  /**
+   * Discard the oldest record in the ring.
+   */
+  private void evict() {
+    int next = start(this.head + this.ring.getInt(this.head));
+    this.count--;
+    this.head = this.count == 0 ? this.tail : next;
+  }
+
+  /**
+   * Determine where the record at a given offset actually starts, which is the start of the ring
+   * if the records before it reached (or were marked as ending before) the end of the ring.
+   *
+   * @param p The offset.
+   * @return The offset of the record.
+   */
+  private int start(int p) {
+    if (p + Integer.BYTES > this.ring.capacity() || this.ring.getInt(p) == WRAP) {
+      return 0;
+    }
+    return p;
+  }
+
+  /**
+   * Find the mode sent in a cycle.
+   *
+   * @param outgoing The messages sent.
+   * @return The mode, or <code>null</code> if none was sent.
+   */
+  private static @Nullable Mode sentMode(Mailbox outgoing) {
+    if (outgoing instanceof RingMailbox) {
+      RingMailbox ring = (RingMailbox) outgoing;
+      for (int i = 0; i != ring.size(); ++i) {
+        if (ring.kind(i) == MessageKind.MODE_m) {
+          return ring.modeParameter(i);
+        }
+      }
+    } else {
+      for (int i = 0; i != outgoing.size(); ++i) {
+        Mailbox.Message m = outgoing.read(i);
+        if (m.getKind() == MessageKind.MODE_m) {
+          return m.getModeParameter();
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * One cycle read from a dump.
+   */
+  public static final class Cycle {
+    /**
+     * The number of the cycle, counting from zero.
+     */
+    private final long number;
+
+    /**
+     * The time (in ms since the epoch) at which the cycle was clocked.
+     */
+    private final long time;
+
+    /**
+     * The messages received.
+     */
+    private final RingMailbox incoming;
+
+    /**
+     * The messages sent.
+     */
+    private final RingMailbox outgoing;
+
+    /**
+     * Construct a cycle.
+     *
+     * @param number   The number of the cycle.
+     * @param time     The time at which it was clocked.
+     * @param incoming The messages received.
+     * @param outgoing The messages sent.
+     */
+    Cycle(long number, long time, RingMailbox incoming, RingMailbox outgoing) {
+      this.number = number;
+      this.time = time;
+      this.incoming = incoming;
+      this.outgoing = outgoing;
+    }
+
+    /**
+     * Get the number of the cycle.
+     *
+     * @return The number, counting from zero.
+     */
+    public long getNumber() {
+      return this.number;
+    }
+
+    /**
+     * Get the time at which the cycle was clocked.
+     *
+     * @return The time (in ms since the epoch).
+     */
+    public long getTime() {
+      return this.time;
+    }
+
+    /**
+     * Get the messages received in the cycle.
+     *
+     * @return The messages.
+     */
+    public Mailbox getIncoming() {
+      return this.incoming;
+    }
+
+    /**
+     * Get the messages sent in the cycle.
+     *
+     * @return The messages.
+     */
+    public Mailbox getOutgoing() {
+      return this.outgoing;
+    }
+  }
+}
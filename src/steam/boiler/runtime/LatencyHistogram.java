@@ -0,0 +1,206 @@
+package steam.boiler.runtime;
+
+import java.util.Arrays;
+
+/**
+ * A histogram of durations (in nanoseconds) with a fixed, preallocated set of buckets. Values are
+ * bucketed log-linearly: each power of two is split into 32 equal sub-buckets, so any recorded
+ * value is reported to within about 3% of its true value whatever its magnitude. Recording a value
+ * is a constant-time operation which never allocates, making it safe to use on a hot path.
+ *
+ * <p>
+ * A histogram should only be recorded into by a single thread. It can be read by another thread
+ * once the recording thread has been joined (or has otherwise published its updates).
+ * </p>
+ */
+public final class LatencyHistogram {
+  /**
+   * Number of bits used to distinguish sub-buckets within each power of two.
+   */
+  private static final int SUB_BUCKET_BITS = 5;
+
+  /**
+   * Number of sub-buckets within each power of two.
+   */
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  /**
+   * Values below this are recorded exactly, in a bucket of their own.
+   */
+  private static final int EXACT_LIMIT = 2 * SUB_BUCKETS;
+
+  /**
+   * Total number of buckets, which is enough for any non-negative <code>long</code>.
+   */
+  private static final int BUCKETS = EXACT_LIMIT + ((63 - (SUB_BUCKET_BITS + 1)) * SUB_BUCKETS);
+
+  /**
+   * Number of values recorded in each bucket.
+   */
+  private final long[] counts = new long[BUCKETS];
+
+  /**
+   * Total number of values recorded.
+   */
+  private long count;
+
+  /**
+   * Sum of all values recorded, used to compute the mean.
+   */
+  private long total;
+
+  /**
+   * Smallest value recorded.
+   */
+  private long min = Long.MAX_VALUE;
+
+  /**
+   * Largest value recorded.
+   */
+  private long max;
+
+  /**
+   * Record a single duration. Negative durations (e.g. from a clock which went backwards) are
+   * recorded as zero.
+   *
+   * @param nanos The duration to record.
+   */
+  public void record(long nanos) {
+    long v = Math.max(0, nanos);
+    this.counts[bucket(v)]++;
+    this.count++;
+    this.total += v;
+    this.min = Math.min(this.min, v);
+    this.max = Math.max(this.max, v);
+  }
+
+  /**
+   * Discard all recorded values.
+   */
+  public void reset() {
+    Arrays.fill(this.counts, 0);
+    this.count = 0;
+    this.total = 0;
+    this.min = Long.MAX_VALUE;
+    this.max = 0;
+  }
+
+  /**
+   * Add every value recorded in another histogram to this one (e.g. to combine the histograms
+   * recorded by several threads).
+   *
+   * @param other The histogram to add.
+   */
+  public void merge(LatencyHistogram other) {
+    for (int i = 0; i != BUCKETS; ++i) {
+      this.counts[i] += other.counts[i];
+    }
+    this.count += other.count;
+    this.total += other.total;
+    this.min = Math.min(this.min, other.min);
+    this.max = Math.max(this.max, other.max);
+  }
+
+  /**
+   * Get the number of values recorded.
+   *
+   * @return The count.
+   */
+  public long getCount() {
+    return this.count;
+  }
+
+  /**
+   * Get the smallest value recorded.
+   *
+   * @return The minimum, or zero if nothing has been recorded.
+   */
+  public long getMin() {
+    return this.count == 0 ? 0 : this.min;
+  }
+
+  /**
+   * Get the largest value recorded.
+   *
+   * @return The maximum, or zero if nothing has been recorded.
+   */
+  public long getMax() {
+    return this.max;
+  }
+
+  /**
+   * Get the mean of all values recorded.
+   *
+   * @return The mean, or zero if nothing has been recorded.
+   */
+  public double getMean() {
+    return this.count == 0 ? 0 : (double) this.total / this.count;
+  }
+
+  /**
+   * Get the value at a given percentile. This is the largest value which could have been recorded
+   * in the bucket containing the percentile, but never exceeds the maximum recorded.
+   *
+   * @param percentile The percentile, between 0 and 100 (e.g. 99.9).
+   * @return The value at that percentile, or zero if nothing has been recorded.
+   */
+  public long getPercentile(double percentile) {
+    if (percentile < 0 || percentile > 100) {
+      throw new IllegalArgumentException("invalid percentile " + percentile); //$NON-NLS-1$
+    }
+    if (this.count == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil((percentile / 100) * this.count));
+    long seen = 0;
+    for (int i = 0; i != BUCKETS; ++i) {
+      seen += this.counts[i];
+      if (seen >= rank) {
+        return Math.min(this.max, upperBound(i));
+      }
+    }
+    return this.max;
+  }
+
+  @Override
+  public String toString() {
+    String r = String.format("count=%d p50=%d p99=%d p99.9=%d max=%d", //$NON-NLS-1$
+        Long.valueOf(this.count), Long.valueOf(getPercentile(50)),
+        Long.valueOf(getPercentile(99)), Long.valueOf(getPercentile(99.9)),
+        Long.valueOf(this.max));
+    assert r != null;
+    return r;
+  }
+
+  /**
+   * Determine the bucket in which a given value is recorded.
+   *
+   * @param v The non-negative value.
+   * @return The index of its bucket.
+   */
+  private static int bucket(long v) {
+    if (v < EXACT_LIMIT) {
+      return (int) v;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(v);
+    int shift = exponent - SUB_BUCKET_BITS;
+    int sub = (int) (v >>> shift) - SUB_BUCKETS;
+    return EXACT_LIMIT + ((exponent - (SUB_BUCKET_BITS + 1)) * SUB_BUCKETS) + sub;
+  }
+
+  /**
+   * Determine the largest value recorded in a given bucket.
+   *
+   * @param bucket The index of the bucket.
+   * @return The largest value it can hold.
+   */
+  private static long upperBound(int bucket) {
+    if (bucket < EXACT_LIMIT) {
+      return bucket;
+    }
+    int offset = bucket - EXACT_LIMIT;
+    int shift = (offset / SUB_BUCKETS) + 1;
+    long lower = (long) (SUB_BUCKETS + (offset % SUB_BUCKETS)) << shift;
+    return lower + (1L << shift) - 1;
+  }
+}
@@ -0,0 +1,151 @@
+package steam.boiler.runtime;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import steam.boiler.core.RingMailbox;
+
+/**
+ * A bounded, lock-free queue of mailboxes for passing messages from exactly one producer thread
+ * to exactly one consumer thread. The mailboxes themselves are preallocated, one per slot, and
+ * are filled in place: the producer claims the next free slot, writes into its mailbox and then
+ * publishes it; the consumer peeks at the oldest published slot, reads its mailbox and then
+ * releases it. Thus, no objects are created or handed over, and neither side ever blocks.
+ *
+ * <p>
+ * Each position is published with an ordered (release) store, and observed with a volatile
+ * (acquire) load, so everything written into a mailbox before it is published is visible to the
+ * consumer which peeks at it. Each side also caches the other side's last known position, so the
+ * shared positions are only read when the queue appears to be full or empty.
+ * </p>
+ */
+public final class MailboxRing {
+  /**
+   * The preallocated mailboxes, one per slot.
+   */
+  private final RingMailbox[] slots;
+
+  /**
+   * The time (from <code>System.nanoTime()</code>) at which each slot was published.
+   */
+  private final long[] timestamps;
+
+  /**
+   * Mask for converting a position into a slot index.
+   */
+  private final int mask;
+
+  /**
+   * Position of the next slot to be released by the consumer.
+   */
+  private final AtomicLong head = new AtomicLong();
+
+  /**
+   * Position of the next slot to be published by the producer.
+   */
+  private final AtomicLong tail = new AtomicLong();
+
+  /**
+   * The producer's copy of the tail, which only it updates.
+   */
+  private long producerTail;
+
+  /**
+   * The producer's last known value of the head.
+   */
+  private long cachedHead;
+
+  /**
+   * The consumer's copy of the head, which only it updates.
+   */
+  private long consumerHead;
+
+  /**
+   * The consumer's last known value of the tail.
+   */
+  private long cachedTail;
+
+  /**
+   * Construct an empty queue.
+   *
+   * @param capacity        The number of slots, which is rounded up to a power of two.
+   * @param mailboxCapacity The initial capacity of the mailbox in each slot.
+   */
+  public MailboxRing(int capacity, int mailboxCapacity) {
+    int n = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+    this.slots = new RingMailbox[n];
+    this.timestamps = new long[n];
+    this.mask = n - 1;
+    for (int i = 0; i != n; ++i) {
+      this.slots[i] = new RingMailbox(mailboxCapacity);
+    }
+  }
+
+  /**
+   * Claim the next free slot for writing. This must only be called by the producer, and the slot
+   * is not visible to the consumer until it is published.
+   *
+   * @return The (empty) mailbox of the claimed slot, or <code>null</code> if the queue is full.
+   */
+  public @Nullable RingMailbox claim() {
+    long t = this.producerTail;
+    if (t - this.cachedHead == this.slots.length) {
+      this.cachedHead = this.head.get();
+      if (t - this.cachedHead == this.slots.length) {
+        return null;
+      }
+    }
+    RingMailbox m = this.slots[(int) t & this.mask];
+    m.clear();
+    return m;
+  }
+
+  /**
+   * Publish the most recently claimed slot, making it visible to the consumer.
+   *
+   * @param timestamp The time (from <code>System.nanoTime()</code>) of publication.
+   */
+  public void publish(long timestamp) {
+    long t = this.producerTail;
+    this.timestamps[(int) t & this.mask] = timestamp;
+    this.producerTail = t + 1;
+    this.tail.lazySet(t + 1);
+  }
+
+  /**
+   * Get the oldest published slot without releasing it. This must only be called by the consumer.
+   *
+   * @return The mailbox of the oldest published slot, or <code>null</code> if the queue is empty.
+   */
+  public @Nullable RingMailbox peek() {
+    long h = this.consumerHead;
+    if (h == this.cachedTail) {
+      this.cachedTail = this.tail.get();
+      if (h == this.cachedTail) {
+        return null;
+      }
+    }
+    return this.slots[(int) h & this.mask];
+  }
+
+  /**
+   * Get the time at which the oldest published slot was published. This must only be called by
+   * the consumer, after a successful <code>peek()</code>.
+   *
+   * @return The time (from <code>System.nanoTime()</code>) of publication.
+   */
+  public long timestamp() {
+    return this.timestamps[(int) this.consumerHead & this.mask];
+  }
+
+  /**
+   * Release the oldest published slot, allowing the producer to reuse it. This must only be
+   * called by the consumer, after a successful <code>peek()</code>.
+   */
+  public void release() {
+    long h = this.consumerHead + 1;
+    this.consumerHead = h;
+    this.head.lazySet(h);
+  }
+}
@@ -0,0 +1,146 @@
+package steam.boiler.runtime;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Registers the telemetry of controllers as MBeans, and unregisters them again when closed.
+ * Registration is entirely optional: a controller whose telemetry is never registered costs
+ * nothing beyond its telemetry (if any). Controllers are registered in batches, with names of the
+ * form <code>domain:type=Controller,group=g,id=i</code>, so that a fleet of thousands can be
+ * registered (and browsed) one group at a time.
+ *
+ * <p>
+ * A batch is a unit of naming and of failure, not of communication with the server: JMX provides
+ * no way to register several MBeans at once, so each controller in a batch is still registered
+ * with its own call. What a batch provides is one call per group, with identifiers assigned in
+ * order, and all-or-nothing registration of the group. Registering a controller's MBean only
+ * stores a reference to its telemetry, so even a large batch is cheap.
+ * </p>
+ *
+ * <p>
+ * A registry is not thread safe, and should be used by a single thread (typically whichever sets
+ * up the fleet). The MBeans themselves can be read from any thread.
+ * </p>
+ */
+public final class TelemetryRegistry implements AutoCloseable {
+  /**
+   * The server on which MBeans are registered.
+   */
+  private final MBeanServer server;
+
+  /**
+   * The domain under which MBeans are registered.
+   */
+  private final String domain;
+
+  /**
+   * The names of every MBean registered so far, in the order registered.
+   */
+  private final List<ObjectName> names = new ArrayList<>();
+
+  /**
+   * Construct a registry for the platform MBean server.
+   *
+   * @param domain The domain under which MBeans are registered.
+   */
+  public TelemetryRegistry(String domain) {
+    this(ManagementFactory.getPlatformMBeanServer(), domain);
+  }
+
+  /**
+   * Construct a registry for a given MBean server.
+   *
+   * @param server The server on which MBeans are registered.
+   * @param domain The domain under which MBeans are registered.
+   */
+  public TelemetryRegistry(MBeanServer server, String domain) {
+    this.server = server;
+    this.domain = domain;
+  }
+
+  /**
+   * Register the telemetry of a batch of controllers, numbered from zero in the order given. If
+   * any cannot be registered (e.g. because its name is already taken), none of the batch remains
+   * registered.
+   *
+   * @param group     The name of the group, which must be unique within this registry's domain.
+   * @param telemetry The telemetry of each controller.
+   * @return The names under which they were registered, in the order given.
+   */
+  public List<ObjectName> register(String group, List<ControllerTelemetry> telemetry) {
+    String prefix = this.domain + ":type=Controller,group=" //$NON-NLS-1$
+        + ObjectName.quote(group) + ",id="; //$NON-NLS-1$
+    List<ObjectName> batch = new ArrayList<>(telemetry.size());
+    try {
+      for (int i = 0; i != telemetry.size(); ++i) {
+        ObjectName name = new ObjectName(prefix + i);
+        this.server.registerMBean(telemetry.get(i), name);
+        batch.add(name);
+      }
+    } catch (JMException e) {
+      IllegalStateException failure = new IllegalStateException(
+          "cannot register group " + group, e); //$NON-NLS-1$
+      JMException undo = unregister(batch);
+      if (undo != null) {
+        failure.addSuppressed(undo);
+      }
+      throw failure;
+    }
+    this.names.addAll(batch);
+    return batch;
+  }
+
+  /**
+   * Get the number of MBeans currently registered by this registry.
+   *
+   * @return The count.
+   */
+  public int size() {
+    return this.names.size();
+  }
+
+  /**
+   * Unregister every MBean registered by this registry.
+   *
+   * @throws IllegalStateException If any MBean which is still registered could not be
+   *                               unregistered. Every other MBean is unregistered regardless.
+   */
+  @Override
+  public void close() {
+    JMException failure = unregister(this.names);
+    this.names.clear();
+    if (failure != null) {
+      throw new IllegalStateException("cannot unregister telemetry", failure); //$NON-NLS-1$
+    }
+  }
+
+  /**
+   * Unregister some MBeans, skipping any which are no longer registered. Every MBean is attempted,
+   * even if an earlier one fails.
+   *
+   * @param batch The names of the MBeans.
+   * @return The first failure, or <code>null</code> if every MBean still registered was
+   *         unregistered.
+   */
+  private @Nullable JMException unregister(List<ObjectName> batch) {
+    JMException failure = null;
+    for (ObjectName name : batch) {
+      try {
+        if (this.server.isRegistered(name)) {
+          this.server.unregisterMBean(name);
+        }
+      } catch (JMException e) {
+        failure = failure == null ? e : failure;
+      }
+    }
+    return failure;
+  }
+}
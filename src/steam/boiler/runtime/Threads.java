@@ -0,0 +1,43 @@
+package steam.boiler.runtime;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Helpers for waiting on the threads owned by runtime components. Closing a component must not
+ * throw <code>InterruptedException</code> (as <code>AutoCloseable</code> advises), yet should stop
+ * waiting promptly when interrupted. Rather than catching the exception from
+ * <code>Thread.join()</code> and restoring the interrupt status, these wait by parking, which
+ * leaves the interrupt status untouched and returns as soon as it is set.
+ */
+final class Threads {
+  /**
+   * The longest (in ns) to park between checks on a thread being waited for.
+   */
+  private static final long POLL = TimeUnit.MICROSECONDS.toNanos(100);
+
+  /**
+   * Private constructor as this class provides only static methods.
+   */
+  private Threads() {
+  }
+
+  /**
+   * Wait for a thread to finish, for no longer than a given time. If the calling thread is
+   * interrupted, this returns immediately and its interrupt status remains set.
+   *
+   * @param thread       The thread to wait for.
+   * @param timeoutNanos The longest (in ns) to wait, or <code>Long.MAX_VALUE</code> to wait for as
+   *                     long as it takes.
+   * @return True if the thread has finished.
+   */
+  static boolean join(Thread thread, long timeoutNanos) {
+    long start = System.nanoTime();
+    long elapsed = 0;
+    while (thread.isAlive() && elapsed < timeoutNanos && !Thread.currentThread().isInterrupted()) {
+      LockSupport.parkNanos(Math.min(POLL, timeoutNanos - elapsed));
+      elapsed = System.nanoTime() - start;
+    }
+    return !thread.isAlive();
+  }
+}
@@ -0,0 +1,646 @@
+package steam.boiler.runtime;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import steam.boiler.core.MessageCodec;
+import steam.boiler.core.RingMailbox;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.Mailbox.Mode;
+
+/**
+ * Compresses the mailboxes sent in one direction (i.e. either incoming or outgoing) on successive
+ * cycles, by predicting each from the one before. The same class decompresses them again, keeping
+ * exactly the same state, so the two sides cannot drift apart. A mailbox is split into columns:
+ *
+ * <ul>
+ * <li>The <i>shape</i> of a mailbox is the sequence of its message kinds, with each kind encoded
+ * as its ordinal. Shapes are dictionary encoded: a single bit indicates the shape is the same as
+ * last cycle, and otherwise it is given by its position in a dictionary of those seen before (or
+ * spelled out, if new).</li>
+ * <li>Parameters are divided into columns by the kind of message and the number of earlier
+ * messages of that kind in the mailbox, so that (for example) the pump number of the third
+ * <code>PUMP_STATE_n_b</code> message forms one column.</li>
+ * <li>Integer (and mode) columns are encoded as the difference from the previous value, which is
+ * almost always zero and so takes a single bit.</li>
+ * <li>Double columns are encoded as in Gorilla: the value is XORed with the previous one, and
+ * only the bits which differ are written, within a window of leading and trailing zeros which is
+ * reused for as long as it fits.</li>
+ * <li>The booleans of each kind of message form a bitset, which is either unchanged from last
+ * cycle (a single bit) or written as the lengths of its runs of equal bits.</li>
+ * </ul>
+ */
+final class TraceColumns {
+  /**
+   * The largest number of shapes held in the dictionary. Shapes beyond this are spelled out every
+   * time they are used.
+   */
+  static final int MAX_SHAPES = 1024;
+
+  /**
+   * The largest number of messages a decoded shape may contain, which guards against a corrupt
+   * stream.
+   */
+  private static final int MAX_MESSAGES = 1 << 20;
+
+  /**
+   * Cached copy of all message kinds, to avoid cloning the array on every access.
+   */
+  private static final MessageKind[] KINDS = MessageKind.values();
+
+  /**
+   * Cached copy of all modes, to avoid cloning the array on every access.
+   */
+  private static final Mode[] MODES = Mode.values();
+
+  /**
+   * The number of bits needed to encode the ordinal of any message kind.
+   */
+  private static final int KIND_BITS = 32 - Integer.numberOfLeadingZeros(KINDS.length - 1);
+
+  /**
+   * The parameters carried by each kind of message.
+   */
+  private static final int[] PARAMETERS = new int[KINDS.length];
+
+  /**
+   * The width of a window with no previous value, which no value fits.
+   */
+  private static final int NO_WINDOW = 64;
+
+  static {
+    for (int i = 0; i != KINDS.length; ++i) {
+      MessageKind k = KINDS[i];
+      assert k != null;
+      PARAMETERS[i] = MessageCodec.parameters(k);
+    }
+  }
+
+  /**
+   * The dictionary of shapes seen so far, in the order first seen.
+   */
+  private final List<int[]> shapes = new ArrayList<>();
+
+  /**
+   * The shape of the last mailbox.
+   */
+  private int[] shape = new int[0];
+
+  /**
+   * The number of messages in the current mailbox.
+   */
+  private int size;
+
+  /**
+   * The kind ordinal of each message in the current mailbox.
+   */
+  private int[] kinds = new int[16];
+
+  /**
+   * The number of earlier messages of the same kind, for each message in the current mailbox.
+   */
+  private int[] occurrences = new int[16];
+
+  /**
+   * The integer (or mode ordinal) parameter of each message in the current mailbox.
+   */
+  private int[] integers = new int[16];
+
+  /**
+   * The boolean parameter of each message in the current mailbox.
+   */
+  private boolean[] booleans = new boolean[16];
+
+  /**
+   * The bits of the double parameter of each message in the current mailbox.
+   */
+  private long[] doubles = new long[16];
+
+  /**
+   * The number of messages of each kind in the current mailbox.
+   */
+  private final int[] counts = new int[KINDS.length];
+
+  /**
+   * The previous value of each integer column, by kind and then occurrence.
+   */
+  private final int[][] lastIntegers = new int[KINDS.length][0];
+
+  /**
+   * The bits of the previous value of each double column, by kind and then occurrence.
+   */
+  private final long[][] lastDoubles = new long[KINDS.length][0];
+
+  /**
+   * The leading zeros of the window of each double column, by kind and then occurrence.
+   */
+  private final int[][] leadings = new int[KINDS.length][0];
+
+  /**
+   * The trailing zeros of the window of each double column, by kind and then occurrence.
+   */
+  private final int[][] trailings = new int[KINDS.length][0];
+
+  /**
+   * The booleans of each kind in the current mailbox, as a bitset.
+   */
+  private long[][] flags = new long[KINDS.length][0];
+
+  /**
+   * The booleans of each kind when last seen, as a bitset.
+   */
+  private long[][] lastFlags = new long[KINDS.length][0];
+
+  /**
+   * The number of booleans of each kind when last seen.
+   */
+  private final int[] lastFlagCounts = new int[KINDS.length];
+
+  /**
+   * Encode the next mailbox.
+   *
+   * @param mailbox The mailbox.
+   * @param out     The stream to write to.
+   * @throws IOException If the stream could not be written.
+   */
+  void encode(Mailbox mailbox, BitWriter out) throws IOException {
+    load(mailbox);
+    encodeShape(out);
+    count();
+    for (int i = 0; i != this.size; ++i) {
+      int k = this.kinds[i];
+      if (isInteger(PARAMETERS[k])) {
+        int[] column = this.lastIntegers[k];
+        int o = this.occurrences[i];
+        out.writeSigned((long) this.integers[i] - column[o]);
+        column[o] = this.integers[i];
+      }
+    }
+    for (int i = 0; i != this.size; ++i) {
+      int k = this.kinds[i];
+      if (PARAMETERS[k] == MessageCodec.DOUBLE_PARAMETER) {
+        encodeDouble(k, this.occurrences[i], this.doubles[i], out);
+      }
+    }
+    gatherFlags();
+    for (int k = 0; k != KINDS.length; ++k) {
+      if (PARAMETERS[k] == MessageCodec.INTEGER_BOOLEAN_PARAMETERS && this.counts[k] != 0) {
+        encodeFlags(k, out);
+      }
+    }
+  }
+
+  /**
+   * Decode the next mailbox.
+   *
+   * @param in      The stream to read from.
+   * @param mailbox The mailbox to send the messages decoded to.
+   * @throws IOException If the stream could not be read, or is corrupt.
+   */
+  void decode(BitReader in, RingMailbox mailbox) throws IOException {
+    decodeShape(in);
+    count();
+    for (int i = 0; i != this.size; ++i) {
+      int k = this.kinds[i];
+      if (isInteger(PARAMETERS[k])) {
+        int[] column = this.lastIntegers[k];
+        int o = this.occurrences[i];
+        column[o] = (int) (column[o] + in.readSigned());
+        this.integers[i] = column[o];
+      }
+    }
+    for (int i = 0; i != this.size; ++i) {
+      int k = this.kinds[i];
+      if (PARAMETERS[k] == MessageCodec.DOUBLE_PARAMETER) {
+        this.doubles[i] = decodeDouble(k, this.occurrences[i], in);
+      }
+    }
+    for (int k = 0; k != KINDS.length; ++k) {
+      if (PARAMETERS[k] == MessageCodec.INTEGER_BOOLEAN_PARAMETERS && this.counts[k] != 0) {
+        decodeFlags(k, in);
+      }
+    }
+    for (int i = 0; i != this.size; ++i) {
+      int k = this.kinds[i];
+      MessageKind kind = KINDS[k];
+      assert kind != null;
+      switch (PARAMETERS[k]) {
+        case MessageCodec.MODE_PARAMETER: {
+          int m = this.integers[i];
+          if (m < 0 || m >= MODES.length) {
+            throw new IOException("invalid mode " + m); //$NON-NLS-1$
+          }
+          Mode mode = MODES[m];
+          assert mode != null;
+          mailbox.send(kind, mode);
+          break;
+        }
+        case MessageCodec.INTEGER_PARAMETER:
+          mailbox.send(kind, this.integers[i]);
+          break;
+        case MessageCodec.DOUBLE_PARAMETER:
+          mailbox.send(kind, Double.longBitsToDouble(this.doubles[i]));
+          break;
+        case MessageCodec.INTEGER_BOOLEAN_PARAMETERS: {
+          // The flags decoded have already become the last seen
+          long[] f = this.lastFlags[k];
+          int o = this.occurrences[i];
+          mailbox.send(kind, this.integers[i], (f[o >>> 6] & (1L << o)) != 0);
+          break;
+        }
+        default:
+          mailbox.send(kind);
+      }
+    }
+  }
+
+  /**
+   * Copy the messages of a mailbox into the columns of the current mailbox.
+   *
+   * @param mailbox The mailbox.
+   */
+  private void load(Mailbox mailbox) {
+    int n = mailbox.size();
+    ensure(n);
+    this.size = n;
+    if (mailbox instanceof RingMailbox) {
+      RingMailbox ring = (RingMailbox) mailbox;
+      for (int i = 0; i != n; ++i) {
+        this.kinds[i] = ring.kind(i).ordinal();
+        this.integers[i] = ring.integerParameter(i);
+        this.booleans[i] = ring.booleanParameter(i);
+        this.doubles[i] = Double.doubleToRawLongBits(ring.doubleParameter(i));
+      }
+    } else {
+      for (int i = 0; i != n; ++i) {
+        Message m = mailbox.read(i);
+        int k = m.getKind().ordinal();
+        this.kinds[i] = k;
+        this.integers[i] = 0;
+        this.booleans[i] = false;
+        this.doubles[i] = 0;
+        switch (PARAMETERS[k]) {
+          case MessageCodec.MODE_PARAMETER:
+            this.integers[i] = m.getModeParameter().ordinal();
+            break;
+          case MessageCodec.INTEGER_PARAMETER:
+            this.integers[i] = m.getIntegerParameter();
+            break;
+          case MessageCodec.DOUBLE_PARAMETER:
+            this.doubles[i] = Double.doubleToRawLongBits(m.getDoubleParameter());
+            break;
+          case MessageCodec.INTEGER_BOOLEAN_PARAMETERS:
+            this.integers[i] = m.getIntegerParameter();
+            this.booleans[i] = m.getBooleanParameter();
+            break;
+          default:
+            break;
+        }
+      }
+    }
+  }
+
+  /**
+   * Encode the shape of the current mailbox, adding it to the dictionary if it is new.
+   *
+   * @param out The stream to write to.
+   * @throws IOException If the stream could not be written.
+   */
+  private void encodeShape(BitWriter out) throws IOException {
+    if (matches(this.shape)) {
+      out.writeBit(false);
+      return;
+    }
+    out.writeBit(true);
+    for (int id = 0; id != this.shapes.size(); ++id) {
+      int[] s = this.shapes.get(id);
+      if (matches(s)) {
+        out.writeUnsigned(id);
+        this.shape = s;
+        return;
+      }
+    }
+    out.writeUnsigned(this.shapes.size());
+    out.writeUnsigned(this.size);
+    for (int i = 0; i != this.size; ++i) {
+      out.write(this.kinds[i], KIND_BITS);
+    }
+    int[] s = Arrays.copyOf(this.kinds, this.size);
+    assert s != null;
+    remember(s);
+  }
+
+  /**
+   * Decode the shape of the current mailbox, adding it to the dictionary if it is new.
+   *
+   * @param in The stream to read from.
+   * @throws IOException If the stream could not be read, or is corrupt.
+   */
+  private void decodeShape(BitReader in) throws IOException {
+    if (in.readBit()) {
+      long id = in.readUnsigned();
+      if (id < this.shapes.size()) {
+        int[] s = this.shapes.get((int) id);
+        assert s != null;
+        this.shape = s;
+      } else if (id == this.shapes.size()) {
+        long n = in.readUnsigned();
+        if (n > MAX_MESSAGES) {
+          throw new IOException("invalid shape of " + n + " messages"); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        int[] s = new int[(int) n];
+        for (int i = 0; i != s.length; ++i) {
+          s[i] = (int) in.read(KIND_BITS);
+          if (s[i] >= KINDS.length) {
+            throw new IOException("invalid message kind " + s[i]); //$NON-NLS-1$
+          }
+        }
+        remember(s);
+      } else {
+        throw new IOException("invalid shape " + id); //$NON-NLS-1$
+      }
+    }
+    int n = this.shape.length;
+    ensure(n);
+    this.size = n;
+    System.arraycopy(this.shape, 0, this.kinds, 0, n);
+  }
+
+  /**
+   * Make a new shape the current one, and add it to the dictionary if there is room.
+   *
+   * @param s The shape.
+   */
+  private void remember(int[] s) {
+    if (this.shapes.size() < MAX_SHAPES) {
+      this.shapes.add(s);
+    }
+    this.shape = s;
+  }
+
+  /**
+   * Determine whether the current mailbox has a given shape.
+   *
+   * @param s The shape.
+   * @return True if the kinds of its messages match the shape exactly.
+   */
+  private boolean matches(int[] s) {
+    if (s.length != this.size) {
+      return false;
+    }
+    for (int i = 0; i != this.size; ++i) {
+      if (s[i] != this.kinds[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Count the messages of each kind in the current mailbox, numbering the occurrences of each
+   * kind and making sure there is a column for every one.
+   */
+  private void count() {
+    Arrays.fill(this.counts, 0);
+    for (int i = 0; i != this.size; ++i) {
+      int k = this.kinds[i];
+      this.occurrences[i] = this.counts[k]++;
+    }
+    for (int k = 0; k != KINDS.length; ++k) {
+      int n = this.counts[k];
+      if (n > this.lastIntegers[k].length) {
+        int[] grown = Arrays.copyOf(this.lastIntegers[k], n);
+        assert grown != null;
+        this.lastIntegers[k] = grown;
+        if (PARAMETERS[k] == MessageCodec.DOUBLE_PARAMETER) {
+          growDoubles(k, n);
+        }
+      }
+      int words = (n + 63) >>> 6;
+      if (words > this.flags[k].length) {
+        this.flags[k] = new long[words];
+        long[] grown = Arrays.copyOf(this.lastFlags[k], words);
+        assert grown != null;
+        this.lastFlags[k] = grown;
+      }
+    }
+  }
+
+  /**
+   * Grow the double columns of a given kind of message.
+   *
+   * @param k The kind ordinal.
+   * @param n The number of columns needed.
+   */
+  private void growDoubles(int k, int n) {
+    int old = this.leadings[k].length;
+    long[] values = Arrays.copyOf(this.lastDoubles[k], n);
+    int[] leading = Arrays.copyOf(this.leadings[k], n);
+    int[] trailing = Arrays.copyOf(this.trailings[k], n);
+    assert values != null && leading != null && trailing != null;
+    Arrays.fill(leading, old, n, NO_WINDOW);
+    this.lastDoubles[k] = values;
+    this.leadings[k] = leading;
+    this.trailings[k] = trailing;
+  }
+
+  /**
+   * Encode the next value of a double column.
+   *
+   * @param k   The kind ordinal.
+   * @param o   The occurrence.
+   * @param v   The bits of the value.
+   * @param out The stream to write to.
+   * @throws IOException If the stream could not be written.
+   */
+  private void encodeDouble(int k, int o, long v, BitWriter out) throws IOException {
+    long[] values = this.lastDoubles[k];
+    long x = v ^ values[o];
+    values[o] = v;
+    if (x == 0) {
+      out.writeBit(false);
+      return;
+    }
+    out.writeBit(true);
+    int leading = Math.min(Long.numberOfLeadingZeros(x), 31);
+    int trailing = Long.numberOfTrailingZeros(x);
+    int pl = this.leadings[k][o];
+    int pt = this.trailings[k][o];
+    if (leading >= pl && trailing >= pt) {
+      out.writeBit(false);
+      out.write(x >>> pt, 64 - pl - pt);
+    } else {
+      int length = 64 - leading - trailing;
+      out.writeBit(true);
+      out.write(leading, 5);
+      out.write(length - 1, 6);
+      out.write(x >>> trailing, length);
+      this.leadings[k][o] = leading;
+      this.trailings[k][o] = trailing;
+    }
+  }
+
+  /**
+   * Decode the next value of a double column.
+   *
+   * @param k  The kind ordinal.
+   * @param o  The occurrence.
+   * @param in The stream to read from.
+   * @return The bits of the value.
+   * @throws IOException If the stream could not be read, or is corrupt.
+   */
+  private long decodeDouble(int k, int o, BitReader in) throws IOException {
+    long[] values = this.lastDoubles[k];
+    if (in.readBit()) {
+      long x;
+      if (!in.readBit()) {
+        int pl = this.leadings[k][o];
+        int pt = this.trailings[k][o];
+        if (pl == NO_WINDOW) {
+          throw new IOException("no window for double"); //$NON-NLS-1$
+        }
+        x = in.read(64 - pl - pt) << pt;
+      } else {
+        int leading = (int) in.read(5);
+        int length = (int) in.read(6) + 1;
+        int trailing = 64 - leading - length;
+        if (trailing < 0) {
+          throw new IOException("invalid window for double"); //$NON-NLS-1$
+        }
+        x = in.read(length) << trailing;
+        this.leadings[k][o] = leading;
+        this.trailings[k][o] = trailing;
+      }
+      values[o] ^= x;
+    }
+    return values[o];
+  }
+
+  /**
+   * Gather the booleans of each kind in the current mailbox into bitsets.
+   */
+  private void gatherFlags() {
+    for (int k = 0; k != KINDS.length; ++k) {
+      if (this.counts[k] != 0) {
+        Arrays.fill(this.flags[k], 0);
+      }
+    }
+    for (int i = 0; i != this.size; ++i) {
+      if (this.booleans[i]) {
+        int o = this.occurrences[i];
+        this.flags[this.kinds[i]][o >>> 6] |= 1L << o;
+      }
+    }
+  }
+
+  /**
+   * Encode the booleans of a given kind in the current mailbox.
+   *
+   * @param k   The kind ordinal.
+   * @param out The stream to write to.
+   * @throws IOException If the stream could not be written.
+   */
+  private void encodeFlags(int k, BitWriter out) throws IOException {
+    int n = this.counts[k];
+    long[] f = this.flags[k];
+    if (n == this.lastFlagCounts[k] && Arrays.equals(f, this.lastFlags[k])) {
+      out.writeBit(false);
+    } else {
+      out.writeBit(true);
+      boolean value = (f[0] & 1) != 0;
+      out.writeBit(value);
+      int start = 0;
+      while (start != n) {
+        int end = start + 1;
+        while (end != n && ((f[end >>> 6] & (1L << end)) != 0) == value) {
+          end++;
+        }
+        out.writeUnsigned(end - start - 1);
+        start = end;
+        value = !value;
+      }
+    }
+    rotateFlags(k);
+  }
+
+  /**
+   * Decode the booleans of a given kind in the current mailbox.
+   *
+   * @param k  The kind ordinal.
+   * @param in The stream to read from.
+   * @throws IOException If the stream could not be read, or is corrupt.
+   */
+  private void decodeFlags(int k, BitReader in) throws IOException {
+    int n = this.counts[k];
+    long[] f = this.flags[k];
+    if (!in.readBit()) {
+      if (n != this.lastFlagCounts[k]) {
+        throw new IOException("unchanged flags of a different length"); //$NON-NLS-1$
+      }
+      System.arraycopy(this.lastFlags[k], 0, f, 0, f.length);
+    } else {
+      Arrays.fill(f, 0);
+      boolean value = in.readBit();
+      int start = 0;
+      while (start != n) {
+        long run = in.readUnsigned() + 1;
+        if (run > n - start) {
+          throw new IOException("invalid run of flags"); //$NON-NLS-1$
+        }
+        int end = start + (int) run;
+        if (value) {
+          for (int i = start; i != end; ++i) {
+            f[i >>> 6] |= 1L << i;
+          }
+        }
+        start = end;
+        value = !value;
+      }
+    }
+    rotateFlags(k);
+  }
+
+  /**
+   * Make the booleans of a given kind in the current mailbox the last seen.
+   *
+   * @param k The kind ordinal.
+   */
+  private void rotateFlags(int k) {
+    long[] current = this.flags[k];
+    this.flags[k] = this.lastFlags[k];
+    this.lastFlags[k] = current;
+    this.lastFlagCounts[k] = this.counts[k];
+  }
+
+  /**
+   * Make sure the columns of the current mailbox can hold a given number of messages.
+   *
+   * @param n The number of messages.
+   */
+  private void ensure(int n) {
+    if (n > this.kinds.length) {
+      int c = Math.max(n, 2 * this.kinds.length);
+      this.kinds = new int[c];
+      this.occurrences = new int[c];
+      this.integers = new int[c];
+      this.booleans = new boolean[c];
+      this.doubles = new long[c];
+    }
+  }
+
+  /**
+   * Determine whether a kind of message carries an integer (or mode) parameter.
+   *
+   * @param parameters The parameters carried by the kind.
+   * @return True if it carries an integer.
+   */
+  private static boolean isInteger(int parameters) {
+    return parameters == MessageCodec.MODE_PARAMETER
+        || parameters == MessageCodec.INTEGER_PARAMETER
+        || parameters == MessageCodec.INTEGER_BOOLEAN_PARAMETERS;
+  }
+}
@@ -0,0 +1,213 @@
+package steam.boiler.runtime;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import steam.boiler.core.MessageCodec;
+import steam.boiler.core.RingMailbox;
+
+/**
+ * Reads the cycles of a trace (or a <code>FlightRecorder</code> dump) one at a time, oldest first.
+ * The file is memory mapped a window at a time, rather than read onto the heap, so a trace of any
+ * size can be streamed through in constant memory. The messages of each cycle are decoded into a
+ * pair of mailboxes which are reused from one cycle to the next, so reading does not allocate
+ * once these have grown to fit the largest cycle.
+ */
+public final class TraceReader implements AutoCloseable {
+  /**
+   * The default size (in bytes) of the window of the file mapped at once.
+   */
+  public static final int DEFAULT_WINDOW = 1 << 26;
+
+  /**
+   * The size (in bytes) of the header at the start of the file.
+   */
+  private static final int FILE_HEADER = 2 * Integer.BYTES;
+
+  /**
+   * The file being read.
+   */
+  private final FileChannel channel;
+
+  /**
+   * The size (in bytes) of the file.
+   */
+  private final long size;
+
+  /**
+   * The size (in bytes) of the window mapped at once, unless a single cycle is larger.
+   */
+  private final int window;
+
+  /**
+   * The window currently mapped, positioned at the next cycle.
+   */
+  private MappedByteBuffer map;
+
+  /**
+   * The offset in the file of the start of the current window.
+   */
+  private long base;
+
+  /**
+   * The number of the current cycle.
+   */
+  private long number = -1;
+
+  /**
+   * The time (in ms since the epoch) at which the current cycle was clocked.
+   */
+  private long time;
+
+  /**
+   * The messages received in the current cycle.
+   */
+  private final RingMailbox incoming = new RingMailbox(64);
+
+  /**
+   * The messages sent in the current cycle.
+   */
+  private final RingMailbox outgoing = new RingMailbox(64);
+
+  /**
+   * Open a trace for reading, using the default window size.
+   *
+   * @param file The trace.
+   * @throws IOException If the file could not be opened, or is not a trace.
+   */
+  public TraceReader(Path file) throws IOException {
+    this(file, DEFAULT_WINDOW);
+  }
+
+  /**
+   * Open a trace for reading.
+   *
+   * @param file   The trace.
+   * @param window The size (in bytes) of the window of the file mapped at once.
+   * @throws IOException If the file could not be opened, or is not a trace.
+   */
+  public TraceReader(Path file, int window) throws IOException {
+    if (window < FILE_HEADER) {
+      throw new IllegalArgumentException("window too small"); //$NON-NLS-1$
+    }
+    FileChannel c = FileChannel.open(file, StandardOpenOption.READ);
+    assert c != null;
+    this.channel = c;
+    this.size = c.size();
+    this.window = window;
+    try {
+      if (this.size < FILE_HEADER) {
+        throw new IOException("not a trace: " + file); //$NON-NLS-1$
+      }
+      this.map = map(0, FILE_HEADER);
+      if (this.map.getInt() != FlightRecorder.MAGIC
+          || this.map.getInt() != FlightRecorder.VERSION) {
+        throw new IOException("not a trace: " + file); //$NON-NLS-1$
+      }
+    } catch (IOException e) {
+      c.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Advance to the next cycle, replacing the messages of the current one.
+   *
+   * @return True if there was another cycle, or false if the end of the trace has been reached.
+   * @throws IOException If the file could not be read, or the next cycle is corrupt.
+   */
+  public boolean next() throws IOException {
+    long offset = this.base + this.map.position();
+    if (offset == this.size) {
+      return false;
+    }
+    if (this.map.remaining() < Integer.BYTES) {
+      this.map = map(offset, Integer.BYTES);
+    }
+    int length = this.map.getInt(this.map.position());
+    if (length < FlightRecorder.HEADER || length > this.size - offset) {
+      throw new IOException("corrupt cycle at offset " + offset); //$NON-NLS-1$
+    }
+    if (this.map.remaining() < length) {
+      this.map = map(offset, length);
+    }
+    int start = this.map.position();
+    this.incoming.clear();
+    this.outgoing.clear();
+    try {
+      this.map.getInt();
+      this.number = this.map.getLong();
+      this.time = this.map.getLong();
+      MessageCodec.decode(this.map, this.incoming);
+      MessageCodec.decode(this.map, this.outgoing);
+    } catch (IllegalArgumentException | BufferUnderflowException e) {
+      throw new IOException("corrupt cycle at offset " + offset, e); //$NON-NLS-1$
+    }
+    if (this.map.position() != start + length) {
+      throw new IOException("corrupt cycle at offset " + offset); //$NON-NLS-1$
+    }
+    return true;
+  }
+
+  /**
+   * Get the number of the current cycle.
+   *
+   * @return The number, counting from zero, or -1 before the first cycle has been read.
+   */
+  public long getNumber() {
+    return this.number;
+  }
+
+  /**
+   * Get the time at which the current cycle was clocked.
+   *
+   * @return The time (in ms since the epoch).
+   */
+  public long getTime() {
+    return this.time;
+  }
+
+  /**
+   * Get the messages received in the current cycle. The mailbox is reused for the next cycle.
+   *
+   * @return The messages.
+   */
+  public RingMailbox getIncoming() {
+    return this.incoming;
+  }
+
+  /**
+   * Get the messages sent in the current cycle. The mailbox is reused for the next cycle.
+   *
+   * @return The messages.
+   */
+  public RingMailbox getOutgoing() {
+    return this.outgoing;
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.channel.close();
+  }
+
+  /**
+   * Map a window of the file, which ends the earlier of the window size past its start or the end
+   * of the file, but which at least includes a given number of bytes.
+   *
+   * @param offset The offset in the file of the start of the window.
+   * @param needed The number of bytes the window must include.
+   * @return The window, positioned at its start.
+   * @throws IOException If the file could not be mapped.
+   */
+  private MappedByteBuffer map(long offset, int needed) throws IOException {
+    long length = Math.min(this.size - offset, Math.max(this.window, needed));
+    MappedByteBuffer m = this.channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+    assert m != null;
+    this.base = offset;
+    return m;
+  }
+}
@@ -0,0 +1,171 @@
+package steam.boiler.runtime;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.Nullable;
+
+import steam.boiler.model.SteamBoilerController;
+import steam.boiler.util.Mailbox;
+
+/**
+ * Records every cycle of a controller to a trace file, so that the run can later be replayed
+ * exactly (using <code>TraceReplay</code>). This wraps the controller, and is clocked in its place.
+ * A trace has the same format as a <code>FlightRecorder</code> dump, except that it holds every
+ * cycle from the first, and so can be replayed from the start. Cycles are encoded into an
+ * off-heap buffer, which is written out whenever it fills up, so recording a long run neither
+ * holds the run in memory nor allocates on each cycle.
+ *
+ * <p>
+ * A failure to write the trace is remembered, rather than thrown, so that the controller itself
+ * carries on regardless. Recording stops at that point (leaving a trace of every cycle before
+ * it), and the failure is thrown when the recorder is closed.
+ * </p>
+ */
+public final class TraceRecorder implements SteamBoilerController, AutoCloseable {
+  /**
+   * The size (in bytes) of the buffer through which cycles are written.
+   */
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  /**
+   * The controller being recorded.
+   */
+  private final SteamBoilerController controller;
+
+  /**
+   * The trace file being written.
+   */
+  private final FileChannel channel;
+
+  /**
+   * Cycles not yet written to the file. This is only replaced if a cycle does not fit in it.
+   */
+  private ByteBuffer buffer;
+
+  /**
+   * The number of cycles clocked.
+   */
+  private long cycles;
+
+  /**
+   * The reason the trace could not be written, or <code>null</code> if it has been so far.
+   */
+  private @Nullable IOException failure;
+
+  /**
+   * Construct a recorder for a controller, which has not yet been clocked.
+   *
+   * @param controller The controller to record.
+   * @param file       The trace file to write, which is replaced if it already exists.
+   * @throws IOException If the file could not be created.
+   */
+  public TraceRecorder(SteamBoilerController controller, Path file) throws IOException {
+    FileChannel c = FileChannel.open(file, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    assert c != null;
+    ByteBuffer b = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    assert b != null;
+    b.putInt(FlightRecorder.MAGIC).putInt(FlightRecorder.VERSION);
+    this.controller = controller;
+    this.channel = c;
+    this.buffer = b;
+  }
+
+  @Override
+  public void clock(@NonNull Mailbox incoming, @NonNull Mailbox outgoing) {
+    long time = System.currentTimeMillis();
+    this.controller.clock(incoming, outgoing);
+    if (this.failure == null) {
+      try {
+        record(this.cycles, time, incoming, outgoing);
+      } catch (IOException e) {
+        this.failure = e;
+      }
+    }
+    this.cycles++;
+  }
+
+  @Override
+  public String getStatusMessage() {
+    return this.controller.getStatusMessage();
+  }
+
+  /**
+   * Get the number of cycles clocked so far.
+   *
+   * @return The count.
+   */
+  public long getCycles() {
+    return this.cycles;
+  }
+
+  /**
+   * Get the reason the trace could not be written.
+   *
+   * @return The failure, or <code>null</code> if the trace has been written so far.
+   */
+  public @Nullable IOException getFailure() {
+    return this.failure;
+  }
+
+  /**
+   * Write out any cycles still buffered, and close the trace file.
+   *
+   * @throws IOException If any part of the trace could not be written.
+   */
+  @Override
+  public void close() throws IOException {
+    try {
+      if (this.failure == null) {
+        flush();
+      }
+    } finally {
+      this.channel.close();
+    }
+    IOException f = this.failure;
+    if (f != null) {
+      throw f;
+    }
+  }
+
+  /**
+   * Append a cycle to the buffer, writing out the buffer first if the cycle does not fit.
+   *
+   * @param cycle    The number of the cycle.
+   * @param time     The time (in ms since the epoch) at which it was clocked.
+   * @param incoming The messages received.
+   * @param outgoing The messages sent.
+   * @throws IOException If the buffer could not be written out.
+   */
+  private void record(long cycle, long time, Mailbox incoming, Mailbox outgoing)
+      throws IOException {
+    int length = FlightRecorder.length(incoming, outgoing);
+    if (length > this.buffer.remaining()) {
+      flush();
+      if (length > this.buffer.capacity()) {
+        ByteBuffer b = ByteBuffer.allocateDirect(length);
+        assert b != null;
+        this.buffer = b;
+      }
+    }
+    FlightRecorder.write(this.buffer, length, cycle, time, incoming, outgoing);
+  }
+
+  /**
+   * Write out every cycle in the buffer, leaving it empty.
+   *
+   * @throws IOException If the buffer could not be written out.
+   */
+  private void flush() throws IOException {
+    this.buffer.flip();
+    while (this.buffer.hasRemaining()) {
+      this.channel.write(this.buffer);
+    }
+    this.buffer.clear();
+  }
+}
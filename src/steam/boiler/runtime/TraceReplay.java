@@ -0,0 +1,190 @@
+package steam.boiler.runtime;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.core.RingMailbox;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * Replays a trace through a fresh controller, and compares the messages it sends on each cycle
+ * against those recorded. There is no physical model: the controller simply receives the recorded
+ * messages, one cycle after another, as fast as it can process them. Since the controller is
+ * deterministic, any difference means its behaviour has changed since the trace was recorded.
+ *
+ * <p>
+ * A trace does not include the configuration of the boiler, so this must be the same as when the
+ * trace was recorded. Likewise, the trace must start from the first cycle (i.e. be written by a
+ * <code>TraceRecorder</code>) rather than being a <code>FlightRecorder</code> dump.
+ * </p>
+ */
+public final class TraceReplay {
+  /**
+   * The configuration of the boiler when the trace was recorded.
+   */
+  private final SteamBoilerCharacteristics config;
+
+  /**
+   * Construct a replay for traces recorded with a given configuration.
+   *
+   * @param config The configuration of the boiler.
+   */
+  public TraceReplay(SteamBoilerCharacteristics config) {
+    this.config = config;
+  }
+
+  /**
+   * Replay a trace through a fresh controller.
+   *
+   * @param file The trace.
+   * @return The outcome of the replay.
+   * @throws IOException If the trace could not be read.
+   */
+  public Result replay(Path file) throws IOException {
+    MySteamBoilerController controller = new MySteamBoilerController(this.config);
+    RingMailbox output = new RingMailbox(64);
+    long cycles = 0;
+    long divergent = 0;
+    long first = -1;
+    @Nullable String expected = null;
+    @Nullable String actual = null;
+    long start = System.nanoTime();
+    try (TraceReader reader = new TraceReader(file)) {
+      while (reader.next()) {
+        output.clear();
+        controller.clock(reader.getIncoming(), output);
+        if (!output.contentEquals(reader.getOutgoing())) {
+          if (divergent == 0) {
+            first = reader.getNumber();
+            expected = reader.getOutgoing().toString();
+            actual = output.toString();
+          }
+          divergent++;
+        }
+        cycles++;
+      }
+    }
+    return new Result(cycles, divergent, first, expected, actual, System.nanoTime() - start);
+  }
+
+  /**
+   * The outcome of replaying a trace.
+   */
+  public static final class Result {
+    /**
+     * The number of cycles replayed.
+     */
+    private final long cycles;
+
+    /**
+     * The number of cycles in which the messages sent differed from those recorded.
+     */
+    private final long divergent;
+
+    /**
+     * The number of the first such cycle, or -1 if there was none.
+     */
+    private final long firstDivergence;
+
+    /**
+     * The messages recorded in the first such cycle, or <code>null</code> if there was none.
+     */
+    private final @Nullable String expected;
+
+    /**
+     * The messages sent in the first such cycle, or <code>null</code> if there was none.
+     */
+    private final @Nullable String actual;
+
+    /**
+     * The time (in ns) taken to replay the trace.
+     */
+    private final long nanos;
+
+    /**
+     * Construct the outcome of a replay.
+     *
+     * @param cycles          The number of cycles replayed.
+     * @param divergent       The number of cycles which differed.
+     * @param firstDivergence The number of the first cycle which differed, or -1.
+     * @param expected        The messages recorded in that cycle, if any.
+     * @param actual          The messages sent in that cycle, if any.
+     * @param nanos           The time (in ns) taken.
+     */
+    Result(long cycles, long divergent, long firstDivergence, @Nullable String expected,
+        @Nullable String actual, long nanos) {
+      this.cycles = cycles;
+      this.divergent = divergent;
+      this.firstDivergence = firstDivergence;
+      this.expected = expected;
+      this.actual = actual;
+      this.nanos = nanos;
+    }
+
+    /**
+     * Get the number of cycles replayed.
+     *
+     * @return The count.
+     */
+    public long getCycles() {
+      return this.cycles;
+    }
+
+    /**
+     * Get the number of cycles in which the messages sent differed from those recorded.
+     *
+     * @return The count.
+     */
+    public long getDivergent() {
+      return this.divergent;
+    }
+
+    /**
+     * Determine whether every cycle sent exactly the messages recorded.
+     *
+     * @return True if no cycle differed.
+     */
+    public boolean isIdentical() {
+      return this.divergent == 0;
+    }
+
+    /**
+     * Get the number of the first cycle in which the messages sent differed from those recorded.
+     *
+     * @return The number, or -1 if no cycle differed.
+     */
+    public long getFirstDivergence() {
+      return this.firstDivergence;
+    }
+
+    /**
+     * Get the messages recorded in the first cycle which differed.
+     *
+     * @return The messages, or <code>null</code> if no cycle differed.
+     */
+    public @Nullable String getExpected() {
+      return this.expected;
+    }
+
+    /**
+     * Get the messages sent in the first cycle which differed.
+     *
+     * @return The messages, or <code>null</code> if no cycle differed.
+     */
+    public @Nullable String getActual() {
+      return this.actual;
+    }
+
+    /**
+     * Get the time taken to replay the trace.
+     *
+     * @return The time (in ns).
+     */
+    public long getNanos() {
+      return this.nanos;
+    }
+  }
+}
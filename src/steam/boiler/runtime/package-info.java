@@ -0,0 +1,2 @@
+@org.eclipse.jdt.annotation.NonNullByDefault
+package steam.boiler.runtime;
\ No newline at end of file
@@ -0,0 +1,239 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.Test;
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.core.PredictiveScheduler;
+import steam.boiler.core.RingMailbox;
+import steam.boiler.runtime.FlightRecorder;
+import steam.boiler.tests.TestUtils.MailboxMatcher;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * These tests check that, once warmed up, a clock cycle of the controller does not allocate. This
+ * is measured using the per-thread allocation counters provided by the JVM, and therefore covers
+ * everything reachable from <code>clock()</code>.
+ */
+public class AllocationTests {
+  /**
+   * Number of cycles used to warm up the controller before measuring.
+   */
+  private static final int WARMUP_CYCLES = 20000;
+
+  /**
+   * Number of cycles over which allocation is measured.
+   */
+  private static final int MEASURED_CYCLES = 5000;
+
+  /**
+   * Number of times allocation is measured, of which the lowest is taken. This stops a one-off
+   * allocation by the JVM itself (e.g. when a hot method is recompiled part way through) from being
+   * attributed to the controller, whilst any allocation made on every cycle shows up in every
+   * measurement.
+   */
+  private static final int MEASUREMENTS = 3;
+
+  /**
+   * Default configuration. This is actually used just to prevent Eclipse from
+   * reporting that every method could be static!
+   */
+  private final SteamBoilerCharacteristics defaultConfig = SteamBoilerCharacteristics.DEFAULT;
+
+  /**
+   * Check clocking with well-formed readings does not allocate.
+   */
+  @Test
+  public void test_allocation_01() {
+    SteamBoilerCharacteristics config = this.defaultConfig;
+    assertEquals(0, bytesPerCycle(config, readings(config, config.getNumberOfPumps())), 0.0);
+  }
+
+  /**
+   * Check clocking with a large number of pumps does not allocate.
+   */
+  @Test
+  public void test_allocation_02() {
+    SteamBoilerCharacteristics config = this.defaultConfig;
+    config = config.setNumberOfPumps(64, config.getPumpCapacity(0));
+    assertEquals(0, bytesPerCycle(config, readings(config, config.getNumberOfPumps())), 0.0);
+  }
+
+  /**
+   * Check clocking with missing readings (i.e. transmission failure) does not allocate.
+   */
+  @Test
+  public void test_allocation_03() {
+    SteamBoilerCharacteristics config = this.defaultConfig;
+    assertEquals(0, bytesPerCycle(config, readings(config, 1)), 0.0);
+  }
+
+  /**
+   * Check clocking with predictive control does not allocate. Here, the controller must actually
+   * be operating (rather than waiting for the physical units), so the pump states reported back
+   * each cycle are those it last commanded.
+   */
+  @Test
+  public void test_allocation_04() {
+    SteamBoilerCharacteristics config = this.defaultConfig;
+    int n = config.getNumberOfPumps();
+    MySteamBoilerController controller = new MySteamBoilerController(config, 4, 1_000_000);
+    RingMailbox input = new RingMailbox(3 + (2 * n));
+    RingMailbox output = new RingMailbox(1024);
+    double midpoint = (config.getMinimalNormalLevel() + config.getMaximalNormalLevel()) / 2;
+    Message level = new Message(MessageKind.LEVEL_v, midpoint);
+    // No steam is produced until the physical units are ready
+    Message[] steam = { new Message(MessageKind.STEAM_v, 0.0),
+        new Message(MessageKind.STEAM_v, config.getMaximualSteamRate()) };
+    Message[][] states = new Message[2][n];
+    Message[][] controls = new Message[2][n];
+    boolean[] open = new boolean[n];
+    for (int i = 0; i != n; ++i) {
+      states[0][i] = new Message(MessageKind.PUMP_STATE_n_b, i, false);
+      states[1][i] = new Message(MessageKind.PUMP_STATE_n_b, i, true);
+      controls[0][i] = new Message(MessageKind.PUMP_CONTROL_STATE_n_b, i, false);
+      controls[1][i] = new Message(MessageKind.PUMP_CONTROL_STATE_n_b, i, true);
+    }
+    Message[] handshake = { new Message(MessageKind.STEAM_BOILER_WAITING),
+        new Message(MessageKind.PHYSICAL_UNITS_READY) };
+    int[] cycle = new int[1];
+    double bytes = bytesPerCycle(() -> {
+      input.clear();
+      boolean ready = cycle[0] == handshake.length;
+      if (!ready) {
+        input.send(handshake[cycle[0]++]);
+      }
+      input.send(level);
+      input.send(steam[ready ? 1 : 0]);
+      for (int i = 0; i != n; ++i) {
+        int k = open[i] ? 1 : 0;
+        input.send(states[k][i]);
+        input.send(controls[k][i]);
+      }
+      output.clear();
+      controller.clock(input, output);
+      for (int i = 0; i != output.size(); ++i) {
+        Message m = output.read(i);
+        if (m.getKind() == MessageKind.OPEN_PUMP_n || m.getKind() == MessageKind.CLOSE_PUMP_n) {
+          open[m.getIntegerParameter()] = m.getKind() == MessageKind.OPEN_PUMP_n;
+        }
+      }
+    });
+    assertEquals(0, bytes, 0.0);
+    PredictiveScheduler scheduler = controller.getScheduler();
+    assert scheduler != null;
+    // Check the controller really was planning throughout
+    assertEquals("NORMAL", controller.getStatusMessage()); //$NON-NLS-1$
+    assertTrue(scheduler.getPlans() >= WARMUP_CYCLES);
+  }
+
+  /**
+   * Check recording every cycle with a flight recorder does not allocate, including once its ring
+   * has wrapped around.
+   */
+  @Test
+  public void test_allocation_05() throws IOException {
+    SteamBoilerCharacteristics config = this.defaultConfig;
+    Path directory = Files.createTempDirectory("flight"); //$NON-NLS-1$
+    FlightRecorder recorder = new FlightRecorder(new MySteamBoilerController(config), 1 << 12,
+        directory);
+    Mailbox input = readings(config, config.getNumberOfPumps());
+    RingMailbox output = new RingMailbox(1024);
+    double bytes = bytesPerCycle(() -> {
+      output.clear();
+      recorder.clock(input, output);
+    });
+    assertEquals(0, bytes, 0.0);
+    assertEquals(0, recorder.getDumps());
+  }
+
+  /**
+   * Check matching the messages sent by the controller in a cycle does not allocate.
+   */
+  @Test
+  public void test_allocation_06() {
+    SteamBoilerCharacteristics config = this.defaultConfig;
+    RingMailbox output = new RingMailbox(64);
+    new MySteamBoilerController(config).clock(readings(config, config.getNumberOfPumps()),
+        output);
+    MailboxMatcher exact = TestUtils.exactly(TestUtils.MODE_initialisation);
+    MailboxMatcher stop = TestUtils.atleast(TestUtils.MODE_emergencystop);
+    boolean expected = exact.matches(output) || stop.matches(output);
+    double bytes = bytesPerCycle(() -> {
+      assertEquals(Boolean.valueOf(expected),
+          Boolean.valueOf(exact.matches(output) || stop.matches(output)));
+    });
+    assertEquals(0, bytes, 0.0);
+  }
+
+  /**
+   * Clock a fresh controller repeatedly with the same input, and measure the average number of
+   * bytes allocated per cycle once warmed up (taking the lowest of several measurements).
+   *
+   * @param config The configuration of the controller.
+   * @param input  The mailbox passed to the controller on every cycle.
+   * @return Average number of bytes allocated per cycle.
+   */
+  private static double bytesPerCycle(SteamBoilerCharacteristics config, Mailbox input) {
+    MySteamBoilerController controller = new MySteamBoilerController(config);
+    RingMailbox output = new RingMailbox(1024);
+    return bytesPerCycle(() -> {
+      output.clear();
+      controller.clock(input, output);
+    });
+  }
+
+  /**
+   * Run a cycle repeatedly, and measure the average number of bytes allocated per cycle once
+   * warmed up (taking the lowest of several measurements).
+   *
+   * @param cycle Runs one cycle.
+   * @return Average number of bytes allocated per cycle.
+   */
+  private static double bytesPerCycle(Runnable cycle) {
+    com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory
+        .getThreadMXBean();
+    assertTrue(bean.isThreadAllocatedMemorySupported());
+    bean.setThreadAllocatedMemoryEnabled(true);
+    long thread = Thread.currentThread().getId();
+    for (int i = 0; i != WARMUP_CYCLES; ++i) {
+      cycle.run();
+    }
+    long lowest = Long.MAX_VALUE;
+    for (int m = 0; m != MEASUREMENTS; ++m) {
+      long before = bean.getThreadAllocatedBytes(thread);
+      for (int i = 0; i != MEASURED_CYCLES; ++i) {
+        cycle.run();
+      }
+      long after = bean.getThreadAllocatedBytes(thread);
+      lowest = Math.min(lowest, after - before);
+    }
+    return (double) lowest / MEASURED_CYCLES;
+  }
+
+  /**
+   * Construct a mailbox of readings, as transmitted by the physical units each cycle.
+   *
+   * @param config        The configuration of the boiler.
+   * @param numberOfPumps The number of pumps to report on, which can be fewer than configured.
+   * @return The mailbox of readings.
+   */
+  private static Mailbox readings(SteamBoilerCharacteristics config, int numberOfPumps) {
+    RingMailbox input = new RingMailbox(2 + (2 * numberOfPumps));
+    input.send(new Message(MessageKind.LEVEL_v, config.getMinimalNormalLevel()));
+    input.send(new Message(MessageKind.STEAM_v, 0.0));
+    for (int i = 0; i != numberOfPumps; ++i) {
+      input.send(new Message(MessageKind.PUMP_STATE_n_b, i, false));
+      input.send(new Message(MessageKind.PUMP_CONTROL_STATE_n_b, i, false));
+    }
+    return input;
+  }
+}
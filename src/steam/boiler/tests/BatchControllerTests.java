@@ -0,0 +1,165 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static steam.boiler.tests.TestUtils.PROGRAM_READY;
+import static steam.boiler.tests.TestUtils.atleast;
+import static steam.boiler.tests.TestUtils.clockUntil;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import steam.boiler.core.BatchController;
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.core.MySteamBoilerController.State;
+import steam.boiler.core.RingMailbox;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * These tests check the batch controller makes exactly the same decisions as a separate
+ * controller for each boiler, stepped side by side with it, both one boiler at a time and (where
+ * the <code>jdk.incubator.vector</code> module is present) with SIMD lanes.
+ */
+public class BatchControllerTests {
+  /**
+   * The number of cycles for which the batch and controllers are stepped side by side.
+   */
+  private static final int CYCLES = 200;
+
+  /**
+   * Default configuration. This is actually used just to prevent Eclipse from
+   * reporting that every method could be static!
+   */
+  private final SteamBoilerCharacteristics defaultConfig = SteamBoilerCharacteristics.DEFAULT;
+
+  /**
+   * Check identical boilers, none of which should need to stop.
+   */
+  @Test
+  public void test_batch_controller_01() {
+    List<SteamBoilerCharacteristics> configs = new ArrayList<>();
+    for (int b = 0; b != 20; ++b) {
+      configs.add(this.defaultConfig);
+    }
+    boolean[] stopped = checkEquivalent(configs);
+    for (int b = 0; b != stopped.length; ++b) {
+      assertTrue(!stopped[b]);
+    }
+  }
+
+  /**
+   * Check boilers with different numbers of pumps, and different pump capacities, in one batch.
+   * Those whose pumps cannot keep up with the steam output must stop, whilst the rest carry on.
+   */
+  @Test
+  public void test_batch_controller_02() {
+    List<SteamBoilerCharacteristics> configs = new ArrayList<>();
+    for (int b = 0; b != 35; ++b) {
+      SteamBoilerCharacteristics c = this.defaultConfig.setNumberOfPumps(1 + (b % 7), 2 + b % 5);
+      c = c.setPumpCapacity(0, 1 + (b % 3));
+      assert c != null;
+      configs.add(c);
+    }
+    boolean[] stopped = checkEquivalent(configs);
+    int count = 0;
+    for (int b = 0; b != stopped.length; ++b) {
+      count += stopped[b] ? 1 : 0;
+    }
+    assertTrue(count != 0 && count != stopped.length);
+  }
+
+  /**
+   * Check SIMD lanes are used by default where they are supported, and cannot be requested where
+   * they are not.
+   */
+  @Test
+  public void test_batch_controller_03() {
+    List<SteamBoilerCharacteristics> configs = new ArrayList<>();
+    configs.add(this.defaultConfig);
+    if (BatchController.supportsVectors()) {
+      assertTrue(new BatchController(configs).isVectorised());
+      assertTrue(!new BatchController(configs, false).isVectorised());
+      return;
+    }
+    assertTrue(!new BatchController(configs).isVectorised());
+    try {
+      new BatchController(configs, true);
+      fail("SIMD lanes should not be supported"); //$NON-NLS-1$
+    } catch (UnsupportedOperationException e) {
+      assertEquals("jdk.incubator.vector not present", e.getMessage()); //$NON-NLS-1$
+    }
+  }
+
+  /**
+   * Check a batch makes the same decisions as a separate controller for each boiler, with and
+   * (where supported) without SIMD lanes.
+   *
+   * @param configs The characteristics of each boiler.
+   * @return Whether each boiler was stopped by the end.
+   */
+  private static boolean[] checkEquivalent(List<SteamBoilerCharacteristics> configs) {
+    boolean[] stopped = checkEquivalent(configs, false);
+    if (BatchController.supportsVectors()) {
+      boolean[] lanes = checkEquivalent(configs, true);
+      for (int b = 0; b != stopped.length; ++b) {
+        assertEquals(stopped[b], lanes[b]);
+      }
+    }
+    return stopped;
+  }
+
+  /**
+   * Bring a separate controller for each boiler to the point where it starts operating, and then
+   * step the batch side by side with them. In every cycle, the batch is given the readings each
+   * controller received, and must command exactly the same pumps, and stop exactly the same
+   * boilers.
+   *
+   * @param configs    The characteristics of each boiler.
+   * @param vectorised True if the batch should use SIMD lanes.
+   * @return Whether each boiler was stopped by the end.
+   */
+  private static boolean[] checkEquivalent(List<SteamBoilerCharacteristics> configs,
+      boolean vectorised) {
+    int n = configs.size();
+    BatchController batch = new BatchController(configs, vectorised);
+    MySteamBoilerController[] controllers = new MySteamBoilerController[n];
+    PhysicalUnits[] models = new PhysicalUnits[n];
+    for (int b = 0; b != n; ++b) {
+      controllers[b] = new MySteamBoilerController(configs.get(b));
+      models[b] = new PhysicalUnits.Template(configs.get(b)).construct();
+      models[b].setMode(PhysicalUnits.Mode.WAITING);
+      clockUntil(600, controllers[b], models[b], atleast(PROGRAM_READY));
+    }
+    RingMailbox input = new RingMailbox(64);
+    RingMailbox output = new RingMailbox(64);
+    for (int cycle = 0; cycle != CYCLES; ++cycle) {
+      for (int b = 0; b != n; ++b) {
+        for (int t = 0; t < TestUtils.SYNCHRONISATION_PERIOD; t += TestUtils.STEP) {
+          models[b].clock(Math.min(TestUtils.STEP, TestUtils.SYNCHRONISATION_PERIOD - t));
+        }
+        input.clear();
+        output.clear();
+        models[b].transmit(input);
+        controllers[b].clock(input, output);
+        models[b].receive(output);
+        batch.setReadings(b, controllers[b].getLevelReading(), controllers[b].getSteamReading());
+      }
+      batch.clock();
+      for (int b = 0; b != n; ++b) {
+        State state = controllers[b].getState();
+        assertTrue(state == State.NORMAL || state == State.EMERGENCY_STOP);
+        assertEquals(state == State.EMERGENCY_STOP, batch.isStopped(b));
+        for (int i = 0; i != configs.get(b).getNumberOfPumps(); ++i) {
+          assertEquals(controllers[b].getPumpHealth().isCommanded(i), batch.isOpen(b, i));
+        }
+      }
+    }
+    boolean[] stopped = new boolean[n];
+    for (int b = 0; b != n; ++b) {
+      stopped[b] = batch.isStopped(b);
+    }
+    return stopped;
+  }
+}
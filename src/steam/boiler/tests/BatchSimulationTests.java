@@ -0,0 +1,101 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+import steam.boiler.core.BatchSimulation;
+import steam.boiler.core.BatchSimulation.Fault;
+import steam.boiler.core.BatchSimulation.FaultKind;
+import steam.boiler.core.BatchSimulation.Report;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * These tests check the headless batch simulation runs for the requested amount of simulated
+ * time, and reports on what happened.
+ */
+public class BatchSimulationTests {
+  /**
+   * One hour of simulated time (in ms).
+   */
+  private static final long HOUR = 3600000;
+
+  /**
+   * Default configuration. This is actually used just to prevent Eclipse from
+   * reporting that every method could be static!
+   */
+  private final SteamBoilerCharacteristics defaultConfig = SteamBoilerCharacteristics.DEFAULT;
+
+  /**
+   * Check faults are parsed from the command-line form.
+   */
+  @Test
+  public void test_batch_01() {
+    Fault f = Fault.parse("90:pump:2"); //$NON-NLS-1$
+    assertEquals(90000, f.getTime());
+    assertEquals(FaultKind.PUMP, f.getKind());
+    assertEquals(2, f.getPump());
+    f = Fault.parse("1.5:level"); //$NON-NLS-1$
+    assertEquals(1500, f.getTime());
+    assertEquals(FaultKind.LEVEL, f.getKind());
+    assertEquals(0, f.getPump());
+  }
+
+  /**
+   * Check a fault-free simulation runs for the full time requested, unless the controller stops,
+   * and that every mode transition is counted.
+   */
+  @Test
+  public void test_batch_02() {
+    BatchSimulation simulation = new BatchSimulation(this.defaultConfig,
+        Collections.<Fault>emptyList(), BatchSimulation.GRANULARITY);
+    Report report = simulation.run(HOUR);
+    if (report.getFinalMode() != Mailbox.Mode.EMERGENCY_STOP) {
+      assertEquals(HOUR, report.getSimulatedTime());
+    }
+    int total = 0;
+    for (Mailbox.Mode from : Mailbox.Mode.values()) {
+      for (Mailbox.Mode to : Mailbox.Mode.values()) {
+        total += report.getTransitions(from, to);
+      }
+    }
+    assertEquals(report.getFinalMode() != Mailbox.Mode.INITIALISATION, total > 0);
+    assertTrue(report.getThroughput() > 0);
+  }
+
+  /**
+   * Check faults injected after the simulation ends are never detected, and that any detection
+   * happens after injection.
+   */
+  @Test
+  public void test_batch_03() {
+    Fault late = Fault.parse("7200:steam"); //$NON-NLS-1$
+    Fault early = Fault.parse("60:level"); //$NON-NLS-1$
+    BatchSimulation simulation = new BatchSimulation(this.defaultConfig,
+        Arrays.asList(late, early), BatchSimulation.GRANULARITY);
+    Report report = simulation.run(HOUR);
+    assertTrue(report.getDetectionLatency(0) < HOUR - 60000);
+    assertEquals(-1, report.getDetectionLatency(1));
+  }
+
+  /**
+   * Check a fault between synchronisation points is injected at exactly its given time, rather
+   * than at a synchronisation point. Breaking an open pump half way between two synchronisation
+   * points must therefore leave a different level from breaking it at either of them.
+   */
+  @Test
+  public void test_batch_04() {
+    double[] levels = new double[3];
+    String[] times = { "60", "62.5", "65" }; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    for (int i = 0; i != times.length; ++i) {
+      Fault f = Fault.parse(times[i] + ":pump:0"); //$NON-NLS-1$
+      BatchSimulation simulation = new BatchSimulation(this.defaultConfig, Arrays.asList(f),
+          BatchSimulation.GRANULARITY);
+      levels[i] = simulation.run(65000).getFinalLevel();
+    }
+    assertTrue(levels[1] != levels[0] && levels[1] != levels[2]);
+  }
+}
@@ -0,0 +1,64 @@
+package steam.boiler.tests;
+
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * Captures the combined state of a controller and the physical units it is controlling, such that
+ * the simulation can later be resumed from this point any number of times. This allows a long
+ * fault-free prefix to be simulated once, and then forked at each point where a fault is to be
+ * injected.
+ */
+public final class Checkpoint {
+  /**
+   * The configuration of the controller.
+   */
+  private final SteamBoilerCharacteristics config;
+
+  /**
+   * The captured controller state.
+   */
+  private final MySteamBoilerController.Snapshot controller;
+
+  /**
+   * A private copy of the physical units. This is never itself clocked, but is copied again on
+   * every restore.
+   */
+  private final PhysicalUnits model;
+
+  /**
+   * Capture the state of a controller and the physical units. Neither is affected by this, and
+   * both can continue to be clocked afterwards.
+   *
+   * @param config     The configuration of the controller.
+   * @param controller The controller to capture.
+   * @param model      The physical units to capture.
+   */
+  public Checkpoint(SteamBoilerCharacteristics config, MySteamBoilerController controller,
+      PhysicalUnits model) {
+    this.config = config;
+    this.controller = controller.snapshot();
+    this.model = DeepCopy.of(model);
+  }
+
+  /**
+   * Construct a fresh controller in the captured state.
+   *
+   * @return The restored controller.
+   */
+  public MySteamBoilerController restoreController() {
+    MySteamBoilerController c = new MySteamBoilerController(this.config);
+    c.restore(this.controller);
+    return c;
+  }
+
+  /**
+   * Construct a fresh copy of the physical units in the captured state.
+   *
+   * @return The restored physical units.
+   */
+  public PhysicalUnits restoreModel() {
+    return DeepCopy.of(this.model);
+  }
+}
@@ -0,0 +1,132 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static steam.boiler.tests.ScenarioSweep.NO_FAULT;
+import static steam.boiler.tests.TestUtils.MODE_emergencystop;
+import static steam.boiler.tests.TestUtils.atleast;
+import static steam.boiler.tests.TestUtils.clockForWithout;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+import org.junit.Test;
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.tests.ScenarioSweep.Scenario;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * These tests check that checkpointing the controller and physical units, and forking scenarios
+ * from a shared prefix, gives the same outcome as simulating each scenario from scratch.
+ */
+public class CheckpointTests {
+  /**
+   * Default configuration. This is actually used just to prevent Eclipse from
+   * reporting that every method could be static!
+   */
+  private final SteamBoilerCharacteristics defaultConfig = SteamBoilerCharacteristics.DEFAULT;
+
+  /**
+   * Check a restored checkpoint continues exactly as the original does.
+   */
+  @Test
+  public void test_checkpoint_01() {
+    SteamBoilerCharacteristics config = this.defaultConfig;
+    MySteamBoilerController controller = new MySteamBoilerController(config);
+    PhysicalUnits model = new PhysicalUnits.Template(config).construct();
+    model.setMode(PhysicalUnits.Mode.WAITING);
+    clockForWithout(30, controller, model, atleast(MODE_emergencystop));
+    Checkpoint checkpoint = new Checkpoint(config, controller, model);
+    MySteamBoilerController forkedController = checkpoint.restoreController();
+    PhysicalUnits forkedModel = checkpoint.restoreModel();
+    assertEquals(controller.getStatusMessage(), forkedController.getStatusMessage());
+    // Clock both for the same amount of time
+    clockForWithout(60, controller, model, atleast(MODE_emergencystop));
+    clockForWithout(60, forkedController, forkedModel, atleast(MODE_emergencystop));
+    assertEquals(model.getBoiler().getWaterLevel(), forkedModel.getBoiler().getWaterLevel(), 0.0);
+    assertEquals(controller.getStatusMessage(), forkedController.getStatusMessage());
+  }
+
+  /**
+   * Check a restored checkpoint is independent of the original.
+   */
+  @Test
+  public void test_checkpoint_02() {
+    SteamBoilerCharacteristics config = this.defaultConfig;
+    MySteamBoilerController controller = new MySteamBoilerController(config);
+    PhysicalUnits model = new PhysicalUnits.Template(config).construct();
+    Checkpoint checkpoint = new Checkpoint(config, controller, model);
+    double level = model.getBoiler().getWaterLevel();
+    checkpoint.restoreModel().getBoiler().pumpInWater(100);
+    assertEquals(level, model.getBoiler().getWaterLevel(), 0.0);
+    assertEquals(level, checkpoint.restoreModel().getBoiler().getWaterLevel(), 0.0);
+  }
+
+  /**
+   * Check forking a sweep from a shared prefix observes the same water levels as running every
+   * scenario from scratch.
+   */
+  @Test
+  public void test_checkpoint_03() {
+    SteamBoilerCharacteristics config = this.defaultConfig;
+    final int count = 60;
+    final double[] scratch = new double[count];
+    final double[] forked = new double[count];
+    ScenarioSweep.check(count, (int t) -> new Scenario("scratch " + t, //$NON-NLS-1$
+        config, t, NO_FAULT, (MySteamBoilerController c, PhysicalUnits m) -> {
+          scratch[t] = m.getBoiler().getWaterLevel();
+        }));
+    ScenarioSweep.checkForked(count, (int t) -> new Scenario("forked " + t, //$NON-NLS-1$
+        config, t, NO_FAULT, (MySteamBoilerController c, PhysicalUnits m) -> {
+          forked[t] = m.getBoiler().getWaterLevel();
+        }));
+    for (int t = 0; t != count; ++t) {
+      assertEquals(scratch[t], forked[t], 0.0);
+    }
+  }
+
+  /**
+   * Check a lambda is shared with its copy only if everything it captures can be shared, since it
+   * would otherwise alias mutable state across forks.
+   */
+  @Test
+  public void test_checkpoint_04() {
+    String name = this.defaultConfig.toString();
+    Supplier<String> immutable = () -> name;
+    assertSame(immutable, DeepCopy.of(immutable));
+    int[] counter = new int[1];
+    Supplier<String> mutable = () -> name + counter[0]++;
+    try {
+      DeepCopy.of(mutable);
+      fail("expected a lambda capturing mutable state to be rejected"); //$NON-NLS-1$
+    } catch (IllegalStateException e) {
+      assertTrue(e.getMessage().endsWith(", which captures mutable [I")); //$NON-NLS-1$
+    }
+  }
+
+  /**
+   * Check collections which cannot be constructed empty are copied if they hold only values
+   * which can be shared, and are otherwise rejected.
+   */
+  @Test
+  public void test_checkpoint_05() {
+    List<String> names = Arrays.asList("a", "b"); //$NON-NLS-1$ //$NON-NLS-2$
+    List<String> copy = DeepCopy.of(names);
+    assertNotSame(names, copy);
+    assertEquals(names, copy);
+    List<int[]> arrays = Collections.unmodifiableList(new ArrayList<>(List.of(new int[1])));
+    try {
+      DeepCopy.of(arrays);
+      fail("expected a collection of mutable objects to be rejected"); //$NON-NLS-1$
+    } catch (IllegalStateException e) {
+      assertTrue(e.getMessage().endsWith(", which cannot be constructed empty" //$NON-NLS-1$
+          + " and holds objects which must be copied")); //$NON-NLS-1$
+    }
+  }
+}
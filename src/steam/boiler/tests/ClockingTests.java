@@ -0,0 +1,215 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static steam.boiler.tests.TestUtils.GRANULARITY;
+import static steam.boiler.tests.TestUtils.STEP;
+import static steam.boiler.tests.TestUtils.clockBetweenWithout;
+import static steam.boiler.tests.TestUtils.clockStepWithout;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.model.PumpModels;
+import steam.boiler.tests.TestUtils.MailboxMatcher;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * These tests check the fidelity of event-driven clocking against the reference simulation, which
+ * clocks the physical units one step of the finest granularity at a time. The controller must see
+ * exactly the same sequence of synchronisation points in both, and send exactly the same messages
+ * at each. By default, event-driven clocking steps the physical units at the same granularity, so
+ * they must end up in exactly the same state. When a larger step is asked for, this may integrate
+ * the physics less accurately, so the water level is then only required to agree to within a small
+ * fraction of the boiler's capacity.
+ */
+public class ClockingTests {
+  /**
+   * The largest permitted difference in water level between the reference and event-driven
+   * simulations when a larger step is used, as a fraction of the boiler's capacity.
+   */
+  private static final double LEVEL_TOLERANCE = 0.02;
+
+  /**
+   * Default configuration. This is actually used just to prevent Eclipse from
+   * reporting that every method could be static!
+   */
+  private final SteamBoilerCharacteristics defaultConfig = SteamBoilerCharacteristics.DEFAULT;
+
+  /**
+   * Check event-driven clocking matches the reference under ideal conditions.
+   */
+  @Test
+  public void test_clocking_01() {
+    checkFidelity(this.defaultConfig, 600, -1);
+  }
+
+  /**
+   * Check event-driven clocking matches the reference for various numbers of pumps.
+   */
+  @Test
+  public void test_clocking_02() {
+    SteamBoilerCharacteristics config = this.defaultConfig;
+    for (int pumps = 1; pumps <= 6; ++pumps) {
+      checkFidelity(config.setNumberOfPumps(pumps, config.getPumpCapacity(0)), 300, -1);
+    }
+  }
+
+  /**
+   * Check event-driven clocking matches the reference when a fault is injected part way through,
+   * at a point which does not coincide with a synchronisation point.
+   */
+  @Test
+  public void test_clocking_03() {
+    checkFidelity(this.defaultConfig, 300, 123400);
+  }
+
+  /**
+   * Check clocking between arbitrary points in time synchronises at exactly the same points as
+   * clocking one step at a time.
+   */
+  @Test
+  public void test_clocking_04() {
+    SteamBoilerCharacteristics config = this.defaultConfig;
+    int[] points = { 0, 100, 4900, 5000, 5100, 12300, 15000, 27700, 60000 };
+    // Reference
+    List<String> expected = new ArrayList<>();
+    MySteamBoilerController controller = new MySteamBoilerController(config);
+    PhysicalUnits model = construct(config);
+    clockReference(0, points[points.length - 1], controller, model, recorder(expected));
+    // Event-driven, in pieces
+    List<String> actual = new ArrayList<>();
+    MySteamBoilerController pieceController = new MySteamBoilerController(config);
+    PhysicalUnits pieceModel = construct(config);
+    MailboxMatcher recorder = recorder(actual);
+    for (int i = 1; i != points.length; ++i) {
+      clockBetweenWithout(points[i - 1], points[i], pieceController, pieceModel, recorder);
+    }
+    assertEquals(expected, actual);
+    assertEquals(model.getBoiler().getWaterLevel(), pieceModel.getBoiler().getWaterLevel(),
+        tolerance(config));
+  }
+
+  /**
+   * Run a simulation using both the reference and event-driven clocking, and check they agree.
+   *
+   * @param config    The configuration to simulate.
+   * @param time      The amount of time (in s) to simulate.
+   * @param faultTime The time (in ms) at which to break the first pump, or negative for none.
+   */
+  private static void checkFidelity(SteamBoilerCharacteristics config, int time, int faultTime) {
+    List<String> expected = new ArrayList<>();
+    double expectedLevel = simulate(config, time, faultTime, true, expected);
+    List<String> actual = new ArrayList<>();
+    double actualLevel = simulate(config, time, faultTime, false, actual);
+    assertEquals(expected, actual);
+    assertEquals(expectedLevel, actualLevel, tolerance(config));
+  }
+
+  /**
+   * Determine the largest permitted difference in water level between the reference and
+   * event-driven clocking of a given configuration.
+   *
+   * @param config The configuration simulated.
+   * @return The tolerance (in litres).
+   */
+  private static double tolerance(SteamBoilerCharacteristics config) {
+    return STEP == GRANULARITY ? 0.0 : LEVEL_TOLERANCE * config.getCapacity();
+  }
+
+  /**
+   * Clock a controller and physical units from one point in time to another, one step of the
+   * finest granularity at a time, as the reference simulation does.
+   *
+   * @param from       The total amount of elapsed time (in ms) since the beginning of the system.
+   * @param to         The total amount of elapsed time (in ms) to clock the system until.
+   * @param controller The controller under test.
+   * @param model      The physical units.
+   * @param recorder   The matcher to which every output of the controller is given.
+   */
+  private static void clockReference(int from, int to, MySteamBoilerController controller,
+      PhysicalUnits model, MailboxMatcher recorder) {
+    for (int t = from; t < to; t += GRANULARITY) {
+      clockStepWithout(t, controller, model, recorder);
+    }
+  }
+
+  /**
+   * Simulate a controller and physical units for a given amount of time, recording the messages
+   * sent by the controller at every synchronisation point.
+   *
+   * @param config    The configuration to simulate.
+   * @param time      The amount of time (in s) to simulate.
+   * @param faultTime The time (in ms) at which to break the first pump, or negative for none.
+   * @param reference Whether to use the reference simulation, rather than event-driven clocking.
+   * @param outputs   The list into which messages from the controller are recorded.
+   * @return The final water level.
+   */
+  private static double simulate(SteamBoilerCharacteristics config, int time, int faultTime,
+      boolean reference, List<String> outputs) {
+    MySteamBoilerController controller = new MySteamBoilerController(config);
+    PhysicalUnits model = construct(config);
+    MailboxMatcher recorder = recorder(outputs);
+    int end = time * 1000;
+    int start = 0;
+    if (faultTime >= 0) {
+      clock(0, faultTime, reference, controller, model, recorder);
+      model.setPump(0, new PumpModels.StuckClosed(0, config.getPumpCapacity(0), model));
+      start = faultTime;
+    }
+    clock(start, end, reference, controller, model, recorder);
+    outputs.add(controller.getStatusMessage());
+    return model.getBoiler().getWaterLevel();
+  }
+
+  /**
+   * Clock a controller and physical units from one point in time to another, using either the
+   * reference simulation or event-driven clocking.
+   *
+   * @param from       The total amount of elapsed time (in ms) since the beginning of the system.
+   * @param to         The total amount of elapsed time (in ms) to clock the system until.
+   * @param reference  Whether to use the reference simulation, rather than event-driven clocking.
+   * @param controller The controller under test.
+   * @param model      The physical units.
+   * @param recorder   The matcher to which every output of the controller is given.
+   */
+  private static void clock(int from, int to, boolean reference,
+      MySteamBoilerController controller, PhysicalUnits model, MailboxMatcher recorder) {
+    if (reference) {
+      clockReference(from, to, controller, model, recorder);
+    } else {
+      clockBetweenWithout(from, to, controller, model, recorder);
+    }
+  }
+
+  /**
+   * Construct the physical units for a given configuration, ready to start.
+   *
+   * @param config The configuration to use.
+   * @return The physical units.
+   */
+  private static PhysicalUnits construct(SteamBoilerCharacteristics config) {
+    PhysicalUnits model = new PhysicalUnits.Template(config).construct();
+    model.setMode(PhysicalUnits.Mode.WAITING);
+    return model;
+  }
+
+  /**
+   * Construct a matcher which never matches, but records every mailbox it is given.
+   *
+   * @param outputs The list into which mailboxes are recorded.
+   * @return The recording matcher.
+   */
+  private static MailboxMatcher recorder(List<String> outputs) {
+    return (Mailbox m) -> {
+      StringBuilder r = new StringBuilder();
+      for (int i = 0; i != m.size(); ++i) {
+        r.append(m.read(i)).append(';');
+      }
+      outputs.add(r.toString());
+      return false;
+    };
+  }
+}
@@ -0,0 +1,213 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.junit.Test;
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.core.RingMailbox;
+import steam.boiler.model.LevelSensorModels;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.model.PumpModels;
+import steam.boiler.runtime.CompressedTraceReader;
+import steam.boiler.runtime.CompressedTraceWriter;
+import steam.boiler.runtime.TraceReader;
+import steam.boiler.runtime.TraceRecorder;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.Mailbox.Mode;
+import steam.boiler.util.SteamBoilerCharacteristics;
+import steam.boiler.util.UnboundedMailbox;
+
+/**
+ * These tests check that a compressed trace reads back exactly as written, whether the cycles come
+ * from a real run or are contrived to exercise each kind of column, and that it is smaller than
+ * the uncompressed trace.
+ */
+public class CompressedTraceTests {
+  /**
+   * Default configuration. This is actually used just to prevent Eclipse from
+   * reporting that every method could be static!
+   */
+  private final SteamBoilerCharacteristics defaultConfig = SteamBoilerCharacteristics.DEFAULT;
+
+  /**
+   * Check a run with pump and sensor failures survives compression exactly, and is compressed.
+   */
+  @Test
+  public void test_compressed_01() throws IOException {
+    SteamBoilerCharacteristics config = this.defaultConfig;
+    Path file = Files.createTempFile("trace", ".bin"); //$NON-NLS-1$ //$NON-NLS-2$
+    PhysicalUnits model = new PhysicalUnits.Template(config).construct();
+    model.setMode(PhysicalUnits.Mode.WAITING);
+    try (TraceRecorder recorder = new TraceRecorder(new MySteamBoilerController(config), file)) {
+      run(recorder, model, 300);
+      model.setPump(1, new PumpModels.StuckClosed(1, 0, model));
+      run(recorder, model, 300);
+      model.setLevelSensor(new LevelSensorModels.TxFailure(model));
+      run(recorder, model, 10);
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (CompressedTraceWriter writer = new CompressedTraceWriter(bytes);
+        TraceReader reader = new TraceReader(file)) {
+      while (reader.next()) {
+        writer.write(reader.getNumber(), reader.getTime(), reader.getIncoming(),
+            reader.getOutgoing());
+      }
+      assertEquals(610, writer.getCycles());
+    }
+    assertTrue(bytes.size() * 4 < Files.size(file));
+    try (TraceReader expected = new TraceReader(file);
+        CompressedTraceReader actual = new CompressedTraceReader(
+            new ByteArrayInputStream(bytes.toByteArray()))) {
+      while (expected.next()) {
+        assertTrue(actual.next());
+        assertEquals(expected.getNumber(), actual.getNumber());
+        assertEquals(expected.getTime(), actual.getTime());
+        assertTrue(expected.getIncoming().contentEquals(actual.getIncoming()));
+        assertTrue(expected.getOutgoing().contentEquals(actual.getOutgoing()));
+      }
+      assertFalse(actual.next());
+    }
+  }
+
+  /**
+   * Check awkward doubles, changing shapes (including ones seen before), integer and mode columns,
+   * long runs of booleans and irregular cycle numbers and times all survive compression.
+   */
+  @Test
+  public void test_compressed_02() throws IOException {
+    double[] values = { 0.0, -0.0, 1.0, Double.NaN, Double.POSITIVE_INFINITY, Double.MIN_VALUE,
+        -Double.MAX_VALUE, 123.456, 123.457, 123.456 };
+    long[] times = { 0, 5000, 10000, 15001, 19000, Long.MAX_VALUE / 4, 42, 42, 43, 1L << 40 };
+    RingMailbox[] cycles = new RingMailbox[values.length];
+    for (int c = 0; c != cycles.length; ++c) {
+      RingMailbox m = new RingMailbox(4);
+      m.send(MessageKind.LEVEL_v, values[c]);
+      m.send(MessageKind.STEAM_v, values[values.length - c - 1]);
+      m.send(MessageKind.MODE_m, Mode.values()[c % Mode.values().length]);
+      // Alternate between two shapes, with varying numbers of pumps
+      int pumps = c % 2 == 0 ? 70 : 3 * c;
+      for (int i = 0; i != pumps; ++i) {
+        m.send(MessageKind.PUMP_STATE_n_b, i * c, i % 7 < c || i > 65);
+      }
+      if (c % 3 == 0) {
+        m.send(MessageKind.OPEN_PUMP_n, Integer.MIN_VALUE + c);
+        m.send(MessageKind.VALVE);
+      }
+      cycles[c] = m;
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    RingMailbox empty = new RingMailbox(1);
+    try (CompressedTraceWriter writer = new CompressedTraceWriter(bytes)) {
+      for (int c = 0; c != cycles.length; ++c) {
+        writer.write(c * c, times[c], cycles[c], empty);
+      }
+    }
+    try (CompressedTraceReader reader = new CompressedTraceReader(
+        new ByteArrayInputStream(bytes.toByteArray()))) {
+      for (int c = 0; c != cycles.length; ++c) {
+        assertTrue(reader.next());
+        assertEquals(c * c, reader.getNumber());
+        assertEquals(times[c], reader.getTime());
+        assertTrue(cycles[c].contentEquals(reader.getIncoming()));
+        assertEquals(0, reader.getOutgoing().size());
+      }
+      assertFalse(reader.next());
+    }
+  }
+
+  /**
+   * Check a mailbox of message objects is compressed in the same way as a ring mailbox.
+   */
+  @Test
+  public void test_compressed_03() throws IOException {
+    UnboundedMailbox objects = new UnboundedMailbox(4);
+    RingMailbox ring = new RingMailbox(4);
+    Message[] messages = { new Message(MessageKind.MODE_m, Mode.DEGRADED),
+        new Message(MessageKind.LEVEL_v, 250.5),
+        new Message(MessageKind.PUMP_CONTROL_STATE_n_b, 2, true),
+        new Message(MessageKind.CLOSE_PUMP_n, 3) };
+    for (Message m : messages) {
+      objects.send(m);
+      ring.send(m);
+    }
+    assertTrue(Arrays.equals(compress(objects), compress(ring)));
+  }
+
+  /**
+   * Check a truncated compressed trace is rejected, rather than read as ending early.
+   */
+  @Test
+  public void test_compressed_04() throws IOException {
+    RingMailbox m = new RingMailbox(4);
+    m.send(MessageKind.LEVEL_v, 0.1);
+    m.send(MessageKind.STEAM_v, 0.2);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (CompressedTraceWriter writer = new CompressedTraceWriter(bytes)) {
+      for (int c = 0; c != 3; ++c) {
+        writer.write(c, c, m, m);
+      }
+    }
+    byte[] truncated = Arrays.copyOf(bytes.toByteArray(), bytes.size() - 4);
+    int n = 0;
+    try (CompressedTraceReader reader = new CompressedTraceReader(
+        new ByteArrayInputStream(truncated))) {
+      while (reader.next()) {
+        n++;
+      }
+      fail("expected reading to fail"); //$NON-NLS-1$
+    } catch (IOException e) {
+      assertEquals("unexpected end of trace", e.getMessage()); //$NON-NLS-1$
+    }
+    assertTrue(n < 3);
+  }
+
+  /**
+   * Compress a single cycle.
+   *
+   * @param received The messages received.
+   * @return The compressed trace.
+   * @throws IOException If the trace could not be written.
+   */
+  private static byte[] compress(Mailbox received) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (CompressedTraceWriter writer = new CompressedTraceWriter(bytes)) {
+      writer.write(0, 0, received, new RingMailbox(1));
+    }
+    byte[] r = bytes.toByteArray();
+    assert r != null;
+    return r;
+  }
+
+  /**
+   * Clock a recorder against some physical units for a number of cycles.
+   *
+   * @param recorder The recorder to clock.
+   * @param model    The physical units.
+   * @param cycles   The number of cycles.
+   */
+  private static void run(TraceRecorder recorder, PhysicalUnits model, int cycles) {
+    RingMailbox input = new RingMailbox(64);
+    RingMailbox output = new RingMailbox(64);
+    for (int i = 0; i != cycles; ++i) {
+      input.clear();
+      output.clear();
+      model.transmit(input);
+      recorder.clock(input, output);
+      model.receive(output);
+      for (int t = 0; t < TestUtils.SYNCHRONISATION_PERIOD; t += TestUtils.GRANULARITY) {
+        model.clock(TestUtils.GRANULARITY);
+      }
+    }
+  }
+}
@@ -0,0 +1,244 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertTrue;
+import static steam.boiler.tests.TestUtils.clockForWithout;
+
+import org.junit.Test;
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.tests.TestUtils.MailboxMatcher;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * These tests measure how well the controller holds the water level in the normal operation
+ * scenarios of <code>FunctionalTests</code>: how long it takes the level to settle near the middle
+ * of the normal band, and how many times a pump is switched on or off along the way. Both are
+ * checked against fixed bounds, so that a change which makes the controller chatter or settle more
+ * slowly is noticed.
+ */
+public class ControlQualityTests {
+  /**
+   * The length (in seconds) of each scenario.
+   */
+  private static final int DURATION = 560;
+
+  /**
+   * The fraction of the normal band, around its middle, within which the level is considered to
+   * have settled.
+   */
+  private static final double BAND = 0.5;
+
+  /**
+   * The longest permitted settling time (in seconds).
+   */
+  private static final int MAX_SETTLING = 60;
+
+  /**
+   * The largest permitted number of pump switches per minute once settled. Since the steam output
+   * generally lies between the inflows of two pump combinations, some switching is unavoidable
+   * (around four per minute with the default characteristics), but without hysteresis this is
+   * roughly doubled.
+   */
+  private static final double MAX_SWITCH_RATE = 6.0;
+
+  /**
+   * Default configuration. This is actually used just to prevent Eclipse from
+   * reporting that every method could be static!
+   */
+  private final SteamBoilerCharacteristics defaultConfig = SteamBoilerCharacteristics.DEFAULT;
+
+  /**
+   * Check the level settles quickly, and the pumps do not chatter, with three pumps.
+   */
+  @Test
+  public void test_quality_01() {
+    check(this.defaultConfig.setNumberOfPumps(3, this.defaultConfig.getPumpCapacity(0)));
+  }
+
+  /**
+   * Check the level settles quickly, and the pumps do not chatter, with four pumps.
+   */
+  @Test
+  public void test_quality_02() {
+    check(this.defaultConfig.setNumberOfPumps(4, this.defaultConfig.getPumpCapacity(0)));
+  }
+
+  /**
+   * Check the level settles quickly, and the pumps do not chatter, with five pumps.
+   */
+  @Test
+  public void test_quality_03() {
+    check(this.defaultConfig.setNumberOfPumps(5, this.defaultConfig.getPumpCapacity(0)));
+  }
+
+  /**
+   * Check the level settles quickly, and the pumps do not chatter, with six pumps.
+   */
+  @Test
+  public void test_quality_04() {
+    check(this.defaultConfig.setNumberOfPumps(6, this.defaultConfig.getPumpCapacity(0)));
+  }
+
+  /**
+   * Check the level settles quickly, and the pumps do not chatter, when the pumps have different
+   * capacities.
+   */
+  @Test
+  public void test_quality_05() {
+    SteamBoilerCharacteristics config = this.defaultConfig.setNumberOfPumps(4, 2);
+    config = config.setPumpCapacity(1, 3).setPumpCapacity(2, 5).setPumpCapacity(3, 7);
+    check(config);
+  }
+
+  /**
+   * Check the level settles quickly, and the pumps do not chatter, with predictive control.
+   */
+  @Test
+  public void test_quality_06() {
+    SteamBoilerCharacteristics config = this.defaultConfig;
+    check(config, new MySteamBoilerController(config, 4, 10_000_000));
+  }
+
+  /**
+   * Run the normal operation scenario for a given configuration, and check the settling time and
+   * pump switching are within bounds.
+   *
+   * @param config The configuration to run.
+   */
+  private static void check(SteamBoilerCharacteristics config) {
+    check(config, new MySteamBoilerController(config));
+  }
+
+  /**
+   * Run the normal operation scenario for a given controller, and check the settling time and
+   * pump switching are within bounds.
+   *
+   * @param config     The configuration to run.
+   * @param controller The controller to run.
+   */
+  private static void check(SteamBoilerCharacteristics config,
+      MySteamBoilerController controller) {
+    Recorder r = run(config, controller);
+    String description = config.getNumberOfPumps() + " pumps: settled after " //$NON-NLS-1$
+        + r.settling + "s, " + r.switches + " switches (" //$NON-NLS-1$ //$NON-NLS-2$
+        + r.settledSwitches + " once settled)"; //$NON-NLS-1$
+    assertTrue(description, r.settling <= MAX_SETTLING);
+    double minutes = (DURATION - r.settling) / 60.0;
+    assertTrue(description, r.settledSwitches <= MAX_SWITCH_RATE * minutes);
+  }
+
+  /**
+   * Run the normal operation scenario for a given controller, starting from an empty boiler.
+   *
+   * @param config     The configuration to run.
+   * @param controller The controller to run.
+   * @return The measurements taken.
+   */
+  private static Recorder run(SteamBoilerCharacteristics config,
+      MySteamBoilerController controller) {
+    PhysicalUnits model = new PhysicalUnits.Template(config).construct();
+    model.setMode(PhysicalUnits.Mode.WAITING);
+    Recorder recorder = new Recorder(config, model);
+    clockForWithout(DURATION, controller, model, recorder);
+    recorder.finish();
+    return recorder;
+  }
+
+  /**
+   * Records the level and pump commands at every synchronisation. This never matches, and so can
+   * be used with <code>clockForWithout()</code> to observe a whole run.
+   */
+  private static final class Recorder implements MailboxMatcher {
+    /**
+     * The physical units being observed.
+     */
+    private final PhysicalUnits model;
+
+    /**
+     * The lowest level considered settled.
+     */
+    private final double low;
+
+    /**
+     * The highest level considered settled.
+     */
+    private final double high;
+
+    /**
+     * The state each pump was last commanded to.
+     */
+    private final boolean[] open;
+
+    /**
+     * The number of synchronisations so far.
+     */
+    private int cycles;
+
+    /**
+     * The number of pump switches so far.
+     */
+    private int switches;
+
+    /**
+     * The number of pump switches at the last synchronisation where the level was unsettled.
+     */
+    private int unsettledSwitches;
+
+    /**
+     * The time (in seconds) after which the level remained settled.
+     */
+    int settling;
+
+    /**
+     * The number of pump switches after the level had settled.
+     */
+    int settledSwitches;
+
+    /**
+     * Construct a recorder for a given configuration and physical units.
+     *
+     * @param config The configuration being run.
+     * @param model  The physical units being observed.
+     */
+    Recorder(SteamBoilerCharacteristics config, PhysicalUnits model) {
+      double middle = (config.getMinimalNormalLevel() + config.getMaximalNormalLevel()) / 2;
+      double half = BAND * (config.getMaximalNormalLevel() - config.getMinimalNormalLevel()) / 2;
+      this.model = model;
+      this.low = middle - half;
+      this.high = middle + half;
+      this.open = new boolean[config.getNumberOfPumps()];
+    }
+
+    @Override
+    public boolean matches(Mailbox m) {
+      this.cycles++;
+      for (int i = 0; i != m.size(); ++i) {
+        Message msg = m.read(i);
+        boolean opened = msg.getKind() == MessageKind.OPEN_PUMP_n;
+        if (opened || msg.getKind() == MessageKind.CLOSE_PUMP_n) {
+          int pump = msg.getIntegerParameter();
+          if (this.open[pump] != opened) {
+            this.open[pump] = opened;
+            this.switches++;
+          }
+        }
+      }
+      double level = this.model.getBoiler().getWaterLevel();
+      if (level < this.low || level > this.high) {
+        this.settling = this.cycles * TestUtils.SYNCHRONISATION_PERIOD / 1000;
+        this.unsettledSwitches = this.switches;
+      }
+      return false;
+    }
+
+    /**
+     * Determine the measurements once the run is over.
+     */
+    void finish() {
+      this.settledSwitches = this.switches - this.unsettledSwitches;
+    }
+  }
+}
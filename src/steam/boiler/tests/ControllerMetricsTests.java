@@ -0,0 +1,188 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static steam.boiler.tests.TestUtils.PUMP_FAILURE_DETECTION;
+import static steam.boiler.tests.TestUtils.atleast;
+import static steam.boiler.tests.TestUtils.clockForWithout;
+import static steam.boiler.tests.TestUtils.clockUntil;
+
+import org.junit.Test;
+import steam.boiler.core.ControllerMetrics;
+import steam.boiler.core.ControllerMetrics.Failure;
+import steam.boiler.core.ControllerMetrics.Phase;
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.core.MySteamBoilerController.State;
+import steam.boiler.model.LevelSensorModels;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.model.PumpModels;
+import steam.boiler.model.SteamSensorModels;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * These tests check the metrics recorded by the controller: that every cycle, mode transition and
+ * failure detection is counted exactly once, and that the phases of each cycle are only timed when
+ * timing is enabled.
+ */
+public class ControllerMetricsTests {
+  /**
+   * Default configuration. This is actually used just to prevent Eclipse from
+   * reporting that every method could be static!
+   */
+  private final SteamBoilerCharacteristics defaultConfig = SteamBoilerCharacteristics.DEFAULT;
+
+  /**
+   * Check normal operation counts every cycle, passes through each initial state once, and
+   * detects no failures.
+   */
+  @Test
+  public void test_metrics_01() {
+    Fixture f = new Fixture(this.defaultConfig);
+    int cycles = f.run(300);
+    ControllerMetrics.Snapshot s = f.controller.getMetrics().snapshot();
+    assertEquals(cycles, s.getCycles());
+    assertEquals(1, s.getTransitions(State.WAITING, State.READY));
+    assertEquals(1, s.getTransitions(State.READY, State.NORMAL));
+    assertEquals(0, s.getTransitions(State.NORMAL, State.NORMAL));
+    for (State to : State.values()) {
+      assertEquals(0, s.getTransitions(State.NORMAL, to));
+    }
+    for (Failure failure : Failure.values()) {
+      assertEquals(0, s.getFailures(failure));
+    }
+  }
+
+  /**
+   * Check a steam sensor failure is counted once, however long it persists, along with the change
+   * to degraded mode.
+   */
+  @Test
+  public void test_metrics_02() {
+    Fixture f = new Fixture(this.defaultConfig);
+    f.run(240);
+    f.model.setSteamSensor(new SteamSensorModels.StuckNegativeOne(f.model));
+    f.run(60);
+    ControllerMetrics.Snapshot s = f.controller.getMetrics().snapshot();
+    assertEquals(1, s.getFailures(Failure.STEAM));
+    assertEquals(0, s.getFailures(Failure.LEVEL));
+    assertEquals(1, s.getTransitions(State.NORMAL, State.DEGRADED));
+  }
+
+  /**
+   * Check a transmission failure is counted once, along with the emergency stop it causes.
+   */
+  @Test
+  public void test_metrics_03() {
+    Fixture f = new Fixture(this.defaultConfig);
+    f.run(240);
+    f.model.setLevelSensor(new LevelSensorModels.TxFailure(f.model));
+    f.run(60);
+    ControllerMetrics.Snapshot s = f.controller.getMetrics().snapshot();
+    assertEquals(1, s.getFailures(Failure.TRANSMISSION));
+    assertEquals(1, s.getTransitions(State.NORMAL, State.EMERGENCY_STOP));
+  }
+
+  /**
+   * Check a pump failure is counted once, however long it persists.
+   */
+  @Test
+  public void test_metrics_04() {
+    // Two pumps, both needed at full exhaust, so a broken pump must be noticed
+    SteamBoilerCharacteristics config = this.defaultConfig.setNumberOfPumps(2,
+        this.defaultConfig.getPumpCapacity(0));
+    Fixture f = new Fixture(config);
+    f.model.getBoiler().pumpInWater(250);
+    f.run(25);
+    f.model.setPump(0, new PumpModels.StuckClosed(0, 0, f.model));
+    clockUntil(60, f.controller, f.model, atleast(PUMP_FAILURE_DETECTION(0)));
+    assertEquals(1, f.controller.getMetrics().snapshot().getFailures(Failure.PUMP));
+    f.run(20);
+    ControllerMetrics.Snapshot s = f.controller.getMetrics().snapshot();
+    assertEquals(1, s.getFailures(Failure.PUMP));
+    assertEquals(0, s.getFailures(Failure.PUMP_CONTROLLER));
+  }
+
+  /**
+   * Check every phase is timed in every cycle of normal operation when timing is enabled, and
+   * never otherwise.
+   */
+  @Test
+  public void test_metrics_05() {
+    Fixture f = new Fixture(this.defaultConfig);
+    int cycles = f.run(300);
+    ControllerMetrics.Snapshot s = f.controller.getMetrics().snapshot();
+    for (Phase phase : Phase.values()) {
+      long count = s.getPhase(phase).getCount();
+      if (ControllerMetrics.TIMING) {
+        assertTrue(count > 0);
+        assertTrue(count <= cycles);
+      } else {
+        assertEquals(0, count);
+      }
+    }
+    if (ControllerMetrics.TIMING) {
+      assertEquals(cycles, s.getPhase(Phase.EXTRACTION).getCount());
+      assertEquals(cycles, s.getPhase(Phase.EMISSION).getCount());
+    }
+  }
+
+  /**
+   * Check a snapshot is unaffected by later cycles, and that resetting discards everything.
+   */
+  @Test
+  public void test_metrics_06() {
+    Fixture f = new Fixture(this.defaultConfig);
+    int first = f.run(100);
+    ControllerMetrics.Snapshot before = f.controller.getMetrics().snapshot();
+    int second = f.run(100);
+    assertEquals(first, before.getCycles());
+    assertEquals(first + second, f.controller.getMetrics().snapshot().getCycles());
+    f.controller.getMetrics().reset();
+    ControllerMetrics.Snapshot after = f.controller.getMetrics().snapshot();
+    assertEquals(0, after.getCycles());
+    assertEquals(0, after.getTransitions(State.WAITING, State.READY));
+    assertEquals(0, after.getPhase(Phase.EXTRACTION).getCount());
+  }
+
+  /**
+   * Bundles a controller together with the physical units it controls.
+   */
+  private static final class Fixture {
+    /**
+     * The controller under test.
+     */
+    final MySteamBoilerController controller;
+
+    /**
+     * The physical units it controls, initially waiting.
+     */
+    final PhysicalUnits model;
+
+    /**
+     * Construct a fixture for a given configuration.
+     *
+     * @param config The configuration.
+     */
+    Fixture(SteamBoilerCharacteristics config) {
+      this.controller = new MySteamBoilerController(config);
+      this.model = new PhysicalUnits.Template(config).construct();
+      this.model.setMode(PhysicalUnits.Mode.WAITING);
+    }
+
+    /**
+     * Clock the controller for a given time.
+     *
+     * @param time The time (in seconds) to clock for.
+     * @return The number of cycles clocked.
+     */
+    int run(int time) {
+      int[] cycles = new int[1];
+      clockForWithout(time, this.controller, this.model, (Mailbox m) -> {
+        cycles[0]++;
+        return false;
+      });
+      return cycles[0];
+    }
+  }
+}
@@ -0,0 +1,255 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import org.junit.Test;
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.core.RingMailbox;
+import steam.boiler.model.LevelSensorModels;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.model.PumpModels;
+import steam.boiler.runtime.ControllerTelemetry;
+import steam.boiler.runtime.TelemetryRegistry;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * These tests check the telemetry published for a controller matches the controller and physical
+ * units, that it can be registered (and unregistered) over JMX in batches, and that it can be read
+ * whilst the controller is being clocked.
+ */
+public class ControllerTelemetryTests {
+  /**
+   * The domain under which MBeans are registered.
+   */
+  private static final String DOMAIN = "steam.boiler"; //$NON-NLS-1$
+
+  /**
+   * Default configuration. This is actually used just to prevent Eclipse from
+   * reporting that every method could be static!
+   */
+  private final SteamBoilerCharacteristics defaultConfig = SteamBoilerCharacteristics.DEFAULT;
+
+  /**
+   * Check the sample published after normal operation matches the controller and the physical
+   * units.
+   */
+  @Test
+  public void test_telemetry_01() {
+    Fixture f = new Fixture(this.defaultConfig, 0);
+    assertEquals("WAITING", f.telemetry.getState()); //$NON-NLS-1$
+    assertTrue(Double.isNaN(f.telemetry.getLevel()));
+    assertEquals(0, f.telemetry.getCycles());
+    f.run(60);
+    assertEquals("NORMAL", f.telemetry.getState()); //$NON-NLS-1$
+    assertEquals(60, f.telemetry.getCycles());
+    assertEquals(f.lastLevel, f.telemetry.getLevel(), 0);
+    assertEquals(f.lastSteam, f.telemetry.getSteam(), 0);
+    String[] health = f.telemetry.getPumpHealth();
+    assertEquals(this.defaultConfig.getNumberOfPumps(), health.length);
+    for (String h : health) {
+      assertEquals("OK", h); //$NON-NLS-1$
+    }
+    assertTrue(f.telemetry.getLatencyP50() > 0);
+    assertTrue(f.telemetry.getLatencyP50() <= f.telemetry.getLatencyP99());
+    assertTrue(f.telemetry.getLatencyP99() <= f.telemetry.getLatencyP999());
+    assertTrue(f.telemetry.getLatencyP999() <= f.telemetry.getLatencyMax());
+  }
+
+  /**
+   * Check a failed pump is reported as such.
+   */
+  @Test
+  public void test_telemetry_02() {
+    // Two pumps, both needed at full exhaust, so a broken pump must be noticed
+    SteamBoilerCharacteristics config = this.defaultConfig.setNumberOfPumps(2,
+        this.defaultConfig.getPumpCapacity(0));
+    Fixture f = new Fixture(config, 0);
+    f.model.getBoiler().pumpInWater(250);
+    f.run(5);
+    f.model.setPump(0, new PumpModels.StuckClosed(0, 0, f.model));
+    f.run(12);
+    assertEquals("PUMP_FAILED", f.telemetry.getSample().getPumpHealth(0)); //$NON-NLS-1$
+    assertEquals("OK", f.telemetry.getSample().getPumpHealth(1)); //$NON-NLS-1$
+  }
+
+  /**
+   * Check samples are only published once per interval, apart from the first cycle and whenever
+   * the state changes, so a controller which stops straight after a sample still shows as stopped.
+   */
+  @Test
+  public void test_telemetry_03() {
+    Fixture f = new Fixture(this.defaultConfig, Long.MAX_VALUE);
+    f.run(1);
+    assertEquals(1, f.telemetry.getCycles());
+    f.run(59);
+    assertEquals("NORMAL", f.telemetry.getState()); //$NON-NLS-1$
+    assertTrue(f.telemetry.getCycles() < 60);
+    f.model.setLevelSensor(new LevelSensorModels.TxFailure(f.model));
+    f.run(10);
+    assertEquals("EMERGENCY_STOP", f.telemetry.getState()); //$NON-NLS-1$
+  }
+
+  /**
+   * Check a batch of controllers is registered, can be read over JMX, and is unregistered when the
+   * registry is closed.
+   */
+  @Test
+  public void test_telemetry_04() throws Exception {
+    MBeanServer server = MBeanServerFactory.newMBeanServer();
+    List<ControllerTelemetry> batch = new ArrayList<>();
+    for (int i = 0; i != 3; ++i) {
+      batch.add(new ControllerTelemetry(new MySteamBoilerController(this.defaultConfig)));
+    }
+    TelemetryRegistry registry = new TelemetryRegistry(server, DOMAIN);
+    List<ObjectName> names = registry.register("fleet", batch); //$NON-NLS-1$
+    assertEquals(3, names.size());
+    assertEquals(3, registry.size());
+    assertEquals("WAITING", server.getAttribute(names.get(2), "State")); //$NON-NLS-1$ //$NON-NLS-2$
+    assertEquals(Long.valueOf(0), server.getAttribute(names.get(0), "Cycles")); //$NON-NLS-1$
+    String[] health = (String[]) server.getAttribute(names.get(1), "PumpHealth"); //$NON-NLS-1$
+    assertEquals(this.defaultConfig.getNumberOfPumps(), health.length);
+    assertTrue(server.isRegistered(names.get(1)));
+    registry.close();
+    assertFalse(server.isRegistered(names.get(1)));
+    assertEquals(0, registry.size());
+  }
+
+  /**
+   * Check a batch which cannot be registered in full leaves nothing of itself registered.
+   */
+  @Test
+  public void test_telemetry_05() throws Exception {
+    MBeanServer server = MBeanServerFactory.newMBeanServer();
+    // Take the name the second controller of the batch would be given
+    ObjectName taken = new ObjectName(DOMAIN + ":type=Controller,group=" //$NON-NLS-1$
+        + ObjectName.quote("b") + ",id=1"); //$NON-NLS-1$ //$NON-NLS-2$
+    server.registerMBean(new ControllerTelemetry(
+        new MySteamBoilerController(this.defaultConfig)), taken);
+    List<ControllerTelemetry> batch = new ArrayList<>();
+    for (int i = 0; i != 2; ++i) {
+      batch.add(new ControllerTelemetry(new MySteamBoilerController(this.defaultConfig)));
+    }
+    try (TelemetryRegistry registry = new TelemetryRegistry(server, DOMAIN)) {
+      try {
+        registry.register("b", batch); //$NON-NLS-1$
+        fail("expected registration to fail"); //$NON-NLS-1$
+      } catch (IllegalStateException e) {
+        assertEquals("cannot register group b", e.getMessage()); //$NON-NLS-1$
+      }
+      assertEquals(0, registry.size());
+      assertEquals(1, server.queryNames(new ObjectName(DOMAIN + ":*"), null).size()); //$NON-NLS-1$
+    }
+  }
+
+  /**
+   * Check the telemetry can be read whilst the controller is being clocked, and that the cycle
+   * count read never goes backwards.
+   */
+  @Test
+  public void test_telemetry_06() throws InterruptedException {
+    Fixture f = new Fixture(this.defaultConfig, 0);
+    AtomicBoolean done = new AtomicBoolean();
+    AtomicReference<String> error = new AtomicReference<>();
+    Thread reader = new Thread(() -> {
+      long last = 0;
+      while (!done.get()) {
+        ControllerTelemetry.Sample s = f.telemetry.getSample();
+        if (s.getCycles() < last) {
+          error.set("cycles went backwards"); //$NON-NLS-1$
+        }
+        last = s.getCycles();
+      }
+    });
+    reader.start();
+    f.run(200);
+    done.set(true);
+    reader.join();
+    assertEquals(null, error.get());
+    assertEquals(200, f.telemetry.getCycles());
+  }
+
+  /**
+   * Bundles telemetry for a controller together with the physical units it controls.
+   */
+  private static final class Fixture {
+    /**
+     * The telemetry under test.
+     */
+    final ControllerTelemetry telemetry;
+
+    /**
+     * The physical units being controlled, initially waiting.
+     */
+    final PhysicalUnits model;
+
+    /**
+     * Mailbox for readings, reused on every cycle.
+     */
+    final RingMailbox input = new RingMailbox(64);
+
+    /**
+     * Mailbox for commands, reused on every cycle.
+     */
+    final RingMailbox output = new RingMailbox(64);
+
+    /**
+     * The level reading transmitted in the last cycle.
+     */
+    double lastLevel;
+
+    /**
+     * The steam reading transmitted in the last cycle.
+     */
+    double lastSteam;
+
+    /**
+     * Construct a fixture for a given configuration.
+     *
+     * @param config   The configuration.
+     * @param interval The minimum time (in nanoseconds) between samples.
+     */
+    Fixture(SteamBoilerCharacteristics config, long interval) {
+      this.telemetry = new ControllerTelemetry(new MySteamBoilerController(config), interval);
+      this.model = new PhysicalUnits.Template(config).construct();
+      this.model.setMode(PhysicalUnits.Mode.WAITING);
+    }
+
+    /**
+     * Clock the telemetry (and so the controller) for a number of cycles.
+     *
+     * @param cycles The number of cycles.
+     */
+    void run(int cycles) {
+      for (int i = 0; i != cycles; ++i) {
+        this.input.clear();
+        this.output.clear();
+        this.model.transmit(this.input);
+        for (int j = 0; j != this.input.size(); ++j) {
+          Message m = this.input.read(j);
+          if (m.getKind() == MessageKind.LEVEL_v) {
+            this.lastLevel = m.getDoubleParameter();
+          } else if (m.getKind() == MessageKind.STEAM_v) {
+            this.lastSteam = m.getDoubleParameter();
+          }
+        }
+        this.telemetry.clock(this.input, this.output);
+        this.model.receive(this.output);
+        for (int t = 0; t < TestUtils.SYNCHRONISATION_PERIOD; t += TestUtils.GRANULARITY) {
+          this.model.clock(TestUtils.GRANULARITY);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,152 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.core.RingMailbox;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.model.SteamBoilerController;
+import steam.boiler.runtime.ControllerTransport;
+import steam.boiler.runtime.LatencyHistogram;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * These tests check that running a controller on its own thread, behind the concurrent transport,
+ * behaves exactly as clocking it directly does.
+ */
+public class ControllerTransportTests {
+  /**
+   * The longest time to wait for the controller in these tests.
+   */
+  private static final long TIMEOUT = TimeUnit.SECONDS.toNanos(10);
+
+  /**
+   * Default configuration. This is actually used just to prevent Eclipse from
+   * reporting that every method could be static!
+   */
+  private final SteamBoilerCharacteristics defaultConfig = SteamBoilerCharacteristics.DEFAULT;
+
+  /**
+   * Check a controller behind the transport sends the same messages as one clocked directly, when
+   * both are driving the physical units for some time.
+   */
+  @Test
+  public void test_transport_01() {
+    SteamBoilerCharacteristics config = this.defaultConfig;
+    MySteamBoilerController direct = new MySteamBoilerController(config);
+    PhysicalUnits directModel = construct(config);
+    PhysicalUnits model = construct(config);
+    RingMailbox directInput = new RingMailbox(100);
+    RingMailbox directOutput = new RingMailbox(100);
+    RingMailbox input = new RingMailbox(100);
+    RingMailbox output = new RingMailbox(100);
+    try (ControllerTransport transport = new ControllerTransport(
+        new MySteamBoilerController(config), 100)) {
+      transport.start();
+      for (int cycle = 0; cycle != 120; ++cycle) {
+        directInput.clear();
+        directOutput.clear();
+        directModel.transmit(directInput);
+        direct.clock(directInput, directOutput);
+        directModel.receive(directOutput);
+        //
+        input.clear();
+        output.clear();
+        model.transmit(input);
+        assertTrue(transport.exchange(input, output, TIMEOUT));
+        model.receive(output);
+        //
+        assertEquals(directOutput.toString(), output.toString());
+        directModel.clock(TestUtils.SYNCHRONISATION_PERIOD);
+        model.clock(TestUtils.SYNCHRONISATION_PERIOD);
+      }
+      assertEquals(directModel.getBoiler().getWaterLevel(), model.getBoiler().getWaterLevel(),
+          0.0);
+    }
+  }
+
+  /**
+   * Check every hand-off is recorded in the latency histograms.
+   */
+  @Test
+  public void test_transport_02() {
+    SteamBoilerCharacteristics config = this.defaultConfig;
+    PhysicalUnits model = construct(config);
+    RingMailbox input = new RingMailbox(100);
+    RingMailbox output = new RingMailbox(100);
+    ControllerTransport transport = new ControllerTransport(new MySteamBoilerController(config),
+        100);
+    transport.start();
+    for (int cycle = 0; cycle != 1000; ++cycle) {
+      input.clear();
+      output.clear();
+      model.transmit(input);
+      assertTrue(transport.exchange(input, output, TIMEOUT));
+    }
+    transport.close();
+    LatencyHistogram inbound = transport.getInboundLatency();
+    LatencyHistogram outbound = transport.getOutboundLatency();
+    assertEquals(1000, inbound.getCount());
+    assertEquals(1000, outbound.getCount());
+    assertTrue(inbound.getPercentile(50) <= inbound.getPercentile(99.9));
+    assertTrue(inbound.getPercentile(99.9) <= inbound.getMax());
+  }
+
+  /**
+   * Check a failure of the controller is reported to the plant thread, rather than causing it to
+   * wait forever.
+   */
+  @Test
+  public void test_transport_03() {
+    SteamBoilerController broken = new SteamBoilerController() {
+      @Override
+      public String getStatusMessage() {
+        return "broken"; //$NON-NLS-1$
+      }
+
+      @Override
+      public void clock(Mailbox incoming, Mailbox outgoing) {
+        throw new IllegalArgumentException("broken"); //$NON-NLS-1$
+      }
+    };
+    try (ControllerTransport transport = new ControllerTransport(broken, 100)) {
+      transport.start();
+      transport.exchange(new RingMailbox(1), new RingMailbox(1), TIMEOUT);
+      fail("expected controller failure"); //$NON-NLS-1$
+    } catch (IllegalStateException e) {
+      assertTrue(e.getCause() instanceof IllegalArgumentException);
+    }
+  }
+
+  /**
+   * Check the plant thread gives up waiting once the timeout expires, when the controller thread
+   * has not been started.
+   */
+  @Test
+  public void test_transport_04() {
+    SteamBoilerCharacteristics config = this.defaultConfig;
+    try (ControllerTransport transport = new ControllerTransport(
+        new MySteamBoilerController(config), 100)) {
+      assertFalse(transport.exchange(new RingMailbox(1), new RingMailbox(1),
+          TimeUnit.MILLISECONDS.toNanos(10)));
+    }
+  }
+
+  /**
+   * Construct the physical units for a given configuration, ready to start.
+   *
+   * @param config The configuration to use.
+   * @return The physical units.
+   */
+  private static PhysicalUnits construct(SteamBoilerCharacteristics config) {
+    PhysicalUnits model = new PhysicalUnits.Template(config).construct();
+    model.setMode(PhysicalUnits.Mode.WAITING);
+    return model;
+  }
+}
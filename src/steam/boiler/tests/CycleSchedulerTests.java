@@ -0,0 +1,171 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.eclipse.jdt.annotation.Nullable;
+import org.junit.Test;
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.model.SteamBoilerController;
+import steam.boiler.runtime.CycleScheduler;
+import steam.boiler.runtime.CycleScheduler.OverrunPolicy;
+import steam.boiler.runtime.CycleScheduler.Plant;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * These tests check the cycle scheduler keeps to its deadlines, and applies the overrun policy
+ * when a cycle takes too long. Periods are kept short (a few milliseconds) so the tests run
+ * quickly.
+ */
+public class CycleSchedulerTests {
+  /**
+   * The period used in these tests.
+   */
+  private static final long PERIOD = TimeUnit.MILLISECONDS.toNanos(20);
+
+  /**
+   * Default configuration. This is actually used just to prevent Eclipse from
+   * reporting that every method could be static!
+   */
+  private final SteamBoilerCharacteristics defaultConfig = SteamBoilerCharacteristics.DEFAULT;
+
+  /**
+   * Check every deadline results in one cycle when the controller is quick enough, and that the
+   * timings are recorded.
+   */
+  @Test
+  public void test_scheduler_01() {
+    SteamBoilerCharacteristics config = this.defaultConfig;
+    PhysicalUnits model = new PhysicalUnits.Template(config).construct();
+    model.setMode(PhysicalUnits.Mode.WAITING);
+    List<String> received = new ArrayList<>();
+    CycleScheduler scheduler = new CycleScheduler(new MySteamBoilerController(config),
+        plant(model, received), PERIOD, OverrunPolicy.SKIP, 100);
+    long start = System.nanoTime();
+    scheduler.run(10);
+    long elapsed = System.nanoTime() - start;
+    assertEquals(10, scheduler.getCycles());
+    assertEquals(10, received.size());
+    assertEquals(10, scheduler.getStartJitter().getCount());
+    assertEquals(10, scheduler.getExecutionTime().getCount());
+    // The first cycle is immediate, and each one after is a period later
+    assertTrue(elapsed >= 9 * PERIOD);
+  }
+
+  /**
+   * Check deadlines which pass during an overrun are skipped under the <code>SKIP</code> policy.
+   */
+  @Test
+  public void test_scheduler_02() {
+    List<String> received = new ArrayList<>();
+    CycleScheduler scheduler = new CycleScheduler(slow(3, 3 * PERIOD + (PERIOD / 2)),
+        plant(null, received), PERIOD, OverrunPolicy.SKIP, 100);
+    scheduler.run(10);
+    assertTrue(scheduler.getOverruns() >= 1);
+    assertTrue(scheduler.getSkipped() >= 3);
+    assertEquals(10, scheduler.getCycles() + scheduler.getSkipped());
+    assertTrue(scheduler.getExecutionTime().getMax() >= 3 * PERIOD);
+  }
+
+  /**
+   * Check deadlines which pass during an overrun are still run under the <code>CATCH_UP</code>
+   * policy, and that they start late.
+   */
+  @Test
+  public void test_scheduler_03() {
+    List<String> received = new ArrayList<>();
+    CycleScheduler scheduler = new CycleScheduler(slow(3, 3 * PERIOD + (PERIOD / 2)),
+        plant(null, received), PERIOD, OverrunPolicy.CATCH_UP, 100);
+    scheduler.run(10);
+    assertTrue(scheduler.getOverruns() >= 1);
+    assertEquals(0, scheduler.getSkipped());
+    assertEquals(10, scheduler.getCycles());
+    assertTrue(scheduler.getStartJitter().getMax() >= 2 * PERIOD);
+  }
+
+  /**
+   * Check an overrun forces an emergency stop under the <code>EMERGENCY_STOP</code> policy.
+   */
+  @Test
+  public void test_scheduler_04() {
+    // Readings are needed, since the controller would otherwise stop of its own accord
+    PhysicalUnits model = new PhysicalUnits.Template(this.defaultConfig).construct();
+    model.setMode(PhysicalUnits.Mode.WAITING);
+    List<String> received = new ArrayList<>();
+    CycleScheduler scheduler = new CycleScheduler(slow(3, 2 * PERIOD),
+        plant(model, received), PERIOD, OverrunPolicy.EMERGENCY_STOP, 100);
+    scheduler.run(10);
+    assertTrue(scheduler.isEmergencyStopped());
+    assertEquals(4, scheduler.getCycles());
+    assertEquals(4, received.size());
+    assertEquals("[MODE_m(EMERGENCY_STOP)]", received.get(3)); //$NON-NLS-1$
+    assertFalse(received.get(2).contains("EMERGENCY_STOP")); //$NON-NLS-1$
+  }
+
+  /**
+   * Construct a plant which records every set of commands it receives.
+   *
+   * @param model    The physical units to pass messages to and from, or <code>null</code> if the
+   *                 plant sends no readings.
+   * @param received The list into which commands are recorded.
+   * @return The plant.
+   */
+  private static Plant plant(@Nullable PhysicalUnits model, List<String> received) {
+    return new Plant() {
+      @Override
+      public void transmit(Mailbox incoming) {
+        if (model != null) {
+          model.transmit(incoming);
+        }
+      }
+
+      @Override
+      public void receive(Mailbox outgoing) {
+        received.add(outgoing.toString());
+        if (model != null) {
+          model.receive(outgoing);
+        }
+      }
+    };
+  }
+
+  /**
+   * Construct a controller which takes a given amount of time on one particular cycle.
+   *
+   * @param cycle    The cycle (counting from zero) which is slow.
+   * @param duration How long (in ns) the slow cycle takes.
+   * @return The controller.
+   */
+  private SteamBoilerController slow(final int cycle, final long duration) {
+    final MySteamBoilerController controller = new MySteamBoilerController(this.defaultConfig);
+    return new SteamBoilerController() {
+      private int count;
+
+      @Override
+      public String getStatusMessage() {
+        return controller.getStatusMessage();
+      }
+
+      @Override
+      public void clock(Mailbox incoming, Mailbox outgoing) {
+        if (this.count++ == cycle) {
+          long end = System.nanoTime() + duration;
+          while (end - System.nanoTime() > 0) {
+            if (Thread.currentThread().isInterrupted()) {
+              return;
+            }
+            LockSupport.parkNanos(end - System.nanoTime());
+          }
+        }
+        controller.clock(incoming, outgoing);
+      }
+    };
+  }
+}
@@ -0,0 +1,303 @@
+package steam.boiler.tests;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * Makes a deep copy of an arbitrary object graph, preserving aliasing and cycles. This is needed
+ * to checkpoint the physical units, which provide no means of copying themselves. Objects are
+ * allocated without running their constructors, and then have every field copied reflectively.
+ * Immutable values (e.g. strings, boxed primitives, enums and boiler characteristics) are shared
+ * rather than copied. Lambdas cannot be reconstructed, so they are shared as well, but only if
+ * everything they capture can also be shared. Otherwise, the original and the copy would alias the
+ * same mutable state, so an exception is thrown instead.
+ */
+final class DeepCopy {
+  /**
+   * The <code>sun.misc.Unsafe</code> instance, used to allocate objects without running a
+   * constructor.
+   */
+  private static final Object UNSAFE;
+
+  /**
+   * The <code>Unsafe.allocateInstance(Class)</code> method.
+   */
+  private static final Method ALLOCATE_INSTANCE;
+
+  static {
+    try {
+      Class<?> unsafe = Class.forName("sun.misc.Unsafe"); //$NON-NLS-1$
+      Field theUnsafe = unsafe.getDeclaredField("theUnsafe"); //$NON-NLS-1$
+      theUnsafe.setAccessible(true);
+      Object instance = theUnsafe.get(null);
+      Method allocate = unsafe.getMethod("allocateInstance", Class.class); //$NON-NLS-1$
+      assert instance != null && allocate != null;
+      UNSAFE = instance;
+      ALLOCATE_INSTANCE = allocate;
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("unable to allocate objects reflectively", e); //$NON-NLS-1$
+    }
+  }
+
+  /**
+   * Maps every object copied so far onto its copy.
+   */
+  private final IdentityHashMap<Object, Object> copies = new IdentityHashMap<>();
+
+  /**
+   * Private constructor, since copies are made through <code>of()</code>.
+   */
+  private DeepCopy() {
+  }
+
+  /**
+   * Make a deep copy of a given object.
+   *
+   * @param <T>  The type of the object.
+   * @param root The object to copy.
+   * @return The copy.
+   */
+  @SuppressWarnings("unchecked")
+  static <T> T of(T root) {
+    Object copy = new DeepCopy().copy(root);
+    assert copy != null;
+    return (T) copy;
+  }
+
+  /**
+   * Copy a single object, reusing any existing copy of it.
+   *
+   * @param o The object to copy.
+   * @return The copy.
+   */
+  private @Nullable Object copy(@Nullable Object o) {
+    if (o == null || isShared(o)) {
+      return o;
+    }
+    Object existing = this.copies.get(o);
+    if (existing != null) {
+      return existing;
+    }
+    Class<?> type = o.getClass();
+    try {
+      if (type.isArray()) {
+        return copyArray(o, type);
+      } else if (type.getName().startsWith("java.")) { //$NON-NLS-1$
+        return copyLibraryObject(o, type);
+      } else {
+        Object copy = ALLOCATE_INSTANCE.invoke(UNSAFE, type);
+        assert copy != null;
+        this.copies.put(o, copy);
+        for (Class<?> c = type; c != Object.class && c != null; c = c.getSuperclass()) {
+          for (Field f : c.getDeclaredFields()) {
+            if (!Modifier.isStatic(f.getModifiers())) {
+              f.setAccessible(true);
+              f.set(copy, copy(f.get(o)));
+            }
+          }
+        }
+        return copy;
+      }
+    } catch (ReflectiveOperationException | IOException e) {
+      throw new IllegalStateException("unable to copy " + type.getName(), e); //$NON-NLS-1$
+    }
+  }
+
+  /**
+   * Copy an array, copying its elements as well when they are objects.
+   *
+   * @param o    The array to copy.
+   * @param type The type of the array.
+   * @return The copy.
+   */
+  private Object copyArray(Object o, Class<?> type) {
+    int length = Array.getLength(o);
+    Class<?> element = type.getComponentType();
+    assert element != null;
+    Object copy = Array.newInstance(element, length);
+    assert copy != null;
+    this.copies.put(o, copy);
+    if (element.isPrimitive()) {
+      System.arraycopy(o, 0, copy, 0, length);
+    } else {
+      for (int i = 0; i != length; ++i) {
+        Array.set(copy, i, copy(Array.get(o, i)));
+      }
+    }
+    return copy;
+  }
+
+  /**
+   * Copy an object whose class belongs to the Java class library. Since the internals of such
+   * classes are not accessible, collections are rebuilt element by element, whilst other
+   * serializable objects are copied through serialization. Collections which cannot be
+   * constructed empty (e.g. those returned by <code>Arrays.asList()</code> or
+   * <code>Collections.unmodifiableList()</code>) are copied through serialization as well, but
+   * only if their elements can be shared. Otherwise, serialization would copy the elements apart
+   * from the rest of the object graph, breaking any aliasing with it.
+   *
+   * @param o    The object to copy.
+   * @param type The type of the object.
+   * @return The copy.
+   * @throws ReflectiveOperationException If a collection could not be constructed.
+   * @throws IOException                  If an object could not be serialized.
+   */
+  private Object copyLibraryObject(Object o, Class<?> type)
+      throws ReflectiveOperationException, IOException {
+    boolean container = o instanceof Collection || o instanceof Map;
+    if (container && Modifier.isPublic(type.getModifiers()) && hasEmptyConstructor(type)) {
+      return rebuild(o, type);
+    } else if (container && (!(o instanceof Serializable) || !holdsOnlyShared(o))) {
+      throw new IllegalStateException("unable to copy " + type.getName() //$NON-NLS-1$
+          + ", which cannot be constructed empty" //$NON-NLS-1$
+          + " and holds objects which must be copied"); //$NON-NLS-1$
+    }
+    if (o instanceof Serializable) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+        out.writeObject(o);
+      }
+      try (ObjectInputStream in = new ObjectInputStream(
+          new ByteArrayInputStream(bytes.toByteArray()))) {
+        Object copy = in.readObject();
+        assert copy != null;
+        this.copies.put(o, copy);
+        return copy;
+      }
+    }
+    throw new IllegalStateException("unable to copy " + type.getName()); //$NON-NLS-1$
+  }
+
+  /**
+   * Copy a collection or map by constructing an empty one of the same class, and then adding a
+   * copy of every element, or of every key and value.
+   *
+   * @param o    The collection or map to copy.
+   * @param type The type of the collection or map.
+   * @return The copy.
+   * @throws ReflectiveOperationException If the collection or map could not be constructed.
+   */
+  @SuppressWarnings("unchecked")
+  private Object rebuild(Object o, Class<?> type) throws ReflectiveOperationException {
+    if (o instanceof Collection) {
+      Collection<Object> copy = (Collection<Object>) type.getConstructor().newInstance();
+      assert copy != null;
+      this.copies.put(o, copy);
+      for (Object e : (Collection<?>) o) {
+        copy.add(copy(e));
+      }
+      return copy;
+    }
+    Map<Object, Object> copy = (Map<Object, Object>) type.getConstructor().newInstance();
+    assert copy != null;
+    this.copies.put(o, copy);
+    for (Map.Entry<?, ?> e : ((Map<?, ?>) o).entrySet()) {
+      copy.put(copy(e.getKey()), copy(e.getValue()));
+    }
+    return copy;
+  }
+
+  /**
+   * Determine whether a given class has a public constructor taking no arguments.
+   *
+   * @param type The class to check.
+   * @return True if it has such a constructor.
+   */
+  private static boolean hasEmptyConstructor(Class<?> type) {
+    for (Constructor<?> c : type.getConstructors()) {
+      if (c.getParameterCount() == 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Determine whether every element of a collection, or every key and value of a map, can be
+   * shared between the original and the copy.
+   *
+   * @param o The collection or map to check.
+   * @return True if everything it holds can be shared.
+   */
+  private static boolean holdsOnlyShared(Object o) {
+    Collection<?> elements = o instanceof Map ? ((Map<?, ?>) o).entrySet() : (Collection<?>) o;
+    for (Object e : elements) {
+      if (e instanceof Map.Entry) {
+        Map.Entry<?, ?> entry = (Map.Entry<?, ?>) e;
+        Object key = entry.getKey();
+        Object value = entry.getValue();
+        if ((key != null && !isShared(key)) || (value != null && !isShared(value))) {
+          return false;
+        }
+      } else if (e != null && !isShared(e)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Determine whether a given object can be shared between the original and the copy. This is the
+   * case for immutable values, and for lambdas which capture only values that can themselves be
+   * shared.
+   *
+   * @param o The object to check.
+   * @return True if the object is shared rather than copied.
+   * @throws IllegalStateException If the object is a lambda which captures mutable state, since
+   *                               it can neither be copied nor shared.
+   */
+  private static boolean isShared(Object o) {
+    Class<?> type = o.getClass();
+    if (isImmutable(type)) {
+      return true;
+    } else if (!type.isSynthetic()) {
+      return false;
+    }
+    for (Field f : type.getDeclaredFields()) {
+      if (!Modifier.isStatic(f.getModifiers()) && !f.getType().isPrimitive()) {
+        Object captured;
+        try {
+          f.setAccessible(true);
+          captured = f.get(o);
+        } catch (IllegalAccessException | RuntimeException e) {
+          throw new IllegalStateException("unable to inspect " + type.getName(), e); //$NON-NLS-1$
+        }
+        if (captured != null && !isShared(captured)) {
+          throw new IllegalStateException("unable to copy " + type.getName() //$NON-NLS-1$
+              + ", which captures mutable " + captured.getClass().getName()); //$NON-NLS-1$
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Determine whether instances of a given class are immutable values.
+   *
+   * @param type The class to check.
+   * @return True if instances are immutable.
+   */
+  private static boolean isImmutable(Class<?> type) {
+    boolean boxed = Number.class.isAssignableFrom(type)
+        && type.getName().startsWith("java.lang."); //$NON-NLS-1$
+    return boxed || type == String.class || type == Boolean.class || type == Character.class
+        || type.isEnum() || (type.getSuperclass() != null && type.getSuperclass().isEnum())
+        || type == Class.class || type == SteamBoilerCharacteristics.class;
+  }
+}
@@ -0,0 +1,174 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import org.junit.Test;
+import steam.boiler.core.BatchSimulation;
+import steam.boiler.core.FaultCampaign;
+import steam.boiler.core.FaultSchedule;
+import steam.boiler.core.FaultSchedule.FaultModel;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * These tests check that fault schedules are drawn, printed and shrunk as expected, and that the
+ * outcome of a fault campaign does not depend on the number of threads it is run on.
+ */
+public class FaultCampaignTests {
+  /**
+   * Default configuration. This is actually used just to prevent Eclipse from
+   * reporting that every method could be static!
+   */
+  private final SteamBoilerCharacteristics defaultConfig = SteamBoilerCharacteristics.DEFAULT;
+
+  /**
+   * Check random schedules are drawn within the given bounds, and read back as printed.
+   */
+  @Test
+  public void test_campaign_01() {
+    SteamBoilerCharacteristics config = this.defaultConfig;
+    SplittableRandom random = new SplittableRandom(25);
+    for (int i = 0; i != 1000; ++i) {
+      FaultSchedule schedule = FaultSchedule.random(random, config, 600000, 5);
+      assertTrue(schedule.size() <= 5);
+      for (FaultSchedule.Event e : schedule.getEvents()) {
+        assertTrue(e.getTime() < 600000);
+        assertTrue(e.getRepair() < 600000);
+        assertTrue(e.getPump() < config.getNumberOfPumps());
+        assertEquals(0, e.getTime() % BatchSimulation.SYNCHRONISATION_PERIOD);
+      }
+      assertEquals(schedule, FaultSchedule.parse(schedule.toString()));
+    }
+    try {
+      FaultSchedule.parse("30:PUMP_STUCK_CLOSED:1/20"); //$NON-NLS-1$
+      fail("expected a repair before the fault to be rejected"); //$NON-NLS-1$
+    } catch (IllegalArgumentException e) {
+      assertEquals("invalid fault event", e.getMessage()); //$NON-NLS-1$
+    }
+  }
+
+  /**
+   * Check a schedule is shrunk to the simplest one which still fails, and that each of its
+   * simplifications is simpler.
+   */
+  @Test
+  public void test_campaign_02() {
+    FaultSchedule schedule = FaultSchedule.parse(
+        "10:LEVEL_TX_FAILURE/50,45:PUMP_STICKS_OPEN:3/300,45:PUMP_STICKS_OPEN:2," //$NON-NLS-1$
+            + "120:CONTROLLER_STUCK_OFF:1/125"); //$NON-NLS-1$
+    for (FaultSchedule s : schedule.simplifications()) {
+      assertTrue(!s.equals(schedule) && s.size() <= schedule.size());
+    }
+    // Fails whenever a pump other than pump 0 sticks open
+    FaultSchedule shrunk = FaultCampaign.shrink(schedule, (FaultSchedule s) -> {
+      for (FaultSchedule.Event e : s.getEvents()) {
+        if (e.getModel() == FaultModel.PUMP_STICKS_OPEN && e.getPump() != 0) {
+          return true;
+        }
+      }
+      return false;
+    }, 1000);
+    assertEquals("0.0:PUMP_STICKS_OPEN:2", shrunk.toString()); //$NON-NLS-1$
+    // The budget bounds the number of schedules checked
+    int[] checked = new int[1];
+    FaultCampaign.shrink(schedule, (FaultSchedule s) -> {
+      checked[0]++;
+      return true;
+    }, 3);
+    assertEquals(3, checked[0]);
+  }
+
+  /**
+   * Check the faults of the existing safety tests, injected from the start or part way through,
+   * break none of the invariants.
+   */
+  @Test
+  public void test_campaign_03() {
+    FaultCampaign campaign = new FaultCampaign(this.defaultConfig, 600000, 4,
+        BatchSimulation.GRANULARITY);
+    String[] schedules = { "", //$NON-NLS-1$
+        "0:STEAM_STUCK_NEGATIVE_ONE", //$NON-NLS-1$
+        "0:LEVEL_STUCK_NEGATIVE_ONE", //$NON-NLS-1$
+        "0:LEVEL_STUCK_HIGH", //$NON-NLS-1$
+        "120:LEVEL_TX_FAILURE", //$NON-NLS-1$
+        "120:STEAM_TX_FAILURE", //$NON-NLS-1$
+        "60:PUMP_STUCK_CLOSED:0/120" }; //$NON-NLS-1$
+    for (String s : schedules) {
+      assertNull(s, campaign.check(FaultSchedule.parse(s)));
+    }
+  }
+
+  /**
+   * Check the level is checked between synchronisation points, so a level which passes a limit
+   * is caught even though the controller stops at the next synchronisation point.
+   */
+  @Test
+  public void test_campaign_05() {
+    SteamBoilerCharacteristics config = this.defaultConfig.setNumberOfPumps(4, 50);
+    assert config != null;
+    FaultCampaign campaign = new FaultCampaign(config, 300000, 4, TestUtils.GRANULARITY);
+    FaultCampaign.Violation v = campaign.check(
+        FaultSchedule.parse("120:PUMP_STICKS_OPEN:0")); //$NON-NLS-1$
+    assertNotNull(v);
+    assert v != null;
+    assertEquals(FaultCampaign.Violation.Kind.LEVEL, v.getKind());
+    assertTrue(v.getTime() % BatchSimulation.SYNCHRONISATION_PERIOD != 0);
+  }
+
+  /**
+   * Check a fault between synchronisation points is injected at exactly its given time, rather
+   * than at the next synchronisation point. A pump sticking open half way between two
+   * synchronisation points must therefore have a different outcome from it sticking open at the
+   * second of them.
+   */
+  @Test
+  public void test_campaign_06() {
+    SteamBoilerCharacteristics config = this.defaultConfig.setNumberOfPumps(4, 50);
+    assert config != null;
+    FaultCampaign campaign = new FaultCampaign(config, 300000, 4, BatchSimulation.GRANULARITY);
+    FaultCampaign.Violation between = campaign.check(
+        FaultSchedule.parse("102.5:PUMP_STICKS_OPEN:0")); //$NON-NLS-1$
+    FaultCampaign.Violation after = campaign.check(
+        FaultSchedule.parse("105:PUMP_STICKS_OPEN:0")); //$NON-NLS-1$
+    assertNotNull(between);
+    assertNotNull(after);
+    assert between != null && after != null;
+    assertTrue(between.getTime() != after.getTime());
+  }
+
+  /**
+   * Check a campaign gives the same outcome, including the failures reported and what they are
+   * shrunk to, whatever the number of threads. A small pump capacity is used so that some
+   * schedules are likely to fail.
+   */
+  @Test
+  public void test_campaign_04() {
+    SteamBoilerCharacteristics config = this.defaultConfig.setNumberOfPumps(4, 50);
+    assert config != null;
+    FaultCampaign campaign = new FaultCampaign(config, 300000, 4, BatchSimulation.GRANULARITY);
+    FaultCampaign.Report one = campaign.run(7, 500, 1, 2);
+    FaultCampaign.Report many = campaign.run(7, 500, 3, 2);
+    assertEquals(500, one.getSchedules());
+    for (FaultCampaign.Violation.Kind kind : FaultCampaign.Violation.Kind.values()) {
+      assertEquals(one.getViolations(kind), many.getViolations(kind));
+    }
+    List<FaultCampaign.Failure> expected = one.getFailures();
+    List<FaultCampaign.Failure> actual = many.getFailures();
+    assertEquals(Math.min(2, one.getViolations()), expected.size());
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i != expected.size(); ++i) {
+      FaultCampaign.Failure f = expected.get(i);
+      assertEquals(f.getIndex(), actual.get(i).getIndex());
+      assertEquals(f.getShrunk(), actual.get(i).getShrunk());
+      assertEquals(campaign.schedule(7, f.getIndex()), f.getSchedule());
+      // The shrunk schedule breaks the same invariant, and is no larger
+      assertEquals(f.getViolation().getKind(), f.getShrunkViolation().getKind());
+      assertTrue(f.getShrunk().size() <= f.getSchedule().size());
+    }
+  }
+}
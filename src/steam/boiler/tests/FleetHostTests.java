@@ -0,0 +1,262 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import org.junit.Test;
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.model.SteamBoilerController;
+import steam.boiler.runtime.CycleScheduler.Plant;
+import steam.boiler.runtime.FleetHost;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * These tests check a fleet of boilers is clocked regularly, and that one misbehaving controller
+ * does not hold up the others.
+ */
+public class FleetHostTests {
+  /**
+   * The period used in these tests.
+   */
+  private static final long PERIOD = TimeUnit.MILLISECONDS.toNanos(20);
+
+  /**
+   * The stall timeout used in these tests.
+   */
+  private static final long STALL = TimeUnit.MILLISECONDS.toNanos(100);
+
+  /**
+   * Default configuration. This is actually used just to prevent Eclipse from
+   * reporting that every method could be static!
+   */
+  private final SteamBoilerCharacteristics defaultConfig = SteamBoilerCharacteristics.DEFAULT;
+
+  /**
+   * Check every boiler in the fleet is clocked, and every cycle is recorded.
+   */
+  @Test
+  public void test_fleet_01() throws InterruptedException {
+    AtomicInteger[] counts = new AtomicInteger[200];
+    FleetHost fleet = new FleetHost(4, PERIOD, STALL, 100);
+    for (int i = 0; i != counts.length; ++i) {
+      counts[i] = new AtomicInteger();
+      fleet.add(new MySteamBoilerController(this.defaultConfig),
+          plant(this.defaultConfig, counts[i]));
+    }
+    fleet.start();
+    Thread.sleep(200);
+    fleet.close();
+    long total = 0;
+    for (int i = 0; i != counts.length; ++i) {
+      assertEquals(FleetHost.Status.RUNNING, fleet.getStatus(i));
+      assertTrue(counts[i].get() >= 2);
+      total += counts[i].get();
+    }
+    assertEquals(total, fleet.getCycles());
+    assertEquals(total, fleet.getLatency().getCount());
+    assertTrue(fleet.getThroughput() > 0);
+  }
+
+  /**
+   * Check a controller which throws is quarantined, without affecting the rest of its shard.
+   */
+  @Test
+  public void test_fleet_02() throws InterruptedException {
+    AtomicInteger[] counts = new AtomicInteger[4];
+    FleetHost fleet = new FleetHost(1, PERIOD, STALL, 100);
+    for (int i = 0; i != counts.length; ++i) {
+      counts[i] = new AtomicInteger();
+      SteamBoilerController c = new MySteamBoilerController(this.defaultConfig);
+      fleet.add(i == 1 ? misbehaving(c, false) : c, plant(this.defaultConfig, counts[i]));
+    }
+    fleet.start();
+    Thread.sleep(200);
+    fleet.close();
+    assertEquals(FleetHost.Status.FAILED, fleet.getStatus(1));
+    assertTrue(fleet.getFailure(1) instanceof IllegalArgumentException);
+    for (int i = 0; i != counts.length; ++i) {
+      if (i != 1) {
+        assertEquals(FleetHost.Status.RUNNING, fleet.getStatus(i));
+        assertTrue(counts[i].get() >= 5);
+      }
+    }
+  }
+
+  /**
+   * Check a controller which gets stuck is quarantined, and the rest of its shard carries on.
+   */
+  @Test
+  public void test_fleet_03() throws InterruptedException {
+    AtomicInteger[] counts = new AtomicInteger[4];
+    FleetHost fleet = new FleetHost(1, PERIOD, STALL, 100);
+    for (int i = 0; i != counts.length; ++i) {
+      counts[i] = new AtomicInteger();
+      SteamBoilerController c = new MySteamBoilerController(this.defaultConfig);
+      fleet.add(i == 1 ? misbehaving(c, true) : c, plant(this.defaultConfig, counts[i]));
+    }
+    fleet.start();
+    Thread.sleep(500);
+    fleet.close();
+    assertEquals(FleetHost.Status.STALLED, fleet.getStatus(1));
+    for (int i = 0; i != counts.length; ++i) {
+      if (i != 1) {
+        assertEquals(FleetHost.Status.RUNNING, fleet.getStatus(i));
+        assertTrue(counts[i].get() >= 5);
+      }
+    }
+  }
+
+  /**
+   * Check shards can be driven by platform threads on any runtime, and a controller stuck in a busy
+   * loop is quarantined without holding up the rest of its shard.
+   */
+  @Test
+  public void test_fleet_04() throws InterruptedException {
+    FleetHost fleet = new FleetHost(1, PERIOD, STALL, 100, false);
+    assertTrue(!fleet.isVirtual());
+    checkSpinning(fleet);
+  }
+
+  /**
+   * Check shards are driven by virtual threads by default where the runtime supports them, and a
+   * controller stuck in a busy loop (and so holding on to its carrier thread) is quarantined
+   * without holding up the rest of its shard. Where virtual threads are not supported, check they
+   * cannot be requested.
+   */
+  @Test
+  public void test_fleet_05() throws InterruptedException {
+    if (!FleetHost.supportsVirtualThreads()) {
+      assertTrue(!new FleetHost(1, PERIOD, STALL, 100).isVirtual());
+      try {
+        new FleetHost(1, PERIOD, STALL, 100, true);
+        fail("virtual threads should not be supported"); //$NON-NLS-1$
+      } catch (UnsupportedOperationException e) {
+        assertEquals("virtual threads not supported", e.getMessage()); //$NON-NLS-1$
+      }
+      return;
+    }
+    assertTrue(new FleetHost(1, PERIOD, STALL, 100).isVirtual());
+    checkSpinning(new FleetHost(1, PERIOD, STALL, 100, true));
+  }
+
+  /**
+   * Run a fleet of four boilers, where the second controller spins on its third cycle, and check
+   * it is quarantined whilst the others carry on.
+   *
+   * @param fleet The (empty) fleet to use.
+   * @throws InterruptedException If interrupted whilst waiting for the fleet.
+   */
+  private void checkSpinning(FleetHost fleet) throws InterruptedException {
+    AtomicInteger[] counts = new AtomicInteger[4];
+    for (int i = 0; i != counts.length; ++i) {
+      counts[i] = new AtomicInteger();
+      SteamBoilerController c = new MySteamBoilerController(this.defaultConfig);
+      fleet.add(i == 1 ? spinning(c) : c, plant(this.defaultConfig, counts[i]));
+    }
+    fleet.start();
+    Thread.sleep(500);
+    fleet.close();
+    assertEquals(FleetHost.Status.STALLED, fleet.getStatus(1));
+    for (int i = 0; i != counts.length; ++i) {
+      if (i != 1) {
+        assertEquals(FleetHost.Status.RUNNING, fleet.getStatus(i));
+        assertTrue(counts[i].get() >= 5);
+      }
+    }
+  }
+
+  /**
+   * Construct a plant for a fresh set of physical units, which counts the cycles it sees.
+   *
+   * @param config The configuration to use.
+   * @param count  The counter to increment on every cycle.
+   * @return The plant.
+   */
+  private static Plant plant(SteamBoilerCharacteristics config, AtomicInteger count) {
+    PhysicalUnits model = new PhysicalUnits.Template(config).construct();
+    model.setMode(PhysicalUnits.Mode.WAITING);
+    return new Plant() {
+      @Override
+      public void transmit(Mailbox incoming) {
+        model.transmit(incoming);
+      }
+
+      @Override
+      public void receive(Mailbox outgoing) {
+        model.receive(outgoing);
+        model.clock(TestUtils.SYNCHRONISATION_PERIOD);
+        count.incrementAndGet();
+      }
+    };
+  }
+
+  /**
+   * Construct a controller which misbehaves on its third cycle, by either getting stuck (for far
+   * longer than the stall timeout) or throwing an exception.
+   *
+   * @param controller The controller to wrap.
+   * @param stuck      True if the controller gets stuck, false if it throws.
+   * @return The misbehaving controller.
+   */
+  private static SteamBoilerController misbehaving(final SteamBoilerController controller,
+      final boolean stuck) {
+    return new SteamBoilerController() {
+      private int count;
+
+      @Override
+      public String getStatusMessage() {
+        return controller.getStatusMessage();
+      }
+
+      @Override
+      public void clock(Mailbox incoming, Mailbox outgoing) {
+        if (this.count++ == 2) {
+          if (!stuck) {
+            throw new IllegalArgumentException("broken"); //$NON-NLS-1$
+          }
+          // Block without spinning, until well past the stall timeout or interrupted
+          long end = System.nanoTime() + 10 * STALL;
+          while (end - System.nanoTime() > 0 && !Thread.currentThread().isInterrupted()) {
+            LockSupport.parkNanos(end - System.nanoTime());
+          }
+        }
+        controller.clock(incoming, outgoing);
+      }
+    };
+  }
+
+  /**
+   * Construct a controller which, on its third cycle, spins without blocking for far longer than
+   * the stall timeout.
+   *
+   * @param controller The controller to wrap.
+   * @return The spinning controller.
+   */
+  private static SteamBoilerController spinning(final SteamBoilerController controller) {
+    return new SteamBoilerController() {
+      private int count;
+
+      @Override
+      public String getStatusMessage() {
+        return controller.getStatusMessage();
+      }
+
+      @Override
+      public void clock(Mailbox incoming, Mailbox outgoing) {
+        if (this.count++ == 2) {
+          long end = System.nanoTime() + 10 * STALL;
+          while (System.nanoTime() - end < 0) {
+            Thread.onSpinWait();
+          }
+        }
+        controller.clock(incoming, outgoing);
+      }
+    };
+  }
+}
@@ -0,0 +1,295 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.Test;
+import steam.boiler.core.MessageCodec;
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.core.RingMailbox;
+import steam.boiler.model.LevelSensorModels;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.model.SteamBoilerController;
+import steam.boiler.runtime.FlightRecorder;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.Mailbox.Mode;
+import steam.boiler.util.SteamBoilerCharacteristics;
+import steam.boiler.util.UnboundedMailbox;
+
+/**
+ * These tests check mailboxes survive being encoded and decoded, that a flight recorder keeps the
+ * most recent cycles once its ring is full, and that it dumps them when the controller stops.
+ */
+public class FlightRecorderTests {
+  /**
+   * Default configuration. This is actually used just to prevent Eclipse from
+   * reporting that every method could be static!
+   */
+  private final SteamBoilerCharacteristics defaultConfig = SteamBoilerCharacteristics.DEFAULT;
+
+  /**
+   * Check every kind of parameter survives encoding and decoding, through both a ring mailbox and
+   * an unbounded mailbox.
+   */
+  @Test
+  public void test_codec_01() {
+    Mailbox[] sources = { new RingMailbox(8), new UnboundedMailbox(8) };
+    for (Mailbox source : sources) {
+      source.send(new Message(MessageKind.MODE_m, Mode.RESCUE));
+      source.send(new Message(MessageKind.OPEN_PUMP_n, 3));
+      source.send(new Message(MessageKind.LEVEL_v, 512.25));
+      source.send(new Message(MessageKind.PUMP_STATE_n_b, 7, true));
+      source.send(new Message(MessageKind.PUMP_CONTROL_STATE_n_b, 2, false));
+      source.send(new Message(MessageKind.VALVE));
+      ByteBuffer buffer = ByteBuffer.allocate(MessageCodec.size(source));
+      MessageCodec.encode(source, buffer);
+      assertEquals(0, buffer.remaining());
+      buffer.flip();
+      Mailbox[] targets = { new RingMailbox(8), new UnboundedMailbox(8) };
+      for (Mailbox target : targets) {
+        buffer.rewind();
+        MessageCodec.decode(buffer, target);
+        assertEquals(0, buffer.remaining());
+        assertMessages(source, target);
+      }
+    }
+  }
+
+  /**
+   * Check an invalid message kind is rejected.
+   */
+  @Test
+  public void test_codec_02() {
+    ByteBuffer buffer = ByteBuffer.allocate(5);
+    buffer.putInt(1).put((byte) 127).flip();
+    try {
+      MessageCodec.decode(buffer, new RingMailbox(1));
+      fail("expected decoding to fail"); //$NON-NLS-1$
+    } catch (IllegalArgumentException e) {
+      assertEquals("invalid message kind 127", e.getMessage()); //$NON-NLS-1$
+    }
+  }
+
+  /**
+   * Check the ring keeps only the most recent cycles, oldest first, once it has wrapped around
+   * many times with cycles of varying size.
+   */
+  @Test
+  public void test_recorder_01() throws IOException {
+    Path directory = Files.createTempDirectory("flight"); //$NON-NLS-1$
+    Echo echo = new Echo();
+    FlightRecorder recorder = new FlightRecorder(echo, 1024, directory);
+    RingMailbox input = new RingMailbox(8);
+    RingMailbox output = new RingMailbox(8);
+    for (int i = 0; i != 100; ++i) {
+      input.clear();
+      output.clear();
+      for (int j = 0; j <= i % 5; ++j) {
+        input.send(MessageKind.LEVEL_v, i + (j / 10.0));
+      }
+      recorder.clock(input, output);
+    }
+    Path file = directory.resolve("ring.bin"); //$NON-NLS-1$
+    recorder.dump(file);
+    List<FlightRecorder.Cycle> cycles = FlightRecorder.load(file);
+    assertEquals(recorder.getRecorded(), cycles.size());
+    assertTrue(cycles.size() > 2);
+    for (int k = 0; k != cycles.size(); ++k) {
+      FlightRecorder.Cycle c = cycles.get(k);
+      int i = 100 - cycles.size() + k;
+      assertEquals(i, c.getNumber());
+      assertEquals((i % 5) + 1, c.getIncoming().size());
+      assertEquals(i, c.getIncoming().read(0).getDoubleParameter(), 0);
+      assertMessages(c.getIncoming(), c.getOutgoing());
+    }
+    assertEquals(0, recorder.getDropped());
+  }
+
+  /**
+   * Check a cycle too large for the ring is dropped, without disturbing those already recorded.
+   */
+  @Test
+  public void test_recorder_02() throws IOException {
+    Path directory = Files.createTempDirectory("flight"); //$NON-NLS-1$
+    FlightRecorder recorder = new FlightRecorder(new Echo(), 128, directory);
+    RingMailbox input = new RingMailbox(16);
+    RingMailbox output = new RingMailbox(16);
+    input.send(MessageKind.STEAM_v, 1.0);
+    recorder.clock(input, output);
+    for (int j = 0; j != 10; ++j) {
+      input.send(MessageKind.STEAM_v, 2.0);
+    }
+    output.clear();
+    recorder.clock(input, output);
+    assertEquals(1, recorder.getDropped());
+    assertEquals(1, recorder.getRecorded());
+    Path file = directory.resolve("dropped.bin"); //$NON-NLS-1$
+    recorder.dump(file);
+    List<FlightRecorder.Cycle> cycles = FlightRecorder.load(file);
+    assertEquals(1, cycles.size());
+    assertEquals(0, cycles.get(0).getNumber());
+  }
+
+  /**
+   * Check the cycles leading up to an emergency stop are dumped automatically, ending with the
+   * cycle in which it was sent.
+   */
+  @Test
+  public void test_recorder_03() throws IOException {
+    Path directory = Files.createTempDirectory("flight"); //$NON-NLS-1$
+    MySteamBoilerController controller = new MySteamBoilerController(this.defaultConfig);
+    FlightRecorder recorder = new FlightRecorder(controller, 1 << 16, directory);
+    PhysicalUnits model = new PhysicalUnits.Template(this.defaultConfig).construct();
+    model.setMode(PhysicalUnits.Mode.WAITING);
+    run(recorder, model, 60);
+    assertEquals(0, recorder.getDumps());
+    model.setLevelSensor(new LevelSensorModels.TxFailure(model));
+    run(recorder, model, 10);
+    assertEquals(1, recorder.getDumps());
+    assertEquals(null, recorder.getDumpFailure());
+    Path file = recorder.getLastDump();
+    assert file != null;
+    List<FlightRecorder.Cycle> cycles = FlightRecorder.load(file);
+    FlightRecorder.Cycle last = cycles.get(cycles.size() - 1);
+    Mailbox outgoing = last.getOutgoing();
+    boolean stopped = false;
+    for (int i = 0; i != outgoing.size(); ++i) {
+      Message m = outgoing.read(i);
+      stopped |= m.getKind() == MessageKind.MODE_m
+          && m.getModeParameter() == Mode.EMERGENCY_STOP;
+    }
+    assertTrue(stopped);
+    // Every cycle fits in the ring, and the dump ends with the one which stopped
+    assertEquals(0, cycles.get(0).getNumber());
+    assertEquals(cycles.size() - 1, last.getNumber());
+    String name = String.valueOf(file.getFileName());
+    assertEquals(directory, file.getParent());
+    assertTrue(name, name.startsWith("flight-" + cycles.size() + "-")); //$NON-NLS-1$ //$NON-NLS-2$
+    assertTrue(name, name.endsWith(".bin")); //$NON-NLS-1$
+  }
+
+  /**
+   * Check a file which is not a dump is rejected.
+   */
+  @Test
+  public void test_recorder_04() throws IOException {
+    Path file = Files.createTempFile("flight", ".bin"); //$NON-NLS-1$ //$NON-NLS-2$
+    Files.write(file, new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+    try {
+      FlightRecorder.load(file);
+      fail("expected loading to fail"); //$NON-NLS-1$
+    } catch (IOException e) {
+      assertEquals("not a flight recorder dump: " + file, e.getMessage()); //$NON-NLS-1$
+    }
+  }
+
+  /**
+   * Check recorders sharing a dump directory do not overwrite each other's dumps, even when they
+   * stop on the same cycle.
+   */
+  @Test
+  public void test_recorder_05() throws IOException {
+    Path directory = Files.createTempDirectory("flight"); //$NON-NLS-1$
+    FlightRecorder[] recorders = { new FlightRecorder(new Echo(), 1024, directory),
+        new FlightRecorder(new Echo(), 1024, directory) };
+    RingMailbox input = new RingMailbox(4);
+    RingMailbox output = new RingMailbox(4);
+    for (int i = 0; i != recorders.length; ++i) {
+      input.clear();
+      output.clear();
+      input.send(MessageKind.LEVEL_v, (double) i);
+      input.send(MessageKind.MODE_m, Mode.EMERGENCY_STOP);
+      recorders[i].clock(input, output);
+      assertEquals(1, recorders[i].getDumps());
+    }
+    Path first = recorders[0].getLastDump();
+    Path second = recorders[1].getLastDump();
+    assert first != null && second != null;
+    assertFalse(first.equals(second));
+    for (int i = 0; i != recorders.length; ++i) {
+      Path file = recorders[i].getLastDump();
+      assert file != null;
+      List<FlightRecorder.Cycle> cycles = FlightRecorder.load(file);
+      assertEquals(1, cycles.size());
+      assertEquals(i, cycles.get(0).getIncoming().read(0).getDoubleParameter(), 0);
+    }
+  }
+
+  /**
+   * Clock a recorder (and so its controller) against some physical units for a number of cycles.
+   *
+   * @param recorder The recorder to clock.
+   * @param model    The physical units.
+   * @param cycles   The number of cycles.
+   */
+  private static void run(FlightRecorder recorder, PhysicalUnits model, int cycles) {
+    RingMailbox input = new RingMailbox(64);
+    RingMailbox output = new RingMailbox(64);
+    for (int i = 0; i != cycles; ++i) {
+      input.clear();
+      output.clear();
+      model.transmit(input);
+      recorder.clock(input, output);
+      model.receive(output);
+      for (int t = 0; t < TestUtils.SYNCHRONISATION_PERIOD; t += TestUtils.GRANULARITY) {
+        model.clock(TestUtils.GRANULARITY);
+      }
+    }
+  }
+
+  /**
+   * Check two mailboxes hold the same messages, in the same order.
+   *
+   * @param expected The expected messages.
+   * @param actual   The actual messages.
+   */
+  private static void assertMessages(Mailbox expected, Mailbox actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i != expected.size(); ++i) {
+      Message e = expected.read(i);
+      Message a = actual.read(i);
+      assertEquals(e.getKind(), a.getKind());
+      String name = e.getKind().name();
+      if (name.endsWith("_m")) { //$NON-NLS-1$
+        assertEquals(e.getModeParameter(), a.getModeParameter());
+      } else if (name.endsWith("_v")) { //$NON-NLS-1$
+        assertEquals(e.getDoubleParameter(), a.getDoubleParameter(), 0);
+      } else if (name.endsWith("_n") || name.endsWith("_n_b")) { //$NON-NLS-1$ //$NON-NLS-2$
+        assertEquals(e.getIntegerParameter(), a.getIntegerParameter());
+        assertEquals(e.getBooleanParameter(), a.getBooleanParameter());
+      }
+    }
+  }
+
+  /**
+   * A controller which sends back every message it receives.
+   */
+  private static final class Echo implements SteamBoilerController {
+    /**
+     * Construct an echoing controller.
+     */
+    Echo() {
+    }
+
+    @Override
+    public void clock(Mailbox incoming, Mailbox outgoing) {
+      for (int i = 0; i != incoming.size(); ++i) {
+        outgoing.send(incoming.read(i));
+      }
+    }
+
+    @Override
+    public String getStatusMessage() {
+      return "ECHO"; //$NON-NLS-1$
+    }
+  }
+}
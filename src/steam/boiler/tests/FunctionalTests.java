@@ -2,6 +2,7 @@ package steam.boiler.tests;
 
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static steam.boiler.tests.ScenarioSweep.NO_FAULT;
 import static steam.boiler.tests.TestUtils.LEVEL_FAILURE_DETECTION;
 import static steam.boiler.tests.TestUtils.MODE_degraded;
 import static steam.boiler.tests.TestUtils.MODE_emergencystop;
@@ -27,6 +28,7 @@ import steam.boiler.model.PhysicalUnits;
 import steam.boiler.model.PumpControllerModels;
 import steam.boiler.model.PumpModels;
 import steam.boiler.model.SteamSensorModels;
+import steam.boiler.tests.ScenarioSweep.Scenario;
 import steam.boiler.util.SteamBoilerCharacteristics;
 
 /**
@@ -173,10 +175,11 @@ public class FunctionalTests {
    */
   @Test
   public void test_normal_operation_01() {
+    SteamBoilerCharacteristics config = this.defaultConfig;
+    config = config.setNumberOfPumps(3, config.getPumpCapacity(0));
     // Explore various time frames for correct operation
-    for (int t = 20; t != 560; ++t) {
-      test_normal_operation(t, 3);
-    }
+    final SteamBoilerCharacteristics pumpConfig = config;
+    ScenarioSweep.checkForked(540, (int t) -> test_normal_operation(20 + t, pumpConfig));
   }
 
   /**
@@ -186,10 +189,11 @@ public class FunctionalTests {
    */
   @Test
   public void test_normal_operation_02() {
+    SteamBoilerCharacteristics config = this.defaultConfig;
+    config = config.setNumberOfPumps(4, config.getPumpCapacity(0));
     // Explore various time frames for correct operation
-    for (int t = 20; t != 560; ++t) {
-      test_normal_operation(t, 4);
-    }
+    final SteamBoilerCharacteristics pumpConfig = config;
+    ScenarioSweep.checkForked(540, (int t) -> test_normal_operation(20 + t, pumpConfig));
   }
 
   /**
@@ -199,10 +203,11 @@ public class FunctionalTests {
    */
   @Test
   public void test_normal_operation_03() {
+    SteamBoilerCharacteristics config = this.defaultConfig;
+    config = config.setNumberOfPumps(5, config.getPumpCapacity(0));
     // Explore various time frames for correct operation
-    for (int t = 20; t != 560; ++t) {
-      test_normal_operation(t, 5);
-    }
+    final SteamBoilerCharacteristics pumpConfig = config;
+    ScenarioSweep.checkForked(540, (int t) -> test_normal_operation(20 + t, pumpConfig));
   }
 
   /**
@@ -212,43 +217,44 @@ public class FunctionalTests {
    */
   @Test
   public void test_normal_operation_04() {
+    SteamBoilerCharacteristics config = this.defaultConfig;
+    config = config.setNumberOfPumps(6, config.getPumpCapacity(0));
     // Explore various time frames for correct operation
-    for (int t = 20; t != 560; ++t) {
-      test_normal_operation(t, 6);
-    }
+    final SteamBoilerCharacteristics pumpConfig = config;
+    ScenarioSweep.checkForked(540, (int t) -> test_normal_operation(20 + t, pumpConfig));
   }
 
   /**
-   * Operate the steam boiler system for a given amount of time, and with a given number of pumps.
-   * Since the system it otherwise ideal, we're expecting the water level to be held within the
-   * normal range without problem.
+   * Construct a scenario which operates the steam boiler system for a given amount of time, and
+   * with a given configuration. Since the system it otherwise ideal, we're expecting the water
+   * level to be held within the normal range without problem.
    *
    * @param time
    *          The time (in s) to operate the boiler before checking the levels.
-   * @param numberOfPumps
-   *          The number of pumps to use in this configuration.
+   * @param pumpConfig
+   *          The configuration to use, which determines the number of pumps.
+   * @return The scenario constructed.
    */
-  private void test_normal_operation(int time, int numberOfPumps) {
-    SteamBoilerCharacteristics config = this.defaultConfig;
-    config = config.setNumberOfPumps(numberOfPumps, config.getPumpCapacity(0));
-    MySteamBoilerController controller = new MySteamBoilerController(config);
-    PhysicalUnits model = new PhysicalUnits.Template(config).construct();
-    model.setMode(PhysicalUnits.Mode.WAITING);
+  private static Scenario test_normal_operation(int time, SteamBoilerCharacteristics pumpConfig) {
+    int numberOfPumps = pumpConfig.getNumberOfPumps();
+    String description = time + "s with " + numberOfPumps + " pumps"; //$NON-NLS-1$ //$NON-NLS-2$
     // Clock system for a given amount of time. We're not expecting anything to go
     // wrong during this time.
-    clockForWithout(time, controller, model, atleast(MODE_emergencystop));
-    // In an ideal setting, we expect the system to keep the level within the normal range at
-    // all times. Therefore, check water level is indeed within normal range.
-    if (model.getBoiler().getWaterLevel() > config.getMaximalLimitLevel()) {
-      fail("Water level above limit maximum (after " //$NON-NLS-1$
-          + time + "s with " + numberOfPumps //$NON-NLS-1$
-          + " pumps)"); //$NON-NLS-1$
-    }
-    if (model.getBoiler().getWaterLevel() < config.getMinimalLimitLevel()) {
-      fail("Water level below limit minimum (after " //$NON-NLS-1$
-          + time + "s with " + numberOfPumps //$NON-NLS-1$
-          + " pumps)"); //$NON-NLS-1$
-    }
+    return new Scenario(description, pumpConfig, time, NO_FAULT,
+        (MySteamBoilerController controller, PhysicalUnits model) -> {
+          // In an ideal setting, we expect the system to keep the level within the normal range
+          // at all times. Therefore, check water level is indeed within normal range.
+          if (model.getBoiler().getWaterLevel() > pumpConfig.getMaximalLimitLevel()) {
+            fail("Water level above limit maximum (after " //$NON-NLS-1$
+                + time + "s with " + numberOfPumps //$NON-NLS-1$
+                + " pumps)"); //$NON-NLS-1$
+          }
+          if (model.getBoiler().getWaterLevel() < pumpConfig.getMinimalLimitLevel()) {
+            fail("Water level below limit minimum (after " //$NON-NLS-1$
+                + time + "s with " + numberOfPumps //$NON-NLS-1$
+                + " pumps)"); //$NON-NLS-1$
+          }
+        });
   }
 
   // =====================================================================
@@ -0,0 +1,83 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import steam.boiler.runtime.LatencyHistogram;
+
+/**
+ * These tests check the percentiles reported by the latency histogram.
+ */
+public class LatencyHistogramTests {
+  /**
+   * Check small values are recorded exactly.
+   */
+  @Test
+  public void test_histogram_01() {
+    LatencyHistogram h = new LatencyHistogram();
+    for (int i = 1; i <= 50; ++i) {
+      h.record(i);
+    }
+    assertEquals(50, h.getCount());
+    assertEquals(1, h.getMin());
+    assertEquals(50, h.getMax());
+    assertEquals(25, h.getPercentile(50));
+    assertEquals(50, h.getPercentile(100));
+    assertEquals(25.5, h.getMean(), 0.0);
+  }
+
+  /**
+   * Check large values are reported to within the histogram's precision, and never above the
+   * maximum.
+   */
+  @Test
+  public void test_histogram_02() {
+    LatencyHistogram h = new LatencyHistogram();
+    for (long v = 1000; v <= 1000000; v += 1000) {
+      h.record(v);
+    }
+    long p50 = h.getPercentile(50);
+    long p99 = h.getPercentile(99);
+    assertTrue(Math.abs(p50 - 500000) <= 500000 / 32);
+    assertTrue(Math.abs(p99 - 990000) <= 990000 / 32);
+    assertEquals(1000000, h.getPercentile(100));
+    assertEquals(1000000, h.getMax());
+  }
+
+  /**
+   * Check extreme and negative values are handled, and that resetting discards everything.
+   */
+  @Test
+  public void test_histogram_03() {
+    LatencyHistogram h = new LatencyHistogram();
+    h.record(-5);
+    h.record(Long.MAX_VALUE);
+    assertEquals(0, h.getMin());
+    assertEquals(Long.MAX_VALUE, h.getMax());
+    assertEquals(Long.MAX_VALUE, h.getPercentile(99.9));
+    h.reset();
+    assertEquals(0, h.getCount());
+    assertEquals(0, h.getPercentile(50));
+  }
+
+  /**
+   * Check merging histograms gives the same result as recording everything in one.
+   */
+  @Test
+  public void test_histogram_04() {
+    LatencyHistogram a = new LatencyHistogram();
+    LatencyHistogram b = new LatencyHistogram();
+    LatencyHistogram all = new LatencyHistogram();
+    for (long v = 1; v <= 100000; v += 7) {
+      (v % 2 == 0 ? a : b).record(v);
+      all.record(v);
+    }
+    a.merge(b);
+    assertEquals(all.getCount(), a.getCount());
+    assertEquals(all.getMin(), a.getMin());
+    assertEquals(all.getMax(), a.getMax());
+    assertEquals(all.getMean(), a.getMean(), 0.0);
+    assertEquals(all.getPercentile(99), a.getPercentile(99));
+  }
+}
@@ -0,0 +1,112 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+import steam.boiler.core.LevelPredictor;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * These tests check the range of levels predicted by a level predictor against that computed
+ * directly from the configuration, and that predictors are shared between configurations which
+ * are the same in every respect a prediction depends on.
+ */
+public class LevelPredictorTests {
+  /**
+   * Tolerance allowed between a predicted and a directly computed level.
+   */
+  private static final double TOLERANCE = 1e-9;
+
+  /**
+   * Default configuration. This is actually used just to prevent Eclipse from
+   * reporting that every method could be static!
+   */
+  private final SteamBoilerCharacteristics defaultConfig = SteamBoilerCharacteristics.DEFAULT;
+
+  /**
+   * Check the range predicted with no pumps open matches that computed directly, for several
+   * maximum steam outputs.
+   */
+  @Test
+  public void test_predictor_01() {
+    for (double rate = 0; rate <= 20; rate += 2.5) {
+      SteamBoilerCharacteristics c = this.defaultConfig.setMaximualSteamRate(rate);
+      assert c != null;
+      LevelPredictor p = new LevelPredictor(c);
+      for (double level = 0; level <= c.getCapacity(); level += 37.5) {
+        for (double steam = 0; steam <= rate; steam += 2.5) {
+          double lo = level - (LevelPredictor.PERIOD * rate);
+          double hi = level - (LevelPredictor.PERIOD * steam);
+          assertEquals(lo, p.minimum(level), TOLERANCE);
+          assertEquals(hi, p.maximum(level, steam), TOLERANCE);
+        }
+      }
+    }
+  }
+
+  /**
+   * Check the range predicted for every subset of pumps open, found by adding the rise from their
+   * inflow as the controller does, matches that computed directly from each pump's capacity.
+   */
+  @Test
+  public void test_predictor_02() {
+    SteamBoilerCharacteristics c = this.defaultConfig.setNumberOfPumps(6, 3.5);
+    c = c.setPumpCapacity(0, 1.25).setPumpCapacity(4, 7);
+    assert c != null;
+    LevelPredictor p = new LevelPredictor(c);
+    for (int subset = 0; subset != 1 << c.getNumberOfPumps(); ++subset) {
+      double inflow = 0;
+      for (int i = 0; i != c.getNumberOfPumps(); ++i) {
+        inflow += (subset & (1 << i)) != 0 ? c.getPumpCapacity(i) : 0;
+      }
+      double rise = LevelPredictor.PERIOD * inflow;
+      for (double level = 0; level <= c.getCapacity(); level += 37.5) {
+        for (double steam = 0; steam <= c.getMaximualSteamRate(); steam += 2.5) {
+          double lo = level + (LevelPredictor.PERIOD * (inflow - c.getMaximualSteamRate()));
+          double hi = level + (LevelPredictor.PERIOD * (inflow - steam));
+          assertEquals(lo, p.minimum(level) + rise, TOLERANCE);
+          assertEquals(hi, p.maximum(level, steam) + rise, TOLERANCE);
+        }
+      }
+    }
+  }
+
+  /**
+   * Check predictors are shared between configurations which differ only in their pumps, but not
+   * between those whose maximum steam output differs.
+   */
+  @Test
+  public void test_predictor_03() {
+    SteamBoilerCharacteristics a = this.defaultConfig.setNumberOfPumps(4, 4);
+    SteamBoilerCharacteristics b = this.defaultConfig.setNumberOfPumps(4, 4);
+    SteamBoilerCharacteristics c = this.defaultConfig.setNumberOfPumps(4, 4).setPumpCapacity(3, 5);
+    SteamBoilerCharacteristics d = this.defaultConfig.setNumberOfPumps(5, 4);
+    SteamBoilerCharacteristics e = this.defaultConfig.setMaximualSteamRate(12);
+    assert a != null && b != null && c != null && d != null && e != null;
+    assertNotSame(a, b);
+    assertSame(LevelPredictor.of(a), LevelPredictor.of(b));
+    assertSame(LevelPredictor.of(a), LevelPredictor.of(c));
+    assertSame(LevelPredictor.of(a), LevelPredictor.of(d));
+    assertNotSame(LevelPredictor.of(a), LevelPredictor.of(e));
+  }
+
+  /**
+   * Check the ideal inflow centres the predicted range exactly on the middle of the normal band.
+   */
+  @Test
+  public void test_predictor_04() {
+    SteamBoilerCharacteristics c = this.defaultConfig;
+    LevelPredictor p = new LevelPredictor(c);
+    double target = (c.getMinimalNormalLevel() + c.getMaximalNormalLevel()) / 2;
+    for (double level = 0; level <= c.getCapacity(); level += 25) {
+      for (double steam = 0; steam <= c.getMaximualSteamRate(); steam += 2.5) {
+        double q = p.idealInflow(level, steam);
+        double lo = level + (LevelPredictor.PERIOD * (q - c.getMaximualSteamRate()));
+        double hi = level + (LevelPredictor.PERIOD * (q - steam));
+        assertEquals(target, (lo + hi) / 2, TOLERANCE);
+      }
+    }
+  }
+}
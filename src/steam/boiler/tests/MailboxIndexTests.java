@@ -0,0 +1,133 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import steam.boiler.core.MailboxIndex;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.UnboundedMailbox;
+
+/**
+ * These tests check the single-pass demultiplexing of incoming mailboxes, independently of any
+ * controller.
+ */
+public class MailboxIndexTests {
+
+  /**
+   * Check a well-formed mailbox is indexed as complete.
+   */
+  @Test
+  public void test_index_01() {
+    MailboxIndex index = new MailboxIndex(2);
+    Mailbox mailbox = wellFormed(2);
+    index.index(mailbox);
+    assertSame(mailbox.read(0), index.only(MessageKind.LEVEL_v));
+    assertSame(mailbox.read(1), index.only(MessageKind.STEAM_v));
+    assertTrue(index.isCompleteForPumps(MessageKind.PUMP_STATE_n_b));
+    assertTrue(index.isCompleteForPumps(MessageKind.PUMP_CONTROL_STATE_n_b));
+    assertSame(mailbox.read(3), index.pump(MessageKind.PUMP_STATE_n_b, 1));
+  }
+
+  /**
+   * Check duplicated singleton messages are reported and not extracted.
+   */
+  @Test
+  public void test_index_02() {
+    MailboxIndex index = new MailboxIndex(2);
+    Mailbox mailbox = wellFormed(2);
+    mailbox.send(new Message(MessageKind.LEVEL_v, 10.0));
+    index.index(mailbox);
+    assertEquals(2, index.count(MessageKind.LEVEL_v));
+    assertTrue(index.isDuplicated(MessageKind.LEVEL_v));
+    assertNull(index.only(MessageKind.LEVEL_v));
+  }
+
+  /**
+   * Check missing, duplicated and out-of-range pump messages are all reported.
+   */
+  @Test
+  public void test_index_03() {
+    MailboxIndex index = new MailboxIndex(3);
+    Mailbox mailbox = new UnboundedMailbox(10);
+    mailbox.send(new Message(MessageKind.PUMP_STATE_n_b, 0, true));
+    mailbox.send(new Message(MessageKind.PUMP_STATE_n_b, 0, false));
+    mailbox.send(new Message(MessageKind.PUMP_STATE_n_b, 7, false));
+    index.index(mailbox);
+    assertEquals(3, index.count(MessageKind.PUMP_STATE_n_b));
+    assertEquals(2, index.missingPumps(MessageKind.PUMP_STATE_n_b));
+    assertEquals(1, index.duplicatePumps(MessageKind.PUMP_STATE_n_b));
+    assertEquals(1, index.invalidPumps(MessageKind.PUMP_STATE_n_b));
+    assertFalse(index.isCompleteForPumps(MessageKind.PUMP_STATE_n_b));
+    assertSame(mailbox.read(0), index.pump(MessageKind.PUMP_STATE_n_b, 0));
+    assertNull(index.pump(MessageKind.PUMP_STATE_n_b, 1));
+  }
+
+  /**
+   * Check nothing from a previous mailbox survives indexing the next one.
+   */
+  @Test
+  public void test_index_04() {
+    MailboxIndex index = new MailboxIndex(2);
+    index.index(wellFormed(2));
+    index.index(new UnboundedMailbox(1));
+    assertFalse(index.contains(MessageKind.LEVEL_v));
+    assertNull(index.only(MessageKind.STEAM_v));
+    assertNull(index.pump(MessageKind.PUMP_STATE_n_b, 0));
+    assertEquals(2, index.missingPumps(MessageKind.PUMP_CONTROL_STATE_n_b));
+  }
+
+  /**
+   * Check pump bitsets record which pumps were seen, duplicated and reported true, across word
+   * boundaries, and are cleared by the next mailbox.
+   */
+  @Test
+  public void test_index_05() {
+    MailboxIndex index = new MailboxIndex(130);
+    Mailbox mailbox = new UnboundedMailbox(10);
+    mailbox.send(new Message(MessageKind.PUMP_STATE_n_b, 1, true));
+    mailbox.send(new Message(MessageKind.PUMP_STATE_n_b, 64, false));
+    mailbox.send(new Message(MessageKind.PUMP_STATE_n_b, 129, true));
+    mailbox.send(new Message(MessageKind.PUMP_STATE_n_b, 129, false));
+    index.index(mailbox);
+    assertEquals(3, index.words());
+    long[] seen = index.pumpsSeen(MessageKind.PUMP_STATE_n_b);
+    assertEquals(1L << 1, seen[0]);
+    assertEquals(1L, seen[1]);
+    assertEquals(1L << 1, seen[2]);
+    assertEquals(1L << 1, index.pumpsDuplicated(MessageKind.PUMP_STATE_n_b)[2]);
+    long[] open = index.pumpsTrue(MessageKind.PUMP_STATE_n_b);
+    assertEquals(1L << 1, open[0]);
+    assertEquals(0L, open[1]);
+    assertEquals(1L << 1, open[2]);
+    assertEquals(0L, index.pumpsSeen(MessageKind.PUMP_CONTROL_STATE_n_b)[0]);
+    index.index(wellFormed(1));
+    assertEquals(1L, index.pumpsSeen(MessageKind.PUMP_STATE_n_b)[0]);
+    assertEquals(0L, index.pumpsSeen(MessageKind.PUMP_STATE_n_b)[2]);
+    assertEquals(0L, index.pumpsTrue(MessageKind.PUMP_STATE_n_b)[0]);
+  }
+
+  /**
+   * Construct a mailbox containing exactly one of every reading expected each cycle.
+   *
+   * @param numberOfPumps The number of pumps to report on.
+   * @return The constructed mailbox.
+   */
+  private static Mailbox wellFormed(int numberOfPumps) {
+    Mailbox mailbox = new UnboundedMailbox(100);
+    mailbox.send(new Message(MessageKind.LEVEL_v, 200.0));
+    mailbox.send(new Message(MessageKind.STEAM_v, 0.0));
+    for (int i = 0; i != numberOfPumps; ++i) {
+      mailbox.send(new Message(MessageKind.PUMP_STATE_n_b, i, false));
+    }
+    for (int i = 0; i != numberOfPumps; ++i) {
+      mailbox.send(new Message(MessageKind.PUMP_CONTROL_STATE_n_b, i, false));
+    }
+    return mailbox;
+  }
+}
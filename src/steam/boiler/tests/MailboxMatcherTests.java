@@ -0,0 +1,184 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static steam.boiler.tests.TestUtils.ANY;
+import static steam.boiler.tests.TestUtils.LEVEL_FAILURE_DETECTION;
+import static steam.boiler.tests.TestUtils.MODE_degraded;
+import static steam.boiler.tests.TestUtils.MODE_normal;
+import static steam.boiler.tests.TestUtils.PROGRAM_READY;
+import static steam.boiler.tests.TestUtils.PUMP_CONTROL_FAILURE_DETECTION;
+import static steam.boiler.tests.TestUtils.PUMP_FAILURE_DETECTION;
+import static steam.boiler.tests.TestUtils.VALVE;
+import static steam.boiler.tests.TestUtils.atleast;
+import static steam.boiler.tests.TestUtils.exactly;
+
+import java.util.Random;
+import org.junit.Test;
+import steam.boiler.core.RingMailbox;
+import steam.boiler.tests.TestUtils.MessageMatcher;
+import steam.boiler.tests.TestUtils.ParameterMatcher;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.Mailbox.Mode;
+import steam.boiler.util.UnboundedMailbox;
+
+/**
+ * These tests check that the mailbox matchers constructed by <code>exactly()</code> and
+ * <code>atleast()</code>, which are compiled into a single pass over the mailbox, give the same
+ * results as applying each message matcher to the mailbox in turn.
+ */
+public class MailboxMatcherTests {
+  /**
+   * Matches even integer parameters.
+   */
+  private static final ParameterMatcher EVEN = new ParameterMatcher() {
+    @Override
+    public boolean matches(Mode m) {
+      return false;
+    }
+
+    @Override
+    public boolean matches(int n) {
+      return n % 2 == 0;
+    }
+
+    @Override
+    public boolean matches(boolean b) {
+      return false;
+    }
+
+    @Override
+    public boolean matches(double v) {
+      return false;
+    }
+
+    @Override
+    public boolean matches(int n, boolean b) {
+      return false;
+    }
+  };
+
+  /**
+   * The message matchers from which random combinations are drawn.
+   */
+  private static final MessageMatcher[] MATCHERS = { MODE_normal, MODE_degraded, PROGRAM_READY,
+      VALVE, LEVEL_FAILURE_DETECTION, PUMP_FAILURE_DETECTION(0), PUMP_FAILURE_DETECTION(1),
+      PUMP_FAILURE_DETECTION(ANY), PUMP_FAILURE_DETECTION(EVEN), PUMP_CONTROL_FAILURE_DETECTION(1),
+      PUMP_CONTROL_FAILURE_DETECTION(ANY) };
+
+  /**
+   * The messages from which random mailboxes are drawn.
+   */
+  private static final Message[] MESSAGES = { new Message(MessageKind.MODE_m, Mode.NORMAL),
+      new Message(MessageKind.MODE_m, Mode.DEGRADED), new Message(MessageKind.PROGRAM_READY),
+      new Message(MessageKind.VALVE), new Message(MessageKind.LEVEL_FAILURE_DETECTION),
+      new Message(MessageKind.PUMP_FAILURE_DETECTION_n, 0),
+      new Message(MessageKind.PUMP_FAILURE_DETECTION_n, 1),
+      new Message(MessageKind.PUMP_FAILURE_DETECTION_n, 2),
+      new Message(MessageKind.PUMP_CONTROL_FAILURE_DETECTION_n, 1),
+      new Message(MessageKind.LEVEL_v, 1.0), new Message(MessageKind.PUMP_STATE_n_b, 0, true) };
+
+  /**
+   * Check that a message matched first by two matchers leaves another unmatched, even if a
+   * different assignment of messages to matchers would have matched every message.
+   */
+  @Test
+  public void test_matcher_01() {
+    Mailbox m = mailbox(true, MESSAGES[5], MESSAGES[7]);
+    assertFalse(exactly(PUMP_FAILURE_DETECTION(ANY), PUMP_FAILURE_DETECTION(EVEN)).matches(m));
+    assertTrue(exactly(PUMP_FAILURE_DETECTION(ANY), PUMP_FAILURE_DETECTION(2)).matches(m));
+    assertTrue(atleast(PUMP_FAILURE_DETECTION(ANY), PUMP_FAILURE_DETECTION(EVEN)).matches(m));
+    assertFalse(atleast(PUMP_FAILURE_DETECTION(1)).matches(m));
+    assertTrue(exactly().matches(mailbox(true)));
+    assertFalse(exactly().matches(m));
+    assertTrue(atleast().matches(m));
+  }
+
+  /**
+   * Check that random combinations of matchers give the same results for random mailboxes, both
+   * ring mailboxes and mailboxes of message objects, as the matchers applied one at a time.
+   */
+  @Test
+  public void test_matcher_02() {
+    Random random = new Random(24);
+    int matched = 0;
+    for (int trial = 0; trial != 20000; ++trial) {
+      MessageMatcher[] matchers = new MessageMatcher[random.nextInt(5)];
+      for (int j = 0; j != matchers.length; ++j) {
+        matchers[j] = MATCHERS[random.nextInt(MATCHERS.length)];
+      }
+      // Mostly draw as many messages as matchers, since otherwise exactly() cannot match
+      int n = random.nextInt(4) == 0 ? random.nextInt(5) : matchers.length;
+      Message[] messages = new Message[n];
+      for (int i = 0; i != n; ++i) {
+        messages[i] = MESSAGES[random.nextInt(MESSAGES.length)];
+      }
+      for (boolean ring : new boolean[] { true, false }) {
+        Mailbox m = mailbox(ring, messages);
+        boolean expected = exactly(uncompiled(matchers)).matches(m);
+        assertEquals(expected, exactly(matchers).matches(m));
+        assertEquals(atleast(uncompiled(matchers)).matches(m), atleast(matchers).matches(m));
+        matched += expected ? 1 : 0;
+      }
+    }
+    // Make sure the interesting case was actually exercised
+    assertTrue(matched > 1000);
+  }
+
+  /**
+   * Check that as many matchers as can be compiled, and more, still match as before.
+   */
+  @Test
+  public void test_matcher_03() {
+    for (int size = Long.SIZE; size <= Long.SIZE + 1; ++size) {
+      MessageMatcher[] matchers = new MessageMatcher[size];
+      Message[] messages = new Message[size];
+      for (int j = 0; j != size; ++j) {
+        matchers[j] = PUMP_FAILURE_DETECTION(j);
+        messages[j] = new Message(MessageKind.PUMP_FAILURE_DETECTION_n, size - j - 1);
+      }
+      for (boolean ring : new boolean[] { true, false }) {
+        Mailbox m = mailbox(ring, messages);
+        assertTrue(exactly(matchers).matches(m));
+        matchers[size - 1] = VALVE;
+        assertFalse(exactly(matchers).matches(m));
+        assertFalse(atleast(matchers).matches(m));
+        matchers[size - 1] = PUMP_FAILURE_DETECTION(size - 1);
+      }
+    }
+  }
+
+  /**
+   * Hide a set of matchers behind ones which are not concrete, so they cannot be compiled and are
+   * applied one at a time instead.
+   *
+   * @param matchers The matchers to hide.
+   * @return The hidden matchers.
+   */
+  private static MessageMatcher[] uncompiled(MessageMatcher[] matchers) {
+    MessageMatcher[] r = new MessageMatcher[matchers.length];
+    for (int j = 0; j != matchers.length; ++j) {
+      MessageMatcher m = matchers[j];
+      r[j] = mailbox -> m.match(mailbox);
+    }
+    return r;
+  }
+
+  /**
+   * Construct a mailbox holding some messages.
+   *
+   * @param ring     Whether to construct a ring mailbox, or a mailbox of message objects.
+   * @param messages The messages.
+   * @return The mailbox.
+   */
+  private static Mailbox mailbox(boolean ring, Message... messages) {
+    Mailbox m = ring ? new RingMailbox(4) : new UnboundedMailbox(4);
+    for (Message message : messages) {
+      m.send(message);
+    }
+    return m;
+  }
+}
@@ -0,0 +1,246 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static steam.boiler.tests.TestUtils.clockForWithout;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.core.PredictiveScheduler;
+import steam.boiler.core.PumpSelector;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * These tests check the predictive scheduler finds the best schedule (against brute force for
+ * short horizons), that its budget is respected, and that a controller whose scheduler never has
+ * time to plan behaves exactly as one without predictive control.
+ */
+public class PredictiveSchedulerTests {
+  /**
+   * Tolerance allowed when comparing costs.
+   */
+  private static final double TOLERANCE = 1e-6;
+
+  /**
+   * A budget (in nanoseconds) which is never hit by the searches here.
+   */
+  private static final long UNLIMITED = Long.MAX_VALUE;
+
+  /**
+   * Default configuration. This is actually used just to prevent Eclipse from
+   * reporting that every method could be static!
+   */
+  private final SteamBoilerCharacteristics defaultConfig = SteamBoilerCharacteristics.DEFAULT;
+
+  /**
+   * Check the schedule found is optimal for a range of levels, steam outputs and trends, with
+   * identical pumps.
+   */
+  @Test
+  public void test_scheduler_01() {
+    SteamBoilerCharacteristics config = this.defaultConfig.setNumberOfPumps(3, 4);
+    checkOptimal(config, 4);
+  }
+
+  /**
+   * Check the schedule found is optimal when the pumps have different capacities.
+   */
+  @Test
+  public void test_scheduler_02() {
+    SteamBoilerCharacteristics config = this.defaultConfig.setNumberOfPumps(3, 2);
+    config = config.setPumpCapacity(1, 5).setPumpCapacity(2, 7);
+    checkOptimal(config, 3);
+  }
+
+  /**
+   * Check a search with no budget finds nothing, and is counted as having hit the budget and
+   * fallen back.
+   */
+  @Test
+  public void test_scheduler_03() {
+    PredictiveScheduler s = new PredictiveScheduler(this.defaultConfig, 4, 0);
+    assertFalse(s.plan(250, 5, 0, 0, 0));
+    assertEquals(1, s.getPlans());
+    assertEquals(1, s.getBudgetHits());
+    assertEquals(1, s.getFallbacks());
+    PredictiveScheduler t = new PredictiveScheduler(this.defaultConfig, 4, UNLIMITED);
+    assertTrue(t.plan(250, 5, 0, 0, 0));
+    assertEquals(0, t.getBudgetHits());
+    assertEquals(0, t.getFallbacks());
+  }
+
+  /**
+   * Check a search which runs out of time stops promptly, and that any schedule it found by then
+   * uses only inflows which can be selected.
+   */
+  @Test
+  public void test_scheduler_04() {
+    SteamBoilerCharacteristics config = this.defaultConfig.setNumberOfPumps(64, 1);
+    for (int i = 0; i != 64; ++i) {
+      config = config.setPumpCapacity(i, 1 + (i % 7));
+    }
+    // Searching the whole tree from here takes thousands of evaluations
+    PredictiveScheduler s = new PredictiveScheduler(config, PredictiveScheduler.MAX_HORIZON,
+        1_000_000);
+    long start = System.nanoTime();
+    boolean found = s.plan(250, 3, 0.5, 0, 13);
+    long elapsed = System.nanoTime() - start;
+    assertEquals(1, s.getBudgetHits());
+    // The clock is only read every so often, so allow a little over the budget
+    assertTrue(elapsed < 50_000_000);
+    if (found) {
+      double inflow = s.getInflow();
+      assertEquals(Math.rint(inflow), inflow, TOLERANCE);
+      assertTrue(inflow >= 0 && inflow <= 4 * 64);
+    }
+  }
+
+  /**
+   * Check the inflows planned are restricted to the pumps available.
+   */
+  @Test
+  public void test_scheduler_05() {
+    SteamBoilerCharacteristics config = this.defaultConfig.setNumberOfPumps(3, 4);
+    PumpSelector selector = new PumpSelector(config);
+    PredictiveScheduler s = new PredictiveScheduler(config, 3, UNLIMITED);
+    // Very low level, so as much inflow as possible is wanted
+    assertTrue(s.plan(config.getMinimalNormalLevel(), 10, 0, 0, 0));
+    assertEquals(12, s.getInflow(), TOLERANCE);
+    selector.setAvailable(0, false);
+    s.update(selector);
+    assertTrue(s.plan(config.getMinimalNormalLevel(), 10, 0, 0, 0));
+    assertEquals(8, s.getInflow(), TOLERANCE);
+  }
+
+  /**
+   * Check invalid horizons are rejected.
+   */
+  @Test
+  public void test_scheduler_06() {
+    try {
+      new PredictiveScheduler(this.defaultConfig, PredictiveScheduler.MAX_HORIZON + 1, 0);
+      fail("expected invalid horizon"); //$NON-NLS-1$
+    } catch (IllegalArgumentException e) {
+      assertEquals("invalid horizon " + (PredictiveScheduler.MAX_HORIZON + 1), //$NON-NLS-1$
+          e.getMessage());
+    }
+  }
+
+  /**
+   * Check a controller whose scheduler never has time to plan sends exactly the same messages as
+   * one without predictive control, since it always falls back to the same one-step rule.
+   */
+  @Test
+  public void test_scheduler_07() {
+    SteamBoilerCharacteristics config = this.defaultConfig;
+    MySteamBoilerController plain = new MySteamBoilerController(config);
+    MySteamBoilerController fallback = new MySteamBoilerController(config, 4, 0);
+    List<String> expected = record(plain, config);
+    List<String> actual = record(fallback, config);
+    assertEquals(expected, actual);
+    PredictiveScheduler s = fallback.getScheduler();
+    assert s != null;
+    assertTrue(s.getPlans() > 0);
+    assertEquals(s.getPlans(), s.getFallbacks());
+  }
+
+  /**
+   * Check predictive control holds the level in normal operation, with every search completing
+   * within its budget once warmed up.
+   */
+  @Test
+  public void test_scheduler_08() {
+    SteamBoilerCharacteristics config = this.defaultConfig;
+    MySteamBoilerController controller = new MySteamBoilerController(config, 4, 10_000_000);
+    record(controller, config);
+    PredictiveScheduler s = controller.getScheduler();
+    assert s != null;
+    assertEquals(0, s.getFallbacks());
+    double band = config.getMaximalNormalLevel() - config.getMinimalNormalLevel();
+    assertTrue(s.getRmsError() < band / 4);
+  }
+
+  /**
+   * Check the schedule found by the scheduler has the lowest cost of any schedule, over a range
+   * of starting states.
+   *
+   * @param config  The configuration to check.
+   * @param horizon The horizon to search over.
+   */
+  private static void checkOptimal(SteamBoilerCharacteristics config, int horizon) {
+    PumpSelector selector = new PumpSelector(config);
+    double[] levels = new double[selector.getLevelCount()];
+    int count = selector.levels(levels);
+    PredictiveScheduler s = new PredictiveScheduler(config, horizon, UNLIMITED);
+    double[] schedule = new double[horizon];
+    for (double level = config.getMinimalNormalLevel(); level <= config
+        .getMaximalNormalLevel(); level += 25) {
+      for (double steam = 0; steam <= config.getMaximualSteamRate(); steam += 2.5) {
+        for (double trend = -1; trend <= 1; trend += 1) {
+          double current = levels[(int) (level + steam) % count];
+          assertTrue(s.plan(level, steam, trend, 0, current));
+          for (int j = 0; j != horizon; ++j) {
+            schedule[j] = s.getInflow(j);
+          }
+          assertEquals(s.getCost(), s.evaluate(level, current, schedule), TOLERANCE);
+          double best = bruteForce(s, level, current, levels, count, schedule, 0);
+          assertEquals(best, s.getCost(), TOLERANCE);
+        }
+      }
+    }
+  }
+
+  /**
+   * Find the lowest cost of any schedule by trying every one.
+   *
+   * @param s        The scheduler, which has just planned from the given state.
+   * @param level    The level planned from.
+   * @param current  The inflow planned from.
+   * @param levels   The inflows which can be selected.
+   * @param count    The number of inflows which can be selected.
+   * @param schedule Working storage for the schedule.
+   * @param depth    The number of cycles already fixed in the schedule.
+   * @return The lowest cost.
+   */
+  private static double bruteForce(PredictiveScheduler s, double level, double current,
+      double[] levels, int count, double[] schedule, int depth) {
+    if (depth == schedule.length) {
+      return s.evaluate(level, current, schedule);
+    }
+    double best = Double.POSITIVE_INFINITY;
+    for (int i = 0; i != count; ++i) {
+      schedule[depth] = levels[i];
+      best = Math.min(best, bruteForce(s, level, current, levels, count, schedule, depth + 1));
+    }
+    return best;
+  }
+
+  /**
+   * Run the normal operation scenario for a given controller, recording every message it sends.
+   *
+   * @param controller The controller to run.
+   * @param config     Its configuration.
+   * @return The messages sent in each cycle.
+   */
+  private static List<String> record(MySteamBoilerController controller,
+      SteamBoilerCharacteristics config) {
+    PhysicalUnits model = new PhysicalUnits.Template(config).construct();
+    model.setMode(PhysicalUnits.Mode.WAITING);
+    List<String> messages = new ArrayList<>();
+    clockForWithout(300, controller, model, (Mailbox m) -> {
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i != m.size(); ++i) {
+        sb.append(m.read(i)).append(' ');
+      }
+      messages.add(sb.toString());
+      return false;
+    });
+    return messages;
+  }
+}
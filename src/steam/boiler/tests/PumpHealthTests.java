@@ -0,0 +1,191 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import steam.boiler.core.MailboxIndex;
+import steam.boiler.core.OutgoingMessages;
+import steam.boiler.core.PumpHealth;
+import steam.boiler.core.RingMailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+
+/**
+ * These tests check pump and pump controller failures are detected from the reported states, and
+ * that acknowledgements and repairs are handled, independently of any controller.
+ */
+public class PumpHealthTests {
+  /**
+   * Check a pump reported open when commanded closed is detected as failed, and the detection
+   * repeated until acknowledged.
+   */
+  @Test
+  public void test_health_01() {
+    Fixture f = new Fixture(4);
+    f.reports(1, true, true);
+    assertTrue(f.update());
+    assertTrue(f.health.isPumpFailed(1));
+    assertFalse(f.health.isControllerFailed(1));
+    assertEquals("[PUMP_FAILURE_DETECTION_n(1)]", f.report()); //$NON-NLS-1$
+    f.reports(1, true, true);
+    assertTrue(f.update());
+    assertEquals("[PUMP_FAILURE_DETECTION_n(1)]", f.report()); //$NON-NLS-1$
+    f.reports(1, true, true);
+    f.input.send(new Message(MessageKind.PUMP_FAILURE_ACKNOWLEDGEMENT_n, 1));
+    assertTrue(f.update());
+    assertEquals("[]", f.report()); //$NON-NLS-1$
+    assertEquals(1, f.health.countPumpFailures());
+  }
+
+  /**
+   * Check a pump controller disagreeing with its pump is detected as failed, and that a repair is
+   * acknowledged and clears the failure.
+   */
+  @Test
+  public void test_health_02() {
+    Fixture f = new Fixture(4);
+    f.health.command(2, true);
+    f.reports(2, true, false);
+    assertTrue(f.update());
+    assertFalse(f.health.isPumpFailed(2));
+    assertTrue(f.health.isControllerFailed(2));
+    assertEquals("[PUMP_CONTROL_FAILURE_DETECTION_n(2)]", f.report()); //$NON-NLS-1$
+    f.reports(2, true, true);
+    f.input.send(new Message(MessageKind.PUMP_CONTROL_REPAIRED_n, 2));
+    assertTrue(f.update());
+    assertTrue(f.health.isHealthy(2));
+    assertEquals("[PUMP_CONTROL_REPAIRED_ACKNOWLEDGEMENT_n(2)]", f.report()); //$NON-NLS-1$
+  }
+
+  /**
+   * Check missing and duplicated reports are flagged, without concluding anything about the pumps
+   * concerned.
+   */
+  @Test
+  public void test_health_03() {
+    Fixture f = new Fixture(3);
+    f.reports(-1, false, false);
+    f.input.send(new Message(MessageKind.PUMP_STATE_n_b, 0, true));
+    assertFalse(f.update());
+    assertTrue(f.health.isIncomplete());
+    assertTrue(f.health.isHealthy(0));
+    f.input.clear();
+    f.input.send(new Message(MessageKind.PUMP_STATE_n_b, 0, false));
+    assertFalse(f.update());
+  }
+
+  /**
+   * Check detection works across many words of pumps.
+   */
+  @Test
+  public void test_health_04() {
+    Fixture f = new Fixture(1000);
+    f.health.command(999, true);
+    f.reports(700, true, true);
+    assertTrue(f.update());
+    assertEquals(2, f.health.countPumpFailures());
+    assertTrue(f.health.isPumpFailed(700));
+    assertTrue(f.health.isPumpFailed(999));
+    assertEquals("[PUMP_FAILURE_DETECTION_n(700), PUMP_FAILURE_DETECTION_n(999)]", //$NON-NLS-1$
+        f.report());
+  }
+
+  /**
+   * Check a copy is independent of the original.
+   */
+  @Test
+  public void test_health_05() {
+    Fixture f = new Fixture(4);
+    f.reports(0, true, true);
+    f.update();
+    PumpHealth copy = new PumpHealth(f.health);
+    f.reports(0, false, false);
+    f.input.send(new Message(MessageKind.PUMP_REPAIRED_n, 0));
+    f.update();
+    assertFalse(f.health.isPumpFailed(0));
+    assertTrue(copy.isPumpFailed(0));
+    f.health.restore(copy);
+    assertTrue(f.health.isPumpFailed(0));
+  }
+
+  /**
+   * Bundles a tracker together with the mailboxes and index used to drive it.
+   */
+  private static final class Fixture {
+    /**
+     * The number of pumps.
+     */
+    final int numberOfPumps;
+
+    /**
+     * The tracker under test.
+     */
+    final PumpHealth health;
+
+    /**
+     * Index of the incoming messages.
+     */
+    final MailboxIndex index;
+
+    /**
+     * Preallocated outgoing messages.
+     */
+    final OutgoingMessages messages;
+
+    /**
+     * The incoming messages for the next update.
+     */
+    final RingMailbox input = new RingMailbox(16);
+
+    /**
+     * Construct a fixture for a given number of pumps.
+     *
+     * @param numberOfPumps The number of pumps.
+     */
+    Fixture(int numberOfPumps) {
+      this.numberOfPumps = numberOfPumps;
+      this.health = new PumpHealth(numberOfPumps);
+      this.index = new MailboxIndex(numberOfPumps);
+      this.messages = new OutgoingMessages(numberOfPumps);
+    }
+
+    /**
+     * Replace the incoming messages with a report of every pump closed (with no flow), except for
+     * one given pump.
+     *
+     * @param pump    The pump reported differently, or -1 for none.
+     * @param open    Whether that pump is reported open.
+     * @param flowing Whether its controller reports flow.
+     */
+    void reports(int pump, boolean open, boolean flowing) {
+      this.input.clear();
+      for (int i = 0; i != this.numberOfPumps; ++i) {
+        this.input.send(MessageKind.PUMP_STATE_n_b, i, i == pump && open);
+        this.input.send(MessageKind.PUMP_CONTROL_STATE_n_b, i, i == pump && flowing);
+      }
+    }
+
+    /**
+     * Index the incoming messages and update the tracker.
+     *
+     * @return The result of the update.
+     */
+    boolean update() {
+      this.index.index(this.input);
+      return this.health.update(this.index);
+    }
+
+    /**
+     * Get the messages the tracker would send.
+     *
+     * @return The messages, as a string.
+     */
+    String report() {
+      RingMailbox output = new RingMailbox(4);
+      this.health.report(output, this.messages);
+      return output.toString();
+    }
+  }
+}
@@ -0,0 +1,282 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static steam.boiler.tests.TestUtils.clockForWithout;
+
+import org.junit.Test;
+import steam.boiler.core.MailboxIndex;
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.core.OutgoingMessages;
+import steam.boiler.core.PumpHealth;
+import steam.boiler.core.PumpOutput;
+import steam.boiler.core.RingMailbox;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * These tests check pump commands are only sent when they change, except where a pump appears not
+ * to have received its last command, and that this keeps the traffic low in normal operation.
+ */
+public class PumpOutputTests {
+  /**
+   * The largest permitted mean number of pump commands per cycle in normal operation. Sending
+   * every command on every cycle gives one per pump.
+   */
+  private static final double MAX_COMMANDS_PER_CYCLE = 0.5;
+
+  /**
+   * Default configuration. This is actually used just to prevent Eclipse from
+   * reporting that every method could be static!
+   */
+  private final SteamBoilerCharacteristics defaultConfig = SteamBoilerCharacteristics.DEFAULT;
+
+  /**
+   * Check every pump is sent a command the first time, and nothing is sent again whilst the
+   * commands are unchanged and received.
+   */
+  @Test
+  public void test_output_01() {
+    Fixture f = new Fixture(3);
+    f.health.command(1, true);
+    assertEquals("[CLOSE_PUMP_n(0), OPEN_PUMP_n(1), CLOSE_PUMP_n(2)]", //$NON-NLS-1$
+        f.emit());
+    assertEquals(3, f.output.getEmitted());
+    assertEquals(0, f.output.getRetransmitted());
+    f.reported[0] = 0b010;
+    assertEquals("[]", f.emit()); //$NON-NLS-1$
+    assertEquals(0, f.output.getEmitted());
+    assertTrue(f.output.isSent(2));
+    assertTrue(f.output.isOpen(1));
+    assertFalse(f.output.isOpen(2));
+  }
+
+  /**
+   * Check a change of command is sent only to the pump concerned.
+   */
+  @Test
+  public void test_output_02() {
+    Fixture f = new Fixture(3);
+    f.emit();
+    f.health.command(2, true);
+    assertEquals("[OPEN_PUMP_n(2)]", f.emit()); //$NON-NLS-1$
+    assertEquals(0, f.output.getRetransmitted());
+    f.reported[0] = 0b100;
+    f.health.command(2, false);
+    assertEquals("[CLOSE_PUMP_n(2)]", f.emit()); //$NON-NLS-1$
+  }
+
+  /**
+   * Check a command is retransmitted to a healthy pump whose reported state disagrees with it,
+   * until it is seen to be received.
+   */
+  @Test
+  public void test_output_03() {
+    Fixture f = new Fixture(3);
+    f.health.command(0, true);
+    f.emit();
+    assertEquals("[OPEN_PUMP_n(0)]", f.emit()); //$NON-NLS-1$
+    assertEquals(1, f.output.getRetransmitted());
+    f.reported[0] = 0b001;
+    assertEquals("[]", f.emit()); //$NON-NLS-1$
+  }
+
+  /**
+   * Check a command is not retransmitted to a failed pump until it is repaired.
+   */
+  @Test
+  public void test_output_04() {
+    Fixture f = new Fixture(3);
+    f.emit();
+    // Pump 1 reports open despite being commanded closed, so has failed
+    f.reports(1);
+    assertTrue(f.update());
+    assertTrue(f.health.isPumpFailed(1));
+    f.reported[0] = 0b010;
+    assertEquals("[]", f.emit()); //$NON-NLS-1$
+    // Once repaired, a report of the pump still open means it should be told again
+    f.reports(-1);
+    f.input.send(MessageKind.PUMP_REPAIRED_n, 1);
+    f.update();
+    assertTrue(f.health.isHealthy(1));
+    assertEquals("[CLOSE_PUMP_n(1)]", f.emit()); //$NON-NLS-1$
+  }
+
+  /**
+   * Check commands are tracked across many words of pumps.
+   */
+  @Test
+  public void test_output_05() {
+    Fixture f = new Fixture(130);
+    f.emit();
+    assertEquals(130, f.output.getEmitted());
+    f.health.command(63, true);
+    f.health.command(129, true);
+    assertEquals("[OPEN_PUMP_n(63), OPEN_PUMP_n(129)]", f.emit()); //$NON-NLS-1$
+    f.reported[0] = 1L << 63;
+    f.reported[2] = 1L << 1;
+    assertEquals("[]", f.emit()); //$NON-NLS-1$
+  }
+
+  /**
+   * Check a copy is independent of the original.
+   */
+  @Test
+  public void test_output_06() {
+    Fixture f = new Fixture(2);
+    f.emit();
+    PumpOutput copy = new PumpOutput(f.output);
+    f.health.command(0, true);
+    f.emit();
+    assertTrue(f.output.isOpen(0));
+    assertFalse(copy.isOpen(0));
+    f.output.restore(copy);
+    assertFalse(f.output.isOpen(0));
+    assertEquals("[OPEN_PUMP_n(0)]", f.emit()); //$NON-NLS-1$
+  }
+
+  /**
+   * Check the controller sends few pump commands in normal operation, with four pumps.
+   */
+  @Test
+  public void test_output_07() {
+    checkTraffic(this.defaultConfig);
+  }
+
+  /**
+   * Check the controller sends few pump commands in normal operation, with predictive control.
+   */
+  @Test
+  public void test_output_08() {
+    SteamBoilerCharacteristics config = this.defaultConfig.setNumberOfPumps(6, 4);
+    checkTraffic(config, new MySteamBoilerController(config, 4, 10_000_000));
+  }
+
+  /**
+   * Run the normal operation scenario for a given configuration, and check the mean number of pump
+   * commands sent per cycle is within bounds.
+   *
+   * @param config The configuration to run.
+   */
+  private static void checkTraffic(SteamBoilerCharacteristics config) {
+    checkTraffic(config, new MySteamBoilerController(config));
+  }
+
+  /**
+   * Run the normal operation scenario for a given controller, and check the mean number of pump
+   * commands sent per cycle is within bounds.
+   *
+   * @param config     The configuration to run.
+   * @param controller The controller to run.
+   */
+  private static void checkTraffic(SteamBoilerCharacteristics config,
+      MySteamBoilerController controller) {
+    PhysicalUnits model = new PhysicalUnits.Template(config).construct();
+    model.setMode(PhysicalUnits.Mode.WAITING);
+    int[] counts = new int[2];
+    clockForWithout(300, controller, model, (Mailbox m) -> {
+      counts[0]++;
+      for (int i = 0; i != m.size(); ++i) {
+        MessageKind kind = m.read(i).getKind();
+        if (kind == MessageKind.OPEN_PUMP_n || kind == MessageKind.CLOSE_PUMP_n) {
+          counts[1]++;
+        }
+      }
+      return false;
+    });
+    double mean = (double) counts[1] / counts[0];
+    assertTrue(mean + " commands per cycle", mean <= MAX_COMMANDS_PER_CYCLE); //$NON-NLS-1$
+  }
+
+  /**
+   * Bundles a tracker together with the pump health it sends, and the reports it is given.
+   */
+  private static final class Fixture {
+    /**
+     * The number of pumps.
+     */
+    final int numberOfPumps;
+
+    /**
+     * The tracker under test.
+     */
+    final PumpOutput output;
+
+    /**
+     * The pump health, holding the commanded states.
+     */
+    final PumpHealth health;
+
+    /**
+     * Index of the incoming messages.
+     */
+    final MailboxIndex index;
+
+    /**
+     * Preallocated outgoing messages.
+     */
+    final OutgoingMessages messages;
+
+    /**
+     * The incoming messages for the next health update.
+     */
+    final RingMailbox input = new RingMailbox(16);
+
+    /**
+     * The pumps reported open, given to the next emission.
+     */
+    final long[] reported;
+
+    /**
+     * Construct a fixture for a given number of pumps, all reported closed.
+     *
+     * @param numberOfPumps The number of pumps.
+     */
+    Fixture(int numberOfPumps) {
+      this.numberOfPumps = numberOfPumps;
+      this.output = new PumpOutput(numberOfPumps);
+      this.health = new PumpHealth(numberOfPumps);
+      this.index = new MailboxIndex(numberOfPumps);
+      this.messages = new OutgoingMessages(numberOfPumps);
+      this.reported = new long[(numberOfPumps + 63) >>> 6];
+    }
+
+    /**
+     * Replace the incoming messages with a report of every pump closed (with no flow), except for
+     * one given pump which is reported open (with flow).
+     *
+     * @param pump The pump reported open, or -1 for none.
+     */
+    void reports(int pump) {
+      this.input.clear();
+      for (int i = 0; i != this.numberOfPumps; ++i) {
+        this.input.send(MessageKind.PUMP_STATE_n_b, i, i == pump);
+        this.input.send(MessageKind.PUMP_CONTROL_STATE_n_b, i, i == pump);
+      }
+    }
+
+    /**
+     * Index the incoming messages and update the pump health.
+     *
+     * @return The result of the update.
+     */
+    boolean update() {
+      this.index.index(this.input);
+      return this.health.update(this.index);
+    }
+
+    /**
+     * Emit the commands needed, given the current reports.
+     *
+     * @return The messages sent, as a string.
+     */
+    String emit() {
+      RingMailbox out = new RingMailbox(256);
+      this.output.emit(this.health, this.reported, out, this.messages);
+      return out.toString();
+    }
+  }
+}
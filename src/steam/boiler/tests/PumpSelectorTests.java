@@ -0,0 +1,176 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import steam.boiler.core.MailboxIndex;
+import steam.boiler.core.PumpHealth;
+import steam.boiler.core.PumpSelector;
+import steam.boiler.core.RingMailbox;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * These tests check the pump selector chooses an optimal subset of the available pumps, against
+ * brute force for small numbers of pumps, and that changes in availability are tracked.
+ */
+public class PumpSelectorTests {
+  /**
+   * Tolerance allowed when comparing inflows.
+   */
+  private static final double TOLERANCE = 1e-9;
+
+  /**
+   * Default configuration. This is actually used just to prevent Eclipse from
+   * reporting that every method could be static!
+   */
+  private final SteamBoilerCharacteristics defaultConfig = SteamBoilerCharacteristics.DEFAULT;
+
+  /**
+   * Check the selection is optimal for pumps of many different capacities, across the whole range
+   * of desired inflows.
+   */
+  @Test
+  public void test_selector_01() {
+    SteamBoilerCharacteristics c = configuration(this.defaultConfig, 12);
+    PumpSelector selector = new PumpSelector(c);
+    for (double desired = -1; desired <= 60; desired += 0.25) {
+      double inflow = selector.select(desired);
+      checkSelection(c, selector, inflow);
+      assertEquals(best(c, selector, desired), Math.abs(inflow - desired), TOLERANCE);
+    }
+  }
+
+  /**
+   * Check the selection is optimal as pumps become unavailable and available again, and only ever
+   * includes available pumps.
+   */
+  @Test
+  public void test_selector_02() {
+    SteamBoilerCharacteristics c = configuration(this.defaultConfig, 10);
+    PumpSelector selector = new PumpSelector(c);
+    for (int step = 0; step != 40; ++step) {
+      int pump = (step * 7) % 10;
+      selector.setAvailable(pump, !selector.isAvailable(pump));
+      for (double desired = 0; desired <= 50; desired += 1.5) {
+        double inflow = selector.select(desired);
+        checkSelection(c, selector, inflow);
+        assertEquals(best(c, selector, desired), Math.abs(inflow - desired), TOLERANCE);
+      }
+    }
+  }
+
+  /**
+   * Check a pump detected as failed becomes unavailable, across more than one word of pumps.
+   */
+  @Test
+  public void test_selector_03() {
+    int n = 130;
+    SteamBoilerCharacteristics c = this.defaultConfig.setNumberOfPumps(n, 1.0);
+    assert c != null;
+    PumpSelector selector = new PumpSelector(c);
+    PumpHealth health = new PumpHealth(n);
+    MailboxIndex index = new MailboxIndex(n);
+    RingMailbox input = new RingMailbox(2 * n);
+    for (int i = 0; i != n; ++i) {
+      input.send(MessageKind.PUMP_STATE_n_b, i, i == 70);
+      input.send(MessageKind.PUMP_CONTROL_STATE_n_b, i, i == 70);
+    }
+    index.index(input);
+    assertTrue(health.update(index));
+    selector.update(health);
+    assertFalse(selector.isAvailable(70));
+    assertTrue(selector.isAvailable(69));
+    assertTrue(selector.isAvailable(129));
+    assertEquals(n - 1, selector.select(n), TOLERANCE);
+    assertFalse(selector.isSelected(70));
+  }
+
+  /**
+   * Check a selection amongst many pumps with capacities which are not exactly representable is
+   * within the quantisation bound of the desired inflow, when that inflow is achievable.
+   */
+  @Test
+  public void test_selector_04() {
+    int n = 1000;
+    SteamBoilerCharacteristics c = this.defaultConfig.setNumberOfPumps(n, 1.0);
+    double desired = 0;
+    for (int i = 0; i != n; ++i) {
+      c = c.setPumpCapacity(i, 0.1 + ((i % 7) * 0.37));
+      assert c != null;
+      desired += (i % 3) == 0 ? c.getPumpCapacity(i) : 0;
+    }
+    PumpSelector selector = new PumpSelector(c);
+    double inflow = selector.select(desired);
+    checkSelection(c, selector, inflow);
+    assertTrue(Math.abs(inflow - desired) <= n * selector.getQuantum());
+  }
+
+  /**
+   * Construct a configuration whose pumps have many different capacities.
+   *
+   * @param config The configuration to start from.
+   * @param n      The number of pumps.
+   * @return The configuration.
+   */
+  private static SteamBoilerCharacteristics configuration(SteamBoilerCharacteristics config,
+      int n) {
+    SteamBoilerCharacteristics c = config.setNumberOfPumps(n, 1.0);
+    for (int i = 0; i != n; ++i) {
+      c = c.setPumpCapacity(i, 1 + ((i * 5) % 9) * 0.5);
+      assert c != null;
+    }
+    return c;
+  }
+
+  /**
+   * Check the pumps selected are all available, and have the total capacity reported.
+   *
+   * @param config   The boiler characteristics.
+   * @param selector The selector.
+   * @param inflow   The total capacity reported.
+   */
+  private static void checkSelection(SteamBoilerCharacteristics config, PumpSelector selector,
+      double inflow) {
+    double sum = 0;
+    for (int i = 0; i != config.getNumberOfPumps(); ++i) {
+      if (selector.isSelected(i)) {
+        assertTrue(selector.isAvailable(i));
+        sum += config.getPumpCapacity(i);
+      }
+    }
+    assertEquals(sum, inflow, TOLERANCE);
+    assertEquals(sum, selector.getInflow(), TOLERANCE);
+  }
+
+  /**
+   * Determine, by trying every subset of the available pumps, the smallest possible deviation
+   * from a desired inflow.
+   *
+   * @param config   The boiler characteristics.
+   * @param selector The selector, which determines the available pumps.
+   * @param desired  The desired inflow.
+   * @return The smallest deviation.
+   */
+  private static double best(SteamBoilerCharacteristics config, PumpSelector selector,
+      double desired) {
+    int n = config.getNumberOfPumps();
+    double best = Double.POSITIVE_INFINITY;
+    for (int subset = 0; subset != (1 << n); ++subset) {
+      double sum = 0;
+      boolean ok = true;
+      for (int i = 0; i != n; ++i) {
+        if ((subset & (1 << i)) != 0) {
+          ok &= selector.isAvailable(i);
+          sum += config.getPumpCapacity(i);
+        }
+      }
+      if (ok) {
+        best = Math.min(best, Math.abs(sum - desired));
+      }
+    }
+    return best;
+  }
+}
@@ -0,0 +1,120 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import org.junit.Test;
+import steam.boiler.core.RingMailbox;
+import steam.boiler.util.Mailbox.Message;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.Mailbox.Mode;
+
+/**
+ * These tests check the ring buffer mailbox behaves like any other mailbox, both when messages are
+ * sent as objects and when they are sent as primitive records.
+ */
+public class RingMailboxTests {
+  /**
+   * Check messages sent as objects are read back as the same objects, and their records decoded
+   * correctly.
+   */
+  @Test
+  public void test_ring_01() {
+    RingMailbox mailbox = new RingMailbox(4);
+    Message level = new Message(MessageKind.LEVEL_v, 123.5);
+    Message pump = new Message(MessageKind.PUMP_STATE_n_b, 3, true);
+    Message mode = new Message(MessageKind.MODE_m, Mode.RESCUE);
+    Message open = new Message(MessageKind.OPEN_PUMP_n, 2);
+    mailbox.send(level);
+    mailbox.send(pump);
+    mailbox.send(mode);
+    mailbox.send(open);
+    assertEquals(4, mailbox.size());
+    assertSame(level, mailbox.read(0));
+    assertSame(open, mailbox.read(3));
+    assertEquals(MessageKind.LEVEL_v, mailbox.kind(0));
+    assertEquals(123.5, mailbox.doubleParameter(0), 0.0);
+    assertEquals(3, mailbox.integerParameter(1));
+    assertTrue(mailbox.booleanParameter(1));
+    assertEquals(Mode.RESCUE, mailbox.modeParameter(2));
+    assertEquals(2, mailbox.integerParameter(3));
+  }
+
+  /**
+   * Check messages sent as primitives are materialised correctly when read as objects.
+   */
+  @Test
+  public void test_ring_02() {
+    RingMailbox mailbox = new RingMailbox(2);
+    mailbox.send(MessageKind.PROGRAM_READY);
+    mailbox.send(MessageKind.STEAM_v, 7.25);
+    mailbox.send(MessageKind.PUMP_CONTROL_STATE_n_b, 1, false);
+    mailbox.send(MessageKind.MODE_m, Mode.DEGRADED);
+    mailbox.send(MessageKind.CLOSE_PUMP_n, -1);
+    assertEquals(5, mailbox.size());
+    assertEquals(MessageKind.PROGRAM_READY, mailbox.read(0).getKind());
+    assertEquals(7.25, mailbox.read(1).getDoubleParameter(), 0.0);
+    assertEquals(1, mailbox.read(2).getIntegerParameter());
+    assertFalse(mailbox.read(2).getBooleanParameter());
+    assertEquals(Mode.DEGRADED, mailbox.read(3).getModeParameter());
+    assertEquals(-1, mailbox.read(4).getIntegerParameter());
+    // Reading again gives the same object
+    assertSame(mailbox.read(1), mailbox.read(1));
+  }
+
+  /**
+   * Check messages keep their order across clearing, dropping and growing, when the ring has
+   * wrapped around.
+   */
+  @Test
+  public void test_ring_03() {
+    RingMailbox mailbox = new RingMailbox(4);
+    for (int cycle = 0; cycle != 10; ++cycle) {
+      mailbox.clear();
+      for (int i = 0; i != 3 + cycle; ++i) {
+        mailbox.send(MessageKind.OPEN_PUMP_n, i);
+      }
+      mailbox.drop(2);
+      assertEquals(1 + cycle, mailbox.size());
+      for (int i = 0; i != mailbox.size(); ++i) {
+        assertEquals(i + 2, mailbox.integerParameter(i));
+        assertEquals(i + 2, mailbox.read(i).getIntegerParameter());
+      }
+    }
+  }
+
+  /**
+   * Check a reused mailbox does not allocate when used through its primitive records.
+   */
+  @Test
+  public void test_ring_04() {
+    com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory
+        .getThreadMXBean();
+    assertTrue(bean.isThreadAllocatedMemorySupported());
+    bean.setThreadAllocatedMemoryEnabled(true);
+    long thread = Thread.currentThread().getId();
+    RingMailbox mailbox = new RingMailbox(16);
+    long total = 0;
+    long before = 0;
+    for (int cycle = 0; cycle != 20000; ++cycle) {
+      if (cycle == 10000) {
+        before = bean.getThreadAllocatedBytes(thread);
+      }
+      mailbox.clear();
+      mailbox.send(MessageKind.LEVEL_v, cycle);
+      mailbox.send(MessageKind.STEAM_v, 0.0);
+      for (int i = 0; i != 4; ++i) {
+        mailbox.send(MessageKind.PUMP_STATE_n_b, i, (cycle & 1) == 0);
+      }
+      for (int i = 0; i != mailbox.size(); ++i) {
+        total += mailbox.kind(i).ordinal() + mailbox.integerParameter(i);
+      }
+    }
+    long after = bean.getThreadAllocatedBytes(thread);
+    assertTrue(total > 0);
+    assertEquals(0, after - before);
+  }
+}
@@ -1,5 +1,6 @@
 package steam.boiler.tests;
 
+import static steam.boiler.tests.ScenarioSweep.next;
 import static steam.boiler.tests.TestUtils.MODE_emergencystop;
 import static steam.boiler.tests.TestUtils.MODE_rescue;
 import static steam.boiler.tests.TestUtils.atleast;
@@ -18,6 +19,7 @@ import steam.boiler.model.PumpControllerModels;
 import steam.boiler.model.PumpModels;
 import steam.boiler.model.SteamBoilerModels;
 import steam.boiler.model.SteamSensorModels;
+import steam.boiler.tests.ScenarioSweep.Scenario;
 import steam.boiler.util.SteamBoilerCharacteristics;
 
 /**
@@ -98,19 +100,13 @@ public class SafetyTests {
   public void safetytest_04() {
     SteamBoilerCharacteristics config = this.defaultConfig;
     // Check various time frames before transmission failure
-    for (int t = 0; t != 120; ++t) {
-      MySteamBoilerController controller = new MySteamBoilerController(config);
-      PhysicalUnits model = new PhysicalUnits.Template(config).construct();
-      model.setMode(PhysicalUnits.Mode.WAITING);
-      // Clock system for a given amount of time. We're not expecting anything to go
-      // wrong during this time.
-      clockForWithout(t, controller, model, atleast(MODE_emergencystop));
-      // Configure the level sensor to fail
-      model.setLevelSensor(new LevelSensorModels.TxFailure(model));
-      // FIRST
-      clockOnceExpecting(controller, model, atleast(MODE_emergencystop));
-      // DONE
-    }
+    ScenarioSweep.checkForked(120, (int t) -> {
+      String description = "level sensor failure after " + t + "s"; //$NON-NLS-1$ //$NON-NLS-2$
+      return new Scenario(description, config, t, (PhysicalUnits model) -> {
+        // Configure the level sensor to fail
+        model.setLevelSensor(new LevelSensorModels.TxFailure(model));
+      }, next(atleast(MODE_emergencystop)));
+    });
   }
 
   /**
@@ -120,19 +116,13 @@ public class SafetyTests {
   public void safetytest_05() {
     SteamBoilerCharacteristics config = this.defaultConfig;
     // Check various time frames before transmission failure
-    for (int t = 0; t != 120; ++t) {
-      MySteamBoilerController controller = new MySteamBoilerController(config);
-      PhysicalUnits model = new PhysicalUnits.Template(config).construct();
-      model.setMode(PhysicalUnits.Mode.WAITING);
-      // Clock system for a given amount of time. We're not expecting anything to go
-      // wrong during this time.
-      clockForWithout(t, controller, model, atleast(MODE_emergencystop));
-      // Configure the steam sensor to fail
-      model.setSteamSensor(new SteamSensorModels.TxFailure(model));
-      // FIRST
-      clockOnceExpecting(controller, model, atleast(MODE_emergencystop));
-      // DONE
-    }
+    ScenarioSweep.checkForked(120, (int t) -> {
+      String description = "steam sensor failure after " + t + "s"; //$NON-NLS-1$ //$NON-NLS-2$
+      return new Scenario(description, config, t, (PhysicalUnits model) -> {
+        // Configure the steam sensor to fail
+        model.setSteamSensor(new SteamSensorModels.TxFailure(model));
+      }, next(atleast(MODE_emergencystop)));
+    });
   }
 
 
@@ -142,23 +132,18 @@ public class SafetyTests {
   @Test
   public void safetytest_06() {
     SteamBoilerCharacteristics config = this.defaultConfig;
-    // Check various time frames before transmission failure
-    for (int t = 0; t != 120; ++t) {
-      // Try each pump individually
-      for (int i = 0; i != config.getNumberOfPumps(); ++i) {
-        MySteamBoilerController controller = new MySteamBoilerController(config);
-        PhysicalUnits model = new PhysicalUnits.Template(config).construct();
-        model.setMode(PhysicalUnits.Mode.WAITING);
-        // Clock system for a given amount of time. We're not expecting anything to go
-        // wrong during this time.
-        clockForWithout(t, controller, model, atleast(MODE_emergencystop));
-        // Configure the steam sensor to fail
+    // Check various time frames before transmission failure, trying each pump individually
+    final int pumps = config.getNumberOfPumps();
+    ScenarioSweep.checkForked(120 * pumps, (int k) -> {
+      int t = k / pumps;
+      int i = k % pumps;
+      String description = "pump " + i //$NON-NLS-1$
+          + " failure after " + t + "s"; //$NON-NLS-1$ //$NON-NLS-2$
+      return new Scenario(description, config, t, (PhysicalUnits model) -> {
+        // Configure the pump to fail
         model.setPump(i, new PumpModels.TxFailureAll(i, 0.0, model));
-        // FIRST
-        clockOnceExpecting(controller, model, atleast(MODE_emergencystop));
-        // DONE
-      }
-    }
+      }, next(atleast(MODE_emergencystop)));
+    });
   }
 
   /**
@@ -167,23 +152,18 @@ public class SafetyTests {
   @Test
   public void safetytest_07() {
     SteamBoilerCharacteristics config = this.defaultConfig;
-    // Check various time frames before transmission failure
-    for (int t = 0; t != 120; ++t) {
-      // Try each pump in turn
-      for (int i = 0; i != config.getNumberOfPumps(); ++i) {
-        MySteamBoilerController controller = new MySteamBoilerController(config);
-        PhysicalUnits model = new PhysicalUnits.Template(config).construct();
-        model.setMode(PhysicalUnits.Mode.WAITING);
-        // Clock system for a given amount of time. We're not expecting anything to go
-        // wrong during this time.
-        clockForWithout(t, controller, model, atleast(MODE_emergencystop));
-        // Configure the pump to fail
+    // Check various time frames before transmission failure, trying each pump in turn
+    final int pumps = config.getNumberOfPumps();
+    ScenarioSweep.checkForked(120 * pumps, (int k) -> {
+      int t = k / pumps;
+      int i = k % pumps;
+      String description = "pump controller " + i //$NON-NLS-1$
+          + " failure after " + t + "s"; //$NON-NLS-1$ //$NON-NLS-2$
+      return new Scenario(description, config, t, (PhysicalUnits model) -> {
+        // Configure the pump controller to fail
         model.setPumpController(i, new PumpControllerModels.TxFailure(i, model));
-        // FIRST
-        clockOnceExpecting(controller, model, atleast(MODE_emergencystop));
-        // DONE
-      }
-    }
+      }, next(atleast(MODE_emergencystop)));
+    });
   }
 
   /**
@@ -0,0 +1,492 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.fail;
+import static steam.boiler.tests.TestUtils.MODE_emergencystop;
+import static steam.boiler.tests.TestUtils.atleast;
+import static steam.boiler.tests.TestUtils.clockBetweenWithout;
+import static steam.boiler.tests.TestUtils.clockForWithout;
+import static steam.boiler.tests.TestUtils.clockOnceExpecting;
+import static steam.boiler.tests.TestUtils.lastBoundary;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntFunction;
+
+import org.eclipse.jdt.annotation.Nullable;
+
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.tests.TestUtils.MailboxMatcher;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * Runs a large number of independent test scenarios in parallel. Each scenario constructs its own
+ * controller and physical units, clocks them for some amount of time without an emergency stop,
+ * injects a fault and then checks the outcome. Since scenarios share nothing, they are fanned out
+ * across all available cores using a fork-join pool. Every scenario is always run, and the first
+ * failing scenario (i.e. the one with the lowest index) is reported, so the outcome of a sweep does
+ * not depend on scheduling. Where scenarios differ only in when the fault is injected, they can
+ * instead be forked from a single shared prefix (see <code>runForked()</code>).
+ */
+public final class ScenarioSweep {
+
+  /**
+   * Applies a fault to the physical units at the end of the fault-free period of a scenario.
+   */
+  public interface FaultInjector {
+    /**
+     * Apply the fault.
+     *
+     * @param model The physical units to break.
+     */
+    public void inject(PhysicalUnits model);
+  }
+
+  /**
+   * Checks the outcome of a scenario, after any fault has been injected. This should call
+   * <code>fail()</code> if the outcome is not as expected.
+   */
+  public interface Expectation {
+    /**
+     * Check the outcome.
+     *
+     * @param controller The controller under test.
+     * @param model      The physical units.
+     */
+    public void check(MySteamBoilerController controller, PhysicalUnits model);
+  }
+
+  /**
+   * A fault injector which does nothing.
+   */
+  public static final FaultInjector NO_FAULT = (PhysicalUnits model) -> {
+    // Nothing to do
+  };
+
+  /**
+   * Construct an expectation that the next clock cycle produces messages matching a given
+   * matcher.
+   *
+   * @param matcher The matcher for the next output of the controller.
+   * @return The expectation.
+   */
+  public static Expectation next(MailboxMatcher matcher) {
+    return (MySteamBoilerController controller, PhysicalUnits model) -> {
+      clockOnceExpecting(controller, model, matcher);
+    };
+  }
+
+  /**
+   * A single independent test scenario.
+   */
+  public static final class Scenario {
+    /**
+     * Human-readable description, used when reporting failure.
+     */
+    private final String description;
+
+    /**
+     * The boiler characteristics to use.
+     */
+    private final SteamBoilerCharacteristics config;
+
+    /**
+     * The time (in s) to clock the system without an emergency stop before injecting the fault.
+     */
+    private final int time;
+
+    /**
+     * The fault to inject.
+     */
+    private final FaultInjector injector;
+
+    /**
+     * The expected outcome.
+     */
+    private final Expectation expected;
+
+    /**
+     * Construct a scenario.
+     *
+     * @param description Human-readable description of the scenario.
+     * @param config      The boiler characteristics to use.
+     * @param time        The time (in s) to clock the system before injecting the fault.
+     * @param injector    The fault to inject.
+     * @param expected    The expected outcome.
+     */
+    public Scenario(String description, SteamBoilerCharacteristics config, int time,
+        FaultInjector injector, Expectation expected) {
+      this.description = description;
+      this.config = config;
+      this.time = time;
+      this.injector = injector;
+      this.expected = expected;
+    }
+
+    /**
+     * Run this scenario from scratch.
+     */
+    public void run() {
+      MySteamBoilerController controller = new MySteamBoilerController(this.config);
+      PhysicalUnits model = new PhysicalUnits.Template(this.config).construct();
+      model.setMode(PhysicalUnits.Mode.WAITING);
+      // Clock system for a given amount of time. We're not expecting anything to go
+      // wrong during this time.
+      clockForWithout(this.time, controller, model, atleast(MODE_emergencystop));
+      finish(controller, model);
+    }
+
+    /**
+     * Complete this scenario after the fault-free period, by injecting the fault and checking the
+     * outcome.
+     *
+     * @param controller The controller, having been clocked for the fault-free period.
+     * @param model      The physical units, having been clocked for the fault-free period.
+     */
+    void finish(MySteamBoilerController controller, PhysicalUnits model) {
+      this.injector.inject(model);
+      this.expected.check(controller, model);
+    }
+
+    @Override
+    public String toString() {
+      return this.description;
+    }
+  }
+
+  /**
+   * The outcome of a sweep.
+   */
+  public static final class Result {
+    /**
+     * The number of scenarios run.
+     */
+    private final int total;
+
+    /**
+     * The number of scenarios which failed.
+     */
+    private final int failures;
+
+    /**
+     * Description of the first scenario to fail, or <code>null</code> if none did.
+     */
+    private final @Nullable String firstFailure;
+
+    /**
+     * Why the first scenario failed, or <code>null</code> if none did.
+     */
+    private final @Nullable Throwable firstCause;
+
+    /**
+     * Construct a result.
+     *
+     * @param total        The number of scenarios run.
+     * @param failures     The number of scenarios which failed.
+     * @param firstFailure Description of the first scenario to fail, if any.
+     * @param firstCause   Why the first scenario failed, if any.
+     */
+    Result(int total, int failures, @Nullable String firstFailure,
+        @Nullable Throwable firstCause) {
+      this.total = total;
+      this.failures = failures;
+      this.firstFailure = firstFailure;
+      this.firstCause = firstCause;
+    }
+
+    /**
+     * Get the number of scenarios run.
+     *
+     * @return The total number of scenarios.
+     */
+    public int getTotal() {
+      return this.total;
+    }
+
+    /**
+     * Get the number of scenarios which failed.
+     *
+     * @return The number of failures.
+     */
+    public int getFailures() {
+      return this.failures;
+    }
+
+    /**
+     * Fail the current test if any scenario failed, reporting the first of them.
+     */
+    public void assertPassed() {
+      Throwable cause = this.firstCause;
+      if (cause != null) {
+        fail(this.failures + " of " + this.total //$NON-NLS-1$
+            + " scenarios failed, first was " + this.firstFailure //$NON-NLS-1$
+            + ": " + cause.getMessage()); //$NON-NLS-1$
+      }
+    }
+  }
+
+  /**
+   * Pool shared by all sweeps, using one worker per available core.
+   */
+  private static final ForkJoinPool POOL = new ForkJoinPool(
+      Runtime.getRuntime().availableProcessors());
+
+  /**
+   * Private constructor as this class provides only static methods.
+   */
+  private ScenarioSweep() {
+  }
+
+  /**
+   * Run a sweep and fail the current test if any scenario failed.
+   *
+   * @param count   The number of scenarios.
+   * @param factory Constructs the scenario with a given index.
+   */
+  public static void check(int count, IntFunction<Scenario> factory) {
+    run(count, factory).assertPassed();
+  }
+
+  /**
+   * Run a sweep by forking from a shared prefix, and fail the current test if any scenario failed.
+   *
+   * @param count   The number of scenarios.
+   * @param factory Constructs the scenario with a given index.
+   */
+  public static void checkForked(int count, IntFunction<Scenario> factory) {
+    runForked(count, factory).assertPassed();
+  }
+
+  /**
+   * Run every scenario of a sweep by forking from a shared fault-free prefix. A single controller
+   * and set of physical units are clocked up to the latest fault time of any scenario. At the
+   * fault time of each scenario (or rather, the last step boundary before it) they are
+   * checkpointed, and the remainder of the scenario is run in parallel from a restored copy. Since
+   * the prefix only ever stops on a step boundary, each scenario observes exactly the same physical
+   * units as when run from scratch. Thus, the prefix is simulated once rather than once per
+   * scenario. All scenarios must use the same configuration.
+   *
+   * @param count   The number of scenarios.
+   * @param factory Constructs the scenario with a given index.
+   * @return The outcome of the sweep.
+   */
+  public static Result runForked(int count, IntFunction<Scenario> factory) {
+    final @Nullable Scenario[] scenarios = new Scenario[count];
+    final @Nullable Throwable[] causes = new Throwable[count];
+    Integer[] order = new Integer[count];
+    SteamBoilerCharacteristics config = null;
+    for (int i = 0; i != count; ++i) {
+      Scenario scenario = factory.apply(i);
+      if (config == null) {
+        config = scenario.config;
+      } else if (scenario.config != config) {
+        throw new IllegalArgumentException("scenarios must share a configuration"); //$NON-NLS-1$
+      }
+      scenarios[i] = scenario;
+      order[i] = Integer.valueOf(i);
+    }
+    // Visit scenarios in order of fault time, so the prefix is only ever extended
+    Arrays.sort(order, Comparator.comparingInt((Integer i) -> time(scenarios, i.intValue())));
+    List<ForkJoinTask<?>> branches = new ArrayList<>();
+    if (config != null) {
+      MySteamBoilerController controller = new MySteamBoilerController(config);
+      PhysicalUnits model = new PhysicalUnits.Template(config).construct();
+      model.setMode(PhysicalUnits.Mode.WAITING);
+      MailboxMatcher emergencyStop = atleast(MODE_emergencystop);
+      int elapsed = 0; // ms
+      Throwable prefixFailure = null;
+      Checkpoint checkpoint = null;
+      for (Integer boxed : order) {
+        final int i = boxed.intValue();
+        // Extend the prefix up to the last step boundary before the fault time of this scenario,
+        // so it is stepped in the same chunks as when the scenario is run from scratch.
+        final int target = time(scenarios, i) * 1000;
+        int boundary = lastBoundary(target);
+        if (prefixFailure == null && elapsed < boundary) {
+          try {
+            clockBetweenWithout(elapsed, boundary, controller, model, emergencyStop);
+          } catch (AssertionError | RuntimeException e) {
+            // Every scenario from this point on shares the failed prefix
+            prefixFailure = e;
+          }
+          elapsed = boundary;
+          checkpoint = null;
+        }
+        if (prefixFailure != null) {
+          causes[i] = prefixFailure;
+          continue;
+        }
+        if (checkpoint == null) {
+          checkpoint = new Checkpoint(config, controller, model);
+        }
+        final Checkpoint fork = checkpoint;
+        final Scenario scenario = scenarios[i];
+        final int from = elapsed;
+        assert scenario != null;
+        branches.add(POOL.submit(() -> {
+          try {
+            MySteamBoilerController forkedController = fork.restoreController();
+            PhysicalUnits forkedModel = fork.restoreModel();
+            // Complete the partial step up to the fault time
+            clockBetweenWithout(from, target, forkedController, forkedModel, emergencyStop);
+            scenario.finish(forkedController, forkedModel);
+          } catch (AssertionError | RuntimeException e) {
+            causes[i] = e;
+          }
+        }));
+      }
+    }
+    for (ForkJoinTask<?> branch : branches) {
+      branch.join();
+    }
+    return aggregate(scenarios, causes);
+  }
+
+  /**
+   * Get the fault time (in s) of a given scenario.
+   *
+   * @param scenarios The scenarios of the sweep.
+   * @param i         Index of the scenario.
+   * @return The fault time.
+   */
+  private static int time(@Nullable Scenario[] scenarios, int i) {
+    Scenario scenario = scenarios[i];
+    assert scenario != null;
+    return scenario.time;
+  }
+
+  /**
+   * Run every scenario of a sweep in parallel, and wait for them all to complete.
+   *
+   * @param count   The number of scenarios.
+   * @param factory Constructs the scenario with a given index. This is called from worker threads
+   *                and so must be thread safe.
+   * @return The outcome of the sweep.
+   */
+  public static Result run(int count, IntFunction<Scenario> factory) {
+    @Nullable Scenario[] scenarios = new Scenario[count];
+    @Nullable Throwable[] causes = new Throwable[count];
+    POOL.invoke(new Sweep(factory, scenarios, causes, 0, count));
+    return aggregate(scenarios, causes);
+  }
+
+  /**
+   * Aggregate the outcome of every scenario in a sweep. This is done in index order, so the first
+   * failure reported is deterministic.
+   *
+   * @param scenarios The scenario constructed for each index.
+   * @param causes    The failure (if any) of each scenario.
+   * @return The outcome of the sweep.
+   */
+  private static Result aggregate(@Nullable Scenario[] scenarios, @Nullable Throwable[] causes) {
+    int count = causes.length;
+    int failures = 0;
+    String firstFailure = null;
+    Throwable firstCause = null;
+    for (int i = 0; i != count; ++i) {
+      Throwable cause = causes[i];
+      if (cause != null) {
+        if (failures == 0) {
+          // The scenario is missing if the factory itself failed
+          Scenario scenario = scenarios[i];
+          firstFailure = scenario != null ? scenario.toString() : "scenario " + i; //$NON-NLS-1$
+          firstCause = cause;
+        }
+        failures++;
+      }
+    }
+    return new Result(count, failures, firstFailure, firstCause);
+  }
+
+  /**
+   * Runs a contiguous range of scenarios, splitting it in half until it is small enough to run
+   * directly.
+   */
+  private static final class Sweep extends RecursiveAction {
+    /**
+     * Required since actions are serializable.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Ranges with at most this many scenarios are run directly.
+     */
+    private static final int THRESHOLD = 4;
+
+    /**
+     * Constructs each scenario.
+     */
+    private final transient IntFunction<Scenario> factory;
+
+    /**
+     * Records the scenario constructed for each index.
+     */
+    private final transient @Nullable Scenario[] scenarios;
+
+    /**
+     * Records the failure (if any) of each scenario.
+     */
+    private final @Nullable Throwable[] causes;
+
+    /**
+     * First index of the range (inclusive).
+     */
+    private final int from;
+
+    /**
+     * Last index of the range (exclusive).
+     */
+    private final int to;
+
+    /**
+     * Construct an action for a given range of scenarios.
+     *
+     * @param factory   Constructs each scenario.
+     * @param scenarios Records the scenario constructed for each index.
+     * @param causes    Records the failure (if any) of each scenario.
+     * @param from      First index of the range (inclusive).
+     * @param to        Last index of the range (exclusive).
+     */
+    Sweep(IntFunction<Scenario> factory, @Nullable Scenario[] scenarios,
+        @Nullable Throwable[] causes, int from, int to) {
+      this.factory = factory;
+      this.scenarios = scenarios;
+      this.causes = causes;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected void compute() {
+      if ((this.to - this.from) <= THRESHOLD) {
+        for (int i = this.from; i != this.to; ++i) {
+          runOne(i);
+        }
+      } else {
+        int mid = (this.from + this.to) >>> 1;
+        invokeAll(new Sweep(this.factory, this.scenarios, this.causes, this.from, mid),
+            new Sweep(this.factory, this.scenarios, this.causes, mid, this.to));
+      }
+    }
+
+    /**
+     * Construct and run a single scenario, recording any failure.
+     *
+     * @param i Index of the scenario.
+     */
+    private void runOne(int i) {
+      try {
+        Scenario scenario = this.factory.apply(i);
+        this.scenarios[i] = scenario;
+        scenario.run();
+      } catch (AssertionError | RuntimeException e) {
+        this.causes[i] = e;
+      }
+    }
+  }
+}
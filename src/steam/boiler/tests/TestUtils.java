@@ -6,13 +6,14 @@ import java.util.Arrays;
 
 import org.eclipse.jdt.annotation.Nullable;
 
+import steam.boiler.core.MessageCodec;
 import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.core.RingMailbox;
 import steam.boiler.model.PhysicalUnits;
 import steam.boiler.util.Mailbox;
 import steam.boiler.util.Mailbox.Message;
 import steam.boiler.util.Mailbox.MessageKind;
 import steam.boiler.util.Mailbox.Mode;
-import steam.boiler.util.UnboundedMailbox;
 
 /**
  * Various helper utilities for testing the steam boiler simulation.
@@ -21,6 +22,40 @@ import steam.boiler.util.UnboundedMailbox;
  *
  */
 public class TestUtils {
+  /**
+   * The granularity (in ms) at which the physical units are clocked. Time is only ever advanced
+   * in multiples of this.
+   */
+  public static final int GRANULARITY = 100;
+
+  /**
+   * The period (in ms) at which the controller and physical units synchronise.
+   */
+  public static final int SYNCHRONISATION_PERIOD = 5000;
+
+  /**
+   * The largest step (in ms) by which the physical units are clocked in one go. By default this is
+   * <code>GRANULARITY</code>, so the physical units are integrated exactly as in the reference
+   * simulation. Nothing checks that the plant model tolerates larger steps, so these must be
+   * asked for explicitly (using the <code>steam.boiler.tests.step</code> property). In which case,
+   * the physical units are stepped in chunks of up to this size between synchronisation points,
+   * and <code>ClockingTests</code> checks how closely this matches the reference.
+   */
+  public static final int STEP = Integer.getInteger("steam.boiler.tests.step", //$NON-NLS-1$
+      GRANULARITY).intValue();
+
+  /**
+   * The mailboxes through which the physical units transmit to the controller, one per thread.
+   * These are cleared and reused on every synchronisation, rather than being reallocated.
+   */
+  private static final ThreadLocal<RingMailbox> INPUT = ThreadLocal
+      .withInitial(() -> new RingMailbox(100));
+
+  /**
+   * The mailboxes through which the controller transmits to the physical units, one per thread.
+   */
+  private static final ThreadLocal<RingMailbox> OUTPUT = ThreadLocal
+      .withInitial(() -> new RingMailbox(100));
 
   // ========================================================================
   // Response Matchers
@@ -136,12 +171,7 @@ public class TestUtils {
    */
   public static void clockOnceExpecting(MySteamBoilerController controller, PhysicalUnits model,
       MailboxMatcher matcher) {
-    Mailbox input = new UnboundedMailbox(100);
-    Mailbox output = new UnboundedMailbox(100);
-    // Generation messages for controller from model
-    model.transmit(input);
-    // Clock controller to process incoming messages and return responses.
-    controller.clock(input, output);
+    Mailbox output = synchronise(controller, model, false);
     // Check the response messages
     if (!matcher.matches(output)) {
       fail("did not expect to receive "  //$NON-NLS-1$
@@ -167,20 +197,17 @@ public class TestUtils {
    */
   public static void clockUntil(int timeout, MySteamBoilerController controller,
       PhysicalUnits physicalUnits, MailboxMatcher matcher) {
-    final int granularity = 100; // ms
-    int totalElapsed = 0; // ms
     // Convert timeout into microseconds
     int timeoutMs = timeout * 1000;
-    //
-    while (totalElapsed < timeoutMs) {
-      Mailbox received = clock(granularity, totalElapsed, controller, physicalUnits);
-      if (received != null) {
-        // We received something back from controller, there see whether we have matched our event.
-        if (matcher.matches(received)) {
-          return;
-        }
+    // The event can only be observed at a synchronisation point, so jump between them.
+    int now = 0; // ms
+    for (int sync = 0; sync < timeoutMs; sync += SYNCHRONISATION_PERIOD) {
+      now = advance(physicalUnits, now, sync + GRANULARITY, STEP);
+      Mailbox received = synchronise(controller, physicalUnits);
+      // We received something back from controller, there see whether we have matched our event.
+      if (matcher.matches(received)) {
+        return;
       }
-      totalElapsed += granularity;
     }
     // If we get here, then the event wasn't matched within the required timeframe.
     fail("timeout occurred"); //$NON-NLS-1$
@@ -201,24 +228,100 @@ public class TestUtils {
    */
   public static void clockForWithout(int time, MySteamBoilerController controller,
       PhysicalUnits physicalUnits, MailboxMatcher matcher) {
-    final int granularity = 100; // ms
-    int totalElapsed = 0; // ms
-    // Convert timeout into microseconds
-    int timeMs = time * 1000;
-    //
-    while (totalElapsed < timeMs) {
-      @Nullable Mailbox received = clock(granularity, totalElapsed, controller, physicalUnits);
-      if (received != null) {
-        // We received something back from controller, there see whether we have matched our event.
-        if (matcher.matches(received)) {
-          // If we've matched this event, then that's bad news.
-          fail("bad event happened after " + totalElapsed //$NON-NLS-1$
-              + "ms (" + received + ")"); //$NON-NLS-1$ //$NON-NLS-2$
-        }
+    // Convert time into milliseconds
+    clockBetweenWithout(0, time * 1000, controller, physicalUnits, matcher);
+    // If we get here, then the given event obviously didn't happen so we're done.
+  }
+
+  /**
+   * Clock the system from one point in time to another, whilst ensuring a particular event does
+   * not happen (e.g. emergency stop). This has the same effect as repeatedly calling
+   * <code>clockStepWithout()</code> for every step in between, but steps the physical units in
+   * larger chunks and jumps straight between synchronisation points.
+   *
+   * @param from
+   *          The total amount of elapsed time (in ms) since the beginning of the system.
+   * @param to
+   *          The total amount of elapsed time (in ms) to clock the system until.
+   * @param controller
+   *          The controller under test.
+   * @param physicalUnits
+   *          The model of the physical units being manipulated.
+   * @param matcher
+   *          The matcher used for the event in question which we want to avoid.
+   */
+  public static void clockBetweenWithout(int from, int to, MySteamBoilerController controller,
+      PhysicalUnits physicalUnits, MailboxMatcher matcher) {
+    clockBetweenWithout(from, to, STEP, controller, physicalUnits, matcher);
+  }
+
+  /**
+   * Clock the system from one point in time to another using a given step size, whilst ensuring
+   * a particular event does not happen (e.g. emergency stop). A step size of
+   * <code>GRANULARITY</code> gives the reference simulation, against which larger step sizes can
+   * be checked.
+   *
+   * @param from
+   *          The total amount of elapsed time (in ms) since the beginning of the system.
+   * @param to
+   *          The total amount of elapsed time (in ms) to clock the system until.
+   * @param step
+   *          The largest step (in ms) by which to clock the physical units in one go.
+   * @param controller
+   *          The controller under test.
+   * @param physicalUnits
+   *          The model of the physical units being manipulated.
+   * @param matcher
+   *          The matcher used for the event in question which we want to avoid.
+   */
+  public static void clockBetweenWithout(int from, int to, int step,
+      MySteamBoilerController controller, PhysicalUnits physicalUnits, MailboxMatcher matcher) {
+    if (from % GRANULARITY != 0 || to % GRANULARITY != 0 || step % GRANULARITY != 0
+        || step <= 0) {
+      throw new IllegalArgumentException("times must be multiples of " + GRANULARITY); //$NON-NLS-1$
+    }
+    // Find the first synchronisation point at or after the starting point
+    int sync = ((from + SYNCHRONISATION_PERIOD - 1) / SYNCHRONISATION_PERIOD)
+        * SYNCHRONISATION_PERIOD;
+    int now = from;
+    for (; sync < to; sync += SYNCHRONISATION_PERIOD) {
+      // Synchronisation happens at the end of the step starting at this point
+      now = advance(physicalUnits, now, sync + GRANULARITY, step);
+      Mailbox received = synchronise(controller, physicalUnits);
+      // We received something back from controller, there see whether we have matched our event.
+      if (matcher.matches(received)) {
+        // If we've matched this event, then that's bad news.
+        fail("bad event happened after " + sync //$NON-NLS-1$
+            + "ms (" + received + ")"); //$NON-NLS-1$ //$NON-NLS-2$
+      }
+    }
+    advance(physicalUnits, now, to, step);
+  }
+
+  /**
+   * Clock the system for a single step of the standard granularity, whilst ensuring a particular
+   * event does not happen (e.g. emergency stop).
+   *
+   * @param totalElapsed
+   *          The total amount of elapsed time (in ms) since the beginning of the system.
+   * @param controller
+   *          The controller under test.
+   * @param physicalUnits
+   *          The model of the physical units being manipulated.
+   * @param matcher
+   *          The matcher used for the event in question which we want to avoid.
+   */
+  public static void clockStepWithout(int totalElapsed, MySteamBoilerController controller,
+      PhysicalUnits physicalUnits, MailboxMatcher matcher) {
+    @Nullable Mailbox received = clock(GRANULARITY, totalElapsed, controller, physicalUnits);
+    if (received != null) {
+      // We received something back from controller, there see whether we have matched our event.
+      if (matcher.matches(received)) {
+        // If we've matched this event, then that's bad news.
+        fail("bad event happened after " + totalElapsed //$NON-NLS-1$
+            + "ms (" + received + ")"); //$NON-NLS-1$ //$NON-NLS-2$
       }
-      totalElapsed += granularity;
     }
-    // If we get here, then the given event obviously didn't happen so we're done.
   }
 
   /**
@@ -238,27 +341,109 @@ public class TestUtils {
    *          The model of the physical units being manipulated.
    * @return Any messages received from the controller, or null if this wasn't a transmission cycle.
    */
-  public static @Nullable Mailbox clock(int elapsed, int totalElapsed, MySteamBoilerController controller,
-      PhysicalUnits physicalUnits) {
+  public static @Nullable Mailbox clock(int elapsed, int totalElapsed,
+      MySteamBoilerController controller, PhysicalUnits physicalUnits) {
     physicalUnits.clock(elapsed);
     // After every five seconds has elapsed we allow the controller and physical units to
     // synchronise (i.e. transmit messages between them).
-    if ((totalElapsed % 5000) == 0) {
-      Mailbox input = new UnboundedMailbox(100);
-      Mailbox output = new UnboundedMailbox(100);
-      // Generation messages for controller from model
-      physicalUnits.transmit(input);
-      // Clock controller to process incoming messages and return responses.
-      controller.clock(input, output);
-      // Apply message to model from controller
-      physicalUnits.receive(output);
-      // return messages received from controller
-      return output;
+    if ((totalElapsed % SYNCHRONISATION_PERIOD) == 0) {
+      return synchronise(controller, physicalUnits);
     }
     // Nothing to return
     return null;
   }
 
+  /**
+   * Allow the controller and physical units to synchronise (i.e. transmit messages between them).
+   *
+   * @param controller
+   *          The controller under test.
+   * @param physicalUnits
+   *          The model of the physical units being manipulated.
+   * @return The messages received from the controller, which remain valid only until the next
+   *         synchronisation on this thread.
+   */
+  private static Mailbox synchronise(MySteamBoilerController controller,
+      PhysicalUnits physicalUnits) {
+    return synchronise(controller, physicalUnits, true);
+  }
+
+  /**
+   * Allow the controller and physical units to synchronise, using this thread's reusable
+   * mailboxes.
+   *
+   * @param controller
+   *          The controller under test.
+   * @param physicalUnits
+   *          The model of the physical units being manipulated.
+   * @param deliver
+   *          Whether to apply the messages from the controller to the physical units.
+   * @return The messages received from the controller, which remain valid only until the next
+   *         synchronisation on this thread.
+   */
+  private static Mailbox synchronise(MySteamBoilerController controller,
+      PhysicalUnits physicalUnits, boolean deliver) {
+    RingMailbox input = INPUT.get();
+    RingMailbox output = OUTPUT.get();
+    assert input != null && output != null;
+    input.clear();
+    output.clear();
+    // Generation messages for controller from model
+    physicalUnits.transmit(input);
+    // Clock controller to process incoming messages and return responses.
+    controller.clock(input, output);
+    if (deliver) {
+      // Apply message to model from controller
+      physicalUnits.receive(output);
+    }
+    // return messages received from controller
+    return output;
+  }
+
+  /**
+   * Determine the latest point in time, no later than a given time, at which a run clocked
+   * continuously from the beginning of the system finishes a step of the physical units. A run
+   * which stops at such a point, and is then clocked on, steps the physical units in exactly the
+   * same chunks as a run which never stopped.
+   *
+   * @param time
+   *          The total amount of elapsed time (in ms) since the beginning of the system.
+   * @return The latest step boundary (in ms) at or before the given time.
+   */
+  public static int lastBoundary(int time) {
+    if (time < GRANULARITY) {
+      return 0;
+    }
+    // Steps restart from the end of the step on which the latest synchronisation happened
+    int base = (((time - GRANULARITY) / SYNCHRONISATION_PERIOD) * SYNCHRONISATION_PERIOD)
+        + GRANULARITY;
+    return base + (((time - base) / STEP) * STEP);
+  }
+
+  /**
+   * Clock the physical units from one point in time to another, in steps no larger than a given
+   * size.
+   *
+   * @param physicalUnits
+   *          The model of the physical units being manipulated.
+   * @param now
+   *          The current time (in ms) of the physical units.
+   * @param target
+   *          The time (in ms) to clock the physical units until.
+   * @param step
+   *          The largest step (in ms) by which to clock them in one go.
+   * @return The new time of the physical units.
+   */
+  private static int advance(PhysicalUnits physicalUnits, int now, int target, int step) {
+    int t = now;
+    while (t < target) {
+      int elapsed = Math.min(step, target - t);
+      physicalUnits.clock(elapsed);
+      t += elapsed;
+    }
+    return t;
+  }
+
   /**
    * A mailbox match provides a way to match concrete messages without having to explicitly provide
    * all the details. For example, suppose we wanted to match any possible LEVEL_v message (e.g.
@@ -301,12 +486,16 @@ public class TestUtils {
 
   /**
    * Construct a mailbox matcher which requires every message to be matched by
-   * exactly one matcher.
+   * exactly one matcher. More precisely, the mailbox must hold exactly one message per matcher,
+   * and the first message matched by each matcher must be different.
    *
    * @param matchers The set of matches
    * @return The combined matcher.
    */
   public static MailboxMatcher exactly(final MessageMatcher... matchers) {
+    if (KindIndexedMatcher.isCompilable(matchers)) {
+      return new KindIndexedMatcher("exactly", true, matchers); //$NON-NLS-1$
+    }
     return new MailboxMatcher() {
 
       @Override
@@ -346,6 +535,9 @@ public class TestUtils {
    * @return The constructed mailbox matcher
    */
   public static MailboxMatcher atleast(final MessageMatcher... matchers) {
+    if (KindIndexedMatcher.isCompilable(matchers)) {
+      return new KindIndexedMatcher("atleast", false, matchers); //$NON-NLS-1$
+    }
     return new MailboxMatcher() {
 
       @Override
@@ -366,6 +558,121 @@ public class TestUtils {
     };
   }
 
+  /**
+   * A mailbox matcher compiled from a set of concrete message matchers. The matchers are indexed by
+   * the kind of message they match, so a mailbox is checked in a single pass: each message is only
+   * tested against the matchers of its kind which have not yet matched anything. This finds the
+   * first message matched by every matcher, as <code>MessageMatcher.match()</code> would, without
+   * rescanning the mailbox once per matcher. The matchers still unmatched are held in the bits of
+   * a <code>long</code>, so checking a mailbox allocates nothing and the compiled matcher can be
+   * shared between threads.
+   */
+  private static final class KindIndexedMatcher implements MailboxMatcher {
+    /**
+     * The name of the combinator this was compiled from, used when printing it.
+     */
+    private final String name;
+
+    /**
+     * Whether every message must be matched (as for <code>exactly()</code>), or only every
+     * matcher (as for <code>atleast()</code>).
+     */
+    private final boolean exact;
+
+    /**
+     * The matchers, in the order given.
+     */
+    private final ConcreteMessageMatcher[] matchers;
+
+    /**
+     * The bits of the matchers for each kind of message (by ordinal), where matcher
+     * <code>j</code> is given by bit <code>j</code>.
+     */
+    private final long[] byKind;
+
+    /**
+     * The bits of every matcher.
+     */
+    private final long all;
+
+    /**
+     * Determine whether a given set of matchers can be compiled, which requires them all to be
+     * concrete and to fit in the bits of a <code>long</code>.
+     *
+     * @param matchers The matchers.
+     * @return True if they can be compiled.
+     */
+    static boolean isCompilable(MessageMatcher[] matchers) {
+      if (matchers.length > Long.SIZE) {
+        return false;
+      }
+      for (MessageMatcher m : matchers) {
+        if (!(m instanceof ConcreteMessageMatcher)) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Compile a set of concrete matchers.
+     *
+     * @param name     The name of the combinator being compiled.
+     * @param exact    Whether every message must be matched.
+     * @param matchers The matchers, which must be compilable.
+     */
+    KindIndexedMatcher(String name, boolean exact, MessageMatcher[] matchers) {
+      assert isCompilable(matchers);
+      this.name = name;
+      this.exact = exact;
+      this.matchers = new ConcreteMessageMatcher[matchers.length];
+      this.byKind = new long[MessageKind.values().length];
+      long bits = 0;
+      for (int j = 0; j != matchers.length; ++j) {
+        ConcreteMessageMatcher m = (ConcreteMessageMatcher) matchers[j];
+        this.matchers[j] = m;
+        this.byKind[m.kind.ordinal()] |= 1L << j;
+        bits |= 1L << j;
+      }
+      this.all = bits;
+    }
+
+    @Override
+    public boolean matches(Mailbox mailbox) {
+      int n = mailbox.size();
+      if (this.exact && n != this.matchers.length) {
+        return false;
+      }
+      @Nullable RingMailbox ring = mailbox instanceof RingMailbox ? (RingMailbox) mailbox : null;
+      long unmatched = this.all;
+      // The number of messages which are the first matched by some matcher
+      int covered = 0;
+      for (int i = 0; i != n && unmatched != 0; ++i) {
+        MessageKind kind = ring != null ? ring.kind(i) : mailbox.read(i).getKind();
+        // Only the matchers of this kind which are still unmatched need be tested
+        long candidates = this.byKind[kind.ordinal()] & unmatched;
+        long matched = 0;
+        while (candidates != 0) {
+          long bit = Long.lowestOneBit(candidates);
+          if (this.matchers[Long.numberOfTrailingZeros(bit)].matchesParameters(mailbox, i)) {
+            matched |= bit;
+          }
+          candidates &= ~bit;
+        }
+        if (matched != 0) {
+          unmatched &= ~matched;
+          covered++;
+        }
+      }
+      return unmatched == 0 && (!this.exact || covered == n);
+    }
+
+    @Override
+    public String toString() {
+      return this.name + Arrays.toString(this.matchers);
+    }
+  }
+
   /**
    * A concrete message matcher messages of a given kind. For example, it could be used to match any
    * kind of <code>LEVEL_v</code> message.
@@ -377,13 +684,23 @@ public class TestUtils {
     /**
      * Type of message to match.
      */
-    private final MessageKind kind;
+    final MessageKind kind;
 
     /**
      * Matcher for message parameter (if any).
      */
     private final @Nullable ParameterMatcher parameter;
 
+    /**
+     * The parameters carried by messages of the given kind (see <code>MessageCodec</code>).
+     */
+    private final int parameters;
+
+    /**
+     * Set when every message of the given kind matches, whatever its parameters.
+     */
+    private final boolean wildcard;
+
     /**
      * Construct message matcher for given kind.
      *
@@ -392,6 +709,8 @@ public class TestUtils {
     public ConcreteMessageMatcher(MessageKind kind) {
       this.kind = kind;
       this.parameter = null;
+      this.parameters = MessageCodec.parameters(kind);
+      this.wildcard = this.parameters == MessageCodec.NO_PARAMETER;
     }
 
     /**
@@ -403,6 +722,8 @@ public class TestUtils {
     public ConcreteMessageMatcher(MessageKind kind, ParameterMatcher parameter) {
       this.kind = kind;
       this.parameter = parameter;
+      this.parameters = MessageCodec.parameters(kind);
+      this.wildcard = this.parameters == MessageCodec.NO_PARAMETER || parameter == ANY;
     }
 
     /**
@@ -412,14 +733,15 @@ public class TestUtils {
      * @param modeParameter Mode to match for parameter.
      */
     public ConcreteMessageMatcher(MessageKind kind, Mode modeParameter) {
-      this.kind = kind;
-      this.parameter = new ModeParameterMatcher(modeParameter);
+      this(kind, new ModeParameterMatcher(modeParameter));
     }
 
     @Override
     public int match(Mailbox m) {
+      @Nullable RingMailbox ring = m instanceof RingMailbox ? (RingMailbox) m : null;
       for (int i = 0; i != m.size(); ++i) {
-        if (matches(m.read(i))) {
+        MessageKind k = ring != null ? ring.kind(i) : m.read(i).getKind();
+        if (k == this.kind && matchesParameters(m, i)) {
           return i;
         }
       }
@@ -432,63 +754,43 @@ public class TestUtils {
     }
 
     /**
-     * Attempt to match a given message against this matcher.
+     * Attempt to match the parameters of a given message, which must be of the kind matched. The
+     * parameters of a ring mailbox are read in place, rather than materialising the message.
      *
-     * @param m The message to match.
+     * @param m The mailbox holding the message.
+     * @param i The index of the message.
      * @return <code>true</code> if a match is made, <code>false</code> otherwise.
      */
-    private boolean matches(Message m) {
-      if (m.getKind() == this.kind) {
-        switch (this.kind) {
-          case PROGRAM_READY:
-          case PHYSICAL_UNITS_READY:
-          case VALVE:
-          case LEVEL_FAILURE_DETECTION:
-          case STEAM_FAILURE_DETECTION:
-          case LEVEL_REPAIRED_ACKNOWLEDGEMENT:
-          case STEAM_REPAIRED_ACKNOWLEDGEMENT:
-          case STOP:
-          case STEAM_BOILER_WAITING:
-          case LEVEL_REPAIRED:
-          case STEAM_REPAIRED:
-          case LEVEL_FAILURE_ACKNOWLEDGEMENT:
-          case STEAM_OUTCOME_FAILURE_ACKNOWLEDGEMENT:
-            return true;
-          case MODE_m: {
-            ParameterMatcher p = this.parameter;
-            assert p != null;
-            return p.matches(m.getModeParameter());
-          }
-          case OPEN_PUMP_n:
-          case CLOSE_PUMP_n:
-          case PUMP_FAILURE_DETECTION_n:
-          case PUMP_CONTROL_FAILURE_DETECTION_n:
-          case PUMP_REPAIRED_ACKNOWLEDGEMENT_n:
-          case PUMP_CONTROL_REPAIRED_ACKNOWLEDGEMENT_n:
-          case PUMP_REPAIRED_n:
-          case PUMP_CONTROL_REPAIRED_n:
-          case PUMP_FAILURE_ACKNOWLEDGEMENT_n: {
-            ParameterMatcher p = this.parameter;
-            assert p != null;
-            return p.matches(m.getIntegerParameter());
-          }
-          case LEVEL_v:
-          case STEAM_v:{
-            ParameterMatcher p = this.parameter;
-            assert p != null;
-            return p.matches(m.getDoubleParameter());
-          }
-          case PUMP_STATE_n_b:
-          case PUMP_CONTROL_STATE_n_b: {
-            ParameterMatcher p = this.parameter;
-            assert p != null;
-            return p.matches(m.getIntegerParameter(), m.getBooleanParameter());
-          }
+    boolean matchesParameters(Mailbox m, int i) {
+      if (this.wildcard) {
+        return true;
+      }
+      ParameterMatcher p = this.parameter;
+      assert p != null;
+      if (m instanceof RingMailbox) {
+        RingMailbox r = (RingMailbox) m;
+        switch (this.parameters) {
+          case MessageCodec.MODE_PARAMETER:
+            return p.matches(r.modeParameter(i));
+          case MessageCodec.INTEGER_PARAMETER:
+            return p.matches(r.integerParameter(i));
+          case MessageCodec.DOUBLE_PARAMETER:
+            return p.matches(r.doubleParameter(i));
           default:
-            throw new IllegalArgumentException("invalid message kind"); //$NON-NLS-1$
+            return p.matches(r.integerParameter(i), r.booleanParameter(i));
         }
       }
-      return false;
+      Message message = m.read(i);
+      switch (this.parameters) {
+        case MessageCodec.MODE_PARAMETER:
+          return p.matches(message.getModeParameter());
+        case MessageCodec.INTEGER_PARAMETER:
+          return p.matches(message.getIntegerParameter());
+        case MessageCodec.DOUBLE_PARAMETER:
+          return p.matches(message.getDoubleParameter());
+        default:
+          return p.matches(message.getIntegerParameter(), message.getBooleanParameter());
+      }
     }
 
     @Override
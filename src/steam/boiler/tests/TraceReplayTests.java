@@ -0,0 +1,240 @@
+package steam.boiler.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import org.junit.Test;
+import steam.boiler.core.MySteamBoilerController;
+import steam.boiler.core.RingMailbox;
+import steam.boiler.model.LevelSensorModels;
+import steam.boiler.model.PhysicalUnits;
+import steam.boiler.model.PumpModels;
+import steam.boiler.model.SteamBoilerController;
+import steam.boiler.runtime.FlightRecorder;
+import steam.boiler.runtime.TraceReader;
+import steam.boiler.runtime.TraceRecorder;
+import steam.boiler.runtime.TraceReplay;
+import steam.boiler.util.Mailbox;
+import steam.boiler.util.Mailbox.MessageKind;
+import steam.boiler.util.SteamBoilerCharacteristics;
+
+/**
+ * These tests check a run recorded to a trace replays identically through a fresh controller,
+ * that a change in behaviour is pinpointed, and that traces are streamed correctly however the
+ * file is windowed.
+ */
+public class TraceReplayTests {
+  /**
+   * Default configuration. This is actually used just to prevent Eclipse from
+   * reporting that every method could be static!
+   */
+  private final SteamBoilerCharacteristics defaultConfig = SteamBoilerCharacteristics.DEFAULT;
+
+  /**
+   * Check a run with a pump failure and then a level sensor failure replays identically.
+   */
+  @Test
+  public void test_replay_01() throws IOException {
+    SteamBoilerCharacteristics config = this.defaultConfig;
+    Path file = Files.createTempFile("trace", ".bin"); //$NON-NLS-1$ //$NON-NLS-2$
+    PhysicalUnits model = new PhysicalUnits.Template(config).construct();
+    model.setMode(PhysicalUnits.Mode.WAITING);
+    try (TraceRecorder recorder = new TraceRecorder(new MySteamBoilerController(config), file)) {
+      run(recorder, model, 120);
+      model.setPump(0, new PumpModels.StuckClosed(0, 0, model));
+      run(recorder, model, 120);
+      model.setLevelSensor(new LevelSensorModels.TxFailure(model));
+      run(recorder, model, 10);
+      assertEquals(250, recorder.getCycles());
+    }
+    TraceReplay.Result r = new TraceReplay(config).replay(file);
+    assertEquals(250, r.getCycles());
+    assertTrue(r.isIdentical());
+    assertEquals(-1, r.getFirstDivergence());
+    assertEquals(null, r.getExpected());
+  }
+
+  /**
+   * Check a cycle in which the recorded controller behaved differently is pinpointed.
+   */
+  @Test
+  public void test_replay_02() throws IOException {
+    SteamBoilerCharacteristics config = this.defaultConfig;
+    Path file = Files.createTempFile("trace", ".bin"); //$NON-NLS-1$ //$NON-NLS-2$
+    PhysicalUnits model = new PhysicalUnits.Template(config).construct();
+    model.setMode(PhysicalUnits.Mode.WAITING);
+    SteamBoilerController faulty = new Faulty(new MySteamBoilerController(config), 50);
+    try (TraceRecorder recorder = new TraceRecorder(faulty, file)) {
+      run(recorder, model, 100);
+    }
+    TraceReplay.Result r = new TraceReplay(config).replay(file);
+    assertEquals(100, r.getCycles());
+    assertFalse(r.isIdentical());
+    assertEquals(1, r.getDivergent());
+    assertEquals(50, r.getFirstDivergence());
+    String expected = r.getExpected();
+    assert expected != null;
+    assertTrue(expected.contains("VALVE")); //$NON-NLS-1$
+  }
+
+  /**
+   * Check a trace reads the same however small the window mapped at once, including windows
+   * smaller than a single cycle.
+   */
+  @Test
+  public void test_reader_01() throws IOException {
+    SteamBoilerCharacteristics config = this.defaultConfig;
+    Path file = Files.createTempFile("trace", ".bin"); //$NON-NLS-1$ //$NON-NLS-2$
+    PhysicalUnits model = new PhysicalUnits.Template(config).construct();
+    model.setMode(PhysicalUnits.Mode.WAITING);
+    try (TraceRecorder recorder = new TraceRecorder(new MySteamBoilerController(config), file)) {
+      run(recorder, model, 200);
+    }
+    String whole = contents(file, TraceReader.DEFAULT_WINDOW);
+    for (int window : Arrays.asList(8, 61, 1000)) {
+      assertEquals(whole, contents(file, window));
+    }
+  }
+
+  /**
+   * Check a flight recorder dump can be read as a trace.
+   */
+  @Test
+  public void test_reader_02() throws IOException {
+    Path directory = Files.createTempDirectory("flight"); //$NON-NLS-1$
+    FlightRecorder recorder = new FlightRecorder(
+        new MySteamBoilerController(this.defaultConfig), 1 << 12, directory);
+    PhysicalUnits model = new PhysicalUnits.Template(this.defaultConfig).construct();
+    model.setMode(PhysicalUnits.Mode.WAITING);
+    run(recorder, model, 100);
+    Path file = directory.resolve("dump.bin"); //$NON-NLS-1$
+    recorder.dump(file);
+    int n = 0;
+    try (TraceReader reader = new TraceReader(file)) {
+      while (reader.next()) {
+        assertEquals(100 - recorder.getRecorded() + n, reader.getNumber());
+        n++;
+      }
+    }
+    assertEquals(recorder.getRecorded(), n);
+  }
+
+  /**
+   * Check a truncated trace is rejected at the cycle which was cut short.
+   */
+  @Test
+  public void test_reader_03() throws IOException {
+    Path file = Files.createTempFile("trace", ".bin"); //$NON-NLS-1$ //$NON-NLS-2$
+    PhysicalUnits model = new PhysicalUnits.Template(this.defaultConfig).construct();
+    model.setMode(PhysicalUnits.Mode.WAITING);
+    try (TraceRecorder recorder = new TraceRecorder(
+        new MySteamBoilerController(this.defaultConfig), file)) {
+      run(recorder, model, 10);
+    }
+    byte[] bytes = Files.readAllBytes(file);
+    Files.write(file, Arrays.copyOf(bytes, bytes.length - 3));
+    int n = 0;
+    try (TraceReader reader = new TraceReader(file)) {
+      while (reader.next()) {
+        n++;
+      }
+      fail("expected reading to fail"); //$NON-NLS-1$
+    } catch (IOException e) {
+      String message = e.getMessage();
+      assertTrue(message, message.startsWith("corrupt cycle at offset ")); //$NON-NLS-1$
+    }
+    assertEquals(9, n);
+  }
+
+  /**
+   * Read every cycle of a trace, and describe them.
+   *
+   * @param file   The trace.
+   * @param window The size of the window to map at once.
+   * @return A description of every cycle.
+   * @throws IOException If the trace could not be read.
+   */
+  private static String contents(Path file, int window) throws IOException {
+    StringBuilder r = new StringBuilder();
+    try (TraceReader reader = new TraceReader(file, window)) {
+      while (reader.next()) {
+        r.append(reader.getNumber()).append(reader.getIncoming()).append(reader.getOutgoing());
+        r.append('\n');
+      }
+    }
+    return r.toString();
+  }
+
+  /**
+   * Clock a controller against some physical units for a number of cycles.
+   *
+   * @param controller The controller to clock.
+   * @param model      The physical units.
+   * @param cycles     The number of cycles.
+   */
+  private static void run(SteamBoilerController controller, PhysicalUnits model, int cycles) {
+    RingMailbox input = new RingMailbox(64);
+    RingMailbox output = new RingMailbox(64);
+    for (int i = 0; i != cycles; ++i) {
+      input.clear();
+      output.clear();
+      model.transmit(input);
+      controller.clock(input, output);
+      model.receive(output);
+      for (int t = 0; t < TestUtils.SYNCHRONISATION_PERIOD; t += TestUtils.GRANULARITY) {
+        model.clock(TestUtils.GRANULARITY);
+      }
+    }
+  }
+
+  /**
+   * A controller which behaves exactly like another, except that it sends a spurious
+   * <code>VALVE</code> message on one cycle.
+   */
+  private static final class Faulty implements SteamBoilerController {
+    /**
+     * The controller being wrapped.
+     */
+    private final SteamBoilerController controller;
+
+    /**
+     * The cycle on which the spurious message is sent.
+     */
+    private final int fault;
+
+    /**
+     * The number of cycles clocked.
+     */
+    private int cycles;
+
+    /**
+     * Construct a faulty controller.
+     *
+     * @param controller The controller to wrap.
+     * @param fault      The cycle on which the spurious message is sent.
+     */
+    Faulty(SteamBoilerController controller, int fault) {
+      this.controller = controller;
+      this.fault = fault;
+    }
+
+    @Override
+    public void clock(Mailbox incoming, Mailbox outgoing) {
+      this.controller.clock(incoming, outgoing);
+      if (this.cycles++ == this.fault) {
+        outgoing.send(new Mailbox.Message(MessageKind.VALVE));
+      }
+    }
+
+    @Override
+    public String getStatusMessage() {
+      return this.controller.getStatusMessage();
+    }
+  }
+}
@@ -1,2 +1,2 @@
-r@org.eclipse.jdt.annotation.NonNullByDefault
+@org.eclipse.jdt.annotation.NonNullByDefault
 package steam.boiler.tests;
\ No newline at end of file